@@ -29,6 +29,7 @@ import com.alibaba.csp.sentinel.util.StringUtil;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.AuthorityRuleEntity;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.repository.rule.RuleRepository;
 
 import org.slf4j.Logger;
@@ -170,6 +171,29 @@ public class AuthorityRuleController extends BaseSyncDataController<AuthorityRul
         return Result.ofSuccess(entity);
     }
 
+    @PostMapping("/rules/batch")
+    @AuthAction(PrivilegeType.WRITE_RULE)
+    public Result<List<AuthorityRuleEntity>> apiBatchUpdateRules(@RequestBody RuleBatchReqVo<AuthorityRuleEntity> batch) {
+        if (batch == null || StringUtil.isEmpty(batch.getApp())) {
+            return Result.ofFail(-1, "app cannot be null or empty");
+        }
+        Date date = new Date();
+        try {
+            List<AuthorityRuleEntity> rules = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(batch.getApp());
+                if (oldEntity == null) {
+                    entity.setGmtCreate(date);
+                    entity.setGmtModified(date);
+                }
+                return checkEntityInternal(entity);
+            });
+            return Result.ofSuccess(rules);
+        } catch (Throwable throwable) {
+            logger.error("Failed to apply batch of authority rules", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+
     @DeleteMapping("/rule/{id}")
     @AuthAction(PrivilegeType.DELETE_RULE)
     public Result<Long> apiDeleteRule(@PathVariable("id") Long id, @RequestParam("app") String app) {
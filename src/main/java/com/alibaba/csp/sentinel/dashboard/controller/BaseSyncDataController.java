@@ -2,6 +2,7 @@ package com.alibaba.csp.sentinel.dashboard.controller;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.RuleEntity;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import org.slf4j.Logger;
@@ -10,6 +11,8 @@ import org.springframework.util.StringUtils;
 
 import java.security.InvalidParameterException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 
 public abstract class BaseSyncDataController<T extends RuleEntity> {
     private final Logger logger = LoggerFactory.getLogger(BaseSyncDataController.class);
@@ -36,7 +39,10 @@ public abstract class BaseSyncDataController<T extends RuleEntity> {
     }
 
     protected List<T> list(DynamicRuleProvider<List<T>> ruleProvider, String app) throws Exception {
-        List<T> rules = ruleProvider.getRules(app);
+        return this.sorted(ruleProvider.getRules(app), app);
+    }
+
+    private List<T> sorted(List<T> rules, String app) {
         if (rules != null && !rules.isEmpty()) {
             for (T entity : rules) {
                 this.format(entity, app);
@@ -58,6 +64,14 @@ public abstract class BaseSyncDataController<T extends RuleEntity> {
         return rules;
     }
 
+    private long nextId(List<T> rules) {
+        long nextId = 1;
+        if (rules.size() > 0) {
+            nextId = rules.get(rules.size() - 1).getId() + 1;
+        }
+        return nextId;
+    }
+
     protected void save(DynamicRulePublisher<List<T>> rulePublisher, DynamicRuleProvider<List<T>> ruleProvider, T entity) throws Exception {
         if (null == entity || StringUtils.isEmpty(entity.getApp())) {
             throw new InvalidParameterException("app is required");
@@ -65,53 +79,116 @@ public abstract class BaseSyncDataController<T extends RuleEntity> {
         if (null != entity.getId()) {
             throw new InvalidParameterException("id must be null");
         }
-        List<T> rules = this.list(ruleProvider, entity.getApp());
-
-        long nextId = 1;
-        if (rules.size() > 0) {
-            nextId = rules.get(rules.size() - 1).getId() + 1;
-        }
-        entity.setId(nextId);
-        rules.add(entity);
-        rulePublisher.publish(entity.getApp(), rules);
+        rulePublisher.update(entity.getApp(), ruleProvider, current -> {
+            List<T> rules = this.sorted(current, entity.getApp());
+            entity.setId(nextId(rules));
+            rules.add(entity);
+            return rules;
+        });
     }
 
     protected Result update(DynamicRulePublisher<List<T>> rulePublisher, DynamicRuleProvider<List<T>> ruleProvider, T entity) throws Exception {
         if (null == entity || null == entity.getId() || StringUtils.isEmpty(entity.getApp())) {
             throw new InvalidParameterException("id is required");
         }
-        List<T> rules = this.list(ruleProvider, entity.getApp());
-        if (null == rules || rules.isEmpty()) {
-            return null;
-        }
-
-        for (int i = 0; i < rules.size(); i++) {
-            T oldEntity = rules.get(i);
-            if (oldEntity.getId().equals(entity.getId())) {
-                this.merge(entity, oldEntity);
-
-                rules.set(i, entity);
-                break;
+        rulePublisher.update(entity.getApp(), ruleProvider, current -> {
+            List<T> rules = this.sorted(current, entity.getApp());
+            if (rules.isEmpty()) {
+                return null;
             }
-        }
+            for (int i = 0; i < rules.size(); i++) {
+                T oldEntity = rules.get(i);
+                if (oldEntity.getId().equals(entity.getId())) {
+                    this.merge(entity, oldEntity);
 
-        rulePublisher.publish(entity.getApp(), rules);
+                    rules.set(i, entity);
+                    break;
+                }
+            }
+            return rules;
+        });
         return null;
     }
 
     protected void delete(DynamicRulePublisher<List<T>> rulePublisher, DynamicRuleProvider<List<T>> ruleProvider, long id, String app) throws Exception {
-        List<T> rules = this.list(ruleProvider, app);
-        if (null == rules || rules.isEmpty()) {
-            return;
+        rulePublisher.update(app, ruleProvider, current -> {
+            List<T> rules = this.sorted(current, app);
+            if (rules.isEmpty()) {
+                return null;
+            }
+            Iterator<T> ruleIterator = rules.iterator();
+            while (ruleIterator.hasNext()) {
+                T flowRuleEntity = ruleIterator.next();
+                if (flowRuleEntity.getId().equals(id)) {
+                    ruleIterator.remove();
+                }
+            }
+            return rules;
+        });
+    }
+
+    /**
+     * Apply the adds, updates and deletes of a batch to the rules of its app in a single publish.
+     *
+     * @param check given a rule to add and {@code null}, or a rule to update and the rule it
+     *              replaces, prepares the rule and returns a failed result if it is invalid
+     * @return the rules after the batch
+     */
+    protected List<T> batch(DynamicRulePublisher<List<T>> rulePublisher, DynamicRuleProvider<List<T>> ruleProvider,
+                            RuleBatchReqVo<T> batch, BiFunction<T, T, Result<?>> check) throws Exception {
+        if (null == batch || StringUtils.isEmpty(batch.getApp())) {
+            throw new InvalidParameterException("app is required");
+        }
+        String app = batch.getApp();
+        List<T> adds = batch.getAdds() == null ? Collections.emptyList() : batch.getAdds();
+        List<T> updates = batch.getUpdates() == null ? Collections.emptyList() : batch.getUpdates();
+        Set<Long> deletes = batch.getDeletes() == null ? Collections.emptySet() : new HashSet<>(batch.getDeletes());
+        for (T entity : adds) {
+            if (null == entity || null != entity.getId()) {
+                throw new InvalidParameterException("id of added rules must be null");
+            }
+            checkOrThrow(check, entity, null);
+        }
+        for (T entity : updates) {
+            if (null == entity || null == entity.getId()) {
+                throw new InvalidParameterException("id of updated rules is required");
+            }
         }
 
-        Iterator<T> ruleIterator = rules.iterator();
-        while (ruleIterator.hasNext()) {
-            T flowRuleEntity = ruleIterator.next();
-            if (flowRuleEntity.getId().equals(id)) {
-                ruleIterator.remove();
+        AtomicReference<List<T>> result = new AtomicReference<>();
+        rulePublisher.update(app, ruleProvider, current -> {
+            List<T> rules = this.sorted(current, app);
+            Map<Long, Integer> indexes = new HashMap<>(rules.size() * 2);
+            for (int i = 0; i < rules.size(); i++) {
+                indexes.put(rules.get(i).getId(), i);
             }
+            for (T entity : updates) {
+                Integer i = indexes.get(entity.getId());
+                if (i == null) {
+                    throw new InvalidParameterException("id " + entity.getId() + " does not exist");
+                }
+                T oldEntity = rules.get(i);
+                checkOrThrow(check, entity, oldEntity);
+                this.merge(entity, oldEntity);
+                rules.set(i, entity);
+            }
+            // Ids of the deleted rules are not given to the added ones.
+            long nextId = nextId(rules);
+            rules.removeIf(entity -> deletes.contains(entity.getId()));
+            for (T entity : adds) {
+                entity.setId(nextId++);
+                rules.add(entity);
+            }
+            result.set(rules);
+            return rules;
+        });
+        return result.get();
+    }
+
+    private void checkOrThrow(BiFunction<T, T, Result<?>> check, T entity, T oldEntity) {
+        Result<?> checkResult = check.apply(entity, oldEntity);
+        if (checkResult != null) {
+            throw new InvalidParameterException(checkResult.getMsg());
         }
-        rulePublisher.publish(app, rules);
     }
 }
@@ -31,6 +31,7 @@ import com.alibaba.csp.sentinel.util.StringUtil;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.DegradeRuleEntity;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -141,6 +142,32 @@ public class DegradeController extends BaseSyncDataController<DegradeRuleEntity>
         return Result.ofSuccess(entity);
     }
 
+    @PostMapping("/rules/batch")
+    @AuthAction(PrivilegeType.WRITE_RULE)
+    public Result<List<DegradeRuleEntity>> apiBatchUpdateRules(@RequestBody RuleBatchReqVo<DegradeRuleEntity> batch) {
+        if (batch == null || StringUtil.isEmpty(batch.getApp())) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        Date date = new Date();
+        try {
+            List<DegradeRuleEntity> rules = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(batch.getApp());
+                if (oldEntity != null) {
+                    entity.setIp(oldEntity.getIp());
+                    entity.setPort(oldEntity.getPort());
+                } else {
+                    entity.setGmtCreate(date);
+                }
+                entity.setGmtModified(date);
+                return checkEntityInternal(entity);
+            });
+            return Result.ofSuccess(rules);
+        } catch (Throwable throwable) {
+            logger.error("batch error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+
     @DeleteMapping("/rule/{id}")
     @AuthAction(PrivilegeType.DELETE_RULE)
     public Result<Long> delete(@PathVariable("id") Long id, @RequestParam("app") String app) {
@@ -15,28 +15,53 @@
  */
 package com.alibaba.csp.sentinel.dashboard.controller;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.servlet.http.HttpServletResponse;
+
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricFetcher;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricSeriesAssembler;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricStreamHub;
+import com.alibaba.csp.sentinel.dashboard.metric.ResourceCardinalityLimiter;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MachineMetricsStore;
 import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricBatchQueryReqVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricVo;
 
 /**
@@ -48,10 +73,43 @@ public class MetricController {
 
     private static Logger logger = LoggerFactory.getLogger(MetricController.class);
 
-    private static final long maxQueryIntervalMs = 1000 * 60 * 60;
+    /**
+     * Max time range of a query, only raise it if the repository keeps metrics long enough.
+     */
+    @Value("${sentinel.metric.query.max-interval-ms:3600000}")
+    private long maxQueryIntervalMs;
+
+    /**
+     * Point budget of a resource in a query, longer ranges are served from rollups if available.
+     */
+    @Value("${sentinel.metric.query.max-points:3600}")
+    private int maxQueryPoints;
+
+    @Value("${sentinel.metric.query.max-batch-resources:500}")
+    private int maxBatchResources;
+
+    /**
+     * How far in the past a returned cursor is set, so points being written while a query runs
+     * are returned again by the next query rather than missed.
+     */
+    private static final long CURSOR_OVERLAP_MS = 1000;
+    private static final int DEFAULT_TOP_MACHINES = 10;
+    private static final int MAX_TOP_MACHINES = 100;
 
     @Autowired
     private MetricsRepository<MetricEntity> metricStore;
+    @Autowired
+    private MetricFetcher metricFetcher;
+    @Autowired
+    private ResourceCardinalityLimiter cardinalityLimiter;
+    @Autowired
+    private MetricStreamHub streamHub;
+    @Autowired
+    private MetricSeriesAssembler seriesAssembler;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private MachineMetricsStore machineStore;
 
     @ResponseBody
     @RequestMapping("/queryTopResourceMetric.json")
@@ -59,7 +117,8 @@ public class MetricController {
                                             Integer pageIndex,
                                             Integer pageSize,
                                             Boolean desc,
-                                            Long startTime, Long endTime, String searchKey) {
+                                            Long startTime, Long endTime, String searchKey,
+                                            Long sinceTimestamp) {
         if (StringUtil.isEmpty(app)) {
             return Result.ofFail(-1, "app can't be null or empty");
         }
@@ -82,18 +141,36 @@ public class MetricController {
             startTime = endTime - 1000 * 60 * 5;
         }
         if (endTime - startTime > maxQueryIntervalMs) {
-            return Result.ofFail(-1, "time intervalMs is too big, must <= 1h");
+            return Result.ofFail(-1, "time intervalMs is too big, must <= " + maxQueryIntervalMs + "ms");
         }
-        List<String> resources = metricStore.listResourcesOfApp(app);
-        logger.debug("queryTopResourceMetric(), resources.size()={}", resources.size());
+        int totalCount;
+        List<String> topResource;
+        if (StringUtil.isEmpty(searchKey)) {
+            // Read only the requested page from the repository's ranking.
+            totalCount = metricStore.countResourcesOfApp(app);
+            logger.debug("queryTopResourceMetric(), resources.size()={}", totalCount);
+            if (totalCount == 0) {
+                return Result.ofSuccess(null);
+            }
+            int offset = (pageIndex - 1) * pageSize;
+            if (desc) {
+                topResource = metricStore.listResourcesOfApp(app, offset, pageSize);
+            } else {
+                int end = totalCount - offset;
+                topResource = metricStore.listResourcesOfApp(app, Math.max(0, end - pageSize),
+                    Math.max(0, Math.min(pageSize, end)));
+                Collections.reverse(topResource);
+            }
+        } else {
+            List<String> resources = metricStore.listResourcesOfApp(app);
+            logger.debug("queryTopResourceMetric(), resources.size()={}", resources.size());
 
-        if (resources == null || resources.isEmpty()) {
-            return Result.ofSuccess(null);
-        }
-        if (!desc) {
-            Collections.reverse(resources);
-        }
-        if (StringUtil.isNotEmpty(searchKey)) {
+            if (resources == null || resources.isEmpty()) {
+                return Result.ofSuccess(null);
+            }
+            if (!desc) {
+                Collections.reverse(resources);
+            }
             List<String> searched = new ArrayList<>();
             for (String resource : resources) {
                 if (resource.contains(searchKey)) {
@@ -101,19 +178,20 @@ public class MetricController {
                 }
             }
             resources = searched;
+            totalCount = resources.size();
+            topResource = new ArrayList<>();
+            if ((pageIndex - 1) * pageSize < totalCount) {
+                topResource = resources.subList((pageIndex - 1) * pageSize,
+                    Math.min(pageIndex * pageSize, resources.size()));
+            }
         }
-        int totalPage = (resources.size() + pageSize - 1) / pageSize;
-        List<String> topResource = new ArrayList<>();
-        if (pageIndex <= totalPage) {
-            topResource = resources.subList((pageIndex - 1) * pageSize,
-                Math.min(pageIndex * pageSize, resources.size()));
-        }
+        int totalPage = (totalCount + pageSize - 1) / pageSize;
         final Map<String, Iterable<MetricVo>> map = new ConcurrentHashMap<>();
         logger.debug("topResource={}", topResource);
         long time = System.currentTimeMillis();
+        long cursor = nextCursor();
         for (final String resource : topResource) {
-            List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
-                app, resource, startTime, endTime);
+            List<MetricEntity> entities = query(app, resource, startTime, endTime, sinceTimestamp);
             logger.debug("resource={}, entities.size()={}", resource, entities == null ? "null" : entities.size());
             List<MetricVo> vos = MetricVo.fromMetricEntities(entities, resource);
             Iterable<MetricVo> vosSorted = sortMetricVoAndDistinct(vos);
@@ -121,10 +199,11 @@ public class MetricController {
         }
         logger.debug("queryTopResourceMetric() total query time={} ms", System.currentTimeMillis() - time);
         Map<String, Object> resultMap = new HashMap<>(16);
-        resultMap.put("totalCount", resources.size());
+        resultMap.put("totalCount", totalCount);
         resultMap.put("totalPage", totalPage);
         resultMap.put("pageIndex", pageIndex);
         resultMap.put("pageSize", pageSize);
+        resultMap.put("cursor", cursor);
 
         Map<String, Iterable<MetricVo>> map2 = new LinkedHashMap<>();
         // order matters.
@@ -137,26 +216,213 @@ public class MetricController {
 
     @ResponseBody
     @RequestMapping("/queryByAppAndResource.json")
-    public Result<?> queryByAppAndResource(String app, String identity, Long startTime, Long endTime) {
+    public Result<?> queryByAppAndResource(String app, String identity, Long startTime, Long endTime,
+                                           Long sinceTimestamp, String machine) {
+        if (StringUtil.isEmpty(app)) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        if (StringUtil.isEmpty(identity)) {
+            return Result.ofFail(-1, "identity can't be null or empty");
+        }
+        if (endTime == null) {
+            endTime = System.currentTimeMillis();
+        }
+        if (startTime == null) {
+            startTime = endTime - 1000 * 60;
+        }
+        if (endTime - startTime > maxQueryIntervalMs) {
+            return Result.ofFail(-1, "time intervalMs is too big, must <= " + maxQueryIntervalMs + "ms");
+        }
+        if (StringUtil.isNotEmpty(machine)) {
+            if (!machineStore.isEnabled(app)) {
+                return Result.ofFail(-1, "per-machine metrics are not kept for app " + app);
+            }
+            List<MetricEntity> entities = machineStore.queryByMachineAndResourceBetween(
+                app, machine, identity, startTime, endTime);
+            return Result.ofSuccess(sortMetricVoAndDistinct(MetricVo.fromMetricEntities(entities, identity)));
+        }
+        if (sinceTimestamp == null) {
+            List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
+                app, identity, startTime, endTime, maxQueryPoints);
+            List<MetricVo> vos = MetricVo.fromMetricEntities(entities, identity);
+            return Result.ofSuccess(sortMetricVoAndDistinct(vos));
+        }
+        // With a cursor, return the points written since then along with the next cursor.
+        long cursor = nextCursor();
+        List<MetricEntity> entities = query(app, identity, startTime, endTime, sinceTimestamp);
+        Map<String, Object> resultMap = new LinkedHashMap<>();
+        resultMap.put("metric", sortMetricVoAndDistinct(MetricVo.fromMetricEntities(entities, identity)));
+        resultMap.put("cursor", cursor);
+        return Result.ofSuccess(resultMap);
+    }
+
+    /**
+     * The machines of an opted-in app blocking the most requests of a resource, in the last
+     * minute by default.
+     *
+     * @param limit number of machines, 10 by default and 100 at most
+     */
+    @ResponseBody
+    @RequestMapping("/topMachines.json")
+    public Result<?> queryTopMachines(String app, String identity, Long startTime, Long endTime, Integer limit) {
         if (StringUtil.isEmpty(app)) {
             return Result.ofFail(-1, "app can't be null or empty");
         }
         if (StringUtil.isEmpty(identity)) {
             return Result.ofFail(-1, "identity can't be null or empty");
         }
+        if (!machineStore.isEnabled(app)) {
+            return Result.ofFail(-1, "per-machine metrics are not kept for app " + app);
+        }
         if (endTime == null) {
             endTime = System.currentTimeMillis();
         }
         if (startTime == null) {
             startTime = endTime - 1000 * 60;
         }
+        if (limit == null || limit <= 0) {
+            limit = DEFAULT_TOP_MACHINES;
+        }
+        return Result.ofSuccess(machineStore.topMachinesByBlockQps(app, identity, startTime, endTime,
+            Math.min(limit, MAX_TOP_MACHINES)));
+    }
+
+    /**
+     * Query the whole range, or only the points written since {@code sinceTimestamp} if positive.
+     */
+    private List<MetricEntity> query(String app, String resource, long startTime, long endTime, Long sinceTimestamp) {
+        if (sinceTimestamp == null || sinceTimestamp <= 0) {
+            return metricStore.queryByAppAndResourceBetween(app, resource, startTime, endTime, maxQueryPoints);
+        }
+        return metricStore.queryByAppAndResourceChangedSince(app, resource, sinceTimestamp, startTime, endTime);
+    }
+
+    private static long nextCursor() {
+        return TimeUtil.currentTimeMillis() - CURSOR_OVERLAP_MS;
+    }
+
+    /**
+     * The series of an explicit list of resources in one round trip, in the shape of
+     * {@code Result<Map<resource, series>>}. Series are assembled in parallel and each is
+     * written out as soon as it and the ones before it are ready, rather than buffering the
+     * whole response. A series that fails to assemble is written empty and named in {@code msg}.
+     */
+    @PostMapping("/queryByAppAndResources.json")
+    public void queryByAppAndResources(@RequestBody MetricBatchQueryReqVo reqVo, HttpServletResponse response)
+        throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        String app = reqVo.getApp();
+        List<String> resources = reqVo.getResources();
+        if (StringUtil.isEmpty(app)) {
+            objectMapper.writeValue(response.getOutputStream(), Result.ofFail(-1, "app can't be null or empty"));
+            return;
+        }
+        if (resources == null || resources.isEmpty()) {
+            objectMapper.writeValue(response.getOutputStream(), Result.ofFail(-1, "resources can't be empty"));
+            return;
+        }
+        if (resources.size() > maxBatchResources) {
+            objectMapper.writeValue(response.getOutputStream(),
+                Result.ofFail(-1, "too many resources, must <= " + maxBatchResources));
+            return;
+        }
+        long endTime = reqVo.getEndTime() == null ? System.currentTimeMillis() : reqVo.getEndTime();
+        long startTime = reqVo.getStartTime() == null ? endTime - 1000 * 60 * 5 : reqVo.getStartTime();
         if (endTime - startTime > maxQueryIntervalMs) {
-            return Result.ofFail(-1, "time intervalMs is too big, must <= 1h");
+            objectMapper.writeValue(response.getOutputStream(),
+                Result.ofFail(-1, "time intervalMs is too big, must <= " + maxQueryIntervalMs + "ms"));
+            return;
+        }
+        List<String> distinctResources = new ArrayList<>(new LinkedHashSet<>(resources));
+        List<CompletableFuture<List<MetricVo>>> series = seriesAssembler.assemble(
+            app, distinctResources, startTime, endTime, maxQueryPoints);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartObject();
+            generator.writeBooleanField("success", true);
+            generator.writeNumberField("code", 0);
+            generator.writeObjectFieldStart("data");
+            List<String> failedResources = new ArrayList<>();
+            for (int i = 0; i < distinctResources.size(); i++) {
+                String resource = distinctResources.get(i);
+                List<MetricVo> vos;
+                try {
+                    vos = series.get(i).join();
+                } catch (CompletionException | CancellationException e) {
+                    // The header is already written, so a failed series is reported in msg instead.
+                    logger.warn("Failed to assemble the series of resource {} of app {}", resource, app, e);
+                    failedResources.add(resource);
+                    vos = Collections.emptyList();
+                }
+                generator.writeFieldName(resource);
+                generator.writeObject(vos);
+            }
+            generator.writeEndObject();
+            if (failedResources.isEmpty()) {
+                generator.writeNullField("msg");
+            } else {
+                generator.writeStringField("msg", "failed to query resources: " + String.join(",", failedResources));
+            }
+            generator.writeEndObject();
+        } finally {
+            series.forEach(future -> future.cancel(false));
         }
-        List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
-            app, identity, startTime, endTime);
-        List<MetricVo> vos = MetricVo.fromMetricEntities(entities, identity);
-        return Result.ofSuccess(sortMetricVoAndDistinct(vos));
+    }
+
+    /**
+     * Server-sent events of the metrics of an app as they are written, {@code resources} being
+     * an optional comma-separated list of resources to watch.
+     */
+    @RequestMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(String app, String resources) {
+        if (StringUtil.isEmpty(app)) {
+            return ResponseEntity.badRequest().build();
+        }
+        Set<String> watched = null;
+        if (StringUtil.isNotBlank(resources)) {
+            watched = new HashSet<>(Arrays.asList(resources.split(",")));
+        }
+        SseEmitter emitter = streamHub.subscribe(app, watched);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    @ResponseBody
+    @RequestMapping("/stream.json")
+    public Result<?> queryStream() {
+        return Result.ofSuccess(streamHub.getStats());
+    }
+
+    @ResponseBody
+    @RequestMapping("/fetchLag.json")
+    public Result<?> queryFetchLag() {
+        Map<String, Object> resultMap = new LinkedHashMap<>();
+        resultMap.put("inFlight", metricFetcher.getFetchesInFlight());
+        resultMap.put("maxInFlight", metricFetcher.getMaxFetchesInFlight());
+        resultMap.put("apps", metricFetcher.getFetchLags());
+        return Result.ofSuccess(resultMap);
+    }
+
+    @ResponseBody
+    @RequestMapping("/fetchPool.json")
+    public Result<?> queryFetchPool() {
+        return Result.ofSuccess(metricFetcher.getConnectionPoolStats());
+    }
+
+    @ResponseBody
+    @RequestMapping("/ingest.json")
+    public Result<?> queryIngest() {
+        return Result.ofSuccess(metricFetcher.getIngestStats());
+    }
+
+    /**
+     * Apps which reported more distinct resources than allowed.
+     */
+    @ResponseBody
+    @RequestMapping("/cardinality.json")
+    public Result<?> queryLimitedApps() {
+        return Result.ofSuccess(cardinalityLimiter.getLimitedApps());
     }
 
     private Iterable<MetricVo> sortMetricVoAndDistinct(List<MetricVo> vos) {
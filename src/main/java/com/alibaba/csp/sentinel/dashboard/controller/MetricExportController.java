@@ -0,0 +1,94 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.controller;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.alibaba.csp.sentinel.dashboard.metric.PrometheusMetricExporter;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+
+/**
+ * Prometheus scrape endpoint of the aggregated metrics of all apps.
+ *
+ * <p>Only registered with {@code sentinel.metric.export.enabled=true}. Like any other endpoint it
+ * requires a dashboard login, unless {@code /metrics} is added to {@code auth.filter.exclude-urls};
+ * scrapers are then let in by the {@code sentinel.metric.export.token} bearer token, if set.</p>
+ */
+@Controller
+@ConditionalOnProperty(name = "sentinel.metric.export.enabled", havingValue = "true")
+public class MetricExportController {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    /**
+     * Bytes buffered before the response is sent on in chunks.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private PrometheusMetricExporter exporter;
+
+    @Value("${sentinel.metric.export.token:}")
+    private String token;
+
+    /**
+     * @param window seconds each resource is averaged over, {@code sentinel.metric.export.window-seconds}
+     *               by default
+     */
+    @GetMapping("/metrics")
+    public void metrics(Integer window, HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+        if (!isAuthorized(request.getHeader(HttpHeaders.AUTHORIZATION))) {
+            response.setStatus(HttpStatus.UNAUTHORIZED.value());
+            return;
+        }
+        response.setContentType(PrometheusMetricExporter.CONTENT_TYPE);
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (window == null) {
+            exporter.export(writer);
+        } else {
+            exporter.export(writer, window);
+        }
+        writer.flush();
+    }
+
+    private boolean isAuthorized(String authorization) {
+        if (StringUtil.isEmpty(token)) {
+            return true;
+        }
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+            return false;
+        }
+        byte[] presented = authorization.substring(BEARER_PREFIX.length()).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(presented, token.getBytes(StandardCharsets.UTF_8));
+    }
+}
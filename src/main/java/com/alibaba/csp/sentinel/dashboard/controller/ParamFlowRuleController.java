@@ -35,6 +35,7 @@ import com.alibaba.csp.sentinel.util.StringUtil;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.SentinelVersion;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.ParamFlowRuleEntity;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.repository.rule.RuleRepository;
 import com.alibaba.csp.sentinel.dashboard.util.VersionUtils;
 
@@ -239,6 +240,35 @@ public class ParamFlowRuleController extends BaseSyncDataController<ParamFlowRul
         }
     }
 
+    @PostMapping("/rules/batch")
+    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
+    public Result<List<ParamFlowRuleEntity>> apiBatchUpdateRules(@RequestBody RuleBatchReqVo<ParamFlowRuleEntity> batch) {
+        if (batch == null || StringUtil.isEmpty(batch.getApp())) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        Date date = new Date();
+        try {
+            List<ParamFlowRuleEntity> rules = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(batch.getApp());
+                Result<ParamFlowRuleEntity> checkResult = checkEntityInternal(entity);
+                if (checkResult != null) {
+                    return checkResult;
+                }
+                if (!checkIfSupported(entity.getApp(), entity.getIp(), entity.getPort())) {
+                    return unsupportedVersion();
+                }
+                entity.getRule().setResource(entity.getResource().trim());
+                entity.setGmtCreate(oldEntity == null ? date : oldEntity.getGmtCreate());
+                entity.setGmtModified(date);
+                return null;
+            });
+            return Result.ofSuccess(rules);
+        } catch (Throwable throwable) {
+            logger.error("Error when applying batch of parameter flow rules", throwable);
+            return Result.ofFail(-1, throwable.getMessage());
+        }
+    }
+
     @DeleteMapping("/rule/{id}")
     @AuthAction(PrivilegeType.DELETE_RULE)
     public Result<Long> apiDeleteRule(@PathVariable("id") Long id, @RequestParam("app") String app) {
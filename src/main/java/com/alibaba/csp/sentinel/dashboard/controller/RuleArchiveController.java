@@ -0,0 +1,118 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.alibaba.csp.sentinel.dashboard.auth.AuthAction;
+import com.alibaba.csp.sentinel.dashboard.auth.AuthService.PrivilegeType;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
+import com.alibaba.csp.sentinel.dashboard.rule.nacos.RuleArchiveResult;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.nacos.api.config.ConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Bulk export and import of the rules of every type of many apps, as a zip archive of the data
+ * ids kept in Nacos.
+ */
+@Controller
+public class RuleArchiveController {
+
+    private final Logger logger = LoggerFactory.getLogger(RuleArchiveController.class);
+
+    /**
+     * Bytes buffered before the archive is sent on in chunks, or read from the request.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private ConfigService configService;
+    @Autowired
+    private NacosConfigUtil nacosConfigUtil;
+    @Autowired
+    private AppManagement appManagement;
+
+    /**
+     * Streams the archive of the rules of the apps. The report at the end of the archive lists
+     * the apps covered.
+     *
+     * @param apps comma-separated apps, by default the apps known to the dashboard, which leaves
+     *             out apps having rules in Nacos but no machine registered since the dashboard started
+     */
+    @GetMapping("/rule/export.zip")
+    @AuthAction(PrivilegeType.READ_RULE)
+    public void exportRules(String apps, HttpServletResponse response) throws IOException {
+        Set<String> appNames = new LinkedHashSet<>();
+        if (StringUtil.isBlank(apps)) {
+            appNames.addAll(appManagement.getAppNames());
+        } else {
+            for (String app : apps.split(",")) {
+                if (StringUtil.isNotBlank(app)) {
+                    appNames.add(app.trim());
+                }
+            }
+        }
+        logger.info("Exporting the rules of {} apps: {}", appNames.size(), appNames);
+        String fileName = "sentinel-rules-" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".zip";
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+        OutputStream out = new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE);
+        List<RuleArchiveResult> results = nacosConfigUtil.exportRulesFromNacos(configService, appNames, out);
+        out.flush();
+        long failed = results.stream().filter(result -> !result.isSuccess()).count();
+        if (failed > 0) {
+            logger.warn("Failed to export {} of {} rule data ids, see the report in the archive", failed,
+                results.size());
+        }
+    }
+
+    /**
+     * Publishes the rules of an archive written by {@code /rule/export.zip}, sent as the request
+     * body.
+     */
+    @PostMapping("/rule/import")
+    @AuthAction(PrivilegeType.WRITE_RULE)
+    @ResponseBody
+    public Result<List<RuleArchiveResult>> importRules(HttpServletRequest request) {
+        try {
+            return Result.ofSuccess(nacosConfigUtil.importRulesToNacos(configService,
+                new BufferedInputStream(request.getInputStream(), BUFFER_SIZE)));
+        } catch (Throwable throwable) {
+            logger.error("Failed to import rules", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+}
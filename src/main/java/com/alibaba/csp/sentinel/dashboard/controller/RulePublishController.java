@@ -0,0 +1,73 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.controller;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.alibaba.csp.sentinel.dashboard.auth.AuthAction;
+import com.alibaba.csp.sentinel.dashboard.auth.AuthService.PrivilegeType;
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
+import com.alibaba.csp.sentinel.dashboard.rule.nacos.PublishStatus;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Confirmation state of the rules published to Nacos, so clients saving rules get their
+ * response right away and check or wait for the confirmation afterwards.
+ */
+@RestController
+public class RulePublishController {
+
+    private static final long MAX_WAIT_MS = 30_000;
+
+    /**
+     * Rule types, as in the data id {@code app + '-' + type + "-rules"}.
+     */
+    private static final Set<String> TYPES = new HashSet<>(Arrays.asList(
+        "flow", "degrade", "system", "param-flow", "authority", "gateway-flow", "gateway-api"));
+
+    @Autowired
+    private NacosConfigUtil nacosConfigUtil;
+
+    /**
+     * The latest publish of a type of rules of an app.
+     *
+     * @param waitMs milliseconds to wait at most while the publish is pending, 0 by default
+     */
+    @GetMapping("/rule/publish.json")
+    @AuthAction(PrivilegeType.READ_RULE)
+    public CompletableFuture<Result<PublishStatus>> queryPublishStatus(String app, String type, Long waitMs) {
+        if (StringUtil.isEmpty(app)) {
+            return CompletableFuture.completedFuture(Result.ofFail(-1, "app can't be null or empty"));
+        }
+        if (!TYPES.contains(type)) {
+            return CompletableFuture.completedFuture(Result.ofFail(-1, "type must be one of " + TYPES));
+        }
+        long wait = waitMs == null ? 0 : Math.max(0, Math.min(waitMs, MAX_WAIT_MS));
+        CompletableFuture<PublishStatus> status = nacosConfigUtil.getPublishStatus(app, "-" + type + "-rules", wait);
+        if (status == null) {
+            return CompletableFuture.completedFuture(Result.ofFail(-1, "no " + type + " rules of " + app
+                + " published since the dashboard started"));
+        }
+        return status.thenApply(Result::ofSuccess);
+    }
+}
@@ -29,6 +29,7 @@ import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.SystemRuleEntit
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
 import com.alibaba.csp.sentinel.dashboard.client.SentinelApiClient;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +37,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -231,6 +234,66 @@ public class SystemController extends BaseSyncDataController<SystemRuleEntity> {
         return Result.ofSuccess(entity);
     }
 
+    @PostMapping("/rules/batch")
+    @AuthAction(PrivilegeType.WRITE_RULE)
+    public Result<List<SystemRuleEntity>> apiBatchUpdateRules(@RequestBody RuleBatchReqVo<SystemRuleEntity> batch) {
+        if (batch == null || StringUtil.isEmpty(batch.getApp())) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        Date date = new Date();
+        try {
+            List<SystemRuleEntity> rules = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(batch.getApp());
+                if (oldEntity != null) {
+                    entity.setIp(oldEntity.getIp());
+                    entity.setPort(oldEntity.getPort());
+                    entity.setGmtCreate(oldEntity.getGmtCreate());
+                } else {
+                    entity.setGmtCreate(date);
+                }
+                entity.setGmtModified(date);
+                return checkEntityInternal(entity);
+            });
+            return Result.ofSuccess(rules);
+        } catch (Throwable throwable) {
+            logger.error("batch error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+
+    private <R> Result<R> checkEntityInternal(SystemRuleEntity entity) {
+        Result<R> checkResult = checkBasicParams(entity.getApp(), entity.getIp(), entity.getPort());
+        if (checkResult != null) {
+            return checkResult;
+        }
+        int notNullCount = countNotNullAndNotNegative(entity.getHighestSystemLoad(), entity.getAvgRt(),
+            entity.getMaxThread(), entity.getQps(), entity.getHighestCpuUsage());
+        if (notNullCount != 1) {
+            return Result.ofFail(-1, "only one of [highestSystemLoad, avgRt, maxThread, qps,highestCpuUsage] "
+                + "value must be set > 0, but " + notNullCount + " values get");
+        }
+        if (null != entity.getHighestCpuUsage() && entity.getHighestCpuUsage() > 1) {
+            return Result.ofFail(-1, "highestCpuUsage must between [0.0, 1.0]");
+        }
+        // -1 is a fake value
+        if (null == entity.getHighestSystemLoad()) {
+            entity.setHighestSystemLoad(-1D);
+        }
+        if (null == entity.getHighestCpuUsage()) {
+            entity.setHighestCpuUsage(-1D);
+        }
+        if (null == entity.getAvgRt()) {
+            entity.setAvgRt(-1L);
+        }
+        if (null == entity.getMaxThread()) {
+            entity.setMaxThread(-1L);
+        }
+        if (null == entity.getQps()) {
+            entity.setQps(-1D);
+        }
+        return null;
+    }
+
     @RequestMapping("/delete.json")
     @AuthAction(PrivilegeType.DELETE_RULE)
     public Result<?> delete(Long id, @RequestParam("app") String app) {
@@ -23,8 +23,10 @@ import com.alibaba.csp.sentinel.dashboard.datasource.entity.gateway.ApiDefinitio
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.gateway.ApiPredicateItemEntity;
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.api.AddApiReqVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.api.ApiPredicateItemVo;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.api.GatewayApiBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.api.UpdateApiReqVo;
 import com.alibaba.csp.sentinel.dashboard.repository.gateway.InMemApiDefinitionStore;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
@@ -94,6 +96,156 @@ public class GatewayApiController extends BaseSyncDataController<ApiDefinitionEn
     @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
     public Result<ApiDefinitionEntity> addApi(HttpServletRequest request, @RequestBody AddApiReqVo reqVo) {
 
+        Result<ApiDefinitionEntity> checkResult = toEntity(reqVo);
+        if (!checkResult.isSuccess()) {
+            return checkResult;
+        }
+        ApiDefinitionEntity entity = checkResult.getData();
+
+        // 检查API名称不能重复
+//        List<ApiDefinitionEntity> allApis = repository.findAllByMachine(MachineInfo.of(app.trim(), ip.trim(), port));
+
+        Date date = new Date();
+        entity.setGmtCreate(date);
+        entity.setGmtModified(date);
+
+        try {
+            List<ApiDefinitionEntity> allApis = this.list(ruleProvider, entity.getApp());
+            if (allApis.stream().map(o -> o.getApiName()).anyMatch(o -> o.equals(entity.getApiName()))) {
+                return Result.ofFail(-1, "apiName exists: " + entity.getApiName());
+            }
+//            entity = repository.save(entity);
+//            publishRules(app);
+            this.save(rulePublisher, ruleProvider, entity);
+        } catch (Throwable throwable) {
+            logger.error("add gateway api error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+
+        return Result.ofSuccess(entity);
+    }
+
+    @PostMapping("/save.json")
+    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
+    public Result<ApiDefinitionEntity> updateApi(@RequestBody UpdateApiReqVo reqVo) {
+        String app = reqVo.getApp();
+        if (StringUtil.isBlank(app)) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+
+        Long id = reqVo.getId();
+        if (id == null) {
+            return Result.ofFail(-1, "id can't be null");
+        }
+
+//        ApiDefinitionEntity entity = repository.findById(id);
+        ApiDefinitionEntity entity = this.findById(ruleProvider, reqVo.getApp(), id);
+        if (entity == null) {
+            return Result.ofFail(-1, "api does not exist, id=" + id);
+        }
+
+        Result<ApiDefinitionEntity> checkResult = applyUpdate(entity, reqVo);
+        if (!checkResult.isSuccess()) {
+            return checkResult;
+        }
+
+        Date date = new Date();
+        entity.setGmtModified(date);
+
+        try {
+//            entity = repository.save(entity);
+//            publishRules(entity.getApp());
+            this.save(rulePublisher, ruleProvider, entity);
+        } catch (Throwable throwable) {
+            logger.error("update gateway api error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+
+        return Result.ofSuccess(entity);
+    }
+
+    @PostMapping("/rules/batch")
+    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
+    public Result<List<ApiDefinitionEntity>> batchUpdateApis(@RequestBody GatewayApiBatchReqVo reqVo) {
+        if (reqVo == null || StringUtil.isBlank(reqVo.getApp())) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        String app = reqVo.getApp().trim();
+
+        List<ApiDefinitionEntity> adds = new ArrayList<>();
+        if (reqVo.getAdds() != null) {
+            for (AddApiReqVo addReqVo : reqVo.getAdds()) {
+                if (addReqVo == null) {
+                    return Result.ofFail(-1, "api to add can't be null");
+                }
+                addReqVo.setApp(app);
+                Result<ApiDefinitionEntity> checkResult = toEntity(addReqVo);
+                if (!checkResult.isSuccess()) {
+                    return Result.ofFail(checkResult.getCode(), checkResult.getMsg());
+                }
+                adds.add(checkResult.getData());
+            }
+        }
+
+        List<ApiDefinitionEntity> updates = new ArrayList<>();
+        if (reqVo.getUpdates() != null) {
+            for (UpdateApiReqVo updateReqVo : reqVo.getUpdates()) {
+                if (updateReqVo == null || updateReqVo.getId() == null) {
+                    return Result.ofFail(-1, "id can't be null");
+                }
+                ApiDefinitionEntity entity = new ApiDefinitionEntity();
+                entity.setId(updateReqVo.getId());
+                Result<ApiDefinitionEntity> checkResult = applyUpdate(entity, updateReqVo);
+                if (!checkResult.isSuccess()) {
+                    return Result.ofFail(checkResult.getCode(), checkResult.getMsg());
+                }
+                updates.add(entity);
+            }
+        }
+
+        RuleBatchReqVo<ApiDefinitionEntity> batch = new RuleBatchReqVo<>();
+        batch.setApp(app);
+        batch.setAdds(adds);
+        batch.setUpdates(updates);
+        batch.setDeletes(reqVo.getDeletes());
+
+        Date date = new Date();
+        try {
+            // 检查API名称不能重复
+            Set<String> apiNames = new HashSet<>();
+            for (ApiDefinitionEntity api : this.list(ruleProvider, app)) {
+                if (reqVo.getDeletes() == null || !reqVo.getDeletes().contains(api.getId())) {
+                    apiNames.add(api.getApiName());
+                }
+            }
+            for (ApiDefinitionEntity entity : adds) {
+                if (!apiNames.add(entity.getApiName())) {
+                    return Result.ofFail(-1, "apiName exists: " + entity.getApiName());
+                }
+            }
+
+            List<ApiDefinitionEntity> apis = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(app);
+                if (oldEntity != null) {
+                    // 修改请求只包含匹配规则列表, 其余沿用原API
+                    entity.setIp(oldEntity.getIp());
+                    entity.setPort(oldEntity.getPort());
+                    entity.setApiName(oldEntity.getApiName());
+                    entity.setGmtCreate(oldEntity.getGmtCreate());
+                } else {
+                    entity.setGmtCreate(date);
+                }
+                entity.setGmtModified(date);
+                return null;
+            });
+            return Result.ofSuccess(apis);
+        } catch (Throwable throwable) {
+            logger.error("batch gateway apis error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+
+    private Result<ApiDefinitionEntity> toEntity(AddApiReqVo reqVo) {
         String app = reqVo.getApp();
         if (StringUtil.isBlank(app)) {
             return Result.ofFail(-1, "app can't be null or empty");
@@ -149,48 +301,10 @@ public class GatewayApiController extends BaseSyncDataController<ApiDefinitionEn
         }
         entity.setPredicateItems(new LinkedHashSet<>(predicateItemEntities));
 
-        // 检查API名称不能重复
-//        List<ApiDefinitionEntity> allApis = repository.findAllByMachine(MachineInfo.of(app.trim(), ip.trim(), port));
-
-        Date date = new Date();
-        entity.setGmtCreate(date);
-        entity.setGmtModified(date);
-
-        try {
-            List<ApiDefinitionEntity> allApis = this.list(ruleProvider, app);
-            if (allApis.stream().map(o -> o.getApiName()).anyMatch(o -> o.equals(apiName.trim()))) {
-                return Result.ofFail(-1, "apiName exists: " + apiName);
-            }
-//            entity = repository.save(entity);
-//            publishRules(app);
-            this.save(rulePublisher, ruleProvider, entity);
-        } catch (Throwable throwable) {
-            logger.error("add gateway api error:", throwable);
-            return Result.ofThrowable(-1, throwable);
-        }
-
         return Result.ofSuccess(entity);
     }
 
-    @PostMapping("/save.json")
-    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
-    public Result<ApiDefinitionEntity> updateApi(@RequestBody UpdateApiReqVo reqVo) {
-        String app = reqVo.getApp();
-        if (StringUtil.isBlank(app)) {
-            return Result.ofFail(-1, "app can't be null or empty");
-        }
-
-        Long id = reqVo.getId();
-        if (id == null) {
-            return Result.ofFail(-1, "id can't be null");
-        }
-
-//        ApiDefinitionEntity entity = repository.findById(id);
-        ApiDefinitionEntity entity = this.findById(ruleProvider, reqVo.getApp(), id);
-        if (entity == null) {
-            return Result.ofFail(-1, "api does not exist, id=" + id);
-        }
-
+    private Result<ApiDefinitionEntity> applyUpdate(ApiDefinitionEntity entity, UpdateApiReqVo reqVo) {
         // 匹配规则列表
         List<ApiPredicateItemVo> predicateItems = reqVo.getPredicateItems();
         if (CollectionUtils.isEmpty(predicateItems)) {
@@ -219,18 +333,6 @@ public class GatewayApiController extends BaseSyncDataController<ApiDefinitionEn
         }
         entity.setPredicateItems(new LinkedHashSet<>(predicateItemEntities));
 
-        Date date = new Date();
-        entity.setGmtModified(date);
-
-        try {
-//            entity = repository.save(entity);
-//            publishRules(entity.getApp());
-            this.save(rulePublisher, ruleProvider, entity);
-        } catch (Throwable throwable) {
-            logger.error("update gateway api error:", throwable);
-            return Result.ofThrowable(-1, throwable);
-        }
-
         return Result.ofSuccess(entity);
     }
 
@@ -24,7 +24,9 @@ import com.alibaba.csp.sentinel.dashboard.datasource.entity.gateway.GatewayFlowR
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.gateway.GatewayParamFlowItemEntity;
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.rule.AddFlowRuleReqVo;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.rule.GatewayFlowRuleBatchReqVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.rule.GatewayParamFlowItemVo;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.gateway.rule.UpdateFlowRuleReqVo;
 import com.alibaba.csp.sentinel.dashboard.repository.gateway.InMemGatewayFlowRuleStore;
@@ -38,6 +40,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -98,6 +101,141 @@ public class GatewayFlowRuleController extends BaseSyncDataController<GatewayFlo
     @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
     public Result<GatewayFlowRuleEntity> addFlowRule(@RequestBody AddFlowRuleReqVo reqVo) {
 
+        Result<GatewayFlowRuleEntity> checkResult = toEntity(reqVo);
+        if (!checkResult.isSuccess()) {
+            return checkResult;
+        }
+        GatewayFlowRuleEntity entity = checkResult.getData();
+
+        Date date = new Date();
+        entity.setGmtCreate(date);
+        entity.setGmtModified(date);
+
+        try {
+//            entity = repository.save(entity);
+//            publishRules(app);
+            this.save(rulePublisher, ruleProvider, entity);
+        } catch (Throwable throwable) {
+            logger.error("add gateway flow rule error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+
+        return Result.ofSuccess(entity);
+    }
+
+
+    @PostMapping("/save.json")
+    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
+    public Result<GatewayFlowRuleEntity> updateFlowRule(@RequestBody UpdateFlowRuleReqVo reqVo) {
+
+        String app = reqVo.getApp();
+        if (StringUtil.isBlank(app)) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+
+        Long id = reqVo.getId();
+        if (id == null) {
+            return Result.ofFail(-1, "id can't be null");
+        }
+
+//        GatewayFlowRuleEntity entity = repository.findById(id);
+        GatewayFlowRuleEntity entity = this.findById(ruleProvider, reqVo.getApp(), id);
+        entity.setId(reqVo.getId());
+        entity.setApp(reqVo.getApp());
+        if (entity == null) {
+            return Result.ofFail(-1, "gateway flow rule does not exist, id=" + id);
+        }
+
+        Result<GatewayFlowRuleEntity> checkResult = applyUpdate(entity, reqVo);
+        if (!checkResult.isSuccess()) {
+            return checkResult;
+        }
+
+        Date date = new Date();
+        entity.setGmtModified(date);
+
+        try {
+//            entity = repository.save(entity);
+//            publishRules(entity.getApp());
+            this.update(rulePublisher, ruleProvider, entity);
+        } catch (Throwable throwable) {
+            logger.error("update gateway flow rule error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+
+        return Result.ofSuccess(entity);
+    }
+
+    @PostMapping("/rules/batch")
+    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
+    public Result<List<GatewayFlowRuleEntity>> batchUpdateFlowRules(@RequestBody GatewayFlowRuleBatchReqVo reqVo) {
+
+        if (reqVo == null || StringUtil.isBlank(reqVo.getApp())) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        String app = reqVo.getApp().trim();
+
+        List<GatewayFlowRuleEntity> adds = new ArrayList<>();
+        if (reqVo.getAdds() != null) {
+            for (AddFlowRuleReqVo addReqVo : reqVo.getAdds()) {
+                if (addReqVo == null) {
+                    return Result.ofFail(-1, "gateway flow rule to add can't be null");
+                }
+                addReqVo.setApp(app);
+                Result<GatewayFlowRuleEntity> checkResult = toEntity(addReqVo);
+                if (!checkResult.isSuccess()) {
+                    return Result.ofFail(checkResult.getCode(), checkResult.getMsg());
+                }
+                adds.add(checkResult.getData());
+            }
+        }
+
+        List<GatewayFlowRuleEntity> updates = new ArrayList<>();
+        if (reqVo.getUpdates() != null) {
+            for (UpdateFlowRuleReqVo updateReqVo : reqVo.getUpdates()) {
+                if (updateReqVo == null || updateReqVo.getId() == null) {
+                    return Result.ofFail(-1, "id can't be null");
+                }
+                GatewayFlowRuleEntity entity = new GatewayFlowRuleEntity();
+                entity.setId(updateReqVo.getId());
+                Result<GatewayFlowRuleEntity> checkResult = applyUpdate(entity, updateReqVo);
+                if (!checkResult.isSuccess()) {
+                    return Result.ofFail(checkResult.getCode(), checkResult.getMsg());
+                }
+                updates.add(entity);
+            }
+        }
+
+        RuleBatchReqVo<GatewayFlowRuleEntity> batch = new RuleBatchReqVo<>();
+        batch.setApp(app);
+        batch.setAdds(adds);
+        batch.setUpdates(updates);
+        batch.setDeletes(reqVo.getDeletes());
+
+        Date date = new Date();
+        try {
+            List<GatewayFlowRuleEntity> rules = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(app);
+                if (oldEntity != null) {
+                    // 修改请求不包含机器和API, 沿用原规则
+                    entity.setIp(oldEntity.getIp());
+                    entity.setPort(oldEntity.getPort());
+                    entity.setResourceMode(oldEntity.getResourceMode());
+                    entity.setResource(oldEntity.getResource());
+                } else {
+                    entity.setGmtCreate(date);
+                }
+                entity.setGmtModified(date);
+                return null;
+            });
+            return Result.ofSuccess(rules);
+        } catch (Throwable throwable) {
+            logger.error("batch gateway flow rules error:", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+
+    private Result<GatewayFlowRuleEntity> toEntity(AddFlowRuleReqVo reqVo) {
         String app = reqVo.getApp();
         if (StringUtil.isBlank(app)) {
             return Result.ofFail(-1, "app can't be null or empty");
@@ -243,44 +381,10 @@ public class GatewayFlowRuleController extends BaseSyncDataController<GatewayFlo
             entity.setMaxQueueingTimeoutMs(maxQueueingTimeoutMs);
         }
 
-        Date date = new Date();
-        entity.setGmtCreate(date);
-        entity.setGmtModified(date);
-
-        try {
-//            entity = repository.save(entity);
-//            publishRules(app);
-            this.save(rulePublisher, ruleProvider, entity);
-        } catch (Throwable throwable) {
-            logger.error("add gateway flow rule error:", throwable);
-            return Result.ofThrowable(-1, throwable);
-        }
-
         return Result.ofSuccess(entity);
     }
 
-    @PostMapping("/save.json")
-    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
-    public Result<GatewayFlowRuleEntity> updateFlowRule(@RequestBody UpdateFlowRuleReqVo reqVo) {
-
-        String app = reqVo.getApp();
-        if (StringUtil.isBlank(app)) {
-            return Result.ofFail(-1, "app can't be null or empty");
-        }
-
-        Long id = reqVo.getId();
-        if (id == null) {
-            return Result.ofFail(-1, "id can't be null");
-        }
-
-//        GatewayFlowRuleEntity entity = repository.findById(id);
-        GatewayFlowRuleEntity entity = this.findById(ruleProvider, reqVo.getApp(), id);
-        entity.setId(reqVo.getId());
-        entity.setApp(reqVo.getApp());
-        if (entity == null) {
-            return Result.ofFail(-1, "gateway flow rule does not exist, id=" + id);
-        }
-
+    private Result<GatewayFlowRuleEntity> applyUpdate(GatewayFlowRuleEntity entity, UpdateFlowRuleReqVo reqVo) {
         // 针对请求属性
         GatewayParamFlowItemVo paramItem = reqVo.getParamItem();
         if (paramItem != null) {
@@ -391,18 +495,6 @@ public class GatewayFlowRuleController extends BaseSyncDataController<GatewayFlo
             entity.setMaxQueueingTimeoutMs(maxQueueingTimeoutMs);
         }
 
-        Date date = new Date();
-        entity.setGmtModified(date);
-
-        try {
-//            entity = repository.save(entity);
-//            publishRules(entity.getApp());
-            this.update(rulePublisher, ruleProvider, entity);
-        } catch (Throwable throwable) {
-            logger.error("update gateway flow rule error:", throwable);
-            return Result.ofThrowable(-1, throwable);
-        }
-
         return Result.ofSuccess(entity);
     }
 
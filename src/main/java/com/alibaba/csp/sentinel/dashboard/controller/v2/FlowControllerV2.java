@@ -30,6 +30,7 @@ import com.alibaba.csp.sentinel.dashboard.repository.rule.InMemoryRuleRepository
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -206,6 +207,31 @@ public class FlowControllerV2 extends BaseSyncDataController<FlowRuleEntity> {
         return Result.ofSuccess(entity);
     }
 
+    @PostMapping("/rules/batch")
+    @AuthAction(AuthService.PrivilegeType.WRITE_RULE)
+    public Result<List<FlowRuleEntity>> apiBatchUpdateRules(@RequestBody RuleBatchReqVo<FlowRuleEntity> batch) {
+        if (batch == null || StringUtil.isEmpty(batch.getApp())) {
+            return Result.ofFail(-1, "app can't be null or empty");
+        }
+        Date date = new Date();
+        try {
+            List<FlowRuleEntity> rules = this.batch(rulePublisher, ruleProvider, batch, (entity, oldEntity) -> {
+                entity.setApp(batch.getApp());
+                if (oldEntity != null) {
+                    // Checked by merge.
+                    return null;
+                }
+                entity.setGmtCreate(date);
+                entity.setGmtModified(date);
+                return checkEntityInternal(entity);
+            });
+            return Result.ofSuccess(rules);
+        } catch (Throwable throwable) {
+            logger.error("Failed to apply batch of flow rules", throwable);
+            return Result.ofThrowable(-1, throwable);
+        }
+    }
+
     @DeleteMapping("/rule/{id}")
     @AuthAction(PrivilegeType.DELETE_RULE)
     public Result<Long> apiDeleteRule(@PathVariable("id") Long id, @RequestParam("app") String app) {
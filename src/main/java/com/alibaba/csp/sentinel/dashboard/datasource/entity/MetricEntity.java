@@ -47,6 +47,16 @@ public class MetricEntity {
 
     private int resourceCode;
 
+    /**
+     * Peak values within the period of a rolled-up point, {@code null} for a per-second point.
+     */
+    private Long maxPassQps;
+    private Long maxBlockQps;
+    /**
+     * peak average rt
+     */
+    private Double maxRt;
+
     public static MetricEntity copyOf(MetricEntity oldEntity) {
         MetricEntity entity = new MetricEntity();
         entity.setId(oldEntity.getId());
@@ -61,6 +71,9 @@ public class MetricEntity {
         entity.setExceptionQps(oldEntity.getExceptionQps());
         entity.setRt(oldEntity.getRt());
         entity.setCount(oldEntity.getCount());
+        entity.setMaxPassQps(oldEntity.getMaxPassQps());
+        entity.setMaxBlockQps(oldEntity.getMaxBlockQps());
+        entity.setMaxRt(oldEntity.getMaxRt());
         return entity;
     }
 
@@ -197,6 +210,30 @@ public class MetricEntity {
         this.successQps = successQps;
     }
 
+    public Long getMaxPassQps() {
+        return maxPassQps;
+    }
+
+    public void setMaxPassQps(Long maxPassQps) {
+        this.maxPassQps = maxPassQps;
+    }
+
+    public Long getMaxBlockQps() {
+        return maxBlockQps;
+    }
+
+    public void setMaxBlockQps(Long maxBlockQps) {
+        this.maxBlockQps = maxBlockQps;
+    }
+
+    public Double getMaxRt() {
+        return maxRt;
+    }
+
+    public void setMaxRt(Double maxRt) {
+        this.maxRt = maxRt;
+    }
+
     @Override
     public String toString() {
         return "MetricEntity{" +
@@ -213,6 +250,9 @@ public class MetricEntity {
             ", rt=" + rt +
             ", count=" + count +
             ", resourceCode=" + resourceCode +
+            ", maxPassQps=" + maxPassQps +
+            ", maxBlockQps=" + maxBlockQps +
+            ", maxRt=" + maxRt +
             '}';
     }
 
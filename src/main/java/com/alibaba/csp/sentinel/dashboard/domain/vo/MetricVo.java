@@ -40,6 +40,13 @@ public class MetricVo implements Comparable<MetricVo> {
     private Double rt;
     private Integer count;
 
+    /**
+     * Peak values of a rolled-up point, absent for a per-second point.
+     */
+    private Long maxPassQps;
+    private Long maxBlockQps;
+    private Double maxRt;
+
     public MetricVo() {
     }
 
@@ -89,6 +96,9 @@ public class MetricVo implements Comparable<MetricVo> {
             vo.rt = 0D;
         }
         vo.count = entity.getCount();
+        vo.maxPassQps = entity.getMaxPassQps();
+        vo.maxBlockQps = entity.getMaxBlockQps();
+        vo.maxRt = entity.getMaxRt();
         return vo;
     }
 
@@ -201,6 +211,30 @@ public class MetricVo implements Comparable<MetricVo> {
         this.count = count;
     }
 
+    public Long getMaxPassQps() {
+        return maxPassQps;
+    }
+
+    public void setMaxPassQps(Long maxPassQps) {
+        this.maxPassQps = maxPassQps;
+    }
+
+    public Long getMaxBlockQps() {
+        return maxBlockQps;
+    }
+
+    public void setMaxBlockQps(Long maxBlockQps) {
+        this.maxBlockQps = maxBlockQps;
+    }
+
+    public Double getMaxRt() {
+        return maxRt;
+    }
+
+    public void setMaxRt(Double maxRt) {
+        this.maxRt = maxRt;
+    }
+
     @Override
     public int compareTo(MetricVo o) {
         return Long.compare(this.timestamp, o.timestamp);
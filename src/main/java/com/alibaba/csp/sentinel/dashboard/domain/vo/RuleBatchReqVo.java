@@ -0,0 +1,64 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.domain.vo;
+
+import java.util.List;
+
+/**
+ * Value Object for adding, updating and deleting many rules of an app in a single publish.
+ */
+public class RuleBatchReqVo<T> {
+
+    private String app;
+
+    private List<T> adds;
+
+    private List<T> updates;
+
+    private List<Long> deletes;
+
+    public String getApp() {
+        return app;
+    }
+
+    public void setApp(String app) {
+        this.app = app;
+    }
+
+    public List<T> getAdds() {
+        return adds;
+    }
+
+    public void setAdds(List<T> adds) {
+        this.adds = adds;
+    }
+
+    public List<T> getUpdates() {
+        return updates;
+    }
+
+    public void setUpdates(List<T> updates) {
+        this.updates = updates;
+    }
+
+    public List<Long> getDeletes() {
+        return deletes;
+    }
+
+    public void setDeletes(List<Long> deletes) {
+        this.deletes = deletes;
+    }
+}
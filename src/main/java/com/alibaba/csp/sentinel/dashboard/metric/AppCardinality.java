@@ -0,0 +1,81 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+/**
+ * Resource cardinality of an app, as seen by the {@link ResourceCardinalityLimiter}.
+ */
+public class AppCardinality {
+
+    private final String app;
+    private final int maxResources;
+    private final int admittedResources;
+    /**
+     * Approximate number of distinct resources reported by the app, folded ones included.
+     */
+    private final long estimatedResources;
+    /**
+     * Metric lines folded into the other resource.
+     */
+    private final long foldedPoints;
+    private final long lastFoldedTime;
+
+    public AppCardinality(String app, int maxResources, int admittedResources, long estimatedResources,
+                          long foldedPoints, long lastFoldedTime) {
+        this.app = app;
+        this.maxResources = maxResources;
+        this.admittedResources = admittedResources;
+        this.estimatedResources = estimatedResources;
+        this.foldedPoints = foldedPoints;
+        this.lastFoldedTime = lastFoldedTime;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public int getMaxResources() {
+        return maxResources;
+    }
+
+    public int getAdmittedResources() {
+        return admittedResources;
+    }
+
+    public long getEstimatedResources() {
+        return estimatedResources;
+    }
+
+    public long getFoldedPoints() {
+        return foldedPoints;
+    }
+
+    public long getLastFoldedTime() {
+        return lastFoldedTime;
+    }
+
+    @Override
+    public String toString() {
+        return "AppCardinality{" +
+            "app='" + app + '\'' +
+            ", maxResources=" + maxResources +
+            ", admittedResources=" + admittedResources +
+            ", estimatedResources=" + estimatedResources +
+            ", foldedPoints=" + foldedPoints +
+            ", lastFoldedTime=" + lastFoldedTime +
+            '}';
+    }
+}
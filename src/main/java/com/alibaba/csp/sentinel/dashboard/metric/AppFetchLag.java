@@ -0,0 +1,112 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * How late the metric fetch of an app is.
+ */
+public class AppFetchLag {
+
+    private final String app;
+    /**
+     * How long the app has been due without its fetch being started, 0 if not due yet.
+     */
+    private final long dueLagMs;
+    /**
+     * How long after its due time the last fetch started.
+     */
+    private final long lastStartLagMs;
+    private final long lastCostMs;
+    private final long fetches;
+    private final long failures;
+    /**
+     * How far behind the current time the fetched metrics are.
+     */
+    private long dataLagMs = -1;
+    /**
+     * How far behind the current time the metrics fetched from every machine ({@code ip:port}) are.
+     */
+    private Map<String, Long> machineDataLagMs = Collections.emptyMap();
+
+    public AppFetchLag(String app, long dueLagMs, long lastStartLagMs, long lastCostMs, long fetches,
+                       long failures) {
+        this.app = app;
+        this.dueLagMs = dueLagMs;
+        this.lastStartLagMs = lastStartLagMs;
+        this.lastCostMs = lastCostMs;
+        this.fetches = fetches;
+        this.failures = failures;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public long getDueLagMs() {
+        return dueLagMs;
+    }
+
+    public long getLastStartLagMs() {
+        return lastStartLagMs;
+    }
+
+    public long getLastCostMs() {
+        return lastCostMs;
+    }
+
+    public long getFetches() {
+        return fetches;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getDataLagMs() {
+        return dataLagMs;
+    }
+
+    public AppFetchLag setDataLagMs(long dataLagMs) {
+        this.dataLagMs = dataLagMs;
+        return this;
+    }
+
+    public Map<String, Long> getMachineDataLagMs() {
+        return machineDataLagMs;
+    }
+
+    public AppFetchLag setMachineDataLagMs(Map<String, Long> machineDataLagMs) {
+        this.machineDataLagMs = machineDataLagMs;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "AppFetchLag{" +
+            "app='" + app + '\'' +
+            ", dueLagMs=" + dueLagMs +
+            ", lastStartLagMs=" + lastStartLagMs +
+            ", lastCostMs=" + lastCostMs +
+            ", fetches=" + fetches +
+            ", failures=" + failures +
+            ", dataLagMs=" + dataLagMs +
+            ", machineDataLagMs=" + machineDataLagMs +
+            '}';
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the metric fetch of every app on its own due time.
+ *
+ * <p>Apps wait in a {@link DelayQueue} ordered by their next due time. A new app is first due at
+ * an offset derived from its name within the interval, so apps are spread over the interval
+ * instead of all firing together. A single dispatcher thread takes the apps as they become due
+ * and starts their fetch, holding a permit of a {@link Semaphore} until the fetch completes: when
+ * the fetches in flight reach the limit the dispatcher waits, and apps fall late instead of being
+ * dropped. How late every app is can be read from {@link #getLags()}.</p>
+ */
+final class AppFetchScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppFetchScheduler.class);
+
+    private final long intervalMs;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Function<String, CompletionStage<Long>> fetch;
+
+    private final DelayQueue<AppSchedule> queue = new DelayQueue<>();
+    private final Map<String, AppSchedule> schedules = new ConcurrentHashMap<>();
+    private final Thread dispatcher;
+    private volatile boolean running;
+
+    /**
+     * @param intervalMs  interval between two fetches of an app
+     * @param maxInFlight max number of apps being fetched at the same time
+     * @param fetch       starts fetching the app, the stage completes when the fetch is done, with
+     *                    the time the app is due again or null to wait for the interval
+     */
+    AppFetchScheduler(long intervalMs, int maxInFlight, Function<String, CompletionStage<Long>> fetch) {
+        this.intervalMs = intervalMs;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.fetch = fetch;
+        this.dispatcher = new NamedThreadFactory("sentinel-dashboard-metrics-fetch-dispatcher", true)
+            .newThread(this::dispatch);
+    }
+
+    void start() {
+        running = true;
+        dispatcher.start();
+    }
+
+    void stop() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    /**
+     * Schedule the apps not scheduled yet, and stop scheduling the ones not listed any more.
+     */
+    void syncApps(Collection<String> apps) {
+        long now = TimeUtil.currentTimeMillis();
+        Set<String> current = new HashSet<>(apps);
+        for (String app : current) {
+            schedules.computeIfAbsent(app, a -> {
+                AppSchedule schedule = new AppSchedule(a, now + spreadOffset(a));
+                queue.put(schedule);
+                return schedule;
+            });
+        }
+        // Removed apps are dropped by the dispatcher when they become due.
+        schedules.keySet().retainAll(current);
+    }
+
+    /**
+     * @return the lag of every scheduled app
+     */
+    List<AppFetchLag> getLags() {
+        long now = TimeUtil.currentTimeMillis();
+        List<AppFetchLag> lags = new ArrayList<>(schedules.size());
+        for (AppSchedule schedule : schedules.values()) {
+            lags.add(schedule.toLag(now));
+        }
+        return lags;
+    }
+
+    int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                AppSchedule schedule = queue.take();
+                if (schedules.get(schedule.app) != schedule) {
+                    continue;
+                }
+                inFlight.acquire();
+                start(schedule);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                logger.warn("Metric fetch dispatch error", e);
+            }
+        }
+    }
+
+    private void start(AppSchedule schedule) {
+        long startTime = TimeUtil.currentTimeMillis();
+        schedule.lastStartLagMs = startTime - schedule.dueTime;
+        schedule.fetching = true;
+        CompletionStage<Long> stage;
+        try {
+            stage = fetch.apply(schedule.app);
+        } catch (Throwable e) {
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            stage = failed;
+        }
+        stage.whenComplete((nextDueTime, e) -> {
+            inFlight.release();
+            long now = TimeUtil.currentTimeMillis();
+            if (e != null) {
+                schedule.failures++;
+                logger.warn("Failed to fetch metrics of app {}", schedule.app, e);
+            }
+            schedule.fetches++;
+            schedule.lastCostMs = now - startTime;
+            if (nextDueTime != null) {
+                schedule.dueTime = Math.max(nextDueTime, now);
+            } else {
+                // Catch up right away when more than an interval late.
+                schedule.dueTime = Math.max(schedule.dueTime + intervalMs, now);
+            }
+            schedule.fetching = false;
+            queue.put(schedule);
+        });
+    }
+
+    private long spreadOffset(String app) {
+        return (app.hashCode() & Integer.MAX_VALUE) % intervalMs;
+    }
+
+    private static final class AppSchedule implements Delayed {
+        private final String app;
+        private volatile long dueTime;
+        private volatile long lastStartLagMs;
+        private volatile long lastCostMs;
+        private volatile long fetches;
+        private volatile long failures;
+        private volatile boolean fetching;
+
+        private AppSchedule(String app, long dueTime) {
+            this.app = app;
+            this.dueTime = dueTime;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTime - TimeUtil.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(dueTime, ((AppSchedule) o).dueTime);
+        }
+
+        private AppFetchLag toLag(long now) {
+            long dueLagMs = fetching ? 0 : Math.max(0, now - dueTime);
+            return new AppFetchLag(app, dueLagMs, lastStartLagMs, lastCostMs, fetches, failures);
+        }
+    }
+}
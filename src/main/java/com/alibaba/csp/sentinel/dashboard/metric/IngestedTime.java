@@ -0,0 +1,54 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayDeque;
+
+/**
+ * Last second of an app fetched from every machine pulled and written to the repository.
+ *
+ * <p>A fetch records the second it completed for all the machines together with the position of
+ * the ingest ring its metrics were handed over at, the second counts as written once the writer of
+ * the ring is past that position.</p>
+ */
+final class IngestedTime {
+
+    /**
+     * {@code [second, ring position]} of the fetches not written yet, in the order recorded
+     */
+    private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+    private long ingested = -1;
+
+    synchronized void onHandedOver(long second, long position) {
+        long[] last = pending.peekLast();
+        if (last != null && last[1] == position) {
+            last[0] = Math.max(last[0], second);
+        } else {
+            pending.addLast(new long[] {second, position});
+        }
+    }
+
+    /**
+     * @param written position of the ring before which every slot is written
+     * @return last second fetched from every machine and written, -1 if none is
+     */
+    synchronized long get(long written) {
+        while (!pending.isEmpty() && pending.peekFirst()[1] <= written) {
+            ingested = Math.max(ingested, pending.pollFirst()[0]);
+        }
+        return ingested;
+    }
+}
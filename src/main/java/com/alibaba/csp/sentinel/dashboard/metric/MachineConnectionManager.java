@@ -0,0 +1,48 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Set;
+
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+
+/**
+ * Pool of the keep-alive connections to the machines, which can also close the connections to
+ * given machines at once rather than waiting for them to be idle for long enough.
+ */
+class MachineConnectionManager extends PoolingNHttpClientConnectionManager {
+
+    MachineConnectionManager(ConnectingIOReactor ioReactor) {
+        super(ioReactor);
+    }
+
+    /**
+     * Close the pooled connections to the given machines. Connections leased at the moment are
+     * left to the idle eviction once released.
+     *
+     * @param hostPorts {@code ip:port} of the machines
+     */
+    void closeConnections(Set<String> hostPorts) {
+        enumAvailable(entry -> {
+            HttpHost target = entry.getRoute().getTargetHost();
+            if (hostPorts.contains(target.getHostName() + ":" + target.getPort())) {
+                entry.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+/**
+ * Seconds of metrics fetched from a machine.
+ *
+ * <p>The watermark is the last second up to which every second has been fetched. Windows fetched
+ * after a miss are kept as a head run (the latest contiguous range fetched), so once the missed
+ * seconds are backfilled the watermark jumps to the end of the head run instead of refetching it.
+ * A second miss while a gap is still open starts a new head run, the seconds of the older one are
+ * then fetched again.</p>
+ */
+final class MachineWatermark {
+
+    private long fetched;
+    private long headStart = -1;
+    private long headEnd = -1;
+
+    /**
+     * @param fetched last second considered fetched, so a new machine is not backfilled
+     */
+    MachineWatermark(long fetched) {
+        this.fetched = fetched;
+    }
+
+    /**
+     * Record the window [startTime, endTime] as fetched, both side inclusive.
+     */
+    synchronized void onFetched(long startTime, long endTime) {
+        if (startTime <= fetched + 1000) {
+            fetched = Math.max(fetched, endTime);
+        } else if (headEnd >= 0 && startTime <= headEnd + 1000 && endTime >= headStart - 1000) {
+            headStart = Math.min(headStart, startTime);
+            headEnd = Math.max(headEnd, endTime);
+        } else if (startTime > headEnd) {
+            headStart = startTime;
+            headEnd = endTime;
+        }
+        joinHead();
+    }
+
+    /**
+     * Give up the seconds before {@code oldest}.
+     */
+    synchronized void giveUpBefore(long oldest) {
+        fetched = Math.max(fetched, oldest - 1000);
+        joinHead();
+    }
+
+    /**
+     * @return last second up to which every second has been fetched
+     */
+    synchronized long getFetched() {
+        return fetched;
+    }
+
+    /**
+     * @return first second within [startTime, endTime] already fetched, {@code Long.MAX_VALUE} if none
+     */
+    synchronized long firstFetchedBetween(long startTime, long endTime) {
+        if (startTime <= fetched) {
+            return startTime;
+        }
+        if (headEnd >= 0 && headStart <= endTime && headEnd >= startTime) {
+            return Math.max(startTime, headStart);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return last second of the open gap after the watermark, or {@code Long.MAX_VALUE} if the
+     * seconds after the watermark have not been fetched at all
+     */
+    synchronized long getGapEnd() {
+        return headEnd >= 0 ? headStart - 1000 : Long.MAX_VALUE;
+    }
+
+    private void joinHead() {
+        if (headEnd >= 0 && headStart <= fetched + 1000) {
+            fetched = Math.max(fetched, headEnd);
+            headStart = -1;
+            headEnd = -1;
+        }
+    }
+}
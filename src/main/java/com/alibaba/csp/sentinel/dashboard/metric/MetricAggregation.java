@@ -0,0 +1,192 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Aggregates the metrics of all machines of an app fetched for the window {@code [startTime, endTime]}
+ * by resource and second, ignoring ip and port.
+ *
+ * <p>Every response fills its own {@link Partial}, confined to the I/O thread parsing it, so the
+ * callbacks never contend. A partial keeps, for each resource, primitive counters indexed by the
+ * second's offset in the window; resource names come interned from the {@link ResourceNameCache}
+ * so their hash codes are computed once. The partials are merged once by the fetching thread after
+ * their responses completed.</p>
+ */
+final class MetricAggregation {
+
+    /**
+     * Largest window accepted, in seconds.
+     */
+    private static final int MAX_WINDOW_SECONDS = 60 * 60;
+
+    private final long startSecond;
+    private final int seconds;
+    private final Map<String, ResourceWindow> merged = new HashMap<>();
+
+    MetricAggregation(long startTime, long endTime) {
+        this.startSecond = startTime / 1000;
+        long length = endTime / 1000 - startSecond + 1;
+        if (length <= 0 || length > MAX_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("Invalid metric window: [" + startTime + ", " + endTime + "]");
+        }
+        this.seconds = (int) length;
+    }
+
+    Partial newPartial() {
+        return new Partial();
+    }
+
+    /**
+     * Add a completed partial to the result. Not thread-safe, meant for the fetching thread only.
+     */
+    void merge(Partial partial) {
+        for (Map.Entry<String, ResourceWindow> e : partial.resources.entrySet()) {
+            ResourceWindow window = merged.get(e.getKey());
+            if (window == null) {
+                merged.put(e.getKey(), e.getValue());
+            } else {
+                window.add(e.getValue());
+            }
+        }
+        partial.resources.clear();
+    }
+
+    /**
+     * Visit every point of a partial, i.e. of a single machine, before it is merged.
+     */
+    void forEachPoint(Partial partial, PointConsumer consumer) {
+        for (Map.Entry<String, ResourceWindow> e : partial.resources.entrySet()) {
+            ResourceWindow window = e.getValue();
+            for (int i = 0; i < seconds; i++) {
+                if (window.count[i] != 0) {
+                    consumer.accept(e.getKey(), (startSecond + i) * 1000, window.pass[i], window.block[i],
+                        window.success[i], window.exception[i], window.rt[i]);
+                }
+            }
+        }
+    }
+
+    interface PointConsumer {
+        void accept(String resource, long timestamp, long passQps, long blockQps, long successQps, long exceptionQps,
+                    double rt);
+    }
+
+    /**
+     * @return an entity per resource and second that received metrics
+     */
+    List<MetricEntity> toEntities(String app) {
+        List<MetricEntity> entities = new ArrayList<>();
+        for (Map.Entry<String, ResourceWindow> e : merged.entrySet()) {
+            ResourceWindow window = e.getValue();
+            for (int i = 0; i < seconds; i++) {
+                if (window.count[i] == 0) {
+                    continue;
+                }
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(app);
+                entity.setResource(e.getKey());
+                entity.setTimestamp(new Date((startSecond + i) * 1000));
+                entity.setPassQps(window.pass[i]);
+                entity.setBlockQps(window.block[i]);
+                entity.setSuccessQps(window.success[i]);
+                entity.setExceptionQps(window.exception[i]);
+                entity.setRt(window.rt[i]);
+                entity.setCount(window.count[i]);
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Metrics of a single response.
+     */
+    final class Partial implements MetricLineParser.MetricHandler {
+
+        private final Map<String, ResourceWindow> resources = new HashMap<>();
+
+        /**
+         * Lines outside the window, which are dropped.
+         */
+        private int outOfWindow;
+
+        @Override
+        public void onMetric(long timestamp, String resource, long passQps, long blockQps, long successQps,
+                             long exceptionQps, long rt) {
+            long offset = timestamp / 1000 - startSecond;
+            if (offset < 0 || offset >= seconds) {
+                outOfWindow++;
+                return;
+            }
+            ResourceWindow window = resources.get(resource);
+            if (window == null) {
+                window = new ResourceWindow(seconds);
+                resources.put(resource, window);
+            }
+            int i = (int) offset;
+            window.pass[i] += passQps;
+            window.block[i] += blockQps;
+            window.success[i] += successQps;
+            window.exception[i] += exceptionQps;
+            window.rt[i] += (double) rt * successQps;
+            window.count[i]++;
+        }
+
+        int getOutOfWindow() {
+            return outOfWindow;
+        }
+    }
+
+    private static final class ResourceWindow {
+        private final long[] pass;
+        private final long[] block;
+        private final long[] success;
+        private final long[] exception;
+        /**
+         * summary rt of all success qps, as in {@link MetricEntity#getRt()}
+         */
+        private final double[] rt;
+        private final int[] count;
+
+        private ResourceWindow(int seconds) {
+            pass = new long[seconds];
+            block = new long[seconds];
+            success = new long[seconds];
+            exception = new long[seconds];
+            rt = new double[seconds];
+            count = new int[seconds];
+        }
+
+        private void add(ResourceWindow other) {
+            for (int i = 0; i < count.length; i++) {
+                pass[i] += other.pass[i];
+                block[i] += other.block[i];
+                success[i] += other.success[i];
+                exception[i] += other.exception[i];
+                rt[i] += other.rt[i];
+                count[i] += other.count[i];
+            }
+        }
+    }
+}
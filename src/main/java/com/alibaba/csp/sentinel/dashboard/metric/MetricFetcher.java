@@ -15,21 +15,30 @@
  */
 package com.alibaba.csp.sentinel.dashboard.metric;
 
+import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
 import java.util.concurrent.TimeUnit;
@@ -42,9 +51,9 @@ import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
-import com.alibaba.csp.sentinel.node.metric.MetricNode;
 import com.alibaba.csp.sentinel.util.StringUtil;
 
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MachineMetricsStore;
 import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -52,10 +61,17 @@ import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AsyncByteConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,6 +79,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 /**
  * Fetch metric of machines.
@@ -76,36 +93,114 @@ public class MetricFetcher {
     private static final int HTTP_OK = 200;
     private static final long MAX_LAST_FETCH_INTERVAL_MS = 1000 * 15;
     private static final long FETCH_INTERVAL_SECOND = 6;
+    /**
+     * How long a second is left for the clients to finish before it is fetched.
+     */
+    private static final long FETCH_DELAY_MS = 1000 * 2;
+    /**
+     * Seconds missed by a machine are backfilled as long as they are at most this old.
+     */
+    private static final long BACKFILL_HORIZON_MS = 1000 * 60;
+    /**
+     * Missed seconds refetched at most in a round, on top of the regular window.
+     */
+    private static final long BACKFILL_CHUNK_SECOND = 6;
     private static final Charset DEFAULT_CHARSET = Charset.forName(SentinelConfig.charset());
     private final static String METRIC_URL_PATH = "metric";
     private static Logger logger = LoggerFactory.getLogger(MetricFetcher.class);
-    private final long intervalSecond = 1;
 
     private Map<String, AtomicLong> appLastFetchTime = new ConcurrentHashMap<>();
 
+    /**
+     * {@code app -> ip:port -> seconds fetched from the machine}
+     */
+    private final Map<String, Map<String, MachineWatermark>> machineWatermarks = new ConcurrentHashMap<>();
+
+    /**
+     * {@code app -> last second fetched from every machine pulled and written}
+     */
+    private final Map<String, IngestedTime> ingestedTimes = new ConcurrentHashMap<>();
+
+    /**
+     * {@code app -> ip:port of the machines pulled over kept alive connections}
+     */
+    private final Map<String, Set<String>> pooledMachines = new ConcurrentHashMap<>();
+
+    /**
+     * Resource names decoded from the responses of all machines.
+     */
+    private final ResourceNameCache resourceNames = new ResourceNameCache(8192);
+
     @Autowired
     private MetricsRepository<MetricEntity> metricStore;
     @Autowired
     private AppManagement appManagement;
+    @Autowired
+    private ResourceCardinalityLimiter cardinalityLimiter;
+    @Autowired
+    private MetricStreamHub streamHub;
+    @Autowired
+    private MachineMetricsStore machineStore;
 
     private CloseableHttpAsyncClient httpclient;
+    /**
+     * Pool of the keep-alive connections to the machines, null when every pull opens a new one.
+     */
+    private MachineConnectionManager connectionManager;
 
     @SuppressWarnings("PMD.ThreadPoolCreationRule")
     private ScheduledExecutorService fetchScheduleService = Executors.newScheduledThreadPool(1,
         new NamedThreadFactory("sentinel-dashboard-metrics-fetch-task"));
-    private ExecutorService fetchService;
     private ExecutorService fetchWorker;
+    private AppFetchScheduler fetchScheduler;
 
     // start modify 2021-03-12
     @Value("${sentinel.metric.fetch.io.thread.count}")
     private int fetchIOThreadCount;
 
+    /**
+     * Apps fetched at the same time, they only take a thread while their responses are written.
+     * 0 means as many as there are fetch threads.
+     */
+    @Value("${sentinel.metric.fetch.max-concurrent-apps:512}")
+    private int maxConcurrentApps;
+
+    /**
+     * Keep the connections to the machines alive between pulls, if the clients allow it.
+     */
+    @Value("${sentinel.metric.fetch.keep-alive.enabled:false}")
+    private boolean keepAliveEnabled;
+
+    /**
+     * Kept alive connections idle for longer are closed. The connections of the machines no longer
+     * pulled (unhealthy, dead or removed) are closed in the next round of their app already.
+     */
+    @Value("${sentinel.metric.fetch.keep-alive.idle-ms:15000}")
+    private long keepAliveIdleMs;
+
+    /**
+     * Fetches whose metrics can wait for the repository to write them.
+     */
+    @Value("${sentinel.metric.ingest.capacity:4096}")
+    private int ingestCapacity;
+
+    /**
+     * What to do when the repository cannot keep up: block or drop-oldest.
+     */
+    @Value("${sentinel.metric.ingest.overflow-policy:block}")
+    private String ingestOverflowPolicy;
+
+    @Value("${sentinel.metric.ingest.max-batch-points:8192}")
+    private int ingestMaxBatchPoints;
+
+    private MetricIngestRing ingestRing;
+
     public MetricFetcher() {
 
     }
 
     @PostConstruct
-    private void init() {
+    private void init() throws IOReactorException {
         // MetricFetcher用于从client端获取metric数据，增加参数用于控制线程数量
         int cores = Runtime.getRuntime().availableProcessors() * 2;
         if (this.fetchIOThreadCount > 0) {
@@ -113,12 +208,13 @@ public class MetricFetcher {
         }
         logger.info("metric fetcher thread count: {}", cores);
 
+        ingestRing = new MetricIngestRing(ingestCapacity, MetricIngestRing.OverflowPolicy.of(ingestOverflowPolicy),
+            Math.max(1, ingestMaxBatchPoints), this::store);
+        ingestRing.start();
+
         long keepAliveTime = 0;
         int queueSize = 2048;
         RejectedExecutionHandler handler = new DiscardPolicy();
-        fetchService = new ThreadPoolExecutor(cores, cores,
-                keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
-                new NamedThreadFactory("sentinel-dashboard-metrics-fetchService"), handler);
         fetchWorker = new ThreadPoolExecutor(cores, cores,
                 keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
                 new NamedThreadFactory("sentinel-dashboard-metrics-fetchWorker"), handler);
@@ -129,17 +225,29 @@ public class MetricFetcher {
                 .setIoThreadCount(cores)
                 .build();
 
-        httpclient = HttpAsyncClients.custom()
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
                 .setRedirectStrategy(new DefaultRedirectStrategy() {
                     @Override
                     protected boolean isRedirectable(final String method) {
                         return false;
                     }
-                }).setMaxConnTotal(4000)
+                });
+        if (keepAliveEnabled) {
+            connectionManager = new MachineConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+            connectionManager.setMaxTotal(4000);
+            connectionManager.setDefaultMaxPerRoute(1000);
+            builder.setConnectionManager(connectionManager);
+            logger.info("metric fetcher keeps connections alive, idle timeout: {}ms", keepAliveIdleMs);
+        } else {
+            builder.setMaxConnTotal(4000)
                 .setMaxConnPerRoute(1000)
-                .setDefaultIOReactorConfig(ioConfig)
-                .build();
+                .setDefaultIOReactorConfig(ioConfig);
+        }
+        httpclient = builder.build();
         httpclient.start();
+        // Every app in flight queues at most one task on the worker, so none of them is discarded.
+        int maxInFlight = Math.min(maxConcurrentApps > 0 ? maxConcurrentApps : cores, queueSize);
+        fetchScheduler = new AppFetchScheduler(FETCH_INTERVAL_SECOND * 1000, maxInFlight, this::doFetchAppMetric);
         start();
     }
 
@@ -177,50 +285,163 @@ public class MetricFetcher {
     // end modify 2021-03-12
 
     private void start() {
+        fetchScheduler.start();
         fetchScheduleService.scheduleAtFixedRate(() -> {
             try {
-                fetchAllApp();
+                syncApps();
             } catch (Exception e) {
-                logger.info("fetchAllApp error:", e);
+                logger.info("syncApps error:", e);
+            }
+        }, 10, 1, TimeUnit.SECONDS);
+        if (connectionManager != null) {
+            long evictIntervalMs = Math.max(keepAliveIdleMs / 2, 1000);
+            fetchScheduleService.scheduleWithFixedDelay(this::evictConnections, evictIntervalMs, evictIntervalMs,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void evictConnections() {
+        try {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(keepAliveIdleMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.info("evictConnections error:", e);
+        }
+    }
+
+    private void closeConnections(Set<String> hostPorts) {
+        if (connectionManager == null || hostPorts == null || hostPorts.isEmpty()) {
+            return;
+        }
+        try {
+            connectionManager.closeConnections(hostPorts);
+            logger.info("Closed the kept alive connections to {}", hostPorts);
+        } catch (Exception e) {
+            logger.info("closeConnections error:", e);
+        }
+    }
+
+    /**
+     * Statistics of the metrics handed over to the repository.
+     */
+    public Map<String, Object> getIngestStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", ingestRing.getCapacity());
+        stats.put("depth", ingestRing.getDepth());
+        stats.put("pendingPoints", ingestRing.getPendingPoints());
+        stats.put("writtenPoints", ingestRing.getWrittenPoints());
+        stats.put("writeBatches", ingestRing.getWriteBatches());
+        stats.put("droppedPoints", ingestRing.getDroppedPoints());
+        stats.put("failedPoints", ingestRing.getFailedPoints());
+        return stats;
+    }
+
+    /**
+     * Last second of the app fetched from every machine pulled and written to the repository.
+     * Seconds after it may still miss the metrics of some machines, or be in the middle of being
+     * written.
+     *
+     * @return the second, or -1 if the app has none yet
+     */
+    public long getIngestedTime(String app) {
+        IngestedTime ingestedTime = ingestedTimes.get(app);
+        return ingestedTime == null ? -1 : ingestedTime.get(ingestRing.getWritten());
+    }
+
+    /**
+     * Statistics of the connections kept alive to the machines.
+     */
+    public Map<String, Object> getConnectionPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keepAlive", connectionManager != null);
+        if (connectionManager != null) {
+            PoolStats total = connectionManager.getTotalStats();
+            stats.put("routes", connectionManager.getRoutes().size());
+            stats.put("leased", total.getLeased());
+            stats.put("available", total.getAvailable());
+            stats.put("pending", total.getPending());
+            stats.put("max", total.getMax());
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    private void close() throws IOException, InterruptedException {
+        fetchScheduler.stop();
+        fetchScheduleService.shutdownNow();
+        httpclient.close();
+        fetchWorker.shutdown();
+        ingestRing.stop(5000);
+    }
+
+    /**
+     * Lag of the metric fetching of every app, the most lagging first.
+     */
+    public List<AppFetchLag> getFetchLags() {
+        long now = System.currentTimeMillis();
+        List<AppFetchLag> lags = fetchScheduler.getLags();
+        for (AppFetchLag lag : lags) {
+            AtomicLong lastFetchTime = appLastFetchTime.get(lag.getApp());
+            if (lastFetchTime != null) {
+                lag.setDataLagMs(now - lastFetchTime.get());
+            }
+            Map<String, MachineWatermark> watermarks = machineWatermarks.get(lag.getApp());
+            if (watermarks != null) {
+                Map<String, Long> machineLags = new TreeMap<>();
+                watermarks.forEach((machine, watermark) -> machineLags.put(machine, now - watermark.getFetched()));
+                lag.setMachineDataLagMs(machineLags);
             }
-        }, 10, intervalSecond, TimeUnit.SECONDS);
+        }
+        lags.sort(Comparator.comparingLong(AppFetchLag::getDueLagMs).reversed());
+        return lags;
+    }
+
+    public int getFetchesInFlight() {
+        return fetchScheduler.getInFlight();
+    }
+
+    public int getMaxFetchesInFlight() {
+        return fetchScheduler.getMaxInFlight();
     }
 
-    private void writeMetric(Map<String, MetricEntity> map) {
-        if (map.isEmpty()) {
+    /**
+     * Write a batch taken from the ingest ring, then push it to the live streams.
+     */
+    private void store(List<MetricEntity> entities) {
+        metricStore.saveAll(entities);
+        streamHub.publish(entities);
+    }
+
+    private void writeMetric(List<MetricEntity> entities) {
+        if (entities.isEmpty()) {
             return;
         }
         Date date = new Date();
-        for (MetricEntity entity : map.values()) {
+        for (MetricEntity entity : entities) {
             entity.setGmtCreate(date);
             entity.setGmtModified(date);
         }
-        metricStore.saveAll(map.values());
+        ingestRing.offer(entities);
     }
 
     /**
-     * Traverse each APP, and then pull the metric of all machines for that APP.
+     * Schedule the metric fetching of every APP, each APP pulls the metric of all its machines.
      */
-    private void fetchAllApp() {
+    private void syncApps() {
         List<String> apps = appManagement.getAppNames();
         if (apps == null) {
             return;
         }
-        for (final String app : apps) {
-            fetchService.submit(() -> {
-                try {
-                    doFetchAppMetric(app);
-                } catch (Exception e) {
-                    logger.error("fetchAppMetric error", e);
-                }
-            });
-        }
+        fetchScheduler.syncApps(apps);
     }
 
     /**
-     * fetch metric between [startTime, endTime], both side inclusive
+     * fetch metric between [startTime, endTime], both side inclusive.
+     *
+     * <p>All the machines are requested at once without blocking; the returned future completes
+     * once the responses received within {@code maxWaitSeconds} are written to the store.</p>
      */
-    private void fetchOnce(String app, long startTime, long endTime, int maxWaitSeconds) {
+    CompletableFuture<Void> fetchOnce(String app, long startTime, long endTime, int maxWaitSeconds) {
         if (maxWaitSeconds <= 0) {
             throw new IllegalArgumentException("maxWaitSeconds must > 0, but " + maxWaitSeconds);
         }
@@ -229,57 +450,63 @@ public class MetricFetcher {
         if (appInfo.isDead()) {
             logger.info("Dead app removed: {}", app);
             appManagement.removeApp(app);
-            return;
+            machineWatermarks.remove(app);
+            ingestedTimes.remove(app);
+            cardinalityLimiter.removeApp(app);
+            machineStore.removeApp(app);
+            closeConnections(pooledMachines.remove(app));
+            return CompletableFuture.completedFuture(null);
         }
         Set<MachineInfo> machines = appInfo.getMachines();
         logger.debug("enter fetchOnce(" + app + "), machines.size()=" + machines.size()
             + ", time intervalMs [" + startTime + ", " + endTime + "]");
         if (machines.isEmpty()) {
-            return;
+            closeConnections(pooledMachines.remove(app));
+            return CompletableFuture.completedFuture(null);
         }
         final String msg = "fetch";
-        AtomicLong unhealthy = new AtomicLong();
-        final AtomicLong success = new AtomicLong();
-        final AtomicLong fail = new AtomicLong();
-
-        long start = System.currentTimeMillis();
-        /** app_resource_timeSecond -> metric */
-        final Map<String, MetricEntity> metricMap = new ConcurrentHashMap<>(16);
-        final CountDownLatch latch = new CountDownLatch(machines.size());
+        final MetricAggregation aggregation = new MetricAggregation(startTime, endTime);
+        /* partial of every requested machine, null if its request failed */
+        final List<CompletableFuture<MetricAggregation.Partial>> responses = new ArrayList<>(machines.size());
+        final List<String> respondingMachines = new ArrayList<>(machines.size());
+        final List<MachineWatermark> respondingWatermarks = new ArrayList<>(machines.size());
+        final Map<String, MachineWatermark> watermarks = machineWatermarks.computeIfAbsent(app,
+            a -> new ConcurrentHashMap<>());
         for (final MachineInfo machine : machines) {
             // auto remove
             if (machine.isDead()) {
-                latch.countDown();
                 appManagement.getDetailApp(app).removeMachine(machine.getIp(), machine.getPort());
+                watermarks.remove(machine.toHostPort());
+                machineStore.removeMachine(app, machine.toHostPort());
                 logger.info("Dead machine removed: {}:{} of {}", machine.getIp(), machine.getPort(), app);
                 continue;
             }
             if (!machine.isHealthy()) {
-                latch.countDown();
-                unhealthy.incrementAndGet();
                 continue;
             }
             final String url = "http://" + machine.getIp() + ":" + machine.getPort() + "/" + METRIC_URL_PATH
                 + "?startTime=" + startTime + "&endTime=" + endTime + "&refetch=" + false;
             final HttpGet httpGet = new HttpGet(url);
-            httpGet.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
-            httpclient.execute(httpGet, new FutureCallback<HttpResponse>() {
+            if (connectionManager == null) {
+                httpGet.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+            }
+            final MetricResponseConsumer consumer = new MetricResponseConsumer(machine, aggregation.newPartial());
+            final MachineWatermark watermark = watermarks.computeIfAbsent(machine.toHostPort(),
+                m -> new MachineWatermark(startTime - 1000));
+            final CompletableFuture<MetricAggregation.Partial> response = new CompletableFuture<>();
+            responses.add(response);
+            respondingMachines.add(machine.toHostPort());
+            respondingWatermarks.add(watermark);
+            httpclient.execute(HttpAsyncMethods.create(httpGet), consumer, new FutureCallback<Boolean>() {
                 @Override
-                public void completed(final HttpResponse response) {
-                    try {
-                        handleResponse(response, machine, metricMap);
-                        success.incrementAndGet();
-                    } catch (Exception e) {
-                        logger.error(msg + " metric " + url + " error:", e);
-                    } finally {
-                        latch.countDown();
-                    }
+                public void completed(final Boolean result) {
+                    // Only a full response covers the window, any other one is left to the backfill.
+                    response.complete(Boolean.TRUE.equals(result) ? consumer.partial : null);
                 }
 
                 @Override
                 public void failed(final Exception ex) {
-                    latch.countDown();
-                    fail.incrementAndGet();
+                    response.complete(null);
                     httpGet.abort();
                     if (ex instanceof SocketTimeoutException) {
                         logger.error("Failed to fetch metric from <{}>: socket timeout", url);
@@ -292,25 +519,95 @@ public class MetricFetcher {
 
                 @Override
                 public void cancelled() {
-                    latch.countDown();
-                    fail.incrementAndGet();
+                    response.complete(null);
                     httpGet.abort();
                 }
             });
         }
-        try {
-            latch.await(maxWaitSeconds, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            logger.info(msg + " metric, wait http client error:", e);
+        if (connectionManager != null) {
+            retainConnections(app, respondingMachines);
+        }
+        if (responses.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(responses.toArray(new CompletableFuture[0]));
+        // Stop waiting for the slow machines, their responses are left out.
+        ScheduledFuture<?> timeout = fetchScheduleService.schedule(() -> all.complete(null), maxWaitSeconds,
+            TimeUnit.SECONDS);
+        return all.thenRunAsync(() -> {
+            timeout.cancel(false);
+            // Partials are only handed over once their response is fully parsed.
+            Set<MachineWatermark> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < responses.size(); i++) {
+                MetricAggregation.Partial partial = responses.get(i).getNow(null);
+                if (partial != null) {
+                    machineStore.save(app, respondingMachines.get(i),
+                        sink -> aggregation.forEachPoint(partial, sink::add));
+                    aggregation.merge(partial);
+                    merged.add(respondingWatermarks.get(i));
+                }
+            }
+            // A stored second is the sum of the machines counted in it. Refetching it without one of
+            // them would drop that machine from the sum, so such seconds are left as they are.
+            List<MachineWatermark> missing = new ArrayList<>();
+            long fetchedEnd = endTime;
+            for (MachineWatermark watermark : watermarks.values()) {
+                if (!merged.contains(watermark)) {
+                    missing.add(watermark);
+                    fetchedEnd = Math.min(fetchedEnd, watermark.firstFetchedBetween(startTime, endTime) - 1000);
+                }
+            }
+            List<MetricEntity> entities = aggregation.toEntities(app);
+            if (fetchedEnd < endTime) {
+                entities.removeIf(entity -> isFetchedByAny(missing, entity.getTimestamp().getTime()));
+            }
+            writeMetric(entities);
+            // A response arriving after the wait is never merged, its seconds stay open for the backfill,
+            // so do the seconds from the first one left as it was.
+            if (fetchedEnd >= startTime) {
+                for (MachineWatermark watermark : merged) {
+                    watermark.onFetched(startTime, fetchedEnd);
+                }
+            }
+            // Read after the watermarks, so the metrics of every second they cover are handed over.
+            long fetched = Long.MAX_VALUE;
+            for (MachineWatermark watermark : respondingWatermarks) {
+                fetched = Math.min(fetched, watermark.getFetched());
+            }
+            ingestedTimes.computeIfAbsent(app, a -> new IngestedTime())
+                .onHandedOver(fetched, ingestRing.getOffered());
+        }, fetchWorker);
+    }
+
+    private static boolean isFetchedByAny(List<MachineWatermark> watermarks, long timestamp) {
+        for (MachineWatermark watermark : watermarks) {
+            if (watermark.firstFetchedBetween(timestamp, timestamp) == timestamp) {
+                return true;
+            }
         }
-        long cost = System.currentTimeMillis() - start;
-        //logger.info("finished " + msg + " metric for " + app + ", time intervalMs [" + startTime + ", " + endTime
-        //    + "], total machines=" + machines.size() + ", dead=" + dead + ", fetch success="
-        //    + success + ", fetch fail=" + fail + ", time cost=" + cost + " ms");
-        writeMetric(metricMap);
+        return false;
+    }
+
+    /**
+     * Close the connections to the machines of the app which are not pulled any more.
+     *
+     * @param pulled {@code ip:port} of the machines pulled in this round
+     */
+    private void retainConnections(String app, List<String> pulled) {
+        Set<String> pooled = pooledMachines.computeIfAbsent(app, a -> ConcurrentHashMap.newKeySet());
+        Set<String> gone = new HashSet<>(pooled);
+        gone.removeAll(pulled);
+        pooled.removeAll(gone);
+        pooled.addAll(pulled);
+        closeConnections(gone);
     }
 
-    private void doFetchAppMetric(final String app) {
+    /**
+     * Fetch the next window of the app.
+     *
+     * @return future of the time the window after it is complete on the clients
+     */
+    private CompletableFuture<Long> doFetchAppMetric(final String app) {
         long now = System.currentTimeMillis();
         long lastFetchMs = now - MAX_LAST_FETCH_INTERVAL_MS;
         if (appLastFetchTime.containsKey(app)) {
@@ -318,98 +615,151 @@ public class MetricFetcher {
         }
         // trim milliseconds
         lastFetchMs = lastFetchMs / 1000 * 1000;
-        long endTime = lastFetchMs + FETCH_INTERVAL_SECOND * 1000;
-        if (endTime > now - 1000 * 2) {
+        final long endTime = lastFetchMs + FETCH_INTERVAL_SECOND * 1000;
+        if (endTime > now - FETCH_DELAY_MS) {
             // to near
-            return;
+            return CompletableFuture.completedFuture(endTime + FETCH_DELAY_MS);
         }
         // update last_fetch in advance.
         appLastFetchTime.computeIfAbsent(app, a -> new AtomicLong()).set(endTime);
         final long finalLastFetchMs = lastFetchMs;
-        final long finalEndTime = endTime;
+        final long nextDueTime = endTime + 1000 + FETCH_INTERVAL_SECOND * 1000 + FETCH_DELAY_MS;
+        CompletableFuture<Void> fetch;
         try {
-            // do real fetch async
-            fetchWorker.submit(() -> {
-                try {
-                    fetchOnce(app, finalLastFetchMs, finalEndTime, 5);
-                } catch (Exception e) {
-                    logger.info("fetchOnce(" + app + ") error", e);
-                }
-            });
+            long[] backfill = nextBackfillWindow(app, lastFetchMs, now);
+            fetch = fetchOnce(app, lastFetchMs, endTime, 5);
+            if (backfill != null) {
+                // Alongside the window, the watermarks join both of them whichever completes first.
+                long backfillStart = backfill[0];
+                long backfillEnd = backfill[1];
+                logger.debug("backfill(" + app + "), intervalMs [" + backfillStart + ", " + backfillEnd + "]");
+                CompletableFuture<Void> backfilled = fetchOnce(app, backfillStart, backfillEnd, 5)
+                    .exceptionally(e -> {
+                        logger.info("backfill(" + app + ") error, intervalMs [" + backfillStart + ", "
+                            + backfillEnd + "]", e);
+                        return null;
+                    });
+                fetch = CompletableFuture.allOf(fetch, backfilled);
+            }
         } catch (Exception e) {
-            logger.info("submit fetchOnce(" + app + ") fail, intervalMs [" + lastFetchMs + ", " + endTime + "]", e);
+            logger.info("fetchOnce(" + app + ") error, intervalMs [" + lastFetchMs + ", " + endTime + "]", e);
+            return CompletableFuture.completedFuture(nextDueTime);
         }
+        return fetch.handle((v, e) -> {
+            if (e != null) {
+                logger.info("fetchOnce(" + app + ") error, intervalMs [" + finalLastFetchMs + ", " + endTime + "]",
+                    e);
+            }
+            return nextDueTime;
+        });
     }
 
-    private void handleResponse(final HttpResponse response, MachineInfo machine,
-                                Map<String, MetricEntity> metricMap) throws Exception {
-        int code = response.getStatusLine().getStatusCode();
-        if (code != HTTP_OK) {
-            return;
+    /**
+     * Next chunk of the seconds before {@code startTime} missed by a healthy machine of the app and
+     * not older than the backfill horizon, or null if there is none. The whole app is refetched for
+     * missed seconds, as the metrics of a second are stored aggregated over all its machines.
+     * Machines which have answered no window since their miss are left out, a persistently slow
+     * machine would otherwise have the whole app pulled twice every round.
+     */
+    private long[] nextBackfillWindow(String app, long startTime, long now) {
+        Map<String, MachineWatermark> watermarks = machineWatermarks.get(app);
+        AppInfo appInfo = appManagement.getDetailApp(app);
+        if (watermarks == null || appInfo == null) {
+            return null;
         }
-        Charset charset = null;
-        try {
-            String contentTypeStr = response.getFirstHeader("Content-type").getValue();
-            if (StringUtil.isNotEmpty(contentTypeStr)) {
-                ContentType contentType = ContentType.parse(contentTypeStr);
-                charset = contentType.getCharset();
+        long horizon = (now - BACKFILL_HORIZON_MS) / 1000 * 1000;
+        long backfillStart = startTime;
+        long backfillEnd = startTime - 1000;
+        Set<String> current = new HashSet<>();
+        for (MachineInfo machine : appInfo.getMachines()) {
+            current.add(machine.toHostPort());
+            MachineWatermark watermark = watermarks.get(machine.toHostPort());
+            if (watermark == null || !machine.isHealthy()) {
+                continue;
+            }
+            watermark.giveUpBefore(horizon);
+            if (watermark.getGapEnd() == Long.MAX_VALUE) {
+                continue;
+            }
+            long missedFrom = watermark.getFetched() + 1000;
+            if (missedFrom < backfillStart) {
+                backfillStart = missedFrom;
+                backfillEnd = Math.min(startTime - 1000, watermark.getGapEnd());
             }
-        } catch (Exception ignore) {
         }
-        String body = EntityUtils.toString(response.getEntity(), charset != null ? charset : DEFAULT_CHARSET);
-        if (StringUtil.isEmpty(body) || body.startsWith(NO_METRICS)) {
-            //logger.info(machine.getApp() + ":" + machine.getIp() + ":" + machine.getPort() + ", bodyStr is empty");
-            return;
+        // Forget the machines removed from the app.
+        watermarks.keySet().retainAll(current);
+        if (backfillStart >= startTime) {
+            return null;
         }
-        String[] lines = body.split("\n");
-        //logger.info(machine.getApp() + ":" + machine.getIp() + ":" + machine.getPort() +
-        //    ", bodyStr.length()=" + body.length() + ", lines=" + lines.length);
-        handleBody(lines, machine, metricMap);
+        backfillEnd = Math.min(backfillEnd, backfillStart + BACKFILL_CHUNK_SECOND * 1000);
+        return new long[] {backfillStart, backfillEnd};
     }
 
-    private void handleBody(String[] lines, MachineInfo machine, Map<String, MetricEntity> map) {
-        //logger.info("handleBody() lines=" + lines.length + ", machine=" + machine);
-        if (lines.length < 1) {
-            return;
+    /**
+     * Parses the metric response as its content arrives and aggregates the lines into the partial
+     * of the response, without buffering the body.
+     */
+    private final class MetricResponseConsumer extends AsyncByteConsumer<Boolean> {
+
+        private final MachineInfo machine;
+        private final MetricAggregation.Partial partial;
+        private MetricLineParser parser;
+
+        MetricResponseConsumer(MachineInfo machine, MetricAggregation.Partial partial) {
+            this.machine = machine;
+            this.partial = partial;
         }
 
-        for (String line : lines) {
+        @Override
+        protected void onResponseReceived(final HttpResponse response) {
+            int code = response.getStatusLine().getStatusCode();
+            if (code != HTTP_OK) {
+                return;
+            }
+            Charset charset = null;
             try {
-                MetricNode node = MetricNode.fromThinString(line);
-                if (shouldFilterOut(node.getResource())) {
-                    continue;
+                String contentTypeStr = response.getFirstHeader("Content-type").getValue();
+                if (StringUtil.isNotEmpty(contentTypeStr)) {
+                    ContentType contentType = ContentType.parse(contentTypeStr);
+                    charset = contentType.getCharset();
                 }
-                /*
-                 * aggregation metrics by app_resource_timeSecond, ignore ip and port.
-                 */
-                String key = buildMetricKey(machine.getApp(), node.getResource(), node.getTimestamp());
-                MetricEntity entity = map.get(key);
-                if (entity != null) {
-                    entity.addPassQps(node.getPassQps());
-                    entity.addBlockQps(node.getBlockQps());
-                    entity.addRtAndSuccessQps(node.getRt(), node.getSuccessQps());
-                    entity.addExceptionQps(node.getExceptionQps());
-                    entity.addCount(1);
-                } else {
-                    entity = new MetricEntity();
-                    entity.setApp(machine.getApp());
-                    entity.setTimestamp(new Date(node.getTimestamp()));
-                    entity.setPassQps(node.getPassQps());
-                    entity.setBlockQps(node.getBlockQps());
-                    entity.setRtAndSuccessQps(node.getRt(), node.getSuccessQps());
-                    entity.setExceptionQps(node.getExceptionQps());
-                    entity.setCount(1);
-                    entity.setResource(node.getResource());
-                    map.put(key, entity);
-                }
-            } catch (Exception e) {
-                logger.warn("handleBody line exception, machine: {}, line: {}", machine.toLogString(), line);
+            } catch (Exception ignore) {
             }
+            parser = new MetricLineParser(resourceNames, charset != null ? charset : DEFAULT_CHARSET,
+                (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> {
+                    if (!shouldFilterOut(resource)) {
+                        partial.onMetric(timestamp, cardinalityLimiter.admit(machine.getApp(), resource), passQps,
+                            blockQps, successQps, exceptionQps, rt);
+                    }
+                });
+        }
+
+        @Override
+        protected void onByteReceived(ByteBuffer buf, IOControl ioctrl) {
+            if (parser == null) {
+                buf.position(buf.limit());
+                return;
+            }
+            parser.feed(buf);
         }
-    }
 
-    private String buildMetricKey(String app, String resource, long timestamp) {
-        return app + "__" + resource + "__" + (timestamp / 1000);
+        @Override
+        protected Boolean buildResult(HttpContext context) {
+            if (parser == null) {
+                return false;
+            }
+            parser.finish();
+            if (parser.getMalformedLines() > 0) {
+                logger.warn("handleBody skipped {} malformed lines, machine: {}", parser.getMalformedLines(),
+                    machine.toLogString());
+            }
+            if (partial.getOutOfWindow() > 0) {
+                logger.debug("handleBody dropped {} lines outside of the fetched window, machine: {}",
+                    partial.getOutOfWindow(), machine.toLogString());
+            }
+            return true;
+        }
     }
 
     private boolean shouldFilterOut(String resource) {
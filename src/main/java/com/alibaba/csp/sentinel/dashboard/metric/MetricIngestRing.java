@@ -0,0 +1,285 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded ring buffer handing the metrics of every fetch over to a single writer thread, so a slow
+ * metrics repository never stalls the fetching.
+ *
+ * <p>Every slot carries the entities of one fetch and a sequence number telling whether it is
+ * free or filled for the current lap of the ring. Fetches claim slots with a CAS on the tail and
+ * publish them by advancing their sequence, without locking. The writer drains the filled slots in
+ * order into one batch of at most {@code maxBatchPoints} entities for each repository write. When
+ * the ring is full, a fetch either waits for a free slot ({@link OverflowPolicy#BLOCK}) or drops the
+ * oldest slot itself to make room ({@link OverflowPolicy#DROP_OLDEST}).</p>
+ */
+final class MetricIngestRing {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricIngestRing.class);
+
+    private static final long FULL_WAIT_NANOS = 50_000;
+    private static final long IDLE_WAIT_NANOS = 10_000_000;
+
+    enum OverflowPolicy {
+        /**
+         * Wait for the writer to free a slot.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest metrics not written yet.
+         */
+        DROP_OLDEST;
+
+        static OverflowPolicy of(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private final int maxBatchPoints;
+    private final Consumer<List<MetricEntity>> writer;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Position before which every slot is written or dropped, only moved by the writer.
+     */
+    private volatile long written;
+
+    private final AtomicLong pendingPoints = new AtomicLong();
+    private final AtomicLong droppedPoints = new AtomicLong();
+    private final AtomicLong writtenPoints = new AtomicLong();
+    private final AtomicLong failedPoints = new AtomicLong();
+    private final AtomicLong writeBatches = new AtomicLong();
+
+    private final Thread writerThread;
+    private volatile boolean running;
+    private volatile boolean writerIdle;
+
+    /**
+     * @param capacity       number of slots, rounded up to a power of two
+     * @param policy         what to do when the ring is full
+     * @param maxBatchPoints max number of entities of a repository write
+     * @param writer         writes a batch to the repository
+     */
+    MetricIngestRing(int capacity, OverflowPolicy policy, int maxBatchPoints, Consumer<List<MetricEntity>> writer) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.policy = policy;
+        this.maxBatchPoints = maxBatchPoints;
+        this.writer = writer;
+        this.writerThread = new NamedThreadFactory("sentinel-dashboard-metrics-ingest", true)
+            .newThread(this::drainLoop);
+    }
+
+    void start() {
+        running = true;
+        writerThread.start();
+    }
+
+    /**
+     * Stop taking metrics, and wait for the writer to write the metrics taken.
+     */
+    void stop(long timeoutMs) throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(timeoutMs);
+    }
+
+    /**
+     * Hand the entities over to the writer, waiting or dropping older ones when the ring is full.
+     *
+     * @return false if the entities were dropped as the ring is stopped
+     */
+    boolean offer(List<MetricEntity> entities) {
+        if (entities.isEmpty()) {
+            return true;
+        }
+        pendingPoints.addAndGet(entities.size());
+        while (!tryOffer(entities)) {
+            if (!running) {
+                pendingPoints.addAndGet(-entities.size());
+                droppedPoints.addAndGet(entities.size());
+                return false;
+            }
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                List<MetricEntity> oldest = poll();
+                if (oldest != null) {
+                    pendingPoints.addAndGet(-oldest.size());
+                    droppedPoints.addAndGet(oldest.size());
+                }
+            } else {
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+            }
+        }
+        if (writerIdle) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return position after the last slot taken by a fetch, written once {@link #getWritten()} reaches it
+     */
+    long getOffered() {
+        return tail.get();
+    }
+
+    /**
+     * @return position before which every slot is written to the repository or dropped
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return number of slots filled and not taken by the writer yet
+     */
+    int getDepth() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    long getPendingPoints() {
+        return pendingPoints.get();
+    }
+
+    long getDroppedPoints() {
+        return droppedPoints.get();
+    }
+
+    long getWrittenPoints() {
+        return writtenPoints.get();
+    }
+
+    long getFailedPoints() {
+        return failedPoints.get();
+    }
+
+    long getWriteBatches() {
+        return writeBatches.get();
+    }
+
+    private boolean tryOffer(List<MetricEntity> entities) {
+        long pos = tail.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = entities;
+                    // Publishes the slot to the writer.
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Taken by the writer, and by fetches dropping the oldest slot.
+     */
+    @SuppressWarnings("unchecked")
+    private List<MetricEntity> poll() {
+        long pos = head.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    List<MetricEntity> entities = (List<MetricEntity>) slots[index];
+                    slots[index] = null;
+                    // Frees the slot for the next lap.
+                    sequences.set(index, pos + slots.length);
+                    return entities;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        List<MetricEntity> batch = new ArrayList<>();
+        for (; ; ) {
+            List<MetricEntity> entities;
+            while (batch.size() < maxBatchPoints && (entities = poll()) != null) {
+                batch.addAll(entities);
+            }
+            // Slots before the head are in this batch, or dropped by fetches.
+            long drained = head.get();
+            if (!batch.isEmpty()) {
+                write(batch, drained);
+                batch = new ArrayList<>();
+                continue;
+            }
+            written = drained;
+            if (!running) {
+                return;
+            }
+            writerIdle = true;
+            if (getDepth() == 0) {
+                LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+            }
+            writerIdle = false;
+        }
+    }
+
+    private void write(List<MetricEntity> batch, long drained) {
+        try {
+            writer.accept(batch);
+            writtenPoints.addAndGet(batch.size());
+            writeBatches.incrementAndGet();
+        } catch (Throwable e) {
+            failedPoints.addAndGet(batch.size());
+            logger.error("Failed to write {} metrics", batch.size(), e);
+        } finally {
+            written = drained;
+            pendingPoints.addAndGet(-batch.size());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incrementally parses the thin format served by the client's {@code metric} command,
+ * {@code timestamp|resource|passQps|blockQps|successQps|exceptionQps|rt[|...]} per line,
+ * straight from the response bytes.
+ *
+ * <p>Bytes are fed chunk by chunk as they arrive. Numbers are decoded in place and the resource
+ * name is the only object created per line, taken from a shared {@link ResourceNameCache} when
+ * the body is UTF-8. Malformed lines are skipped and counted. An instance parses one response
+ * and is not thread-safe.</p>
+ */
+final class MetricLineParser {
+
+    /**
+     * Lines longer than this are dropped rather than buffered.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final byte FIELD_SEPARATOR = '|';
+    private static final byte[] NO_METRICS = MetricFetcher.NO_METRICS.getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Receives the parsed metric lines.
+     */
+    interface MetricHandler {
+
+        void onMetric(long timestamp, String resource, long passQps, long blockQps, long successQps,
+                      long exceptionQps, long rt);
+    }
+
+    private final ResourceNameCache names;
+    private final Charset charset;
+    private final MetricHandler handler;
+
+    private byte[] line = new byte[256];
+    private int length;
+    private boolean overflow;
+
+    private int pos;
+    private boolean malformed;
+
+    private int parsedLines;
+    private int malformedLines;
+
+    MetricLineParser(ResourceNameCache names, Charset charset, MetricHandler handler) {
+        this.names = names;
+        this.charset = charset;
+        this.handler = handler;
+    }
+
+    void feed(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            int start = buf.arrayOffset() + buf.position();
+            feed(buf.array(), start, buf.remaining());
+            buf.position(buf.limit());
+        } else {
+            while (buf.hasRemaining()) {
+                append(buf.get());
+            }
+        }
+    }
+
+    void feed(byte[] bytes, int offset, int len) {
+        int lineStart = offset;
+        int end = offset + len;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == '\n') {
+                if (length == 0 && !overflow) {
+                    // The whole line is in the chunk, parse it without copying.
+                    parseLine(bytes, lineStart, i - lineStart);
+                } else {
+                    append(bytes, lineStart, i - lineStart);
+                    endLine();
+                }
+                lineStart = i + 1;
+            }
+        }
+        append(bytes, lineStart, end - lineStart);
+    }
+
+    /**
+     * Parse the last line if the body does not end with a line break.
+     */
+    void finish() {
+        if (length > 0 || overflow) {
+            endLine();
+        }
+    }
+
+    int getParsedLines() {
+        return parsedLines;
+    }
+
+    int getMalformedLines() {
+        return malformedLines;
+    }
+
+    private void append(byte b) {
+        if (b == '\n') {
+            endLine();
+        } else if (reserve(1)) {
+            line[length++] = b;
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int len) {
+        if (len > 0 && reserve(len)) {
+            System.arraycopy(bytes, offset, line, length, len);
+            length += len;
+        }
+    }
+
+    /**
+     * Make room for {@code len} more bytes of the current line, or flag it as overflowed.
+     */
+    private boolean reserve(int len) {
+        if (overflow) {
+            return false;
+        }
+        if (length + len > MAX_LINE_LENGTH) {
+            overflow = true;
+            return false;
+        }
+        if (length + len > line.length) {
+            byte[] grown = new byte[Math.min(MAX_LINE_LENGTH, Math.max(line.length * 2, length + len))];
+            System.arraycopy(line, 0, grown, 0, length);
+            line = grown;
+        }
+        return true;
+    }
+
+    private void endLine() {
+        if (overflow) {
+            malformedLines++;
+        } else {
+            parseLine(line, 0, length);
+        }
+        length = 0;
+        overflow = false;
+    }
+
+    private void parseLine(byte[] bytes, int offset, int len) {
+        int end = offset + len;
+        if (end > offset && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if (end == offset || startsWith(bytes, offset, end, NO_METRICS)) {
+            return;
+        }
+        pos = offset;
+        malformed = false;
+        long timestamp = nextLong(bytes, end);
+        int nameStart = pos;
+        int nameEnd = nameStart;
+        while (nameEnd < end && bytes[nameEnd] != FIELD_SEPARATOR) {
+            nameEnd++;
+        }
+        pos = nameEnd + 1;
+        long passQps = nextLong(bytes, end);
+        long blockQps = nextLong(bytes, end);
+        long successQps = nextLong(bytes, end);
+        long exceptionQps = nextLong(bytes, end);
+        long rt = nextLong(bytes, end);
+        // Trailing fields (occupied pass QPS, concurrency, classification) are not used.
+        if (malformed || nameEnd == nameStart || nameEnd >= end) {
+            malformedLines++;
+            return;
+        }
+        String resource = charset.equals(StandardCharsets.UTF_8)
+            ? names.get(bytes, nameStart, nameEnd - nameStart)
+            : new String(bytes, nameStart, nameEnd - nameStart, charset);
+        parsedLines++;
+        handler.onMetric(timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt);
+    }
+
+    /**
+     * Decode the decimal field at {@link #pos} and move past its separator, flagging
+     * {@link #malformed} if it is not a number.
+     */
+    private long nextLong(byte[] bytes, int end) {
+        int i = pos;
+        if (malformed || i >= end) {
+            malformed = true;
+            return 0;
+        }
+        boolean negative = bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        int digitsStart = i;
+        long value = 0;
+        while (i < end && bytes[i] != FIELD_SEPARATOR) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || i - digitsStart >= 18) {
+                malformed = true;
+                return 0;
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+        if (i == digitsStart) {
+            malformed = true;
+            return 0;
+        }
+        pos = i + 1;
+        return negative ? -value : value;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricVo;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Assembles the series of many resources of an app in parallel, for status boards loading
+ * hundreds of charts in one request. Every series ends at the same second, at most the last one
+ * fetched from every machine of the app and written, so a second being written meanwhile is in
+ * all the charts of a board or in none of them.
+ */
+@Component
+public class MetricSeriesAssembler {
+
+    @Value("${sentinel.metric.query.batch-threads:0}")
+    private int threads;
+
+    @Autowired
+    private MetricsRepository<MetricEntity> metricStore;
+    @Autowired
+    private MetricFetcher metricFetcher;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(count,
+            new NamedThreadFactory("sentinel-dashboard-metrics-query", true));
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Start assembling the series of the given resources. The end time is capped at the last second
+     * of the app fetched from every machine and written, unless the app has not been fetched yet.
+     *
+     * @return the series of each resource, in the order of {@code resources}
+     */
+    public List<CompletableFuture<List<MetricVo>>> assemble(String app, List<String> resources,
+                                                            long startTime, long endTime, int maxPoints) {
+        long ingestedTime = metricFetcher.getIngestedTime(app);
+        long seriesEndTime = ingestedTime < 0 ? endTime : Math.min(endTime, ingestedTime);
+        List<CompletableFuture<List<MetricVo>>> series = new ArrayList<>(resources.size());
+        for (String resource : resources) {
+            series.add(CompletableFuture.supplyAsync(() -> distinctByTimestamp(MetricVo.fromMetricEntities(
+                metricStore.queryByAppAndResourceBetween(app, resource, startTime, seriesEndTime, maxPoints),
+                resource)), executor));
+        }
+        return series;
+    }
+
+    /**
+     * Keep the latest created point of every timestamp, ordered by time. Repositories mostly
+     * return ordered series already, which only need a linear pass.
+     */
+    static List<MetricVo> distinctByTimestamp(List<MetricVo> vos) {
+        for (int i = 1; i < vos.size(); i++) {
+            if (vos.get(i).getTimestamp() < vos.get(i - 1).getTimestamp()) {
+                Map<Long, MetricVo> map = new TreeMap<>();
+                for (MetricVo vo : vos) {
+                    map.merge(vo.getTimestamp(), vo, MetricSeriesAssembler::latestCreated);
+                }
+                return new ArrayList<>(map.values());
+            }
+        }
+        List<MetricVo> distinct = new ArrayList<>(vos.size());
+        for (MetricVo vo : vos) {
+            int last = distinct.size() - 1;
+            if (last >= 0 && distinct.get(last).getTimestamp().equals(vo.getTimestamp())) {
+                distinct.set(last, latestCreated(distinct.get(last), vo));
+            } else {
+                distinct.add(vo);
+            }
+        }
+        return distinct;
+    }
+
+    private static MetricVo latestCreated(MetricVo a, MetricVo b) {
+        return b.getGmtCreate() > a.getGmtCreate() ? b : a;
+    }
+}
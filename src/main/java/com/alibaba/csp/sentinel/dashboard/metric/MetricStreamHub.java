@@ -0,0 +1,361 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricVo;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes the metrics written by {@link MetricFetcher} to dashboards subscribed to an app over
+ * server-sent events, instead of every open tab polling {@code MetricController}.
+ *
+ * <p>Subscribers of the same app share one fan-out: each written batch is serialized once, on a
+ * single fan-out thread, and the same payload is sent to every subscriber (subscribers watching
+ * a subset of resources get the matching points only). The cost thus follows the ingest rate
+ * rather than the number of viewers. Batches are dropped rather than queued without bound when
+ * the fan-out falls behind, as the next batch carries fresher points anyway.</p>
+ *
+ * <p>The fan-out thread never writes to a client itself: it puts the events into a small queue of
+ * each subscriber, drained by a pool of send threads. A subscriber whose queue is full, being too
+ * slow or stuck in a write, is dropped and its stream completed, so that one slow client cannot hold
+ * back the others; the browser reconnects on its own.</p>
+ */
+@Component
+public class MetricStreamHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricStreamHub.class);
+
+    private static final String METRIC_EVENT = "metric";
+
+    @Value("${sentinel.metric.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${sentinel.metric.stream.max-subscribers:256}")
+    private int maxSubscribers;
+
+    /**
+     * Written batches waiting for the fan-out thread.
+     */
+    @Value("${sentinel.metric.stream.queue-capacity:256}")
+    private int queueCapacity;
+
+    /**
+     * Events waiting to be sent to a subscriber, before it is dropped as too slow.
+     */
+    @Value("${sentinel.metric.stream.subscriber-queue-capacity:8}")
+    private int subscriberQueueCapacity;
+
+    @Value("${sentinel.metric.stream.send-threads:4}")
+    private int sendThreads;
+
+    /**
+     * Interval of the comments keeping idle streams open through proxies.
+     */
+    @Value("${sentinel.metric.stream.heartbeat-ms:15000}")
+    private long heartbeatMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * {@code app -> subscribers}, an app is removed with its last subscriber.
+     */
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final AtomicLong publishedPoints = new AtomicLong();
+    private final AtomicLong sentEvents = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong droppedSubscribers = new AtomicLong();
+
+    private ThreadPoolExecutor fanOutExecutor;
+    private ExecutorService sendExecutor;
+    private ScheduledExecutorService heartbeatService;
+
+    @PostConstruct
+    public void init() {
+        fanOutExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            new NamedThreadFactory("sentinel-dashboard-metrics-stream", true));
+        sendExecutor = Executors.newFixedThreadPool(Math.max(1, sendThreads),
+            new NamedThreadFactory("sentinel-dashboard-metrics-stream-send", true));
+        heartbeatService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-metrics-stream-heartbeat", true));
+        heartbeatService.scheduleAtFixedRate(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        heartbeatService.shutdownNow();
+        fanOutExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+        for (List<Subscriber> list : subscribers.values()) {
+            for (Subscriber subscriber : list) {
+                subscriber.emitter.complete();
+            }
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Subscribe to the metrics of an app.
+     *
+     * @param app       app to watch
+     * @param resources resources to watch, or {@code null} for all
+     * @return the event stream, or {@code null} if there are too many subscribers already
+     */
+    public SseEmitter subscribe(String app, Set<String> resources) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        return subscribe(app, resources, emitter) ? emitter : null;
+    }
+
+    boolean subscribe(String app, Set<String> resources, SseEmitter emitter) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(emitter, resources == null || resources.isEmpty() ? null : resources,
+            Math.max(1, subscriberQueueCapacity));
+        subscribers.compute(app, (k, list) -> {
+            List<Subscriber> result = list == null ? new CopyOnWriteArrayList<>() : list;
+            result.add(subscriber);
+            return result;
+        });
+        Runnable unsubscribe = () -> unsubscribe(app, subscriber);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+        return true;
+    }
+
+    /**
+     * @return whether the subscriber was still subscribed
+     */
+    private boolean unsubscribe(String app, Subscriber subscriber) {
+        boolean[] removed = new boolean[1];
+        subscribers.computeIfPresent(app, (k, list) -> {
+            if (list.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+                removed[0] = true;
+            }
+            return list.isEmpty() ? null : list;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Hand a written batch over to the fan-out thread. Returns at once when nobody is watching,
+     * so it costs the writer nothing without subscribers.
+     */
+    public void publish(List<MetricEntity> metrics) {
+        if (subscribers.isEmpty() || metrics == null || metrics.isEmpty()) {
+            return;
+        }
+        Map<String, List<MetricEntity>> byApp = new HashMap<>();
+        for (MetricEntity entity : metrics) {
+            if (subscribers.containsKey(entity.getApp())) {
+                byApp.computeIfAbsent(entity.getApp(), k -> new ArrayList<>()).add(entity);
+            }
+        }
+        for (Map.Entry<String, List<MetricEntity>> entry : byApp.entrySet()) {
+            try {
+                fanOutExecutor.execute(() -> fanOut(entry.getKey(), entry.getValue()));
+            } catch (RejectedExecutionException e) {
+                droppedBatches.incrementAndGet();
+            }
+        }
+    }
+
+    private void fanOut(String app, List<MetricEntity> metrics) {
+        List<Subscriber> list = subscribers.get(app);
+        if (list == null) {
+            return;
+        }
+        List<String> resources = new ArrayList<>(metrics.size());
+        List<String> points = new ArrayList<>(metrics.size());
+        for (MetricEntity entity : metrics) {
+            try {
+                points.add(objectMapper.writeValueAsString(MetricVo.fromMetricEntity(entity)));
+                resources.add(entity.getResource());
+            } catch (JsonProcessingException e) {
+                logger.warn("Failed to serialize metric of {}", app, e);
+            }
+        }
+        publishedPoints.addAndGet(points.size());
+        String all = null;
+        for (Subscriber subscriber : list) {
+            String payload;
+            if (subscriber.resources == null) {
+                if (all == null) {
+                    all = toArray(points, null, null);
+                }
+                payload = all;
+            } else {
+                payload = toArray(points, resources, subscriber.resources);
+                if (payload == null) {
+                    continue;
+                }
+            }
+            send(app, subscriber, SseEmitter.event().name(METRIC_EVENT).data(payload, MediaType.APPLICATION_JSON));
+        }
+    }
+
+    /**
+     * @return JSON array of the points of the given resources, {@code null} if there is none
+     */
+    private static String toArray(List<String> points, List<String> resources, Set<String> filter) {
+        StringBuilder sb = new StringBuilder().append('[');
+        for (int i = 0; i < points.size(); i++) {
+            if (filter != null && !filter.contains(resources.get(i))) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(points.get(i));
+        }
+        return sb.length() == 1 && filter != null ? null : sb.append(']').toString();
+    }
+
+    private void heartbeat() {
+        try {
+            fanOutExecutor.execute(() -> {
+                for (Map.Entry<String, List<Subscriber>> entry : subscribers.entrySet()) {
+                    for (Subscriber subscriber : entry.getValue()) {
+                        send(entry.getKey(), subscriber, SseEmitter.event().comment("heartbeat"));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The fan-out is busy sending, which keeps the streams open as well.
+        }
+    }
+
+    /**
+     * Queue an event for a subscriber, without waiting for the client.
+     */
+    private void send(String app, Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (subscriber.closed) {
+            return;
+        }
+        if (!subscriber.pending.offer(event)) {
+            subscriber.closed = true;
+            if (unsubscribe(app, subscriber)) {
+                droppedSubscribers.incrementAndGet();
+            }
+        }
+        scheduleFlush(app, subscriber);
+    }
+
+    private void scheduleFlush(String app, Subscriber subscriber) {
+        if (!subscriber.flushing.compareAndSet(false, true)) {
+            // The running flush sees the event, or the drop, once its current write is done.
+            return;
+        }
+        try {
+            sendExecutor.execute(() -> flush(app, subscriber));
+        } catch (RejectedExecutionException e) {
+            subscriber.flushing.set(false);
+        }
+    }
+
+    private void flush(String app, Subscriber subscriber) {
+        try {
+            SseEmitter.SseEventBuilder event;
+            while (!subscriber.closed && (event = subscriber.pending.poll()) != null) {
+                try {
+                    subscriber.emitter.send(event);
+                    sentEvents.incrementAndGet();
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away: the container may not tell us until the next write.
+                    subscriber.closed = true;
+                    unsubscribe(app, subscriber);
+                }
+            }
+            if (subscriber.closed) {
+                subscriber.pending.clear();
+                // Completed here rather than on the fan-out thread, as it waits for a write in progress.
+                subscriber.emitter.complete();
+                return;
+            }
+        } finally {
+            subscriber.flushing.set(false);
+        }
+        if (!subscriber.pending.isEmpty()) {
+            // Queued after the last poll but before the flag was cleared.
+            scheduleFlush(app, subscriber);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("apps", subscribers.size());
+        stats.put("subscribers", subscriberCount.get());
+        stats.put("maxSubscribers", maxSubscribers);
+        stats.put("pendingBatches", fanOutExecutor.getQueue().size());
+        stats.put("publishedPoints", publishedPoints.get());
+        stats.put("sentEvents", sentEvents.get());
+        stats.put("droppedBatches", droppedBatches.get());
+        stats.put("droppedSubscribers", droppedSubscribers.get());
+        return stats;
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final Set<String> resources;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> pending;
+        private final AtomicBoolean flushing = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscriber(SseEmitter emitter, Set<String> resources, int queueCapacity) {
+            this.emitter = emitter;
+            this.resources = resources;
+            this.pending = new ArrayBlockingQueue<>(queueCapacity);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the latest aggregated metrics of every app and resource in the Prometheus text
+ * exposition format, so they can be scraped from the dashboard rather than from every client.
+ *
+ * <p>Metrics are visited straight from the {@link MetricsRepository} and written to the given
+ * writer resource by resource, keeping only the points of the resource at hand. Each resource
+ * reports the average of its last {@code windowSeconds} seconds with data, so a scrape sees the
+ * same values whether or not the latest second was fetched yet.</p>
+ */
+@Component
+public class PrometheusMetricExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * How far behind now the latest second of a resource may be and still be exported.
+     */
+    private static final long MAX_LAG_MS = 15_000;
+    private static final int MAX_WINDOW_SECONDS = 60;
+
+    private static final String QPS_FAMILY = "sentinel_resource_qps";
+    private static final String RT_FAMILY = "sentinel_resource_rt_milliseconds";
+
+    @Value("${sentinel.metric.export.window-seconds:1}")
+    private int defaultWindowSeconds = 1;
+
+    @Autowired
+    private MetricsRepository<MetricEntity> metricStore;
+    @Autowired
+    private AppManagement appManagement;
+
+    /**
+     * Write all the series with the default window.
+     */
+    public void export(Writer writer) throws IOException {
+        export(writer, defaultWindowSeconds);
+    }
+
+    /**
+     * Write all the series, each averaged over its last {@code windowSeconds} seconds with data
+     * (1 to 60). The writer is neither flushed nor closed.
+     */
+    public void export(Writer writer, int windowSeconds) throws IOException {
+        int window = Math.max(1, Math.min(windowSeconds, MAX_WINDOW_SECONDS));
+        long endTime = TimeUtil.currentTimeMillis();
+        long startTime = endTime - MAX_LAG_MS - window * 1000L;
+        // Lines of a family must be contiguous, so every family walks the repository once.
+        writeHeader(writer, QPS_FAMILY, "Requests per second of a resource by type, averaged over the window.");
+        writeFamily(writer, new SeriesWindow(writer, window, true), startTime, endTime);
+        writeHeader(writer, RT_FAMILY, "Average response time of the successful requests of a resource.");
+        writeFamily(writer, new SeriesWindow(writer, window, false), startTime, endTime);
+    }
+
+    private void writeFamily(Writer writer, SeriesWindow series, long startTime, long endTime) throws IOException {
+        try {
+            for (String app : appManagement.getAppNames()) {
+                metricStore.forEachMetricOfApp(app, startTime, endTime, series);
+                series.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeHeader(Writer writer, String family, String help) throws IOException {
+        writer.write("# HELP ");
+        writer.write(family);
+        writer.write(' ');
+        writer.write(help);
+        writer.write("\n# TYPE ");
+        writer.write(family);
+        writer.write(" gauge\n");
+    }
+
+    /**
+     * The last points of the resource being visited, in a ring of one slot per second of the
+     * window. Writes the samples of the resource once the next one begins.
+     */
+    private static final class SeriesWindow implements Consumer<MetricEntity> {
+
+        private final Writer writer;
+        private final boolean qps;
+        private final long[] seconds;
+        private final long[] pass;
+        private final long[] block;
+        private final long[] success;
+        private final long[] exception;
+        private final double[] rt;
+
+        private String app;
+        private String resource;
+        private long latestSecond = -1;
+
+        private SeriesWindow(Writer writer, int window, boolean qps) {
+            this.writer = writer;
+            this.qps = qps;
+            this.seconds = new long[window];
+            this.pass = new long[window];
+            this.block = new long[window];
+            this.success = new long[window];
+            this.exception = new long[window];
+            this.rt = new double[window];
+        }
+
+        @Override
+        public void accept(MetricEntity entity) {
+            if (!Objects.equals(entity.getResource(), resource) || !Objects.equals(entity.getApp(), app)) {
+                flush();
+                app = entity.getApp();
+                resource = entity.getResource();
+            }
+            long second = entity.getTimestamp().getTime() / 1000;
+            int slot = (int) (second % seconds.length);
+            seconds[slot] = second;
+            pass[slot] = valueOf(entity.getPassQps());
+            block[slot] = valueOf(entity.getBlockQps());
+            success[slot] = valueOf(entity.getSuccessQps());
+            exception[slot] = valueOf(entity.getExceptionQps());
+            rt[slot] = entity.getRt();
+            latestSecond = Math.max(latestSecond, second);
+        }
+
+        /**
+         * Write the samples of the resource visited last, if any.
+         */
+        private void flush() {
+            if (latestSecond < 0) {
+                return;
+            }
+            int count = 0;
+            long passSum = 0, blockSum = 0, successSum = 0, exceptionSum = 0;
+            double rtSum = 0;
+            for (int slot = 0; slot < seconds.length; slot++) {
+                if (seconds[slot] > latestSecond - seconds.length) {
+                    count++;
+                    passSum += pass[slot];
+                    blockSum += block[slot];
+                    successSum += success[slot];
+                    exceptionSum += exception[slot];
+                    rtSum += rt[slot];
+                }
+                seconds[slot] = -1;
+            }
+            latestSecond = -1;
+            try {
+                if (qps) {
+                    writeSample(QPS_FAMILY, "pass", (double) passSum / count);
+                    writeSample(QPS_FAMILY, "block", (double) blockSum / count);
+                    writeSample(QPS_FAMILY, "success", (double) successSum / count);
+                    writeSample(QPS_FAMILY, "exception", (double) exceptionSum / count);
+                } else {
+                    // Rt of a point is the total of its successful requests.
+                    writeSample(RT_FAMILY, null, successSum == 0 ? 0 : rtSum / successSum);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeSample(String family, String type, double value) throws IOException {
+            writer.write(family);
+            writer.write("{app=\"");
+            writeLabelValue(app);
+            writer.write("\",resource=\"");
+            writeLabelValue(resource);
+            if (type != null) {
+                writer.write("\",type=\"");
+                writer.write(type);
+            }
+            writer.write("\"} ");
+            writer.write(Double.toString(value));
+            writer.write('\n');
+        }
+
+        private void writeLabelValue(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c == '\n') {
+                    writer.write("\\n");
+                } else {
+                    writer.write(c);
+                }
+            }
+        }
+
+        private static long valueOf(Long value) {
+            return value == null ? 0 : value;
+        }
+    }
+}
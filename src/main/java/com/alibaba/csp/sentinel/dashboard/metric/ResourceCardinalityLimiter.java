@@ -0,0 +1,226 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caps the number of distinct resources kept for an app, so an app reporting resources with
+ * unbounded names (e.g. URLs carrying IDs) cannot exhaust the dashboard.
+ *
+ * <p>Every app admits resources into an LRU of at most {@code maxResourcesPerApp} entries. Once it
+ * is full, a new resource takes the place of the least recently seen one only if that one has not
+ * been seen for {@code idleMs}; otherwise its metrics are folded into {@link #OTHER_RESOURCE}.
+ * Every resource inserted into the LRU, admitted or folded right after, is added to a HyperLogLog
+ * sketch which estimates how many distinct resources the app reports in total.</p>
+ *
+ * <p>The app also remembers up to {@code maxResourcesPerApp} recently folded resources, whose later
+ * points are folded without touching the LRU as long as its least recently seen resource is not
+ * idle.</p>
+ */
+@Component
+public class ResourceCardinalityLimiter {
+
+    public static final String OTHER_RESOURCE = "__other__";
+
+    private final Map<String, AppBudget> budgets = new ConcurrentHashMap<>();
+
+    /**
+     * Max distinct resources of an app, 0 for no limit.
+     */
+    @Value("${sentinel.metric.cardinality.max-resources-per-app:10000}")
+    private int maxResourcesPerApp;
+
+    /**
+     * How long an admitted resource must not be seen before a new one can take its place.
+     */
+    @Value("${sentinel.metric.cardinality.idle-ms:600000}")
+    private long idleMs;
+
+    public ResourceCardinalityLimiter() {
+    }
+
+    ResourceCardinalityLimiter(int maxResourcesPerApp, long idleMs) {
+        this.maxResourcesPerApp = maxResourcesPerApp;
+        this.idleMs = idleMs;
+    }
+
+    /**
+     * @return the resource if admitted, {@link #OTHER_RESOURCE} if it is folded
+     */
+    public String admit(String app, String resource) {
+        return admit(app, resource, TimeUtil.currentTimeMillis());
+    }
+
+    String admit(String app, String resource, long now) {
+        if (maxResourcesPerApp <= 0) {
+            return resource;
+        }
+        return budgets.computeIfAbsent(app, AppBudget::new).admit(resource, now);
+    }
+
+    /**
+     * @return the apps which had resources folded, the most resources first
+     */
+    public List<AppCardinality> getLimitedApps() {
+        List<AppCardinality> apps = new ArrayList<>();
+        for (AppBudget budget : budgets.values()) {
+            AppCardinality cardinality = budget.toCardinality();
+            if (cardinality.getFoldedPoints() > 0) {
+                apps.add(cardinality);
+            }
+        }
+        apps.sort((a, b) -> Long.compare(b.getEstimatedResources(), a.getEstimatedResources()));
+        return apps;
+    }
+
+    public void removeApp(String app) {
+        budgets.remove(app);
+    }
+
+    private final class AppBudget {
+        private final String app;
+        /**
+         * {@code resource -> last seen time}, in access order
+         */
+        private final LinkedHashMap<String, Long> admitted = new LinkedHashMap<>(16, 0.75f, true);
+        /**
+         * Recently folded resources, in insertion order
+         */
+        private final LinkedHashMap<String, Boolean> folded = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxResourcesPerApp;
+            }
+        };
+        private final HyperLogLog sketch = new HyperLogLog();
+        private long foldedPoints;
+        private long lastFoldedTime;
+
+        private AppBudget(String app) {
+            this.app = app;
+        }
+
+        private synchronized String admit(String resource, long now) {
+            if (folded.containsKey(resource) && !hasRoom(now)) {
+                return fold(now);
+            }
+            if (admitted.put(resource, now) != null) {
+                return resource;
+            }
+            // Seen resources are in the sketch already.
+            sketch.add(resource);
+            if (admitted.size() <= maxResourcesPerApp) {
+                folded.remove(resource);
+                return resource;
+            }
+            Iterator<Map.Entry<String, Long>> eldest = admitted.entrySet().iterator();
+            Map.Entry<String, Long> entry = eldest.next();
+            if (now - entry.getValue() > idleMs) {
+                eldest.remove();
+                folded.remove(resource);
+                return resource;
+            }
+            admitted.remove(resource);
+            folded.put(resource, Boolean.TRUE);
+            return fold(now);
+        }
+
+        /**
+         * @return true if a new resource would be admitted, without changing the LRU
+         */
+        private boolean hasRoom(long now) {
+            return admitted.size() < maxResourcesPerApp
+                || now - admitted.values().iterator().next() > idleMs;
+        }
+
+        private String fold(long now) {
+            foldedPoints++;
+            lastFoldedTime = now;
+            return OTHER_RESOURCE;
+        }
+
+        private synchronized AppCardinality toCardinality() {
+            return new AppCardinality(app, maxResourcesPerApp, admitted.size(),
+                Math.max(admitted.size(), sketch.estimate()), foldedPoints, lastFoldedTime);
+        }
+    }
+
+    /**
+     * Approximate distinct counter with 2^11 one-byte registers, about 2% standard error.
+     */
+    static final class HyperLogLog {
+
+        private static final int P = 11;
+        private static final int M = 1 << P;
+        private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+        private final byte[] registers = new byte[M];
+
+        void add(String value) {
+            long hash = hash(value);
+            int index = (int) (hash >>> (64 - P));
+            // Leading zeros of the remaining bits, capped by their number.
+            int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+            if (rank > registers[index]) {
+                registers[index] = (byte) rank;
+            }
+        }
+
+        long estimate() {
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double estimate = ALPHA * M * M / sum;
+            if (estimate <= 2.5 * M && zeros > 0) {
+                // Linear counting is more accurate for small cardinalities.
+                estimate = M * Math.log((double) M / zeros);
+            }
+            return Math.round(estimate);
+        }
+
+        /**
+         * FNV-1a over the chars, finished with the MurmurHash3 mix so every bit depends on them all.
+         */
+        private static long hash(String value) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                h ^= value.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
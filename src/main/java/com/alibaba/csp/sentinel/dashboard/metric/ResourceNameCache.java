@@ -0,0 +1,112 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A lossy cache decoding UTF-8 resource names, so the same resource reported every second by
+ * every machine is decoded into a {@link String} once rather than once per line.
+ *
+ * <p>Entries are immutable and published through a plain array: a racing reader either sees a
+ * complete entry or misses and decodes the name itself. A name takes the first free slot among a
+ * few probed ones, or evicts the entry of its home slot when they are all taken.</p>
+ */
+final class ResourceNameCache {
+
+    private static final int MAX_CACHED_LENGTH = 512;
+    /**
+     * Slots probed from the home slot of a name before evicting the home slot's entry.
+     */
+    private static final int PROBES = 4;
+
+    private final Entry[] entries;
+    private final int mask;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    ResourceNameCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    String get(byte[] bytes, int offset, int length) {
+        if (length > MAX_CACHED_LENGTH) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        int hash = hash(bytes, offset, length);
+        int home = hash & mask;
+        int free = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & mask;
+            Entry entry = entries[slot];
+            if (entry == null) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (entry.hash == hash && entry.matches(bytes, offset, length)) {
+                return entry.name;
+            }
+        }
+        String name = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        entries[free >= 0 ? free : home] = new Entry(hash, Arrays.copyOfRange(bytes, offset, offset + length), name);
+        return name;
+    }
+
+    /**
+     * Polynomial hash over all the bytes, four at a time so consecutive steps do not wait on
+     * each other's multiplication.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = length;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 3 < end; i += 4) {
+            h = 923521 * h + 29791 * bytes[i] + 961 * bytes[i + 1] + 31 * bytes[i + 2] + bytes[i + 3];
+        }
+        for (; i < end; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+        private final int hash;
+        private final byte[] bytes;
+        private final String name;
+
+        private Entry(int hash, byte[] bytes, String name) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.name = name;
+        }
+
+        private boolean matches(byte[] other, int offset, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
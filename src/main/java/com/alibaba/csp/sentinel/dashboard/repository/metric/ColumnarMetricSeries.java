@@ -0,0 +1,390 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Metrics of a single resource, one point per second. Each metric field of the current and the
+ * previous minute is kept in its own primitive column of a ring buffer, so a hot point costs a
+ * few dozen bytes instead of a {@link MetricEntity} graph. Once a minute is older than that, it
+ * is sealed into an immutable {@link GorillaBlock} and only decoded when queried.
+ *
+ * <p>Writes take the write lock of this series only. Reads are optimistic and only fall back
+ * to the read lock when a write raced with them, so readers never block the writer. Sealed
+ * blocks are published copy-on-write and decoded outside the lock.</p>
+ */
+class ColumnarMetricSeries {
+
+    private static final long SECOND_MS = 1000;
+    private static final int WINDOW_SECONDS = 60;
+    private static final long WINDOW_MS = WINDOW_SECONDS * SECOND_MS;
+    /**
+     * The current window and the previous one, which may still get late or backfilled points.
+     */
+    private static final int HOT_CAPACITY = WINDOW_SECONDS * 2;
+
+    private static final int CHANGE_LOG_CAPACITY = 128;
+
+    private static final GorillaBlock[] NO_BLOCKS = new GorillaBlock[0];
+
+    private final StampedLock lock = new StampedLock();
+
+    private final String app;
+    private final String resource;
+
+    /**
+     * Original timestamp of the point in each slot, {@code 0} means the slot is empty.
+     */
+    private final long[] timestamps = new long[HOT_CAPACITY];
+    private final long[] gmtCreates = new long[HOT_CAPACITY];
+    private final long[] passQps = new long[HOT_CAPACITY];
+    private final long[] successQps = new long[HOT_CAPACITY];
+    private final long[] blockQps = new long[HOT_CAPACITY];
+    private final long[] exceptionQps = new long[HOT_CAPACITY];
+    private final double[] rt = new double[HOT_CAPACITY];
+    private final int[] counts = new int[HOT_CAPACITY];
+
+    private final SeriesChangeLog changeLog = new SeriesChangeLog(CHANGE_LOG_CAPACITY);
+
+    private long latestTimestamp;
+
+    private boolean released;
+
+    /**
+     * Sealed windows in time order.
+     */
+    private volatile GorillaBlock[] sealed = NO_BLOCKS;
+
+    ColumnarMetricSeries(String app, String resource) {
+        this.app = app;
+        this.resource = resource;
+    }
+
+    /**
+     * Put the metric into the slot of its second. A point of the same second replaces the
+     * existing one, while a point older than the one already in the slot is dropped. Moving to
+     * a new minute seals the minutes before the previous one, and discards sealed blocks
+     * entirely older than {@code minTime}.
+     *
+     * @param entity metric to store
+     * @param writeTime time of the write, recorded for {@link #changedSince(long, long)}
+     * @param minTime time before which points are expired
+     * @return true if the point was stored, false if it is older or the series is released
+     */
+    boolean put(MetricEntity entity, long writeTime, long minTime) {
+        long timestamp = entity.getTimestamp().getTime();
+        long window = timestamp / WINDOW_MS;
+        int slot = slotOf(timestamp);
+        long stamp = lock.writeLock();
+        try {
+            if (released) {
+                return false;
+            }
+            if (latestTimestamp != 0) {
+                long latestWindow = latestTimestamp / WINDOW_MS;
+                if (window < latestWindow - 1) {
+                    putSealed(entity, window);
+                    changeLog.record(writeTime, timestamp / SECOND_MS);
+                    return true;
+                }
+                if (window > latestWindow) {
+                    sealBefore(window - 1, minTime);
+                }
+            }
+            long existing = timestamps[slot];
+            if (existing != 0 && existing / SECOND_MS > timestamp / SECOND_MS) {
+                return false;
+            }
+            timestamps[slot] = timestamp;
+            gmtCreates[slot] = entity.getGmtCreate() == null ? timestamp : entity.getGmtCreate().getTime();
+            passQps[slot] = valueOf(entity.getPassQps());
+            successQps[slot] = valueOf(entity.getSuccessQps());
+            blockQps[slot] = valueOf(entity.getBlockQps());
+            exceptionQps[slot] = valueOf(entity.getExceptionQps());
+            rt[slot] = entity.getRt();
+            counts[slot] = entity.getCount();
+            changeLog.record(writeTime, timestamp / SECOND_MS);
+            if (timestamp > latestTimestamp) {
+                latestTimestamp = timestamp;
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Seal the hot windows before {@code window}. Called with the write lock held.
+     */
+    private void sealBefore(long window, long minTime) {
+        long latestWindow = latestTimestamp / WINDOW_MS;
+        List<GorillaBlock> blocks = new ArrayList<>();
+        for (long w = latestWindow - 1; w <= latestWindow && w < window; w++) {
+            GorillaBlock block = seal(w);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        GorillaBlock[] current = sealed;
+        int expired = 0;
+        while (expired < current.length && current[expired].getLastTimestamp() < minTime) {
+            expired++;
+        }
+        if (expired == 0 && blocks.isEmpty()) {
+            return;
+        }
+        GorillaBlock[] next = Arrays.copyOfRange(current, expired, current.length + blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            next[current.length - expired + i] = blocks.get(i);
+        }
+        sealed = next;
+    }
+
+    /**
+     * Re-encode the sealed block of {@code window} with a late point, which is rare enough
+     * (a backfill crossing minutes) not to deserve a mutable cold format. Called with the write
+     * lock held.
+     */
+    private void putSealed(MetricEntity entity, long window) {
+        GorillaBlock[] current = sealed;
+        int index = 0;
+        while (index < current.length && current[index].getLastTimestamp() / WINDOW_MS < window) {
+            index++;
+        }
+        boolean exists = index < current.length && current[index].getFirstTimestamp() / WINDOW_MS == window;
+        List<MetricEntity> points = new ArrayList<>();
+        if (exists) {
+            current[index].decodeInto(app, resource, Long.MIN_VALUE, Long.MAX_VALUE, points);
+        }
+        long second = entity.getTimestamp().getTime() / SECOND_MS;
+        int position = 0;
+        while (position < points.size() && points.get(position).getTimestamp().getTime() / SECOND_MS < second) {
+            position++;
+        }
+        if (position < points.size() && points.get(position).getTimestamp().getTime() / SECOND_MS == second) {
+            points.set(position, entity);
+        } else {
+            points.add(position, entity);
+        }
+        GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+        for (MetricEntity point : points) {
+            long timestamp = point.getTimestamp().getTime();
+            encoder.append(timestamp, point.getGmtCreate() == null ? timestamp : point.getGmtCreate().getTime(),
+                valueOf(point.getPassQps()), valueOf(point.getSuccessQps()), valueOf(point.getBlockQps()),
+                valueOf(point.getExceptionQps()), point.getRt(), point.getCount());
+        }
+        GorillaBlock[] next;
+        if (exists) {
+            next = current.clone();
+        } else {
+            next = new GorillaBlock[current.length + 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index, next, index + 1, current.length - index);
+        }
+        next[index] = encoder.build();
+        sealed = next;
+    }
+
+    private GorillaBlock seal(long window) {
+        GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+        int first = (int) (window * WINDOW_SECONDS % HOT_CAPACITY);
+        for (int slot = first; slot < first + WINDOW_SECONDS; slot++) {
+            long timestamp = timestamps[slot];
+            if (timestamp != 0 && timestamp / WINDOW_MS == window) {
+                encoder.append(timestamp, gmtCreates[slot], passQps[slot], successQps[slot], blockQps[slot],
+                    exceptionQps[slot], rt[slot], counts[slot]);
+            }
+            timestamps[slot] = 0;
+        }
+        return encoder.getCount() == 0 ? null : encoder.build();
+    }
+
+    /**
+     * Materialize the points within {@code [startTime, endTime]} in time order.
+     * Points older than {@code minTime} are treated as expired.
+     */
+    List<MetricEntity> query(long startTime, long endTime, long minTime) {
+        long stamp = lock.tryOptimisticRead();
+        GorillaBlock[] blocks = sealed;
+        List<MetricEntity> hot = collect(startTime, endTime, minTime);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                blocks = sealed;
+                hot = collect(startTime, endTime, minTime);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (blocks.length == 0) {
+            return hot;
+        }
+        long lowerBound = Math.max(startTime, minTime);
+        List<MetricEntity> results = new ArrayList<>();
+        for (GorillaBlock block : blocks) {
+            block.decodeInto(app, resource, lowerBound, endTime, results);
+        }
+        results.addAll(hot);
+        return results;
+    }
+
+    /**
+     * Materialize the points written at or after {@code since} in time order, looking up the
+     * seconds named by the change log rather than walking the series.
+     *
+     * @return the changed points, or {@code null} if the change log no longer goes back that far
+     */
+    List<MetricEntity> changedSince(long since, long minTime) {
+        long stamp = lock.tryOptimisticRead();
+        GorillaBlock[] blocks = sealed;
+        long[] seconds = changeLog.secondsSince(since);
+        List<MetricEntity> hot = seconds == null ? null : collectHot(seconds, minTime);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                blocks = sealed;
+                seconds = changeLog.secondsSince(since);
+                hot = seconds == null ? null : collectHot(seconds, minTime);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (seconds == null || hot.size() == seconds.length) {
+            return hot;
+        }
+        // The remaining seconds were amended after their minute got sealed.
+        long[] sealedSeconds = new long[seconds.length - hot.size()];
+        int count = 0;
+        int h = 0;
+        for (long second : seconds) {
+            if (h < hot.size() && hot.get(h).getTimestamp().getTime() / SECOND_MS == second) {
+                h++;
+            } else {
+                sealedSeconds[count++] = second;
+            }
+        }
+        List<MetricEntity> decoded = new ArrayList<>();
+        for (GorillaBlock block : blocks) {
+            block.decodeInto(app, resource, Math.max(sealedSeconds[0] * SECOND_MS, minTime),
+                sealedSeconds[count - 1] * SECOND_MS + SECOND_MS - 1, decoded);
+        }
+        List<MetricEntity> results = new ArrayList<>(count + hot.size());
+        for (MetricEntity entity : decoded) {
+            if (Arrays.binarySearch(sealedSeconds, 0, count, entity.getTimestamp().getTime() / SECOND_MS) >= 0) {
+                results.add(entity);
+            }
+        }
+        results.addAll(hot);
+        return results;
+    }
+
+    /**
+     * Release the series if its latest point is older than {@code minTime}, later puts are refused.
+     *
+     * @return true if released
+     */
+    boolean releaseIfOlderThan(long minTime) {
+        long stamp = lock.writeLock();
+        try {
+            if (latestTimestamp < minTime) {
+                released = true;
+            }
+            return released;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    boolean isReleased() {
+        long stamp = lock.readLock();
+        try {
+            return released;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<MetricEntity> collectHot(long[] seconds, long minTime) {
+        List<MetricEntity> results = new ArrayList<>(seconds.length);
+        if (latestTimestamp == 0) {
+            return results;
+        }
+        long lowerBound = Math.max(minTime, oldestHot());
+        for (long second : seconds) {
+            int slot = (int) (second % HOT_CAPACITY);
+            long timestamp = timestamps[slot];
+            if (timestamp != 0 && timestamp / SECOND_MS == second && timestamp >= lowerBound) {
+                results.add(toEntity(slot));
+            }
+        }
+        return results;
+    }
+
+    private List<MetricEntity> collect(long startTime, long endTime, long minTime) {
+        List<MetricEntity> results = new ArrayList<>();
+        if (latestTimestamp == 0) {
+            return results;
+        }
+        long lowerBound = Math.max(Math.max(startTime, minTime), oldestHot());
+        // Walk the ring from the oldest slot so the result is naturally ordered by time.
+        int first = slotOf(latestTimestamp) + 1;
+        for (int i = 0; i < HOT_CAPACITY; i++) {
+            int slot = (first + i) % HOT_CAPACITY;
+            long timestamp = timestamps[slot];
+            if (timestamp == 0 || timestamp < lowerBound || timestamp > endTime) {
+                continue;
+            }
+            results.add(toEntity(slot));
+        }
+        return results;
+    }
+
+    private long oldestHot() {
+        return (latestTimestamp / WINDOW_MS - 1) * WINDOW_MS;
+    }
+
+    private MetricEntity toEntity(int slot) {
+        MetricEntity entity = new MetricEntity();
+        Date gmtCreate = new Date(gmtCreates[slot]);
+        entity.setGmtCreate(gmtCreate);
+        entity.setGmtModified(gmtCreate);
+        entity.setApp(app);
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamps[slot]));
+        entity.setPassQps(passQps[slot]);
+        entity.setSuccessQps(successQps[slot]);
+        entity.setBlockQps(blockQps[slot]);
+        entity.setExceptionQps(exceptionQps[slot]);
+        entity.setRt(rt[slot]);
+        entity.setCount(counts[slot]);
+        return entity;
+    }
+
+    private int slotOf(long timestamp) {
+        return (int) ((timestamp / SECOND_MS) % HOT_CAPACITY);
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+}
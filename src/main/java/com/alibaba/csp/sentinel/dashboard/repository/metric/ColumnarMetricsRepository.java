@@ -0,0 +1,210 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches metrics data of the last few minutes in memory, keeping every resource in a
+ * {@link ColumnarMetricSeries} (a per-second ring buffer of primitive columns) rather than
+ * a map of {@link MetricEntity}. Entities are only materialized when queried. Minutes older
+ * than the previous one are kept compressed, so a longer retention
+ * ({@code sentinel.metric.columnar.retention-minutes}) costs little heap. Series not written
+ * within the retention are dropped by a background sweeper.
+ *
+ * <p>Enabled by {@code sentinel.metric.repository.type=columnar}.</p>
+ */
+@Component
+@ConditionalOnProperty(name = "sentinel.metric.repository.type", havingValue = "columnar")
+public class ColumnarMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarMetricsRepository.class);
+
+    private static final int DEFAULT_RETENTION_MINUTES = 5;
+
+    @Value("${sentinel.metric.columnar.retention-minutes:5}")
+    private int retentionMinutes = DEFAULT_RETENTION_MINUTES;
+
+    /**
+     * {@code app -> resource -> series}
+     */
+    private final Map<String, Map<String, ColumnarMetricSeries>> allMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * Last-minute ranking of resources, maintained on every write.
+     */
+    private final ResourceRankIndex rankIndex = new ResourceRankIndex();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("sentinel-dashboard-metrics-columnar-sweeper", true));
+
+    @PostConstruct
+    public void init() {
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                purgeExpiredSeries(TimeUtil.currentTimeMillis());
+            } catch (Throwable e) {
+                logger.warn("Columnar metric sweep error", e);
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getTimestamp() == null) {
+            return;
+        }
+        long minTime = minRetainedTime();
+        if (entity.getTimestamp().getTime() < minTime) {
+            return;
+        }
+        Map<String, ColumnarMetricSeries> resourceMap = allMetrics.computeIfAbsent(entity.getApp(),
+            e -> new ConcurrentHashMap<>(16));
+        for (; ; ) {
+            ColumnarMetricSeries series = resourceMap.computeIfAbsent(entity.getResource(),
+                e -> new ColumnarMetricSeries(entity.getApp(), entity.getResource()));
+            if (series.put(entity, TimeUtil.currentTimeMillis(), minTime) || !series.isReleased()) {
+                break;
+            }
+            // Released by the sweeper meanwhile, put into a new series.
+        }
+        rankIndex.update(entity.getApp(), entity.getResource(), entity.getTimestamp().getTime(),
+            valueOf(entity.getPassQps()), valueOf(entity.getBlockQps()));
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        metrics.forEach(this::save);
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        Map<String, ColumnarMetricSeries> resourceMap = allMetrics.get(app);
+        if (resourceMap == null) {
+            return new ArrayList<>();
+        }
+        ColumnarMetricSeries series = resourceMap.get(resource);
+        if (series == null) {
+            return new ArrayList<>();
+        }
+        return series.query(startTime, endTime, minRetainedTime());
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceChangedSince(String app, String resource, long sinceTimestamp,
+                                                                long startTime, long endTime) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        Map<String, ColumnarMetricSeries> resourceMap = allMetrics.get(app);
+        ColumnarMetricSeries series = resourceMap == null ? null : resourceMap.get(resource);
+        if (series == null) {
+            return new ArrayList<>();
+        }
+        long minTime = Math.max(startTime, minRetainedTime());
+        List<MetricEntity> changed = series.changedSince(sinceTimestamp, minTime);
+        if (changed == null) {
+            return series.query(startTime, endTime, minRetainedTime());
+        }
+        changed.removeIf(entity -> entity.getTimestamp().getTime() > endTime);
+        return changed;
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return listResourcesOfApp(app, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app, int offset, int limit) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        return rankIndex.list(app, offset, limit);
+    }
+
+    @Override
+    public int countResourcesOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return 0;
+        }
+        return rankIndex.count(app);
+    }
+
+    /**
+     * Drop the series without a point within the retention, from the series and the ranking.
+     */
+    void purgeExpiredSeries(long now) {
+        long minTime = now - retentionMinutes * 60_000L;
+        // App maps are kept, a writer may be about to put into one of them.
+        for (Map<String, ColumnarMetricSeries> resourceMap : allMetrics.values()) {
+            for (Map.Entry<String, ColumnarMetricSeries> entry : resourceMap.entrySet()) {
+                ColumnarMetricSeries series = entry.getValue();
+                if (series.releaseIfOlderThan(minTime)) {
+                    resourceMap.remove(entry.getKey(), series);
+                }
+            }
+        }
+        rankIndex.purgeExpired(now);
+    }
+
+    int getLiveSeries() {
+        int series = 0;
+        for (Map<String, ColumnarMetricSeries> resourceMap : allMetrics.values()) {
+            series += resourceMap.size();
+        }
+        return series;
+    }
+
+    private long minRetainedTime() {
+        return TimeUtil.currentTimeMillis() - retentionMinutes * 60_000L;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Persists metrics to local memory-mapped {@link MetricSegment} files, so history survives
+ * restarts and can be kept for days without an external database.
+ *
+ * <p>Besides the per-second points, the repository rolls metrics up into the {@link RollupTier}s
+ * as they are written. Segments are partitioned by app, tier and time:
+ * {@code <dir>/<app>/<tier>/<partitionStart>-<seq>.seg}. A segment that reaches
+ * {@code sentinel.metric.file.segment-size-mb} rolls over to the next sequence. Per-second
+ * segments are kept for {@code sentinel.metric.file.retention-hours} and rollups for
+ * {@code sentinel.metric.file.rollup-retention-hours}, then deleted by a background sweeper.
+ * Per-second segments of the earlier {@code <dir>/<app>/<hourStart>-<seq>.seg} layout are moved
+ * into the {@code 1s} tier directory on startup.</p>
+ *
+ * <p>Enabled by {@code sentinel.metric.repository.type=file}.</p>
+ */
+@Component
+@ConditionalOnProperty(name = "sentinel.metric.repository.type", havingValue = "file")
+public class FileMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileMetricsRepository.class);
+
+    private static final long HOUR_MS = 1000 * 60 * 60;
+    private static final String RAW_DIR = "1s";
+    private static final String FILE_ENCODING = "UTF-8";
+
+    private final File baseDir;
+    private final int segmentMaxSize;
+
+    private final SegmentStore rawStore;
+    private final Map<RollupTier, SegmentStore> rollupStores = new EnumMap<>(RollupTier.class);
+    private final Map<RollupTier, MetricRollup> rollups = new EnumMap<>(RollupTier.class);
+
+    /**
+     * Last-minute ranking of resources, maintained on every write.
+     */
+    private final ResourceRankIndex rankIndex = new ResourceRankIndex();
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("sentinel-dashboard-metrics-file-sweeper", true));
+
+    public FileMetricsRepository(
+            @Value("${sentinel.metric.file.dir:${user.home}/logs/csp/sentinel-dashboard-metrics}") String baseDir,
+            @Value("${sentinel.metric.file.retention-hours:72}") int retentionHours,
+            @Value("${sentinel.metric.file.rollup-retention-hours:720}") int rollupRetentionHours,
+            @Value("${sentinel.metric.file.segment-size-mb:64}") int segmentSizeMb) {
+        this.baseDir = new File(baseDir);
+        this.segmentMaxSize = segmentSizeMb * 1024 * 1024;
+        this.rawStore = new SegmentStore(RAW_DIR, HOUR_MS, retentionHours * HOUR_MS);
+        MetricRollup.PointSource rawPoints = (app, resource, startTime, endTime) ->
+            rawStore.query(app, resource, startTime, endTime).values();
+        for (RollupTier tier : RollupTier.values()) {
+            rollupStores.put(tier, new SegmentStore(tier.getName(), tier.getPartitionMs(),
+                Math.max(rollupRetentionHours, retentionHours) * HOUR_MS));
+            rollups.put(tier, new MetricRollup(tier, rawPoints));
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create metric directory: " + baseDir);
+        }
+        migrateLegacySegments();
+        logger.info("Metrics are persisted to {}, retention {} hours", baseDir, rawStore.retentionMs / HOUR_MS);
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                long now = TimeUtil.currentTimeMillis();
+                closeIdleRollups(now);
+                flush();
+                purgeExpiredSegments(now);
+            } catch (Throwable e) {
+                logger.warn("Metric segment sweep error", e);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void close() {
+        sweeper.shutdownNow();
+        closeIdleRollups(Long.MAX_VALUE);
+        rawStore.close();
+        rollupStores.values().forEach(SegmentStore::close);
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        // Buckets made stale by a single point are rebuilt by the next batch or sweep.
+        append(entity);
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        metrics.forEach(this::append);
+        // Once per batch, a backfill brings several late seconds of the same buckets.
+        rebuildStaleRollups();
+    }
+
+    private void append(MetricEntity entity) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getTimestamp() == null) {
+            return;
+        }
+        long timestamp = entity.getTimestamp().getTime();
+        if (timestamp < TimeUtil.currentTimeMillis() - rawStore.retentionMs) {
+            return;
+        }
+        if (!rawStore.append(entity)) {
+            return;
+        }
+        for (MetricRollup rollup : rollups.values()) {
+            MetricEntity closed = rollup.add(entity);
+            if (closed != null) {
+                rollupStores.get(rollup.getTier()).append(closed);
+            }
+        }
+        rankIndex.update(entity.getApp(), entity.getResource(), timestamp,
+            valueOf(entity.getPassQps()), valueOf(entity.getBlockQps()));
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        if (StringUtil.isBlank(app) || resource == null || startTime > endTime) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(rawStore.query(app, resource, startTime, endTime).values());
+    }
+
+    /**
+     * Serve the range from the finest resolution that fits in {@code maxPoints} points and is
+     * still retained for the whole range: per-second points, or one of the {@link RollupTier}s.
+     */
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime, int maxPoints) {
+        if (StringUtil.isBlank(app) || resource == null || startTime > endTime) {
+            return new ArrayList<>();
+        }
+        long now = TimeUtil.currentTimeMillis();
+        if ((endTime - startTime) / 1000 + 1 <= maxPoints && startTime >= now - rawStore.retentionMs) {
+            return queryByAppAndResourceBetween(app, resource, startTime, endTime);
+        }
+        RollupTier tier = RollupTier.TEN_MINUTES;
+        for (RollupTier candidate : RollupTier.values()) {
+            if (candidate.pointsBetween(startTime, endTime) <= maxPoints
+                && startTime >= now - rollupStores.get(candidate).retentionMs) {
+                tier = candidate;
+                break;
+            }
+        }
+        return queryRollup(tier, app, resource, startTime, endTime);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return listResourcesOfApp(app, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app, int offset, int limit) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        return rankIndex.list(app, offset, limit);
+    }
+
+    @Override
+    public int countResourcesOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return 0;
+        }
+        return rankIndex.count(app);
+    }
+
+    List<MetricEntity> queryRollup(RollupTier tier, String app, String resource, long startTime, long endTime) {
+        // Buckets are keyed by their start, so include the bucket the start time falls into.
+        long bucketStart = tier.bucketOf(startTime);
+        TreeMap<Long, MetricEntity> points = rollupStores.get(tier).query(app, resource, bucketStart, endTime);
+        MetricEntity open = rollups.get(tier).peek(app, resource);
+        if (open != null) {
+            long timestamp = open.getTimestamp().getTime();
+            if (timestamp >= bucketStart && timestamp <= endTime) {
+                points.put(timestamp, open);
+            }
+        }
+        return new ArrayList<>(points.values());
+    }
+
+    /**
+     * Persist the rollup buckets which have been idle long enough, and the stale ones again.
+     */
+    void closeIdleRollups(long now) {
+        for (MetricRollup rollup : rollups.values()) {
+            SegmentStore store = rollupStores.get(rollup.getTier());
+            rollup.closeIdle(now).forEach(store::append);
+        }
+        rebuildStaleRollups();
+    }
+
+    /**
+     * Persist the closed rollup buckets again which got late points.
+     */
+    private void rebuildStaleRollups() {
+        for (MetricRollup rollup : rollups.values()) {
+            SegmentStore store = rollupStores.get(rollup.getTier());
+            rollup.rebuildStale().forEach(store::append);
+        }
+    }
+
+    /**
+     * Force the pages of all open segments to disk.
+     */
+    void flush() {
+        rawStore.flush();
+        rollupStores.values().forEach(SegmentStore::flush);
+    }
+
+    /**
+     * Delete the segments of the partitions which ended before the retention period, and drop the
+     * ranking of the resources without a point in the last minute.
+     */
+    void purgeExpiredSegments(long now) {
+        rawStore.purge(now);
+        rollupStores.values().forEach(store -> store.purge(now));
+        rankIndex.purgeExpired(now);
+    }
+
+    /**
+     * Move the per-second segments written directly into the app directories, before segments were
+     * partitioned by tier, to the per-second tier. They share its hourly partitions and file names.
+     */
+    private void migrateLegacySegments() {
+        File[] appDirs = baseDir.listFiles(File::isDirectory);
+        if (appDirs == null) {
+            return;
+        }
+        for (File appDir : appDirs) {
+            File[] files = appDir.listFiles((dir, fileName) -> fileName.endsWith(MetricSegment.FILE_SUFFIX));
+            if (files == null || files.length == 0) {
+                continue;
+            }
+            File rawDir = new File(appDir, RAW_DIR);
+            if (!rawDir.isDirectory() && !rawDir.mkdirs()) {
+                logger.warn("Cannot create metric directory: {}", rawDir);
+                continue;
+            }
+            for (File file : files) {
+                File target = new File(rawDir, file.getName());
+                try {
+                    Files.move(file.toPath(), target.toPath());
+                    logger.info("Metric segment moved to the per-second tier: {}", target);
+                } catch (IOException e) {
+                    // A segment of the same hour was written in the new layout already.
+                    logger.warn("Cannot move metric segment {}, deleting it", file, e);
+                    if (!file.delete()) {
+                        logger.warn("Cannot delete metric segment {}", file);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String encode(String app) {
+        try {
+            // Dots are escaped too, so no app name can map to "." or "..".
+            return URLEncoder.encode(app, FILE_ENCODING).replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String name) {
+        try {
+            return URLDecoder.decode(name, FILE_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetricsRepository{baseDir=" + baseDir + ", segmentSizeMb=" + segmentMaxSize / 1024 / 1024 + '}';
+    }
+
+    /**
+     * Segments of one resolution, kept in the {@code <dir>/<app>/<name>} directories.
+     */
+    private final class SegmentStore {
+
+        private final String name;
+        private final long partitionMs;
+        private final long retentionMs;
+
+        /**
+         * {@code app -> partition start -> segments of the partition, the last one is appended to}
+         */
+        private final Map<String, Map<Long, List<MetricSegment>>> segments = new ConcurrentHashMap<>();
+
+        private SegmentStore(String name, long partitionMs, long retentionMs) {
+            this.name = name;
+            this.partitionMs = partitionMs;
+            this.retentionMs = retentionMs;
+        }
+
+        private boolean append(MetricEntity entity) {
+            long partition = partitionOf(entity.getTimestamp().getTime());
+            List<MetricSegment> list = segmentsOf(entity.getApp(), partition, true);
+            try {
+                synchronized (list) {
+                    MetricSegment current = list.isEmpty() ? null : list.get(list.size() - 1);
+                    if (current == null || !current.append(entity)) {
+                        // Roll over to the next segment of the partition.
+                        File file = segmentFile(entity.getApp(), partition, list.size());
+                        File dir = file.getParentFile();
+                        if (!dir.isDirectory() && !dir.mkdirs()) {
+                            throw new IOException("Cannot create metric directory: " + dir);
+                        }
+                        current = MetricSegment.open(file, entity.getApp(), partition, segmentMaxSize);
+                        list.add(current);
+                        if (!current.append(entity)) {
+                            throw new IOException("Metric record does not fit in an empty segment: " + file);
+                        }
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                logger.warn("Failed to persist metric of {}:{}", entity.getApp(), entity.getResource(), e);
+                return false;
+            }
+        }
+
+        /**
+         * @return points of the resource keyed by timestamp, a later write of the same timestamp
+         * superseding the earlier one
+         */
+        private TreeMap<Long, MetricEntity> query(String app, String resource, long startTime, long endTime) {
+            TreeMap<Long, MetricEntity> points = new TreeMap<>();
+            long now = TimeUtil.currentTimeMillis();
+            long first = partitionOf(Math.max(startTime, now - retentionMs));
+            long last = partitionOf(Math.min(endTime, now + partitionMs));
+            for (long partition = first; partition <= last; partition += partitionMs) {
+                List<MetricSegment> list = segmentsOf(app, partition, false);
+                List<MetricSegment> snapshot;
+                // Appends roll over and the sweeper closes segments under the lock of the list.
+                synchronized (list) {
+                    snapshot = new ArrayList<>(list);
+                }
+                for (MetricSegment segment : snapshot) {
+                    for (MetricEntity entity : segment.query(resource, startTime, endTime)) {
+                        points.put(entity.getTimestamp().getTime(), entity);
+                    }
+                }
+            }
+            return points;
+        }
+
+        /**
+         * Get the segments of the app within the partition, opening the existing files on first access.
+         *
+         * @param create whether to register the app and the partition if it has no segment yet
+         */
+        private List<MetricSegment> segmentsOf(String app, long partition, boolean create) {
+            Map<Long, List<MetricSegment>> partitions = segments.get(app);
+            List<MetricSegment> list = partitions == null ? null : partitions.get(partition);
+            if (list != null) {
+                return list;
+            }
+            if (!create && !segmentFile(app, partition, 0).exists()) {
+                return new ArrayList<>();
+            }
+            if (partitions == null) {
+                partitions = segments.computeIfAbsent(app, e -> new ConcurrentHashMap<>());
+            }
+            return partitions.computeIfAbsent(partition, p -> {
+                List<MetricSegment> opened = new ArrayList<>();
+                for (int seq = 0; ; seq++) {
+                    File file = segmentFile(app, p, seq);
+                    if (!file.exists()) {
+                        break;
+                    }
+                    try {
+                        opened.add(MetricSegment.open(file, app, p, segmentMaxSize));
+                    } catch (IOException e) {
+                        logger.warn("Failed to open metric segment {}", file, e);
+                        break;
+                    }
+                }
+                return opened;
+            });
+        }
+
+        private void flush() {
+            forEachList(list -> list.forEach(MetricSegment::flush));
+        }
+
+        private void close() {
+            forEachList(list -> list.forEach(MetricSegment::close));
+            segments.clear();
+        }
+
+        private void purge(long now) {
+            long minPartition = partitionOf(now - retentionMs);
+            File[] appDirs = baseDir.listFiles(File::isDirectory);
+            if (appDirs == null) {
+                return;
+            }
+            for (File appDir : appDirs) {
+                Map<Long, List<MetricSegment>> partitions = segments.get(decode(appDir.getName()));
+                File[] files = new File(appDir, name).listFiles(
+                    (dir, fileName) -> fileName.endsWith(MetricSegment.FILE_SUFFIX));
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    long partition = partitionOf(file);
+                    if (partition == Long.MIN_VALUE || partition >= minPartition) {
+                        continue;
+                    }
+                    List<MetricSegment> list = partitions == null ? null : partitions.remove(partition);
+                    if (list != null) {
+                        synchronized (list) {
+                            list.forEach(MetricSegment::close);
+                        }
+                    }
+                    if (file.delete()) {
+                        logger.info("Expired metric segment deleted: {}", file);
+                    }
+                }
+            }
+        }
+
+        private void forEachList(Consumer<List<MetricSegment>> action) {
+            for (Map<Long, List<MetricSegment>> partitions : segments.values()) {
+                for (List<MetricSegment> list : partitions.values()) {
+                    synchronized (list) {
+                        action.accept(list);
+                    }
+                }
+            }
+        }
+
+        private long partitionOf(long timestamp) {
+            return timestamp - Math.floorMod(timestamp, partitionMs);
+        }
+
+        /**
+         * The directory of the file is only created when appending, so queries of unknown apps
+         * leave no trace.
+         */
+        private File segmentFile(String app, long partition, int seq) {
+            File dir = new File(new File(baseDir, encode(app)), name);
+            return new File(dir, partition + "-" + seq + MetricSegment.FILE_SUFFIX);
+        }
+
+        private long partitionOf(File file) {
+            String fileName = file.getName();
+            int dash = fileName.indexOf('-');
+            try {
+                return dash > 0 ? Long.parseLong(fileName.substring(0, dash)) : Long.MIN_VALUE;
+            } catch (NumberFormatException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Immutable, compressed copy of the points of one resource within a sealed window, encoded
+ * into a single bit stream in the manner of Facebook's Gorilla: both timestamps as
+ * delta-of-delta, and every value XOR-ed with the same field of the previous point, keeping
+ * only the meaningful bits. Points reported every second with slowly changing values mostly
+ * take a handful of bits per field.
+ */
+final class GorillaBlock {
+
+    private static final int VALUE_FIELDS = 6;
+
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final int count;
+    private final long[] bits;
+
+    private GorillaBlock(long firstTimestamp, long lastTimestamp, int count, long[] bits) {
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.count = count;
+        this.bits = bits;
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return heap taken by the encoded points, excluding object headers
+     */
+    int getEncodedBytes() {
+        return bits.length * 8;
+    }
+
+    /**
+     * Decode the points within {@code [startTime, endTime]} and append them to {@code results}
+     * in time order.
+     */
+    void decodeInto(String app, String resource, long startTime, long endTime, List<MetricEntity> results) {
+        if (lastTimestamp < startTime || firstTimestamp > endTime) {
+            return;
+        }
+        BitReader in = new BitReader(bits);
+        DeltaOfDelta timestamp = new DeltaOfDelta();
+        DeltaOfDelta gmtCreate = new DeltaOfDelta();
+        Xor[] values = newXors();
+        for (int i = 0; i < count; i++) {
+            long ts = timestamp.read(in);
+            long created = gmtCreate.read(in);
+            long pass = values[0].read(in);
+            long success = values[1].read(in);
+            long block = values[2].read(in);
+            long exception = values[3].read(in);
+            double rt = Double.longBitsToDouble(values[4].read(in));
+            int cnt = (int) values[5].read(in);
+            if (ts > endTime) {
+                return;
+            }
+            if (ts < startTime) {
+                continue;
+            }
+            MetricEntity entity = new MetricEntity();
+            Date gmt = new Date(created);
+            entity.setGmtCreate(gmt);
+            entity.setGmtModified(gmt);
+            entity.setApp(app);
+            entity.setResource(resource);
+            entity.setTimestamp(new Date(ts));
+            entity.setPassQps(pass);
+            entity.setSuccessQps(success);
+            entity.setBlockQps(block);
+            entity.setExceptionQps(exception);
+            entity.setRt(rt);
+            entity.setCount(cnt);
+            results.add(entity);
+        }
+    }
+
+    private static Xor[] newXors() {
+        Xor[] xors = new Xor[VALUE_FIELDS];
+        for (int i = 0; i < xors.length; i++) {
+            xors[i] = new Xor();
+        }
+        return xors;
+    }
+
+    /**
+     * Appends points in time order, then seals them with {@link #build()}.
+     */
+    static final class Encoder {
+
+        private final BitWriter out = new BitWriter();
+        private final DeltaOfDelta timestamp = new DeltaOfDelta();
+        private final DeltaOfDelta gmtCreate = new DeltaOfDelta();
+        private final Xor[] values = newXors();
+        private long firstTimestamp;
+        private long lastTimestamp;
+        private int count;
+
+        void append(long ts, long created, long pass, long success, long block, long exception,
+                    double rt, int cnt) {
+            if (count == 0) {
+                firstTimestamp = ts;
+            }
+            lastTimestamp = ts;
+            count++;
+            timestamp.write(out, ts);
+            gmtCreate.write(out, created);
+            values[0].write(out, pass);
+            values[1].write(out, success);
+            values[2].write(out, block);
+            values[3].write(out, exception);
+            values[4].write(out, Double.doubleToRawLongBits(rt));
+            values[5].write(out, cnt);
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        GorillaBlock build() {
+            return new GorillaBlock(firstTimestamp, lastTimestamp, count, out.toArray());
+        }
+    }
+
+    /**
+     * Delta-of-delta coding: {@code 0} when the interval did not change, otherwise a prefix
+     * selecting the width of the difference.
+     */
+    private static final class DeltaOfDelta {
+        private long previous;
+        private long previousDelta;
+
+        void write(BitWriter out, long value) {
+            long delta = value - previous;
+            long dod = delta - previousDelta;
+            if (dod == 0) {
+                out.write(0, 1);
+            } else if (dod >= -63 && dod <= 64) {
+                out.write(0b10, 2);
+                out.write(dod + 63, 7);
+            } else if (dod >= -255 && dod <= 256) {
+                out.write(0b110, 3);
+                out.write(dod + 255, 9);
+            } else if (dod >= -2047 && dod <= 2048) {
+                out.write(0b1110, 4);
+                out.write(dod + 2047, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(dod, 64);
+            }
+            previous = value;
+            previousDelta = delta;
+        }
+
+        long read(BitReader in) {
+            long dod;
+            if (in.read(1) == 0) {
+                dod = 0;
+            } else if (in.read(1) == 0) {
+                dod = in.read(7) - 63;
+            } else if (in.read(1) == 0) {
+                dod = in.read(9) - 255;
+            } else if (in.read(1) == 0) {
+                dod = in.read(12) - 2047;
+            } else {
+                dod = in.read(64);
+            }
+            previousDelta += dod;
+            previous += previousDelta;
+            return previous;
+        }
+    }
+
+    /**
+     * XOR coding: {@code 0} for an unchanged value, {@code 10} followed by the meaningful bits
+     * when they fit in the window of the previous value, or {@code 11} followed by a new window
+     * (5 bits of leading zeros, 6 bits of length) and the meaningful bits.
+     */
+    private static final class Xor {
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+
+        void write(BitWriter out, long value) {
+            long xor = value ^ previous;
+            previous = value;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                int significant = 64 - lead - trail;
+                out.write(0b11, 2);
+                out.write(lead, 5);
+                out.write(significant - 1, 6);
+                out.write(xor >>> trail, significant);
+                leading = lead;
+                trailing = trail;
+            }
+        }
+
+        long read(BitReader in) {
+            if (in.read(1) == 0) {
+                return previous;
+            }
+            if (in.read(1) == 1) {
+                leading = (int) in.read(5);
+                int significant = (int) in.read(6) + 1;
+                trailing = 64 - leading - significant;
+            }
+            previous ^= in.read(64 - leading - trailing) << trailing;
+            return previous;
+        }
+    }
+
+    private static final class BitWriter {
+        private long[] words = new long[16];
+        private int position;
+
+        void write(long value, int n) {
+            if (n < 64) {
+                value &= (1L << n) - 1;
+            }
+            int index = position >>> 6;
+            int free = 64 - (position & 63);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            if (n <= free) {
+                words[index] |= value << (free - n);
+            } else {
+                words[index] |= value >>> (n - free);
+                words[index + 1] |= value << (64 - n + free);
+            }
+            position += n;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private int position;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int n) {
+            int index = position >>> 6;
+            int available = 64 - (position & 63);
+            position += n;
+            if (n <= available) {
+                return (words[index] >>> (available - n)) & mask(n);
+            }
+            long high = words[index] & mask(available);
+            return (high << (n - available)) | (words[index + 1] >>> (64 - n + available));
+        }
+
+        private static long mask(int n) {
+            return n == 64 ? -1L : (1L << n) - 1;
+        }
+    }
+}
@@ -15,59 +15,94 @@
  */
 package com.alibaba.csp.sentinel.dashboard.repository.metric;
 
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
 import com.alibaba.csp.sentinel.util.StringUtil;
 import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 
 /**
  * Caches metrics data in a period of time in memory.
  *
+ * <p>Every resource owns its own series guarded by a {@link StampedLock}, so writes to different
+ * apps or resources never contend, and readers take an optimistic snapshot of one resource
+ * without blocking its writer (falling back to the read lock only if a write raced with them).
+ * Resources are ranked by a {@link ResourceRankIndex} kept up to date on every write. Resources
+ * not written for longer than the live time are dropped by a background sweeper.</p>
+ *
  * @author Carpenter Lee
  * @author Eric Zhao
  */
 @Component
+@ConditionalOnProperty(name = "sentinel.metric.repository.type", havingValue = "memory", matchIfMissing = true)
 public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity> {
 
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryMetricsRepository.class);
+
     private static final long MAX_METRIC_LIVE_TIME_MS = 1000 * 60 * 5;
+    private static final int SERIES_CAPACITY = (int) (MAX_METRIC_LIVE_TIME_MS / 1000);
+    private static final int CHANGE_LOG_CAPACITY = 128;
+
+    /**
+     * {@code app -> resource -> metrics of the resource}
+     */
+    private final Map<String, Map<String, ResourceMetrics>> allMetrics = new ConcurrentHashMap<>();
 
     /**
-     * {@code app -> resource -> timestamp -> metric}
+     * Last-minute ranking of resources, maintained on every write.
      */
-    private Map<String, Map<String, LinkedHashMap<Long, MetricEntity>>> allMetrics = new ConcurrentHashMap<>();
+    private final ResourceRankIndex rankIndex = new ResourceRankIndex();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-dashboard-metrics-memory-sweeper", true));
 
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    @PostConstruct
+    public void init() {
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                purgeExpiredSeries(TimeUtil.currentTimeMillis());
+            } catch (Throwable e) {
+                logger.warn("In-memory metric sweep error", e);
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+    }
 
+    @PreDestroy
+    public void close() {
+        sweeper.shutdownNow();
+    }
 
     @Override
     public void save(MetricEntity entity) {
         if (entity == null || StringUtil.isBlank(entity.getApp())) {
             return;
         }
-        readWriteLock.writeLock().lock();
-        try {
-            allMetrics.computeIfAbsent(entity.getApp(), e -> new HashMap<>(16))
-                    .computeIfAbsent(entity.getResource(), e -> new LinkedHashMap<Long, MetricEntity>() {
-                        @Override
-                        protected boolean removeEldestEntry(Entry<Long, MetricEntity> eldest) {
-                            // Metric older than {@link #MAX_METRIC_LIVE_TIME_MS} will be removed.
-                            return eldest.getKey() < TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS;
-                        }
-                    }).put(entity.getTimestamp().getTime(), entity);
-        } finally {
-            readWriteLock.writeLock().unlock();
+        Map<String, ResourceMetrics> resourceMap = allMetrics.computeIfAbsent(entity.getApp(),
+                e -> new ConcurrentHashMap<>(16));
+        for (; ; ) {
+            ResourceMetrics metrics = resourceMap.computeIfAbsent(entity.getResource(), e -> new ResourceMetrics());
+            if (metrics.put(entity, TimeUtil.currentTimeMillis())) {
+                break;
+            }
+            // Released by the sweeper meanwhile, put into a new series.
         }
-
+        rankIndex.update(entity.getApp(), entity.getResource(), entity.getTimestamp().getTime(),
+                valueOf(entity.getPassQps()), valueOf(entity.getBlockQps()));
     }
 
     @Override
@@ -75,12 +110,7 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         if (metrics == null) {
             return;
         }
-        readWriteLock.writeLock().lock();
-        try {
-            metrics.forEach(this::save);
-        } finally {
-            readWriteLock.writeLock().unlock();
-        }
+        metrics.forEach(this::save);
     }
 
     @Override
@@ -90,77 +120,267 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         if (StringUtil.isBlank(app)) {
             return results;
         }
-        Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
+        Map<String, ResourceMetrics> resourceMap = allMetrics.get(app);
         if (resourceMap == null) {
             return results;
         }
-        LinkedHashMap<Long, MetricEntity> metricsMap = resourceMap.get(resource);
-        if (metricsMap == null) {
+        ResourceMetrics metrics = resourceMap.get(resource);
+        if (metrics == null) {
             return results;
         }
-        readWriteLock.readLock().lock();
-        try {
-            for (Entry<Long, MetricEntity> entry : metricsMap.entrySet()) {
-                if (entry.getKey() >= startTime && entry.getKey() <= endTime) {
-                    results.add(entry.getValue());
-                }
+        long minTime = Math.max(startTime, TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS);
+        for (MetricEntity entity : metrics.snapshot()) {
+            long timestamp = entity.getTimestamp().getTime();
+            if (timestamp >= minTime && timestamp <= endTime) {
+                results.add(entity);
             }
-            return results;
-        } finally {
-            readWriteLock.readLock().unlock();
         }
+        return results;
     }
 
     @Override
-    public List<String> listResourcesOfApp(String app) {
-        List<String> results = new ArrayList<>();
+    public List<MetricEntity> queryByAppAndResourceChangedSince(String app, String resource, long sinceTimestamp,
+                                                                long startTime, long endTime) {
         if (StringUtil.isBlank(app)) {
-            return results;
+            return new ArrayList<>();
         }
-        // resource -> timestamp -> metric
-        Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
+        Map<String, ResourceMetrics> resourceMap = allMetrics.get(app);
+        ResourceMetrics metrics = resourceMap == null ? null : resourceMap.get(resource);
+        if (metrics == null) {
+            return new ArrayList<>();
+        }
+        List<MetricEntity> changed = metrics.changedSince(sinceTimestamp);
+        if (changed == null) {
+            return queryByAppAndResourceBetween(app, resource, startTime, endTime);
+        }
+        List<MetricEntity> results = new ArrayList<>(changed.size());
+        long minTime = Math.max(startTime, TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS);
+        for (MetricEntity entity : changed) {
+            long timestamp = entity.getTimestamp().getTime();
+            if (timestamp >= minTime && timestamp <= endTime) {
+                results.add(entity);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void forEachMetricOfApp(String app, long startTime, long endTime, Consumer<MetricEntity> consumer) {
+        Map<String, ResourceMetrics> resourceMap = StringUtil.isBlank(app) ? null : allMetrics.get(app);
         if (resourceMap == null) {
-            return results;
+            return;
+        }
+        long minTime = Math.max(startTime, TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS);
+        for (ResourceMetrics metrics : resourceMap.values()) {
+            metrics.forEachBetween(minTime, endTime, consumer);
+        }
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return listResourcesOfApp(app, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app, int offset, int limit) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        return rankIndex.list(app, offset, limit);
+    }
+
+    @Override
+    public int countResourcesOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return 0;
+        }
+        return rankIndex.count(app);
+    }
+
+    /**
+     * Drop the resources without a point within the live time, from the series and the ranking.
+     */
+    void purgeExpiredSeries(long now) {
+        long minTime = now - MAX_METRIC_LIVE_TIME_MS;
+        // App maps are kept, a writer may be about to put into one of them.
+        for (Map<String, ResourceMetrics> resourceMap : allMetrics.values()) {
+            for (Map.Entry<String, ResourceMetrics> entry : resourceMap.entrySet()) {
+                ResourceMetrics metrics = entry.getValue();
+                if (metrics.releaseIfOlderThan(minTime)) {
+                    resourceMap.remove(entry.getKey(), metrics);
+                }
+            }
+        }
+        rankIndex.purgeExpired(now);
+    }
+
+    int getLiveSeries() {
+        int series = 0;
+        for (Map<String, ResourceMetrics> resourceMap : allMetrics.values()) {
+            series += resourceMap.size();
+        }
+        return series;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Metrics of a single resource, kept in a per-second ring of {@link #SERIES_CAPACITY} slots.
+     * Metric older than {@link #MAX_METRIC_LIVE_TIME_MS} is overwritten by newer seconds.
+     */
+    private static final class ResourceMetrics {
+
+        private final StampedLock lock = new StampedLock();
+        private final MetricEntity[] slots = new MetricEntity[SERIES_CAPACITY];
+        private final SeriesChangeLog changeLog = new SeriesChangeLog(CHANGE_LOG_CAPACITY);
+        private long latestSecond = -1;
+        private boolean released;
+
+        /**
+         * @return false if the series is released by the sweeper, the metric is not stored then
+         */
+        boolean put(MetricEntity entity, long writeTime) {
+            long second = entity.getTimestamp().getTime() / 1000;
+            int slot = (int) (second % SERIES_CAPACITY);
+            long stamp = lock.writeLock();
+            try {
+                if (released) {
+                    return false;
+                }
+                MetricEntity existing = slots[slot];
+                if (existing != null && existing.getTimestamp().getTime() / 1000 > second) {
+                    // A newer second already took over the slot.
+                    return true;
+                }
+                slots[slot] = entity;
+                changeLog.record(writeTime, second);
+                if (second > latestSecond) {
+                    latestSecond = second;
+                }
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Release the series if its latest metric is older than {@code minTime}, later puts are refused.
+         *
+         * @return true if released
+         */
+        boolean releaseIfOlderThan(long minTime) {
+            long stamp = lock.writeLock();
+            try {
+                if (latestSecond * 1000 < minTime) {
+                    released = true;
+                }
+                return released;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
         }
-        final long minTimeMs = System.currentTimeMillis() - 1000 * 60;
-        Map<String, MetricEntity> resourceCount = new ConcurrentHashMap<>(32);
-
-        readWriteLock.readLock().lock();
-        try {
-            for (Entry<String, LinkedHashMap<Long, MetricEntity>> resourceMetrics : resourceMap.entrySet()) {
-                for (Entry<Long, MetricEntity> metrics : resourceMetrics.getValue().entrySet()) {
-                    if (metrics.getKey() < minTimeMs) {
-                        continue;
-                    }
-                    MetricEntity newEntity = metrics.getValue();
-                    if (resourceCount.containsKey(resourceMetrics.getKey())) {
-                        MetricEntity oldEntity = resourceCount.get(resourceMetrics.getKey());
-                        oldEntity.addPassQps(newEntity.getPassQps());
-                        oldEntity.addRtAndSuccessQps(newEntity.getRt(), newEntity.getSuccessQps());
-                        oldEntity.addBlockQps(newEntity.getBlockQps());
-                        oldEntity.addExceptionQps(newEntity.getExceptionQps());
-                        oldEntity.addCount(1);
-                    } else {
-                        resourceCount.put(resourceMetrics.getKey(), MetricEntity.copyOf(newEntity));
-                    }
+
+        /**
+         * @return a consistent view of the retained metrics, ordered by time
+         */
+        List<MetricEntity> snapshot() {
+            long stamp = lock.tryOptimisticRead();
+            List<MetricEntity> snapshot = collect();
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    snapshot = collect();
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return snapshot;
+        }
+
+        /**
+         * @return the metrics written at or after {@code since} ordered by time, or {@code null}
+         * if the change log no longer goes back that far
+         */
+        List<MetricEntity> changedSince(long since) {
+            long stamp = lock.tryOptimisticRead();
+            List<MetricEntity> changed = collectChanged(since);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    changed = collectChanged(since);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Visit the metrics within {@code [minTime, endTime]} ordered by time. The entities are
+         * gathered under an optimistic read like {@link #snapshot()}, and handed to the consumer
+         * only once the read is validated.
+         */
+        void forEachBetween(long minTime, long endTime, Consumer<MetricEntity> consumer) {
+            long stamp = lock.tryOptimisticRead();
+            List<MetricEntity> between = collectBetween(minTime, endTime);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    between = collectBetween(minTime, endTime);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            between.forEach(consumer);
+        }
+
+        private List<MetricEntity> collectBetween(long minTime, long endTime) {
+            List<MetricEntity> list = new ArrayList<>();
+            long latest = latestSecond;
+            long first = Math.max((minTime + 999) / 1000, latest - SERIES_CAPACITY + 1);
+            long last = Math.min(endTime / 1000, latest);
+            for (long second = first; second <= last; second++) {
+                MetricEntity entity = slots[(int) (second % SERIES_CAPACITY)];
+                if (entity != null && entity.getTimestamp().getTime() / 1000 == second) {
+                    list.add(entity);
+                }
+            }
+            return list;
+        }
+
+        private List<MetricEntity> collectChanged(long since) {
+            long[] seconds = changeLog.secondsSince(since);
+            if (seconds == null) {
+                return null;
+            }
+            List<MetricEntity> list = new ArrayList<>(seconds.length);
+            for (long second : seconds) {
+                MetricEntity entity = slots[(int) (second % SERIES_CAPACITY)];
+                if (entity != null && entity.getTimestamp().getTime() / 1000 == second) {
+                    list.add(entity);
+                }
+            }
+            return list;
+        }
+
+        private List<MetricEntity> collect() {
+            List<MetricEntity> list = new ArrayList<>();
+            long latest = latestSecond;
+            if (latest < 0) {
+                return list;
+            }
+            long oldest = latest - SERIES_CAPACITY + 1;
+            // Walk the ring from the oldest slot so the result is ordered by time.
+            int first = (int) ((latest + 1) % SERIES_CAPACITY);
+            for (int i = 0; i < SERIES_CAPACITY; i++) {
+                MetricEntity entity = slots[(first + i) % SERIES_CAPACITY];
+                if (entity != null && entity.getTimestamp().getTime() / 1000 >= oldest) {
+                    list.add(entity);
                 }
             }
-            // Order by last minute b_qps DESC.
-            return resourceCount.entrySet()
-                    .stream()
-                    .sorted((o1, o2) -> {
-                        MetricEntity e1 = o1.getValue();
-                        MetricEntity e2 = o2.getValue();
-                        int t = e2.getBlockQps().compareTo(e1.getBlockQps());
-                        if (t != 0) {
-                            return t;
-                        }
-                        return e2.getPassQps().compareTo(e1.getPassQps());
-                    })
-                    .map(Entry::getKey)
-                    .collect(Collectors.toList());
-        } finally {
-            readWriteLock.readLock().unlock();
+            return list;
         }
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+/**
+ * Metrics of a machine for a resource, averaged per second over a time range.
+ */
+public class MachineMetric {
+
+    private final String machine;
+    private final int seconds;
+    private final double passQps;
+    private final double blockQps;
+    private final double successQps;
+    private final double exceptionQps;
+    /**
+     * average rt of the success requests
+     */
+    private final double rt;
+
+    MachineMetric(String machine, int seconds, long pass, long block, long success, long exception,
+                  double totalRt) {
+        this.machine = machine;
+        this.seconds = seconds;
+        this.passQps = (double) pass / seconds;
+        this.blockQps = (double) block / seconds;
+        this.successQps = (double) success / seconds;
+        this.exceptionQps = (double) exception / seconds;
+        this.rt = success == 0 ? 0 : totalRt / success;
+    }
+
+    public String getMachine() {
+        return machine;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    public double getPassQps() {
+        return passQps;
+    }
+
+    public double getBlockQps() {
+        return blockQps;
+    }
+
+    public double getSuccessQps() {
+        return successQps;
+    }
+
+    public double getExceptionQps() {
+        return exceptionQps;
+    }
+
+    public double getRt() {
+        return rt;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-machine metrics of the apps opted in by {@code sentinel.metric.machine.apps}, kept next to
+ * the app-level aggregates of the {@link MetricsRepository} so a single throttling machine can be
+ * found among hundreds.
+ *
+ * <p>Machines are interned into small integer ids per app, and every {@code (resource, machine)}
+ * keeps a per-second ring of primitive columns covering the last
+ * {@code sentinel.metric.machine.retention-seconds}, about 32 bytes a point. Ids and columns of a
+ * removed machine are recycled. Each app is guarded by its own read-write lock, taken once per
+ * fetched machine response rather than once per point.</p>
+ */
+@Component
+public class MachineMetricsStore {
+
+    private static final String ALL_APPS = "*";
+    private static final long SECOND_MS = 1000;
+
+    /**
+     * Comma-separated apps to keep per-machine metrics for, {@code *} for all.
+     */
+    @Value("${sentinel.metric.machine.apps:}")
+    private String enabledApps;
+
+    @Value("${sentinel.metric.machine.retention-seconds:120}")
+    private int retentionSeconds;
+
+    private volatile Set<String> apps = Collections.emptySet();
+    private volatile boolean allApps;
+
+    private final Map<String, AppMachines> allMachines = new ConcurrentHashMap<>();
+
+    public MachineMetricsStore() {
+    }
+
+    MachineMetricsStore(String enabledApps, int retentionSeconds) {
+        this.enabledApps = enabledApps;
+        this.retentionSeconds = retentionSeconds;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        Set<String> set = new HashSet<>();
+        if (StringUtil.isNotBlank(enabledApps)) {
+            for (String app : enabledApps.split(",")) {
+                if (StringUtil.isNotBlank(app)) {
+                    set.add(app.trim());
+                }
+            }
+        }
+        allApps = set.remove(ALL_APPS);
+        apps = set;
+    }
+
+    public boolean isEnabled(String app) {
+        return app != null && (allApps || apps.contains(app));
+    }
+
+    /**
+     * Receives the points of a machine, see {@link #save(String, String, Consumer)}.
+     */
+    public interface PointSink {
+        /**
+         * @param rt summary rt of all success qps, as in {@link MetricEntity#getRt()}
+         */
+        void add(String resource, long timestamp, long passQps, long blockQps, long successQps, long exceptionQps,
+                 double rt);
+    }
+
+    /**
+     * Save the points of a machine of an opted-in app, which {@code points} feeds to the sink it
+     * is given. Does nothing for other apps.
+     */
+    public void save(String app, String machine, Consumer<PointSink> points) {
+        if (!isEnabled(app)) {
+            return;
+        }
+        AppMachines appMachines = allMachines.computeIfAbsent(app, a -> new AppMachines());
+        appMachines.lock.writeLock().lock();
+        try {
+            int id = appMachines.intern(machine);
+            points.accept((resource, timestamp, pass, block, success, exception, rt) ->
+                appMachines.columnsOf(resource, id, retentionSeconds)
+                    .put(timestamp / SECOND_MS, pass, block, success, exception, rt));
+        } finally {
+            appMachines.lock.writeLock().unlock();
+        }
+    }
+
+    public void removeMachine(String app, String machine) {
+        AppMachines appMachines = allMachines.get(app);
+        if (appMachines == null) {
+            return;
+        }
+        appMachines.lock.writeLock().lock();
+        try {
+            appMachines.release(machine);
+        } finally {
+            appMachines.lock.writeLock().unlock();
+        }
+    }
+
+    public void removeApp(String app) {
+        allMachines.remove(app);
+    }
+
+    /**
+     * The machines blocking the most requests of a resource within {@code [startTime, endTime]},
+     * then by passed requests.
+     *
+     * @param limit number of machines at most
+     */
+    public List<MachineMetric> topMachinesByBlockQps(String app, String resource, long startTime, long endTime,
+                                                     int limit) {
+        AppMachines appMachines = allMachines.get(app);
+        if (appMachines == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        long firstSecond = firstSecond(startTime);
+        long lastSecond = endTime / SECOND_MS;
+        PriorityQueue<MachineMetric> top = new PriorityQueue<>(limit + 1, MachineMetricsStore::compareBlockThenPass);
+        appMachines.lock.readLock().lock();
+        try {
+            MachineColumns[] columns = appMachines.resources.get(resource);
+            if (columns == null) {
+                return new ArrayList<>();
+            }
+            for (int id = 0; id < columns.length; id++) {
+                MachineMetric metric = columns[id] == null ? null
+                    : columns[id].sum(appMachines.names.get(id), firstSecond, lastSecond);
+                if (metric != null) {
+                    top.add(metric);
+                    if (top.size() > limit) {
+                        top.poll();
+                    }
+                }
+            }
+        } finally {
+            appMachines.lock.readLock().unlock();
+        }
+        List<MachineMetric> result = new ArrayList<>(top);
+        result.sort(Collections.reverseOrder(MachineMetricsStore::compareBlockThenPass));
+        return result;
+    }
+
+    /**
+     * Get the metrics of a machine for a resource between a period of time, ordered by time.
+     */
+    public List<MetricEntity> queryByMachineAndResourceBetween(String app, String machine, String resource,
+                                                               long startTime, long endTime) {
+        AppMachines appMachines = allMachines.get(app);
+        if (appMachines == null) {
+            return new ArrayList<>();
+        }
+        long firstSecond = firstSecond(startTime);
+        long lastSecond = endTime / SECOND_MS;
+        appMachines.lock.readLock().lock();
+        try {
+            Integer id = appMachines.ids.get(machine);
+            MachineColumns[] columns = appMachines.resources.get(resource);
+            if (id == null || columns == null || id >= columns.length || columns[id] == null) {
+                return new ArrayList<>();
+            }
+            return columns[id].query(app, resource, firstSecond, lastSecond);
+        } finally {
+            appMachines.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the first retained second at or after {@code startTime}
+     */
+    private long firstSecond(long startTime) {
+        long minTime = Math.max(startTime, TimeUtil.currentTimeMillis() - retentionSeconds * SECOND_MS);
+        return (minTime + SECOND_MS - 1) / SECOND_MS;
+    }
+
+    private static int compareBlockThenPass(MachineMetric a, MachineMetric b) {
+        int c = Double.compare(a.getBlockQps(), b.getBlockQps());
+        return c != 0 ? c : Double.compare(a.getPassQps(), b.getPassQps());
+    }
+
+    private static final class AppMachines {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+        /**
+         * {@code resource -> columns indexed by machine id}
+         */
+        private final Map<String, MachineColumns[]> resources = new HashMap<>();
+
+        private int intern(String machine) {
+            Integer id = ids.get(machine);
+            if (id == null) {
+                id = freeIds.isEmpty() ? names.size() : freeIds.poll();
+                if (id == names.size()) {
+                    names.add(machine);
+                } else {
+                    names.set(id, machine);
+                }
+                ids.put(machine, id);
+            }
+            return id;
+        }
+
+        private void release(String machine) {
+            Integer id = ids.remove(machine);
+            if (id == null) {
+                return;
+            }
+            names.set(id, null);
+            for (MachineColumns[] columns : resources.values()) {
+                if (id < columns.length) {
+                    columns[id] = null;
+                }
+            }
+            freeIds.add(id);
+        }
+
+        private MachineColumns columnsOf(String resource, int id, int capacity) {
+            MachineColumns[] columns = resources.get(resource);
+            if (columns == null || id >= columns.length) {
+                columns = columns == null ? new MachineColumns[names.size()] : Arrays.copyOf(columns, names.size());
+                resources.put(resource, columns);
+            }
+            if (columns[id] == null) {
+                columns[id] = new MachineColumns(capacity);
+            }
+            return columns[id];
+        }
+    }
+
+    /**
+     * Per-second ring of the metrics of a machine for a resource.
+     */
+    private static final class MachineColumns {
+        /**
+         * Second of the point in each slot, {@code 0} means the slot is empty.
+         */
+        private final long[] seconds;
+        private final int[] pass;
+        private final int[] block;
+        private final int[] success;
+        private final int[] exception;
+        private final double[] rt;
+
+        private MachineColumns(int capacity) {
+            seconds = new long[capacity];
+            pass = new int[capacity];
+            block = new int[capacity];
+            success = new int[capacity];
+            exception = new int[capacity];
+            rt = new double[capacity];
+        }
+
+        private void put(long second, long passQps, long blockQps, long successQps, long exceptionQps,
+                         double totalRt) {
+            int slot = (int) (second % seconds.length);
+            if (seconds[slot] > second) {
+                return;
+            }
+            seconds[slot] = second;
+            pass[slot] = clamp(passQps);
+            block[slot] = clamp(blockQps);
+            success[slot] = clamp(successQps);
+            exception[slot] = clamp(exceptionQps);
+            rt[slot] = totalRt;
+        }
+
+        private MachineMetric sum(String machine, long firstSecond, long lastSecond) {
+            int count = 0;
+            long passSum = 0, blockSum = 0, successSum = 0, exceptionSum = 0;
+            double rtSum = 0;
+            for (int slot = 0; slot < seconds.length; slot++) {
+                long second = seconds[slot];
+                if (second == 0 || second < firstSecond || second > lastSecond) {
+                    continue;
+                }
+                count++;
+                passSum += pass[slot];
+                blockSum += block[slot];
+                successSum += success[slot];
+                exceptionSum += exception[slot];
+                rtSum += rt[slot];
+            }
+            return count == 0 ? null
+                : new MachineMetric(machine, count, passSum, blockSum, successSum, exceptionSum, rtSum);
+        }
+
+        private List<MetricEntity> query(String app, String resource, long firstSecond, long lastSecond) {
+            long latest = 0;
+            for (long second : seconds) {
+                if (second >= firstSecond && second <= lastSecond && second > latest) {
+                    latest = second;
+                }
+            }
+            List<MetricEntity> results = new ArrayList<>();
+            if (latest == 0) {
+                return results;
+            }
+            // Walk the ring from the oldest slot so the result is ordered by time.
+            for (long second = Math.max(firstSecond, latest - seconds.length + 1); second <= latest; second++) {
+                int slot = (int) (second % seconds.length);
+                if (seconds[slot] != second) {
+                    continue;
+                }
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(app);
+                entity.setResource(resource);
+                entity.setTimestamp(new Date(second * SECOND_MS));
+                entity.setGmtCreate(entity.getTimestamp());
+                entity.setGmtModified(entity.getTimestamp());
+                entity.setPassQps((long) pass[slot]);
+                entity.setBlockQps((long) block[slot]);
+                entity.setSuccessQps((long) success[slot]);
+                entity.setExceptionQps((long) exception[slot]);
+                entity.setRt(rt[slot]);
+                entity.setCount(1);
+                results.add(entity);
+            }
+            return results;
+        }
+
+        private static int clamp(long value) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, value));
+        }
+    }
+}
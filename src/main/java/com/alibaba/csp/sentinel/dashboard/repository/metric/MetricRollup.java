@@ -0,0 +1,349 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Rolls per-second metrics up into the buckets of one {@link RollupTier}.
+ *
+ * <p>Every resource has at most one open bucket. It is closed (and returned for persisting)
+ * as soon as a point of a later bucket arrives, or by {@link #closeIdle(long)} once the bucket
+ * has ended for a while. A second written again (by a backfill, say) must replace its earlier
+ * contribution rather than add to it, so the open bucket is then rebuilt from the per-second
+ * points of the {@link PointSource} before it is read. A point of a bucket that was already
+ * closed marks the bucket stale, {@link #rebuildStale()} rebuilds it from the source so that it
+ * is persisted again as a whole, superseding the earlier rollup.</p>
+ *
+ * <p>A rolled-up point holds the average QPS over the seconds that reported data, the
+ * success-weighted average RT and the peak pass/block QPS and RT of the bucket.</p>
+ */
+final class MetricRollup {
+
+    /**
+     * How long after its end a bucket stays open for late points.
+     */
+    private static final long LATENESS_MS = 1000 * 15;
+
+    private final RollupTier tier;
+    private final PointSource source;
+
+    /**
+     * {@code app -> resource -> open bucket}
+     */
+    private final Map<String, Map<String, Bucket>> openBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * Time of the latest {@link #closeIdle(long)}, every bucket ended the allowed lateness before
+     * it is closed.
+     */
+    private final AtomicLong closedUpTo = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Closed buckets which got a point since, to be rebuilt.
+     */
+    private final Set<BucketKey> stale = ConcurrentHashMap.newKeySet();
+
+    MetricRollup(RollupTier tier, PointSource source) {
+        this.tier = tier;
+        this.source = source;
+    }
+
+    RollupTier getTier() {
+        return tier;
+    }
+
+    /**
+     * Add a per-second point, which the source already holds.
+     *
+     * @return the rolled-up point of the bucket closed by this point, or null
+     */
+    MetricEntity add(MetricEntity entity) {
+        long timestamp = entity.getTimestamp().getTime();
+        long start = tier.bucketOf(timestamp);
+        Map<String, Bucket> resources = openBuckets.computeIfAbsent(entity.getApp(),
+            e -> new ConcurrentHashMap<>(16));
+        while (true) {
+            Bucket bucket = resources.computeIfAbsent(entity.getResource(),
+                e -> new Bucket(entity.getApp(), entity.getResource(), start));
+            synchronized (bucket) {
+                if (bucket.closed) {
+                    // Closed by the sweeper concurrently, retry with a fresh bucket.
+                    continue;
+                }
+                if (bucket.seconds == 0 && isClosed(start)) {
+                    // Just opened for this point, drop it so a partial rollup is not closed later.
+                    bucket.closed = true;
+                    resources.remove(entity.getResource(), bucket);
+                    stale.add(new BucketKey(entity.getApp(), entity.getResource(), start));
+                    return null;
+                }
+                if (start == bucket.start) {
+                    if (bucket.isWritten(timestamp)) {
+                        bucket.rewritten = true;
+                    } else {
+                        bucket.add(entity);
+                    }
+                    return null;
+                }
+                if (start < bucket.start || isClosed(start)) {
+                    stale.add(new BucketKey(entity.getApp(), entity.getResource(), start));
+                    return null;
+                }
+                MetricEntity closed = toEntity(bucket);
+                bucket.reset(start);
+                bucket.add(entity);
+                return closed;
+            }
+        }
+    }
+
+    /**
+     * Close the buckets which ended more than the allowed lateness before {@code now}.
+     *
+     * @return rolled-up points of the closed buckets
+     */
+    List<MetricEntity> closeIdle(long now) {
+        // Published first, so a point arriving after its bucket is closed below marks it stale.
+        closedUpTo.accumulateAndGet(now, Math::max);
+        List<MetricEntity> closed = new ArrayList<>();
+        for (Map<String, Bucket> resources : openBuckets.values()) {
+            for (Iterator<Bucket> it = resources.values().iterator(); it.hasNext(); ) {
+                Bucket bucket = it.next();
+                synchronized (bucket) {
+                    if (isClosed(bucket.start, now)) {
+                        closed.add(toEntity(bucket));
+                        bucket.closed = true;
+                        it.remove();
+                    }
+                }
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Rebuild the closed buckets which got points since they were closed.
+     *
+     * @return rolled-up points of the rebuilt buckets
+     */
+    List<MetricEntity> rebuildStale() {
+        List<MetricEntity> rebuilt = new ArrayList<>();
+        for (Iterator<BucketKey> it = stale.iterator(); it.hasNext(); ) {
+            BucketKey key = it.next();
+            it.remove();
+            Bucket bucket = new Bucket(key.app, key.resource, key.start);
+            addFromSource(bucket);
+            if (bucket.seconds > 0) {
+                rebuilt.add(bucket.toEntity(tier));
+            }
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Caller holds the lock of the bucket.
+     */
+    private MetricEntity toEntity(Bucket bucket) {
+        if (bucket.rewritten) {
+            bucket.reset(bucket.start);
+            addFromSource(bucket);
+        }
+        return bucket.toEntity(tier);
+    }
+
+    private void addFromSource(Bucket bucket) {
+        source.query(bucket.app, bucket.resource, bucket.start, bucket.start + tier.getStepMs() - 1)
+            .forEach(bucket::add);
+    }
+
+    /**
+     * @return true if the bucket starting at {@code start} is closed by the latest {@link #closeIdle(long)}
+     */
+    private boolean isClosed(long start) {
+        return isClosed(start, closedUpTo.get());
+    }
+
+    private boolean isClosed(long start, long now) {
+        return start + tier.getStepMs() + LATENESS_MS <= now;
+    }
+
+    /**
+     * @return the rolled-up point of the open bucket of the resource, or null if none
+     */
+    MetricEntity peek(String app, String resource) {
+        Map<String, Bucket> resources = openBuckets.get(app);
+        Bucket bucket = resources == null ? null : resources.get(resource);
+        if (bucket == null) {
+            return null;
+        }
+        synchronized (bucket) {
+            return bucket.closed ? null : toEntity(bucket);
+        }
+    }
+
+    /**
+     * The per-second points rolled up, read back when a second is written again or after its
+     * bucket was closed.
+     */
+    @FunctionalInterface
+    interface PointSource {
+
+        /**
+         * @return the latest points of the resource within [startTime, endTime]
+         */
+        Collection<MetricEntity> query(String app, String resource, long startTime, long endTime);
+    }
+
+    private static final class BucketKey {
+        private final String app;
+        private final String resource;
+        private final long start;
+
+        private BucketKey(String app, String resource, long start) {
+            this.app = app;
+            this.resource = resource;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey that = (BucketKey) o;
+            return start == that.start && app.equals(that.app) && resource.equals(that.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(app, resource, start);
+        }
+    }
+
+    private static final class Bucket {
+        private final String app;
+        private final String resource;
+        private long start;
+        private boolean closed;
+        /**
+         * Seconds of the bucket added so far.
+         */
+        private final BitSet written = new BitSet();
+        /**
+         * Whether a second was written again since, the sums are then rebuilt from the source.
+         */
+        private boolean rewritten;
+
+        private int seconds;
+        private long pass;
+        private long success;
+        private long block;
+        private long exception;
+        private double rt;
+        private int count;
+        private long maxPass;
+        private long maxBlock;
+        private double maxRt;
+        private long gmtCreate;
+
+        private Bucket(String app, String resource, long start) {
+            this.app = app;
+            this.resource = resource;
+            this.start = start;
+        }
+
+        private void reset(long start) {
+            this.start = start;
+            written.clear();
+            rewritten = false;
+            seconds = 0;
+            pass = success = block = exception = 0;
+            rt = 0;
+            count = 0;
+            maxPass = maxBlock = 0;
+            maxRt = 0;
+            gmtCreate = 0;
+        }
+
+        private boolean isWritten(long timestamp) {
+            return written.get((int) ((timestamp - start) / 1000));
+        }
+
+        private void add(MetricEntity entity) {
+            long entityPass = valueOf(entity.getPassQps());
+            long entitySuccess = valueOf(entity.getSuccessQps());
+            long entityBlock = valueOf(entity.getBlockQps());
+            written.set((int) ((entity.getTimestamp().getTime() - start) / 1000));
+            seconds++;
+            pass += entityPass;
+            success += entitySuccess;
+            block += entityBlock;
+            exception += valueOf(entity.getExceptionQps());
+            rt += entity.getRt();
+            count = Math.max(count, entity.getCount());
+            maxPass = Math.max(maxPass, entityPass);
+            maxBlock = Math.max(maxBlock, entityBlock);
+            if (entitySuccess > 0) {
+                maxRt = Math.max(maxRt, entity.getRt() / entitySuccess);
+            }
+            if (entity.getGmtCreate() != null) {
+                gmtCreate = Math.max(gmtCreate, entity.getGmtCreate().getTime());
+            }
+        }
+
+        private MetricEntity toEntity(RollupTier tier) {
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(app);
+            entity.setResource(resource);
+            entity.setTimestamp(new Date(start));
+            Date created = new Date(gmtCreate > 0 ? gmtCreate : start + tier.getStepMs());
+            entity.setGmtCreate(created);
+            entity.setGmtModified(created);
+            int n = Math.max(seconds, 1);
+            entity.setPassQps(Math.round((double) pass / n));
+            entity.setBlockQps(Math.round((double) block / n));
+            entity.setExceptionQps(Math.round((double) exception / n));
+            long successQps = Math.round((double) success / n);
+            // Keep rt as the total of the (averaged) success QPS, so rt / successQps is the weighted average.
+            entity.setRtAndSuccessQps(success > 0 ? rt / success : 0, successQps);
+            entity.setCount(count);
+            entity.setMaxPassQps(maxPass);
+            entity.setMaxBlockQps(maxBlock);
+            entity.setMaxRt(maxRt);
+            return entity;
+        }
+
+        private static long valueOf(Long value) {
+            return value == null ? 0 : value;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * An append-only, memory-mapped file holding the metrics of one app within one time partition
+ * (an hour for per-second points).
+ *
+ * <p>Layout: a 16-byte header ({@code magic, version, partition start}) followed by records. A
+ * record starts with a type byte: {@link #TYPE_RESOURCE} declares a resource id, {@link #TYPE_POINT}
+ * holds one metric point, {@link #TYPE_ROLLUP} a rolled-up point which also carries the peak
+ * values, and {@code 0} marks the end of data. The type is followed by the varint length of the
+ * payload, the payload and a 16-bit checksum of the record, so that a record torn by a crash (a
+ * zero-filled page after a type byte, say) is told apart from a valid one when recovering. Point
+ * timestamps are stored as zig-zag varint deltas against the previous point of the segment and
+ * counters as varints, so a typical point takes 13-23 bytes.</p>
+ *
+ * <p>Segments of the first version carry neither lengths nor checksums. They are still read, but
+ * never appended to: the next segment of the partition takes the new points.</p>
+ *
+ * <p>Every {@link #POINTS_PER_BLOCK} points a block starts, and the segment keeps a sparse index
+ * of the blocks' offsets and time ranges so queries only decode blocks overlapping the range.
+ * The index and the resource dictionary live on heap and are rebuilt by scanning the file when
+ * an existing segment is opened.</p>
+ */
+class MetricSegment {
+
+    static final String FILE_SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x534D5453;
+    private static final byte VERSION = 2;
+    /**
+     * Version of the segments without record lengths and checksums.
+     */
+    private static final byte UNCHECKED_VERSION = 1;
+    private static final int CHECKSUM_SIZE = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final byte TYPE_END = 0;
+    private static final byte TYPE_RESOURCE = 1;
+    private static final byte TYPE_POINT = 2;
+    private static final byte TYPE_ROLLUP = 3;
+    private static final int POINTS_PER_BLOCK = 256;
+    private static final int INITIAL_MAPPED_SIZE = 1024 * 1024;
+    /**
+     * Upper bound of a single encoded record, used to decide whether the segment is full.
+     */
+    private static final int MAX_RECORD_SIZE = 128;
+    /**
+     * Upper bound of the clearing of a torn tail, records are far shorter.
+     */
+    private static final int MAX_TORN_SIZE = 4096;
+
+    private final File file;
+    private final String app;
+    private final long partitionStart;
+    private final int maxSize;
+    private byte version = VERSION;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private long prevTimestamp;
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<String, Integer> resourceIds = new HashMap<>();
+    private final List<String> resources = new ArrayList<>();
+    private boolean closed;
+    private final CRC32 crc = new CRC32();
+
+    private MetricSegment(File file, String app, long partitionStart, int maxSize) {
+        this.file = file;
+        this.app = app;
+        this.partitionStart = partitionStart;
+        this.maxSize = maxSize;
+        this.prevTimestamp = partitionStart;
+    }
+
+    /**
+     * Open the segment file, creating it if absent.
+     */
+    static MetricSegment open(File file, String app, long partitionStart, int maxSize) throws IOException {
+        MetricSegment segment = new MetricSegment(file, app, partitionStart, maxSize);
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        segment.channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            int size = (int) Math.min(maxSize, Math.max(INITIAL_MAPPED_SIZE, segment.channel.size()));
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (exists) {
+                segment.recover();
+            } else {
+                segment.buffer.putInt(0, MAGIC);
+                segment.buffer.put(4, VERSION);
+                segment.buffer.putLong(8, partitionStart);
+                segment.position = HEADER_SIZE;
+            }
+        } catch (IOException | RuntimeException e) {
+            segment.channel.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    /**
+     * Append the metric to the segment.
+     *
+     * @return false if the segment is full or closed, in which case nothing is written
+     */
+    synchronized boolean append(MetricEntity entity) throws IOException {
+        int required = position + MAX_RECORD_SIZE + resourceRecordSize(entity.getResource());
+        if (closed || version != VERSION || required > maxSize) {
+            return false;
+        }
+        ensureCapacity(required);
+        Integer resourceId = resourceIds.get(entity.getResource());
+        if (resourceId == null) {
+            resourceId = resources.size();
+            byte[] name = entity.getResource().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = buffer;
+            out.position(position);
+            out.put(TYPE_RESOURCE);
+            putVarLong(out, varLongSize(resourceId) + varLongSize(name.length) + name.length);
+            putVarLong(out, resourceId);
+            putVarLong(out, name.length);
+            out.put(name);
+            putChecksum(out, position);
+            position = out.position();
+            resourceIds.put(entity.getResource(), resourceId);
+            resources.add(entity.getResource());
+        }
+        long timestamp = entity.getTimestamp().getTime();
+        Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (block == null || block.points >= POINTS_PER_BLOCK) {
+            block = new Block(position, prevTimestamp);
+            blocks.add(block);
+        }
+        boolean rollup = entity.getMaxPassQps() != null;
+        ByteBuffer out = buffer;
+        out.position(position);
+        out.put(rollup ? TYPE_ROLLUP : TYPE_POINT);
+        // Point payloads are shorter than 128 bytes, so their length takes a single byte.
+        int lengthAt = out.position();
+        out.put((byte) 0);
+        putVarLong(out, zigZag(timestamp - prevTimestamp));
+        putVarLong(out, resourceId);
+        putVarLong(out, valueOf(entity.getPassQps()));
+        putVarLong(out, valueOf(entity.getSuccessQps()));
+        putVarLong(out, valueOf(entity.getBlockQps()));
+        putVarLong(out, valueOf(entity.getExceptionQps()));
+        putVarLong(out, zigZag(Math.round(entity.getRt())));
+        putVarLong(out, entity.getCount());
+        long gmtCreate = entity.getGmtCreate() == null ? timestamp : entity.getGmtCreate().getTime();
+        putVarLong(out, zigZag(gmtCreate - timestamp));
+        if (rollup) {
+            putVarLong(out, entity.getMaxPassQps());
+            putVarLong(out, valueOf(entity.getMaxBlockQps()));
+            putVarLong(out, zigZag(Math.round(entity.getMaxRt() == null ? 0 : entity.getMaxRt())));
+        }
+        out.put(lengthAt, (byte) (out.position() - lengthAt - 1));
+        putChecksum(out, position);
+        position = out.position();
+        prevTimestamp = timestamp;
+        block.add(timestamp);
+        return true;
+    }
+
+    /**
+     * Decode the points of the resource within {@code [startTime, endTime]}, in file order.
+     */
+    List<MetricEntity> query(String resource, long startTime, long endTime) {
+        ByteBuffer in;
+        int end;
+        int resourceId;
+        boolean checked = version != UNCHECKED_VERSION;
+        List<long[]> ranges = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return new ArrayList<>();
+            }
+            Integer id = resourceIds.get(resource);
+            if (id == null) {
+                return new ArrayList<>();
+            }
+            resourceId = id;
+            in = buffer.duplicate();
+            end = position;
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                if (block.maxTimestamp < startTime || block.minTimestamp > endTime) {
+                    continue;
+                }
+                int blockEnd = i + 1 < blocks.size() ? blocks.get(i + 1).offset : end;
+                ranges.add(new long[] {block.offset, blockEnd, block.prevTimestamp});
+            }
+        }
+        List<MetricEntity> results = new ArrayList<>();
+        for (long[] range : ranges) {
+            in.position((int) range[0]);
+            long prev = range[2];
+            while (in.position() < range[1]) {
+                byte type = in.get();
+                int next = -1;
+                if (checked) {
+                    int length = (int) getVarLong(in);
+                    next = in.position() + length + CHECKSUM_SIZE;
+                }
+                if (type == TYPE_RESOURCE) {
+                    if (checked) {
+                        in.position(next);
+                    } else {
+                        skipResource(in);
+                    }
+                    continue;
+                }
+                long timestamp = prev + unZigZag(getVarLong(in));
+                prev = timestamp;
+                int id = (int) getVarLong(in);
+                long pass = getVarLong(in);
+                long success = getVarLong(in);
+                long block = getVarLong(in);
+                long exception = getVarLong(in);
+                long rt = unZigZag(getVarLong(in));
+                int count = (int) getVarLong(in);
+                long gmtCreate = timestamp + unZigZag(getVarLong(in));
+                long maxPass = 0;
+                long maxBlock = 0;
+                long maxRt = 0;
+                if (type == TYPE_ROLLUP) {
+                    maxPass = getVarLong(in);
+                    maxBlock = getVarLong(in);
+                    maxRt = unZigZag(getVarLong(in));
+                }
+                if (checked) {
+                    in.position(next);
+                }
+                if (id != resourceId || timestamp < startTime || timestamp > endTime) {
+                    continue;
+                }
+                MetricEntity entity = new MetricEntity();
+                entity.setApp(app);
+                entity.setResource(resource);
+                entity.setTimestamp(new Date(timestamp));
+                entity.setGmtCreate(new Date(gmtCreate));
+                entity.setGmtModified(entity.getGmtCreate());
+                entity.setPassQps(pass);
+                entity.setSuccessQps(success);
+                entity.setBlockQps(block);
+                entity.setExceptionQps(exception);
+                entity.setRt(rt);
+                entity.setCount(count);
+                if (type == TYPE_ROLLUP) {
+                    entity.setMaxPassQps(maxPass);
+                    entity.setMaxBlockQps(maxBlock);
+                    entity.setMaxRt((double) maxRt);
+                }
+                results.add(entity);
+            }
+        }
+        return results;
+    }
+
+    synchronized void flush() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    long getPartitionStart() {
+        return partitionStart;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private void recover() throws IOException {
+        version = buffer.get(4);
+        if (buffer.getInt(0) != MAGIC || (version != VERSION && version != UNCHECKED_VERSION)) {
+            throw new IOException("Not a metric segment: " + file);
+        }
+        ByteBuffer in = buffer.duplicate();
+        int offset = HEADER_SIZE;
+        in.position(offset);
+        boolean torn = false;
+        try {
+            while (in.remaining() > 0) {
+                byte type = in.get();
+                if (type != TYPE_RESOURCE && type != TYPE_POINT && type != TYPE_ROLLUP) {
+                    torn = type != TYPE_END;
+                    break;
+                }
+                int payloadEnd = -1;
+                if (version != UNCHECKED_VERSION) {
+                    int length = (int) getVarLong(in);
+                    payloadEnd = in.position() + length;
+                    if (length <= 0 || payloadEnd > buffer.capacity() - CHECKSUM_SIZE
+                        || checksum(buffer, offset, payloadEnd) != buffer.getShort(payloadEnd)) {
+                        torn = true;
+                        break;
+                    }
+                }
+                if (type == TYPE_RESOURCE) {
+                    int id = (int) getVarLong(in);
+                    byte[] name = new byte[(int) getVarLong(in)];
+                    in.get(name);
+                    String resource = new String(name, StandardCharsets.UTF_8);
+                    resourceIds.put(resource, id);
+                    resources.add(resource);
+                } else if (type == TYPE_POINT || type == TYPE_ROLLUP) {
+                    long timestamp = prevTimestamp + unZigZag(getVarLong(in));
+                    for (int i = type == TYPE_POINT ? 8 : 11; i > 0; i--) {
+                        getVarLong(in);
+                    }
+                    Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+                    if (block == null || block.points >= POINTS_PER_BLOCK) {
+                        block = new Block(offset, prevTimestamp);
+                        blocks.add(block);
+                    }
+                    prevTimestamp = timestamp;
+                    block.add(timestamp);
+                }
+                if (payloadEnd >= 0) {
+                    if (in.position() != payloadEnd) {
+                        torn = true;
+                        break;
+                    }
+                    in.position(payloadEnd + CHECKSUM_SIZE);
+                }
+                offset = in.position();
+            }
+        } catch (RuntimeException e) {
+            torn = true;
+        }
+        if (torn) {
+            // A record torn by a crash: drop it and clear its bytes before appending again.
+            for (int i = offset; i < Math.min(offset + MAX_TORN_SIZE, buffer.capacity()); i++) {
+                buffer.put(i, TYPE_END);
+            }
+        }
+        position = offset;
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        int size = buffer.capacity();
+        while (size < required) {
+            size = (int) Math.min((long) size * 2, maxSize);
+        }
+        // Remapping only ever grows the file, so views handed out to readers stay valid.
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private static int resourceRecordSize(String resource) {
+        return 18 + resource.length() * 3;
+    }
+
+    /**
+     * Write the checksum of the record from {@code start} up to the position of the buffer.
+     */
+    private void putChecksum(ByteBuffer out, int start) {
+        out.putShort(checksum(out, start, out.position()));
+    }
+
+    private short checksum(ByteBuffer buffer, int start, int end) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(end).position(start);
+        crc.reset();
+        crc.update(record);
+        return (short) crc.getValue();
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void skipResource(ByteBuffer in) {
+        getVarLong(in);
+        int length = (int) getVarLong(in);
+        in.position(in.position() + length);
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    private static final class Block {
+        private final int offset;
+        private final long prevTimestamp;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private int points;
+
+        private Block(int offset, long prevTimestamp) {
+            this.offset = offset;
+            this.prevTimestamp = prevTimestamp;
+        }
+
+        private void add(long timestamp) {
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            points++;
+        }
+    }
+}
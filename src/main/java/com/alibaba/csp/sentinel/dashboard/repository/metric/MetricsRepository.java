@@ -15,7 +15,9 @@
  */
 package com.alibaba.csp.sentinel.dashboard.repository.metric;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Repository interface for aggregated metrics data.
@@ -50,6 +52,57 @@ public interface MetricsRepository<T> {
      */
     List<T> queryByAppAndResourceBetween(String app, String resource, long startTime, long endTime);
 
+    /**
+     * Get metrics by {@code appName} and {@code resourceName} between a period of time, at a
+     * resolution coarse enough to return about {@code maxPoints} points at most. Repositories
+     * without rolled-up data return the same as {@link #queryByAppAndResourceBetween(String, String, long, long)}.
+     *
+     * @param app       application name for Sentinel
+     * @param resource  resource name
+     * @param startTime start timestamp
+     * @param endTime   end timestamp
+     * @param maxPoints point budget of the result
+     * @return metrics in query conditions
+     */
+    default List<T> queryByAppAndResourceBetween(String app, String resource, long startTime, long endTime,
+                                                 int maxPoints) {
+        return queryByAppAndResourceBetween(app, resource, startTime, endTime);
+    }
+
+    /**
+     * Get metrics by {@code appName} and {@code resourceName} between a period of time which were
+     * written (added or amended) at or after {@code sinceTimestamp}, for clients refreshing what
+     * they already fetched. Repositories not tracking writes return every metric in the period,
+     * which is a superset of the changes.
+     *
+     * @param app            application name for Sentinel
+     * @param resource       resource name
+     * @param sinceTimestamp write time cursor, inclusive
+     * @param startTime      start timestamp
+     * @param endTime        end timestamp
+     * @return metrics written since the cursor in query conditions, ordered by time
+     */
+    default List<T> queryByAppAndResourceChangedSince(String app, String resource, long sinceTimestamp,
+                                                      long startTime, long endTime) {
+        return queryByAppAndResourceBetween(app, resource, startTime, endTime);
+    }
+
+    /**
+     * Visit the metrics of every resource of {@code appName} between a period of time, one resource
+     * after another and ordered by time within a resource, for exports walking all the series
+     * without collecting them first.
+     *
+     * @param app       application name for Sentinel
+     * @param startTime start timestamp
+     * @param endTime   end timestamp
+     * @param consumer  receives the metrics in query conditions
+     */
+    default void forEachMetricOfApp(String app, long startTime, long endTime, Consumer<T> consumer) {
+        for (String resource : listResourcesOfApp(app)) {
+            queryByAppAndResourceBetween(app, resource, startTime, endTime).forEach(consumer);
+        }
+    }
+
     /**
      * List resource name of provided application name.
      *
@@ -57,4 +110,31 @@ public interface MetricsRepository<T> {
      * @return list of resources
      */
     List<String> listResourcesOfApp(String app);
+
+    /**
+     * List a page of resource names of provided application name, in the same order as
+     * {@link #listResourcesOfApp(String)}.
+     *
+     * @param app    application name
+     * @param offset number of leading resources to skip
+     * @param limit  max number of resources to return
+     * @return list of resources
+     */
+    default List<String> listResourcesOfApp(String app, int offset, int limit) {
+        List<String> resources = listResourcesOfApp(app);
+        if (offset >= resources.size() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(resources.subList(offset, Math.min(resources.size(), offset + limit)));
+    }
+
+    /**
+     * Count resources of provided application name listed by {@link #listResourcesOfApp(String)}.
+     *
+     * @param app application name
+     * @return number of resources
+     */
+    default int countResourcesOfApp(String app) {
+        return listResourcesOfApp(app).size();
+    }
 }
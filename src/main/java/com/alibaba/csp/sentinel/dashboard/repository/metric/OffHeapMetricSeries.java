@@ -0,0 +1,205 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Per-second ring buffer of a single resource kept in an off-heap block, one fixed-width record
+ * per second. Only the names, the block handle and the latest timestamp stay on the heap.
+ *
+ * <p>Locking follows {@link ColumnarMetricSeries}. Once released, the block may already belong to
+ * another series: puts fail and queries return nothing, releasing takes the write lock so no
+ * optimistic read of the old content validates.</p>
+ */
+class OffHeapMetricSeries {
+
+    private static final long SECOND_MS = 1000;
+
+    private static final int TIMESTAMP = 0;
+    private static final int GMT_CREATE = 8;
+    private static final int PASS_QPS = 16;
+    private static final int SUCCESS_QPS = 24;
+    private static final int BLOCK_QPS = 32;
+    private static final int EXCEPTION_QPS = 40;
+    private static final int RT = 48;
+    private static final int COUNT = 56;
+    static final int RECORD_SIZE = 64;
+
+    private final StampedLock lock = new StampedLock();
+
+    private final String app;
+    private final String resource;
+    private final int capacity;
+    private final OffHeapSlabAllocator.Block block;
+    private final ByteBuffer slab;
+
+    private long latestTimestamp;
+    private boolean released;
+
+    /**
+     * @param block block of at least {@code capacity * RECORD_SIZE} bytes
+     */
+    OffHeapMetricSeries(String app, String resource, int capacity, OffHeapSlabAllocator.Block block) {
+        this.app = app;
+        this.resource = resource;
+        this.capacity = capacity;
+        this.block = block;
+        this.slab = block.slab;
+        // A recycled block still holds the records of its previous series.
+        for (int slot = 0; slot < capacity; slot++) {
+            slab.putLong(offsetOf(slot) + TIMESTAMP, 0);
+        }
+    }
+
+    /**
+     * Put the metric into the record of its second, see {@link ColumnarMetricSeries#put}.
+     *
+     * @return true if the point was stored, false if it is older or the series is released
+     */
+    boolean put(MetricEntity entity) {
+        long timestamp = entity.getTimestamp().getTime();
+        int offset = offsetOf(slotOf(timestamp));
+        long stamp = lock.writeLock();
+        try {
+            if (released) {
+                return false;
+            }
+            long existing = slab.getLong(offset + TIMESTAMP);
+            if (existing != 0 && existing / SECOND_MS > timestamp / SECOND_MS) {
+                return false;
+            }
+            slab.putLong(offset + TIMESTAMP, timestamp);
+            slab.putLong(offset + GMT_CREATE,
+                entity.getGmtCreate() == null ? timestamp : entity.getGmtCreate().getTime());
+            slab.putLong(offset + PASS_QPS, valueOf(entity.getPassQps()));
+            slab.putLong(offset + SUCCESS_QPS, valueOf(entity.getSuccessQps()));
+            slab.putLong(offset + BLOCK_QPS, valueOf(entity.getBlockQps()));
+            slab.putLong(offset + EXCEPTION_QPS, valueOf(entity.getExceptionQps()));
+            slab.putDouble(offset + RT, entity.getRt());
+            slab.putInt(offset + COUNT, entity.getCount());
+            if (timestamp > latestTimestamp) {
+                latestTimestamp = timestamp;
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    List<MetricEntity> query(long startTime, long endTime, long minTime) {
+        long stamp = lock.tryOptimisticRead();
+        List<MetricEntity> results = collect(startTime, endTime, minTime);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                results = collect(startTime, endTime, minTime);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return results;
+    }
+
+    boolean isReleased() {
+        long stamp = lock.readLock();
+        try {
+            return released;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stop using the block if the latest point is older than {@code minTime}, later puts are
+     * refused. The block must be freed by the caller afterwards.
+     *
+     * @return true if released by this call
+     */
+    boolean releaseIfOlderThan(long minTime) {
+        long stamp = lock.writeLock();
+        try {
+            if (released || latestTimestamp >= minTime) {
+                return false;
+            }
+            released = true;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    OffHeapSlabAllocator.Block getBlock() {
+        return block;
+    }
+
+    private List<MetricEntity> collect(long startTime, long endTime, long minTime) {
+        List<MetricEntity> results = new ArrayList<>();
+        if (released || latestTimestamp == 0) {
+            return results;
+        }
+        long lowerBound = Math.max(Math.max(startTime, minTime), oldestRetained());
+        int first = slotOf(latestTimestamp) + 1;
+        for (int i = 0; i < capacity; i++) {
+            int offset = offsetOf((first + i) % capacity);
+            long timestamp = slab.getLong(offset + TIMESTAMP);
+            if (timestamp == 0 || timestamp < lowerBound || timestamp > endTime) {
+                continue;
+            }
+            results.add(toEntity(offset, timestamp));
+        }
+        return results;
+    }
+
+    private long oldestRetained() {
+        return (latestTimestamp / SECOND_MS - capacity + 1) * SECOND_MS;
+    }
+
+    private MetricEntity toEntity(int offset, long timestamp) {
+        MetricEntity entity = new MetricEntity();
+        Date gmtCreate = new Date(slab.getLong(offset + GMT_CREATE));
+        entity.setGmtCreate(gmtCreate);
+        entity.setGmtModified(gmtCreate);
+        entity.setApp(app);
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setPassQps(slab.getLong(offset + PASS_QPS));
+        entity.setSuccessQps(slab.getLong(offset + SUCCESS_QPS));
+        entity.setBlockQps(slab.getLong(offset + BLOCK_QPS));
+        entity.setExceptionQps(slab.getLong(offset + EXCEPTION_QPS));
+        entity.setRt(slab.getDouble(offset + RT));
+        entity.setCount(slab.getInt(offset + COUNT));
+        return entity;
+    }
+
+    private int offsetOf(int slot) {
+        return block.offset + slot * RECORD_SIZE;
+    }
+
+    private int slotOf(long timestamp) {
+        return (int) ((timestamp / SECOND_MS) % capacity);
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches metrics data of the last few minutes off the GC heap. Every resource keeps its
+ * per-second ring buffer in a block of a direct memory slab ({@link OffHeapMetricSeries}), the
+ * heap only holds the map from app and resource to the block. Series not written for longer
+ * than the window are dropped by a background sweeper and their blocks recycled.
+ *
+ * <p>Enabled by {@code sentinel.metric.repository.type=offheap}. The slabs are limited by
+ * {@code sentinel.metric.offheap.max-mb}, which must fit into {@code -XX:MaxDirectMemorySize};
+ * once it is reached, metrics of new resources are dropped.</p>
+ */
+@Component
+@ConditionalOnProperty(name = "sentinel.metric.repository.type", havingValue = "offheap")
+public class OffHeapMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapMetricsRepository.class);
+
+    private static final long MAX_METRIC_LIVE_TIME_MS = 1000 * 60 * 5;
+    private static final int SERIES_CAPACITY = (int) (MAX_METRIC_LIVE_TIME_MS / 1000);
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * {@code app -> resource -> series}
+     */
+    private final Map<String, Map<String, OffHeapMetricSeries>> allMetrics = new ConcurrentHashMap<>();
+
+    private final ResourceRankIndex rankIndex = new ResourceRankIndex();
+
+    private final OffHeapSlabAllocator allocator;
+
+    private final AtomicLong rejectedPoints = new AtomicLong();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("sentinel-dashboard-metrics-offheap-sweeper", true));
+
+    public OffHeapMetricsRepository(@Value("${sentinel.metric.offheap.max-mb:512}") int maxMb) {
+        this.allocator = new OffHeapSlabAllocator(SERIES_CAPACITY * OffHeapMetricSeries.RECORD_SIZE, SLAB_SIZE,
+            maxMb * 1024L * 1024);
+    }
+
+    @PostConstruct
+    public void init() {
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                purgeExpiredSeries(TimeUtil.currentTimeMillis());
+            } catch (Throwable e) {
+                logger.warn("Off-heap metric sweep error", e);
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getTimestamp() == null) {
+            return;
+        }
+        if (entity.getTimestamp().getTime() < TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS) {
+            return;
+        }
+        Map<String, OffHeapMetricSeries> resourceMap = allMetrics.computeIfAbsent(entity.getApp(),
+            e -> new ConcurrentHashMap<>(16));
+        for (; ; ) {
+            // Looked up first, the capturing mapping function would be allocated on every point.
+            OffHeapMetricSeries series = resourceMap.get(entity.getResource());
+            if (series == null) {
+                series = resourceMap.computeIfAbsent(entity.getResource(),
+                    e -> newSeries(entity.getApp(), entity.getResource()));
+            }
+            if (series == null) {
+                if (rejectedPoints.getAndIncrement() % 10000 == 0) {
+                    logger.warn("Off-heap metric storage is full, dropped metrics of {}:{}", entity.getApp(),
+                        entity.getResource());
+                }
+                return;
+            }
+            if (series.put(entity)) {
+                break;
+            }
+            if (!series.isReleased()) {
+                // Older than the point already stored.
+                return;
+            }
+            // Expired by the sweeper meanwhile, put into a new series.
+        }
+        rankIndex.update(entity.getApp(), entity.getResource(), entity.getTimestamp().getTime(),
+            valueOf(entity.getPassQps()), valueOf(entity.getBlockQps()));
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        metrics.forEach(this::save);
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        Map<String, OffHeapMetricSeries> resourceMap = allMetrics.get(app);
+        if (resourceMap == null) {
+            return new ArrayList<>();
+        }
+        OffHeapMetricSeries series = resourceMap.get(resource);
+        if (series == null) {
+            return new ArrayList<>();
+        }
+        return series.query(startTime, endTime, TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return listResourcesOfApp(app, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app, int offset, int limit) {
+        if (StringUtil.isBlank(app)) {
+            return new ArrayList<>();
+        }
+        return rankIndex.list(app, offset, limit);
+    }
+
+    @Override
+    public int countResourcesOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return 0;
+        }
+        return rankIndex.count(app);
+    }
+
+    /**
+     * Drop the series without a point within the window, and recycle their blocks. Their
+     * resources are dropped from the ranking too.
+     */
+    void purgeExpiredSeries(long now) {
+        long minTime = now - MAX_METRIC_LIVE_TIME_MS;
+        // App maps are kept, a writer may be about to put into one of them.
+        for (Map<String, OffHeapMetricSeries> resourceMap : allMetrics.values()) {
+            for (Map.Entry<String, OffHeapMetricSeries> entry : resourceMap.entrySet()) {
+                OffHeapMetricSeries series = entry.getValue();
+                // Checked and released under the lock of the series, so no put is lost in between.
+                if (series.releaseIfOlderThan(minTime)) {
+                    resourceMap.remove(entry.getKey(), series);
+                    allocator.free(series.getBlock());
+                }
+            }
+        }
+        rankIndex.purgeExpired(now);
+    }
+
+    int getLiveSeries() {
+        return allocator.getAllocatedBlocks();
+    }
+
+    long getReservedBytes() {
+        return allocator.getReservedBytes();
+    }
+
+    private OffHeapMetricSeries newSeries(String app, String resource) {
+        OffHeapSlabAllocator.Block block = allocator.allocate();
+        return block == null ? null : new OffHeapMetricSeries(app, resource, SERIES_CAPACITY, block);
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Hands out fixed-size blocks carved from direct {@link ByteBuffer} slabs. Freed blocks are
+ * recycled before a new slab is allocated, and slabs are never given back, so the off-heap
+ * footprint follows the peak number of live blocks up to {@code maxBytes}.
+ */
+final class OffHeapSlabAllocator {
+
+    private final int blockSize;
+    private final int blocksPerSlab;
+    private final int maxSlabs;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final Deque<Block> freeBlocks = new ArrayDeque<>();
+    private int allocatedBlocks;
+
+    /**
+     * @param blockSize bytes of a block
+     * @param slabSize  bytes of a slab, at least a block
+     * @param maxBytes  max bytes of all slabs
+     */
+    OffHeapSlabAllocator(int blockSize, int slabSize, long maxBytes) {
+        this.blockSize = blockSize;
+        this.blocksPerSlab = Math.max(1, slabSize / blockSize);
+        this.maxSlabs = (int) Math.max(1, maxBytes / ((long) blocksPerSlab * blockSize));
+    }
+
+    /**
+     * @return a block, or null if the off-heap budget is exhausted
+     */
+    synchronized Block allocate() {
+        Block block = freeBlocks.pollFirst();
+        if (block == null) {
+            if (slabs.size() >= maxSlabs) {
+                return null;
+            }
+            ByteBuffer slab = ByteBuffer.allocateDirect(blocksPerSlab * blockSize);
+            slabs.add(slab);
+            for (int i = 1; i < blocksPerSlab; i++) {
+                freeBlocks.addLast(new Block(slab, i * blockSize));
+            }
+            block = new Block(slab, 0);
+        }
+        allocatedBlocks++;
+        return block;
+    }
+
+    synchronized void free(Block block) {
+        allocatedBlocks--;
+        // Reused first, as its memory is the most likely to be resident.
+        freeBlocks.addFirst(block);
+    }
+
+    synchronized int getAllocatedBlocks() {
+        return allocatedBlocks;
+    }
+
+    synchronized int getFreeBlocks() {
+        return freeBlocks.size();
+    }
+
+    synchronized long getReservedBytes() {
+        return (long) slabs.size() * blocksPerSlab * blockSize;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * A block of a slab, starting at {@code offset}.
+     */
+    static final class Block {
+        final ByteBuffer slab;
+        final int offset;
+
+        private Block(ByteBuffer slab, int offset) {
+            this.slab = slab;
+            this.offset = offset;
+        }
+    }
+}
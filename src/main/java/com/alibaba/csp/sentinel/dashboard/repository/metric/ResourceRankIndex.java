@@ -0,0 +1,304 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+/**
+ * Per-app index of resources ordered by their last-minute block QPS and pass QPS (both DESC).
+ *
+ * <p>Each resource keeps a rolling one-minute aggregate that is maintained incrementally on
+ * every write, and the app keeps its resources in a skip list ordered by that aggregate, so
+ * reading the top page does not rescan raw points. Aggregates of resources that stop receiving
+ * data are aged out by writes of the app, which sweep its aggregates at most once per second, and
+ * by {@link #purgeExpired(long)}, which also drops them from the index. Reads only walk the skip
+ * list, so an app without writes may list a resource until the next purge.</p>
+ *
+ * <p>The ordering is weakly consistent: a reader racing with a write may briefly see a resource
+ * at its old and new rank at once, which readers tolerate by skipping duplicates.</p>
+ */
+final class ResourceRankIndex {
+
+    private static final int WINDOW_SECONDS = 60;
+
+    private final Map<String, AppRanking> apps = new ConcurrentHashMap<>();
+
+    /**
+     * Account one point of the resource into its rolling aggregate. A point of the same second
+     * replaces the previously accounted one.
+     */
+    void update(String app, String resource, long timestamp, long passQps, long blockQps) {
+        long nowSecond = TimeUtil.currentTimeMillis() / 1000;
+        long second = timestamp / 1000;
+        if (second <= nowSecond - WINDOW_SECONDS) {
+            return;
+        }
+        AppRanking ranking = apps.computeIfAbsent(app, e -> new AppRanking());
+        ranking.expire(nowSecond);
+        for (; ; ) {
+            RollingMinute rolling = ranking.resources.computeIfAbsent(resource, RollingMinute::new);
+            if (rolling.update(ranking, second, passQps, blockQps, nowSecond)) {
+                return;
+            }
+            // Dropped by the purge meanwhile, account into a new aggregate.
+        }
+    }
+
+    /**
+     * Drop the aggregates of the resources without a point in the last minute.
+     */
+    void purgeExpired(long now) {
+        long nowSecond = now / 1000;
+        // App rankings are kept, a writer may be about to update one of them.
+        for (AppRanking ranking : apps.values()) {
+            for (Map.Entry<String, RollingMinute> entry : ranking.resources.entrySet()) {
+                RollingMinute rolling = entry.getValue();
+                if (rolling.releaseIfEmpty(ranking, nowSecond)) {
+                    ranking.resources.remove(entry.getKey(), rolling);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of resources of the app holding an aggregate, with data in the last minute or not
+     */
+    int countTracked(String app) {
+        AppRanking ranking = apps.get(app);
+        return ranking == null ? 0 : ranking.resources.size();
+    }
+
+    /**
+     * List resources with data in the last minute, ordered by block QPS and pass QPS (both DESC).
+     *
+     * @param offset number of leading resources to skip
+     * @param limit  max number of resources to return
+     */
+    List<String> list(String app, int offset, int limit) {
+        AppRanking ranking = apps.get(app);
+        if (ranking == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<String> results = new ArrayList<>(Math.min(limit, Math.max(ranking.size.get(), 0)));
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        for (RankKey key : ranking.ordered) {
+            if (!seen.add(key.resource)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            results.add(key.resource);
+            if (results.size() >= limit) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return number of resources of the app with data in the last minute
+     */
+    int count(String app) {
+        AppRanking ranking = apps.get(app);
+        if (ranking == null) {
+            return 0;
+        }
+        return Math.max(ranking.size.get(), 0);
+    }
+
+    private static final class AppRanking {
+        private final Map<String, RollingMinute> resources = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListSet<RankKey> ordered = new ConcurrentSkipListSet<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong lastSweepSecond = new AtomicLong();
+
+        void expire(long nowSecond) {
+            long last = lastSweepSecond.get();
+            if (last >= nowSecond || !lastSweepSecond.compareAndSet(last, nowSecond)) {
+                return;
+            }
+            for (RollingMinute rolling : resources.values()) {
+                rolling.expire(this, nowSecond);
+            }
+        }
+    }
+
+    /**
+     * One-minute rolling aggregate of a single resource, one slot per second.
+     */
+    private static final class RollingMinute {
+        private final String resource;
+        private final long[] seconds = new long[WINDOW_SECONDS];
+        private final long[] passQps = new long[WINDOW_SECONDS];
+        private final long[] blockQps = new long[WINDOW_SECONDS];
+        private long passSum;
+        private long blockSum;
+        private int points;
+        private long lastEvictSecond;
+        private RankKey key;
+        private boolean released;
+
+        RollingMinute(String resource) {
+            this.resource = resource;
+            Arrays.fill(seconds, -1);
+        }
+
+        /**
+         * @return false if the aggregate is released, the point is not accounted then
+         */
+        synchronized boolean update(AppRanking ranking, long second, long pass, long block, long nowSecond) {
+            if (released) {
+                return false;
+            }
+            evict(nowSecond);
+            int slot = (int) (second % WINDOW_SECONDS);
+            if (seconds[slot] == second) {
+                passSum -= passQps[slot];
+                blockSum -= blockQps[slot];
+            } else if (seconds[slot] > second) {
+                return true;
+            } else {
+                if (seconds[slot] >= 0) {
+                    passSum -= passQps[slot];
+                    blockSum -= blockQps[slot];
+                } else {
+                    points++;
+                }
+            }
+            seconds[slot] = second;
+            passQps[slot] = pass;
+            blockQps[slot] = block;
+            passSum += pass;
+            blockSum += block;
+            reindex(ranking);
+            return true;
+        }
+
+        synchronized void expire(AppRanking ranking, long nowSecond) {
+            if (points > 0) {
+                evict(nowSecond);
+                reindex(ranking);
+            }
+        }
+
+        /**
+         * Release the aggregate if no point is left in the window, later updates are refused.
+         *
+         * @return true if released
+         */
+        synchronized boolean releaseIfEmpty(AppRanking ranking, long nowSecond) {
+            expire(ranking, nowSecond);
+            if (points == 0) {
+                released = true;
+            }
+            return released;
+        }
+
+        private void evict(long nowSecond) {
+            if (lastEvictSecond == nowSecond || points == 0) {
+                lastEvictSecond = nowSecond;
+                return;
+            }
+            lastEvictSecond = nowSecond;
+            long threshold = nowSecond - WINDOW_SECONDS;
+            for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+                if (seconds[slot] >= 0 && seconds[slot] <= threshold) {
+                    passSum -= passQps[slot];
+                    blockSum -= blockQps[slot];
+                    seconds[slot] = -1;
+                    points--;
+                }
+            }
+        }
+
+        private void reindex(AppRanking ranking) {
+            RankKey newKey = points > 0 ? new RankKey(resource, passSum, blockSum) : null;
+            RankKey oldKey = key;
+            if (newKey == null ? oldKey == null : newKey.equals(oldKey)) {
+                return;
+            }
+            // Add before removing, so concurrent readers never miss the resource.
+            if (newKey != null) {
+                ranking.ordered.add(newKey);
+            }
+            if (oldKey != null) {
+                ranking.ordered.remove(oldKey);
+            }
+            if (oldKey == null) {
+                ranking.size.incrementAndGet();
+            } else if (newKey == null) {
+                ranking.size.decrementAndGet();
+            }
+            key = newKey;
+        }
+    }
+
+    private static final class RankKey implements Comparable<RankKey> {
+        private final String resource;
+        private final long passQps;
+        private final long blockQps;
+
+        RankKey(String resource, long passQps, long blockQps) {
+            this.resource = resource;
+            this.passQps = passQps;
+            this.blockQps = blockQps;
+        }
+
+        @Override
+        public int compareTo(RankKey o) {
+            int t = Long.compare(o.blockQps, blockQps);
+            if (t != 0) {
+                return t;
+            }
+            t = Long.compare(o.passQps, passQps);
+            if (t != 0) {
+                return t;
+            }
+            return resource.compareTo(o.resource);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RankKey)) {
+                return false;
+            }
+            RankKey that = (RankKey) o;
+            return passQps == that.passQps && blockQps == that.blockQps && resource.equals(that.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return resource.hashCode() * 31 + Long.hashCode(blockQps * 31 + passQps);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+/**
+ * Resolutions at which metrics are rolled up, from the finest to the coarsest.
+ */
+enum RollupTier {
+
+    TEN_SECONDS("10s", 1000 * 10, 1000 * 60 * 60),
+    ONE_MINUTE("1m", 1000 * 60, 1000 * 60 * 60 * 24),
+    TEN_MINUTES("10m", 1000 * 60 * 10, 1000 * 60 * 60 * 24);
+
+    private final String name;
+    private final long stepMs;
+    /**
+     * Time span covered by one segment file of the tier.
+     */
+    private final long partitionMs;
+
+    RollupTier(String name, long stepMs, long partitionMs) {
+        this.name = name;
+        this.stepMs = stepMs;
+        this.partitionMs = partitionMs;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getStepMs() {
+        return stepMs;
+    }
+
+    long getPartitionMs() {
+        return partitionMs;
+    }
+
+    /**
+     * @return the start of the bucket the timestamp falls into
+     */
+    long bucketOf(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, stepMs);
+    }
+
+    /**
+     * Number of points of this tier within {@code [startTime, endTime]}.
+     */
+    long pointsBetween(long startTime, long endTime) {
+        return (bucketOf(endTime) - bucketOf(startTime)) / stepMs + 1;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+
+/**
+ * The last writes of a series, as {@code (write time, second of the point)} pairs in write order,
+ * so the points written since a cursor are found from the tail of the log instead of by
+ * scanning the series. Not thread-safe: guarded by the lock of the owning series.
+ */
+final class SeriesChangeLog {
+
+    private final long[] writeTimes;
+    private final long[] seconds;
+    private long size;
+
+    SeriesChangeLog(int capacity) {
+        this.writeTimes = new long[capacity];
+        this.seconds = new long[capacity];
+    }
+
+    void record(long writeTime, long second) {
+        int index = (int) (size % writeTimes.length);
+        writeTimes[index] = writeTime;
+        seconds[index] = second;
+        size++;
+    }
+
+    /**
+     * @param since write time cursor, inclusive
+     * @return distinct seconds of the points written at or after {@code since} in time order,
+     * or {@code null} if older writes than the log keeps may be among them
+     */
+    long[] secondsSince(long since) {
+        long end = size;
+        long first = Math.max(0, end - writeTimes.length);
+        long[] found = new long[(int) (end - first)];
+        int count = 0;
+        long i = end - 1;
+        for (; i >= first; i--) {
+            int index = (int) (i % writeTimes.length);
+            if (writeTimes[index] < since) {
+                break;
+            }
+            found[count++] = seconds[index];
+        }
+        if (i < first && first > 0) {
+            return null;
+        }
+        Arrays.sort(found, 0, count);
+        int distinct = 0;
+        for (int j = 0; j < count; j++) {
+            if (distinct == 0 || found[j] != found[distinct - 1]) {
+                found[distinct++] = found[j];
+            }
+        }
+        return Arrays.copyOf(found, distinct);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.alibaba.csp.sentinel.dashboard.rule;
 
+import java.util.function.UnaryOperator;
+
 /**
  * @author Eric Zhao
  * @since 1.4.0
@@ -29,4 +31,20 @@ public interface DynamicRulePublisher<T> {
      * @throws Exception if some error occurs
      */
     void publish(String app, T rules) throws Exception;
+
+    /**
+     * Apply a change to the rules of given application and publish the result. Publishers able to
+     * detect concurrent changes may apply the change again to the latest rules.
+     *
+     * @param app app name
+     * @param provider provider of the current rules
+     * @param change given the current rules, returns the rules to push, or {@code null} to leave them as they are
+     * @throws Exception if some error occurs
+     */
+    default void update(String app, DynamicRuleProvider<T> provider, UnaryOperator<T> change) throws Exception {
+        T rules = change.apply(provider.getRules(app));
+        if (rules != null) {
+            publish(app, rules);
+        }
+    }
 }
@@ -1,24 +1,23 @@
 package com.alibaba.csp.sentinel.dashboard.rule.nacos;
 
-import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.RuleEntity;
-import com.alibaba.csp.sentinel.dashboard.util.JSONUtils;
 import com.alibaba.csp.sentinel.slots.block.Rule;
 import com.alibaba.csp.sentinel.util.AssertUtil;
-import com.alibaba.csp.sentinel.util.StringUtil;
-import com.alibaba.fastjson.JSON;
 import com.alibaba.nacos.api.config.ConfigService;
-import com.alibaba.nacos.api.config.listener.Listener;
 import com.alibaba.nacos.api.exception.NacosException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @wiki https://github.com/eacdy/Sentinel-Dashboard-Nacos
@@ -28,6 +27,16 @@ import java.util.stream.Collectors;
 public class NacosConfigUtil {
     @Autowired
     private NacosConfig.NacosProperties nacosProperties;
+    @Autowired
+    private NacosRuleCache ruleCache;
+    @Autowired
+    private NacosPublishTracker publishTracker;
+    @Autowired
+    private NacosRuleUpdater ruleUpdater;
+    @Autowired
+    private NacosRuleCodec ruleCodec;
+    @Autowired
+    private NacosRuleArchiver ruleArchiver;
 
     public static final String FLOW_DATA_ID_POSTFIX = "-flow-rules";
     public static final String DEGRADE_DATA_ID_POSTFIX = "-degrade-rules";
@@ -39,6 +48,19 @@ public class NacosConfigUtil {
     public static final String DASHBOARD_POSTFIX = "-dashboard";
     public static final String CLUSTER_MAP_DATA_ID_POSTFIX = "-cluster-map";
 
+    /**
+     * 控制台存储的各类规则的 dataId 后缀，用于批量导出/导入
+     */
+    private static final List<String> DASHBOARD_RULE_DATA_ID_POSTFIXES = Stream.of(
+            FLOW_DATA_ID_POSTFIX,
+            DEGRADE_DATA_ID_POSTFIX,
+            SYSTEM_DATA_ID_POSTFIX,
+            PARAM_FLOW_DATA_ID_POSTFIX,
+            AUTHORITY_DATA_ID_POSTFIX,
+            GATEWAY_FLOW_DATA_ID_POSTFIX,
+            GATEWAY_API_DATA_ID_POSTFIX
+    ).map(postfix -> postfix + DASHBOARD_POSTFIX).collect(Collectors.toList());
+
     /**
      * cc for `cluster-client`
      */
@@ -50,7 +72,11 @@ public class NacosConfigUtil {
     public static final String SERVER_FLOW_CONFIG_DATA_ID_POSTFIX = "-cs-flow-config";
     public static final String SERVER_NAMESPACE_SET_DATA_ID_POSTFIX = "-cs-namespace-set";
 
-    private final ExecutorService pool = new ThreadPoolExecutor(1, 1, 0L,TimeUnit.MILLISECONDS, new ArrayBlockingQueue(1), new NamedThreadFactory("sentinel-dashboard-nacos-ds-update"), new ThreadPoolExecutor.DiscardOldestPolicy());
+    /**
+     * 发布后等待 Nacos 回推确认的最长时间，0 表示不等待，可通过 /rule/publish.json 查询确认状态
+     */
+    @Value("${sentinel.nacos.publish.wait-ms:0}")
+    private long publishWaitMs;
 
     /**
      * 将规则序列化成JSON文本，存储到Nacos server中
@@ -59,12 +85,13 @@ public class NacosConfigUtil {
      * @param app           应用名称
      * @param postfix       规则后缀 eg.NacosConfigUtil.FLOW_DATA_ID_POSTFIX
      * @param rules         规则对象
+     * @return 发布状态，Nacos 回推相同内容后确认
      * @throws NacosException 异常
      */
-    public <T> void setRuleStringToNacos(ConfigService configService, String app, String postfix, List<T> rules) throws NacosException {
+    public <T> PublishStatus setRuleStringToNacos(ConfigService configService, String app, String postfix, List<T> rules) throws NacosException {
         AssertUtil.notEmpty(app, "app name cannot be empty");
         if (rules == null) {
-            return;
+            return null;
         }
 
         List<Rule> ruleForApp = rules.stream()
@@ -78,20 +105,6 @@ public class NacosConfigUtil {
                 .collect(Collectors.toList());
 
         String dataId = genDataId(app, postfix);
-        CountDownLatch countDownLatch = new CountDownLatch(1);
-
-        Listener listener = new Listener() {
-            @Override
-            public Executor getExecutor() {
-                return NacosConfigUtil.this.pool;
-            }
-
-            @Override
-            public void receiveConfigInfo(String configInfo) {
-                countDownLatch.countDown();
-            }
-        };
-        configService.addListener(dataId + DASHBOARD_POSTFIX, nacosProperties.getGroupId(), listener);
 //        // 存储，给微服务使用
 //        configService.publishConfig(
 //                dataId,
@@ -101,20 +114,86 @@ public class NacosConfigUtil {
 //        );
 
         // 存储，给控制台使用
-        configService.publishConfig(
+        String content = ruleCodec.encode(rules);
+        PublishStatus status = publishTracker.publish(
+                configService,
                 dataId + DASHBOARD_POSTFIX,
                 nacosProperties.getGroupId(),
 //                JSONUtils.toJSONString(rules)
-                printPrettyJSON(rules)
+                content
         );
+        ruleCache.put(dataId + DASHBOARD_POSTFIX, nacosProperties.getGroupId(), content);
 
-        try {
-            countDownLatch.await(2000, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (publishWaitMs > 0) {
+            publishTracker.await(status, publishWaitMs).join();
         }
-        configService.removeListener(dataId + DASHBOARD_POSTFIX, nacosProperties.getGroupId(), listener);
+        return status;
+    }
 
+    /**
+     * 读取规则、修改后发布，发布前校验规则自读取后未被修改（比较内容 MD5），否则重新读取并修改
+     *
+     * @param configService nacos config service
+     * @param app           应用名称
+     * @param postfix       规则后缀 eg.NacosConfigUtil.FLOW_DATA_ID_POSTFIX
+     * @param clazz         类
+     * @param change        对当前规则的修改，返回 null 表示不发布，冲突时会再次执行
+     * @return 发布状态，Nacos 回推相同内容后确认，未发布时为 null
+     * @throws NacosException 多次重试仍冲突时错误码为 {@link NacosException#CONFLICT}
+     */
+    public <T> PublishStatus updateRulesInNacos(ConfigService configService, String app, String postfix, Class<T> clazz,
+                                                UnaryOperator<List<T>> change) throws NacosException {
+        AssertUtil.notEmpty(app, "app name cannot be empty");
+        PublishStatus status = ruleUpdater.update(
+                configService,
+                genDataId(app, postfix) + DASHBOARD_POSTFIX,
+                nacosProperties.getGroupId(),
+                clazz,
+                change
+        );
+        if (status != null && publishWaitMs > 0) {
+            publishTracker.await(status, publishWaitMs).join();
+        }
+        return status;
+    }
+
+    /**
+     * 将应用的全部规则并发读取，以 zip 格式写出，不关闭输出流
+     *
+     * @param configService nacos config service
+     * @param apps          应用名称
+     * @param out           zip 输出流
+     * @return 各 dataId 的导出结果，没有规则的 dataId 不导出
+     * @throws IOException 写出异常
+     */
+    public List<RuleArchiveResult> exportRulesFromNacos(ConfigService configService, Collection<String> apps, OutputStream out) throws IOException {
+        return ruleArchiver.export(configService, nacosProperties.getGroupId(), apps, DASHBOARD_RULE_DATA_ID_POSTFIXES, out);
+    }
+
+    /**
+     * 读取 {@link #exportRulesFromNacos} 导出的 zip，并发发布其中的规则，不关闭输入流
+     *
+     * @param configService nacos config service
+     * @param in            zip 输入流
+     * @return 各 dataId 的导入结果
+     * @throws IOException 读取异常
+     */
+    public List<RuleArchiveResult> importRulesToNacos(ConfigService configService, InputStream in) throws IOException {
+        return ruleArchiver.importArchive(configService, nacosProperties.getGroupId(), DASHBOARD_RULE_DATA_ID_POSTFIXES, in);
+    }
+
+    /**
+     * 查询应用某类规则最近一次发布的状态
+     *
+     * @param app     应用名称
+     * @param postfix 规则后缀 eg.NacosConfigUtil.FLOW_DATA_ID_POSTFIX
+     * @param waitMs  仍未确认时最多等待的毫秒数
+     * @return 最近一次发布的状态，未发布过时为 null
+     */
+    public CompletableFuture<PublishStatus> getPublishStatus(String app, String postfix, long waitMs) {
+        PublishStatus status = publishTracker.getLatest(genDataId(app, postfix) + DASHBOARD_POSTFIX,
+                nacosProperties.getGroupId());
+        return status == null ? null : publishTracker.await(status, waitMs);
     }
 
     /**
@@ -129,28 +208,17 @@ public class NacosConfigUtil {
      * @throws NacosException 异常
      */
     public <T> List<T> getRuleEntitiesFromNacos(ConfigService configService, String appName, String postfix, Class<T> clazz) throws NacosException {
-        String rules = configService.getConfig(
+        // 优先读取本地缓存，由 Nacos 监听器保持更新
+        return ruleCache.getRules(
+                configService,
                 genDataId(appName, postfix) + DASHBOARD_POSTFIX,
                 //genDataId(appName, postfix),
                 nacosProperties.getGroupId(),
-                3000
+                clazz
         );
-        if (StringUtil.isEmpty(rules)) {
-            return new ArrayList<>();
-        }
-        return JSONUtils.parseObject(clazz, rules);
     }
 
     private static String genDataId(String appName, String postfix) {
         return appName + postfix;
     }
-
-    private static String printPrettyJSON(Object obj) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(obj);
-        } catch (JsonProcessingException e) {
-            return JSON.toJSONString(obj);
-        }
-    }
 }
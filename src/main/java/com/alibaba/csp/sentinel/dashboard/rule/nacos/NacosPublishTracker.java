@@ -0,0 +1,282 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import com.alibaba.nacos.api.config.ConfigService;
+import com.alibaba.nacos.api.config.listener.Listener;
+import com.alibaba.nacos.api.exception.NacosException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes configs to Nacos and tracks when the published content comes back through a
+ * listener, without holding the publishing thread.
+ *
+ * <p>Each data id has one listener registered on its first publish and kept from then on. A
+ * publish is confirmed when the listener receives content with the same MD5, and superseded when
+ * it receives the content of a later publish first, as Nacos only notifies the latest change.
+ * Publishes not confirmed within {@code sentinel.nacos.publish.confirm-timeout-ms} time out.</p>
+ */
+@Component
+public class NacosPublishTracker {
+
+    private static final long GET_CONFIG_TIMEOUT_MS = 3000;
+
+    @Value("${sentinel.nacos.publish.confirm-timeout-ms:10000}")
+    private long confirmTimeoutMs = 10_000;
+
+    /**
+     * {@code group + '/' + dataId -> watch}
+     */
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService timer;
+
+    public NacosPublishTracker() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+            new NamedThreadFactory("sentinel-dashboard-nacos-publish-timer", true));
+        executor.setRemoveOnCancelPolicy(true);
+        this.timer = executor;
+    }
+
+    NacosPublishTracker(long confirmTimeoutMs) {
+        this();
+        this.confirmTimeoutMs = confirmTimeoutMs;
+    }
+
+    /**
+     * Publish the content of a data id.
+     *
+     * @return the status of the publish, still pending unless the content is already current
+     * @throws NacosException if Nacos did not accept the content
+     */
+    public PublishStatus publish(ConfigService configService, String dataId, String group, String content)
+        throws NacosException {
+        Watch watch = watches.computeIfAbsent(key(dataId, group), k -> new Watch(dataId, group));
+        watch.writeLock.lock();
+        try {
+            return publish(configService, watch, content);
+        } finally {
+            watch.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Publish the content of a data id unless its current content is not the one with
+     * {@code expectedMd5} ({@code null} for none). Writes of this dashboard to a data id are
+     * serialized, so only a write from elsewhere between the check and the publish can go unnoticed.
+     *
+     * @return the status of the publish, or {@code null} if the content changed
+     * @throws NacosException if Nacos did not accept the content
+     */
+    public PublishStatus publishIfUnchanged(ConfigService configService, String dataId, String group,
+                                            String content, String expectedMd5) throws NacosException {
+        Watch watch = watches.computeIfAbsent(key(dataId, group), k -> new Watch(dataId, group));
+        watch.writeLock.lock();
+        try {
+            String current = configService.getConfig(dataId, group, GET_CONFIG_TIMEOUT_MS);
+            String currentMd5 = StringUtil.isEmpty(current) ? null : md5Hex(current);
+            if (!Objects.equals(currentMd5, expectedMd5)) {
+                return null;
+            }
+            return publish(configService, watch, content);
+        } finally {
+            watch.writeLock.unlock();
+        }
+    }
+
+    private PublishStatus publish(ConfigService configService, Watch watch, String content) throws NacosException {
+        String dataId = watch.dataId;
+        String group = watch.group;
+        watch.listen(configService);
+        PublishStatus status = new PublishStatus(dataId, md5Hex(content), TimeUtil.currentTimeMillis());
+        // Tracked before publishing, as the notification may arrive before publishConfig returns.
+        watch.pending.add(status);
+        watch.latest = status;
+        try {
+            if (!configService.publishConfig(dataId, group, content)) {
+                throw new NacosException(NacosException.SERVER_ERROR, "Nacos rejected the config of " + dataId);
+            }
+        } catch (NacosException e) {
+            watch.pending.remove(status);
+            status.complete(PublishStatus.FAILED, TimeUtil.currentTimeMillis(), e.getErrMsg());
+            throw e;
+        }
+        if (status.getMd5().equals(watch.receivedMd5)) {
+            // Unchanged content is not notified again.
+            watch.pending.remove(status);
+            status.complete(PublishStatus.CONFIRMED, TimeUtil.currentTimeMillis(), null);
+            return status;
+        }
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            watch.pending.remove(status);
+            status.complete(PublishStatus.TIMEOUT, TimeUtil.currentTimeMillis(),
+                "not received back within " + confirmTimeoutMs + "ms");
+        }, confirmTimeoutMs, TimeUnit.MILLISECONDS);
+        status.completion.thenRun(() -> timeout.cancel(false));
+        return status;
+    }
+
+    /**
+     * @return the status of the latest publish of a data id, or {@code null} if none
+     */
+    public PublishStatus getLatest(String dataId, String group) {
+        Watch watch = watches.get(key(dataId, group));
+        return watch == null ? null : watch.latest;
+    }
+
+    /**
+     * @return completed with the status once it is no longer pending or after {@code waitMs},
+     * whichever is earlier
+     */
+    public CompletableFuture<PublishStatus> await(PublishStatus status, long waitMs) {
+        if (waitMs <= 0 || status.completion.isDone()) {
+            return CompletableFuture.completedFuture(status);
+        }
+        CompletableFuture<PublishStatus> result = new CompletableFuture<>();
+        ScheduledFuture<?> deadline = timer.schedule(() -> result.complete(status), waitMs, TimeUnit.MILLISECONDS);
+        status.completion.thenRun(() -> {
+            deadline.cancel(false);
+            result.complete(status);
+        });
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+        for (Watch watch : watches.values()) {
+            watch.unlisten();
+        }
+        watches.clear();
+    }
+
+    static String md5Hex(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String dataId, String group) {
+        return group + '/' + dataId;
+    }
+
+    private static final class Watch implements Listener {
+        private final String dataId;
+        private final String group;
+        /**
+         * Publishes waiting for their content, oldest first.
+         */
+        private final Queue<PublishStatus> pending = new ConcurrentLinkedQueue<>();
+        /**
+         * Held while publishing, so the writes of this dashboard to the data id do not interleave.
+         */
+        private final Lock writeLock = new ReentrantLock();
+
+        private volatile PublishStatus latest;
+        /**
+         * MD5 of the content last received, {@code null} before the first notification.
+         */
+        private volatile String receivedMd5;
+        private ConfigService listening;
+
+        private Watch(String dataId, String group) {
+            this.dataId = dataId;
+            this.group = group;
+        }
+
+        private synchronized void listen(ConfigService configService) throws NacosException {
+            if (listening == null) {
+                // The current content tells whether a publish changes anything at all.
+                String current = configService.getConfigAndSignListener(dataId, group, GET_CONFIG_TIMEOUT_MS, this);
+                listening = configService;
+                if (receivedMd5 == null && current != null) {
+                    receivedMd5 = md5Hex(current);
+                }
+            }
+        }
+
+        private synchronized void unlisten() {
+            if (listening != null) {
+                listening.removeListener(dataId, group, this);
+                listening = null;
+            }
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return null;
+        }
+
+        @Override
+        public void receiveConfigInfo(String configInfo) {
+            String md5 = configInfo == null ? null : md5Hex(configInfo);
+            receivedMd5 = md5;
+            PublishStatus last = null;
+            for (PublishStatus status : pending) {
+                if (status.getMd5().equals(md5)) {
+                    last = status;
+                }
+            }
+            if (last == null) {
+                // Content of someone else, or of a publish that is no longer tracked.
+                return;
+            }
+            // Everything published up to the last publish of this content is settled.
+            long now = TimeUtil.currentTimeMillis();
+            Iterator<PublishStatus> it = pending.iterator();
+            while (it.hasNext()) {
+                PublishStatus status = it.next();
+                it.remove();
+                status.complete(status.getMd5().equals(md5) ? PublishStatus.CONFIRMED : PublishStatus.SUPERSEDED,
+                    now, null);
+                if (status == last) {
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.nacos.api.config.ConfigService;
+import com.alibaba.nacos.api.exception.NacosException;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exports the rules of many apps from Nacos into a zip archive, and imports them back, for
+ * disaster recovery or moving between Nacos clusters.
+ *
+ * <p>Every data id is an entry {@code dataId + ".json"} holding its content as stored. Data ids
+ * are fetched and published {@code sentinel.nacos.archive.parallelism} at a time, and the archive
+ * is read and written as a stream, so only the contents in flight are held in memory. An export
+ * ends with an {@value #REPORT_ENTRY} entry listing the apps it covered, then the data ids it
+ * exported or failed to read.</p>
+ */
+@Component
+public class NacosRuleArchiver {
+
+    static final String REPORT_ENTRY = "export-report.json";
+
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final long GET_CONFIG_TIMEOUT_MS = 3000;
+    /**
+     * Larger entries are rejected rather than read into memory.
+     */
+    private static final int MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+
+    @Autowired
+    private NacosRuleCache ruleCache;
+    @Autowired
+    private NacosPublishTracker publishTracker;
+    @Autowired
+    private NacosRuleCodec codec;
+
+    @Value("${sentinel.nacos.archive.parallelism:8}")
+    private int parallelism = 8;
+
+    private ExecutorService executor;
+
+    public NacosRuleArchiver() {
+    }
+
+    NacosRuleArchiver(NacosRuleCache ruleCache, NacosPublishTracker publishTracker, NacosRuleCodec codec,
+                      int parallelism) {
+        this.ruleCache = ruleCache;
+        this.publishTracker = publishTracker;
+        this.codec = codec;
+        this.parallelism = parallelism;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+            new NamedThreadFactory("sentinel-dashboard-nacos-archive", true));
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Write the rules of the apps to a zip archive. The stream is not closed.
+     *
+     * @param postfixes data id postfixes of the rule types, the data id being {@code app + postfix}
+     * @return the data ids exported or failed, data ids without rules are left out
+     */
+    public List<RuleArchiveResult> export(ConfigService configService, String group, Collection<String> apps,
+                                          Collection<String> postfixes, OutputStream out) throws IOException {
+        List<String> dataIds = new ArrayList<>(apps.size() * postfixes.size());
+        for (String app : apps) {
+            for (String postfix : postfixes) {
+                dataIds.add(app + postfix);
+            }
+        }
+        ZipOutputStream zip = new ZipOutputStream(out);
+        List<RuleArchiveResult> results = new ArrayList<>(dataIds.size());
+        CompletionService<Fetched> fetches = new ExecutorCompletionService<>(executor);
+        int next = 0;
+        int inFlight = 0;
+        try {
+            while (next < dataIds.size() || inFlight > 0) {
+                while (inFlight < parallelism && next < dataIds.size()) {
+                    String dataId = dataIds.get(next++);
+                    fetches.submit(() -> fetch(configService, dataId, group));
+                    inFlight++;
+                }
+                Fetched fetched = fetches.take().get();
+                inFlight--;
+                if (fetched.error != null) {
+                    results.add(RuleArchiveResult.ofFail(fetched.dataId, fetched.error));
+                } else if (StringUtil.isNotEmpty(fetched.content)) {
+                    zip.putNextEntry(new ZipEntry(fetched.dataId + ENTRY_SUFFIX));
+                    zip.write(fetched.content.getBytes(StandardCharsets.UTF_8));
+                    zip.closeEntry();
+                    results.add(RuleArchiveResult.ofSuccess(fetched.dataId));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while exporting rules");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        results.sort(Comparator.comparing(RuleArchiveResult::getDataId));
+        // Apps without rules have no data id, so they are only told from apps left out by this list.
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("apps", apps);
+        report.put("dataIds", results);
+        zip.putNextEntry(new ZipEntry(REPORT_ENTRY));
+        zip.write(codec.encode(report).getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        zip.finish();
+        return results;
+    }
+
+    /**
+     * Publish the rules of a zip archive written by {@link #export}. The stream is not closed.
+     *
+     * @param postfixes data id postfixes of the rule types, entries of other data ids are rejected
+     * @return the result of every entry, in the order of the archive
+     */
+    public List<RuleArchiveResult> importArchive(ConfigService configService, String group,
+                                                 Collection<String> postfixes, InputStream in) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        List<Future<RuleArchiveResult>> results = new ArrayList<>();
+        Semaphore permits = new Semaphore(parallelism);
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                if (entry.isDirectory() || REPORT_ENTRY.equals(name)) {
+                    continue;
+                }
+                String dataId = name.endsWith(ENTRY_SUFFIX)
+                    ? name.substring(0, name.length() - ENTRY_SUFFIX.length()) : name;
+                if (!isRuleDataId(dataId, postfixes)) {
+                    results.add(CompletableFuture.completedFuture(
+                        RuleArchiveResult.ofFail(dataId, "not a rule data id")));
+                    continue;
+                }
+                String content = readEntry(zip);
+                if (content == null) {
+                    results.add(CompletableFuture.completedFuture(
+                        RuleArchiveResult.ofFail(dataId, "larger than " + MAX_ENTRY_BYTES + " bytes")));
+                    continue;
+                }
+                // Bounds the contents read ahead of their publish.
+                permits.acquire();
+                try {
+                    results.add(executor.submit(() -> {
+                        try {
+                            return publish(configService, dataId, group, content);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            List<RuleArchiveResult> done = new ArrayList<>(results.size());
+            for (Future<RuleArchiveResult> result : results) {
+                done.add(result.get());
+            }
+            return done;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing rules");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Fetched fetch(ConfigService configService, String dataId, String group) {
+        try {
+            return new Fetched(dataId, configService.getConfig(dataId, group, GET_CONFIG_TIMEOUT_MS), null);
+        } catch (NacosException e) {
+            return new Fetched(dataId, null, e.getErrMsg());
+        }
+    }
+
+    private RuleArchiveResult publish(ConfigService configService, String dataId, String group, String content) {
+        try {
+            JsonNode rules = codec.readTree(content);
+            if (rules == null || !rules.isArray()) {
+                return RuleArchiveResult.ofFail(dataId, "rules must be a JSON array");
+            }
+        } catch (IllegalArgumentException e) {
+            return RuleArchiveResult.ofFail(dataId, "invalid JSON: " + e.getMessage());
+        }
+        try {
+            publishTracker.publish(configService, dataId, group, content);
+            ruleCache.put(dataId, group, content);
+            return RuleArchiveResult.ofSuccess(dataId);
+        } catch (NacosException e) {
+            return RuleArchiveResult.ofFail(dataId, e.getErrMsg());
+        }
+    }
+
+    private static boolean isRuleDataId(String dataId, Collection<String> postfixes) {
+        for (String postfix : postfixes) {
+            if (dataId.length() > postfix.length() && dataId.endsWith(postfix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the content of the current entry, {@code null} if too large
+     */
+    private static String readEntry(ZipInputStream zip) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = zip.read(buffer)) > 0) {
+            if (content.size() + n > MAX_ENTRY_BYTES) {
+                return null;
+            }
+            content.write(buffer, 0, n);
+        }
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class Fetched {
+        private final String dataId;
+        private final String content;
+        private final String error;
+
+        private Fetched(String dataId, String content, String error) {
+            this.dataId = dataId;
+            this.content = content;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import com.alibaba.nacos.api.config.ConfigService;
+import com.alibaba.nacos.api.config.listener.Listener;
+import com.alibaba.nacos.api.exception.NacosException;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Local cache of the rule lists kept in Nacos, so rule pages and read-modify-write updates are
+ * served from memory rather than by a {@code getConfig} round trip each.
+ *
+ * <p>The first read of a data id registers a listener which keeps the entry current from then on,
+ * and the dashboard's own publishes are written through. An entry not refreshed for
+ * {@code sentinel.nacos.rule-cache.max-age-ms} is read again, in case a notification was lost.
+ * Entries hold the parsed JSON tree and every read binds fresh entities from it, as callers
+ * modify the rules they get.</p>
+ */
+@Component
+public class NacosRuleCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(NacosRuleCache.class);
+
+    private static final long GET_CONFIG_TIMEOUT_MS = 3000;
+
+    @Value("${sentinel.nacos.rule-cache.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${sentinel.nacos.rule-cache.max-age-ms:300000}")
+    private long maxAgeMs = 300_000;
+
+    @Autowired
+    private NacosRuleCodec codec;
+
+    /**
+     * {@code group + '/' + dataId -> entry}
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder notifications = new LongAdder();
+
+    public NacosRuleCache() {
+    }
+
+    NacosRuleCache(boolean enabled, long maxAgeMs) {
+        this.codec = new NacosRuleCodec();
+        this.enabled = enabled;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Get the rules of a data id, from the cache if it holds a current copy.
+     *
+     * @return new rule entities the caller may modify
+     */
+    public <T> List<T> getRules(ConfigService configService, String dataId, String group, Class<T> clazz)
+        throws NacosException {
+        return getVersionedRules(configService, dataId, group, clazz).getRules();
+    }
+
+    /**
+     * Get the rules of a data id along with the MD5 of the content they were read from, for
+     * writes that must not overwrite changes made since.
+     */
+    public <T> VersionedRules<T> getVersionedRules(ConfigService configService, String dataId, String group,
+                                                   Class<T> clazz) throws NacosException {
+        if (!enabled) {
+            String content = configService.getConfig(dataId, group, GET_CONFIG_TIMEOUT_MS);
+            return new VersionedRules<>(codec.decode(content, clazz),
+                StringUtil.isEmpty(content) ? null : NacosPublishTracker.md5Hex(content));
+        }
+        Entry entry = entries.computeIfAbsent(key(dataId, group), k -> new Entry(dataId, group));
+        Snapshot snapshot = entry.snapshot;
+        if (snapshot != null && TimeUtil.currentTimeMillis() - snapshot.refreshedAt <= maxAgeMs) {
+            hits.increment();
+        } else {
+            (snapshot == null ? misses : expired).increment();
+            snapshot = entry.load(configService);
+        }
+        return new VersionedRules<>(codec.decode(snapshot.rules, clazz), snapshot.md5);
+    }
+
+    /**
+     * Drop the cached rules of a data id, so the next read gets them from Nacos.
+     */
+    public void invalidate(String dataId, String group) {
+        Entry entry = entries.get(key(dataId, group));
+        if (entry != null) {
+            entry.snapshot = null;
+        }
+    }
+
+    /**
+     * Record the content the dashboard has just published under a data id.
+     */
+    public void put(String dataId, String group, String content) {
+        Entry entry = entries.get(key(dataId, group));
+        if (entry != null) {
+            entry.update(content);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long now = TimeUtil.currentTimeMillis();
+        long maxStalenessMs = 0;
+        int cached = 0;
+        for (Entry entry : entries.values()) {
+            Snapshot snapshot = entry.snapshot;
+            if (snapshot != null) {
+                cached++;
+                maxStalenessMs = Math.max(maxStalenessMs, now - snapshot.refreshedAt);
+            }
+        }
+        Map<String, Object> stats = new HashMap<>(8);
+        stats.put("enabled", enabled);
+        stats.put("entries", cached);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("expired", expired.sum());
+        stats.put("notifications", notifications.sum());
+        // Time since the least recently confirmed entry was read or notified.
+        stats.put("maxStalenessMs", maxStalenessMs);
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Entry entry : entries.values()) {
+            entry.unlisten();
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return the parsed content, with {@code null} rules and MD5 for empty content
+     */
+    private Snapshot parse(String content, long refreshedAt) {
+        if (StringUtil.isEmpty(content)) {
+            return new Snapshot(null, null, refreshedAt);
+        }
+        return new Snapshot(codec.readTree(content), NacosPublishTracker.md5Hex(content), refreshedAt);
+    }
+
+    private static String key(String dataId, String group) {
+        return group + '/' + dataId;
+    }
+
+    private static final class Snapshot {
+        private final JsonNode rules;
+        private final String md5;
+        private final long refreshedAt;
+
+        private Snapshot(JsonNode rules, String md5, long refreshedAt) {
+            this.rules = rules;
+            this.md5 = md5;
+            this.refreshedAt = refreshedAt;
+        }
+    }
+
+    private final class Entry implements Listener {
+        private final String dataId;
+        private final String group;
+        /**
+         * Held while reading from Nacos, so concurrent misses of an entry read it once.
+         */
+        private final Object loadLock = new Object();
+
+        private volatile Snapshot snapshot;
+        /**
+         * Bumped by every update, so a load racing with a notification keeps the newer content.
+         */
+        private long version;
+        /**
+         * The config service listened to, guarded by {@link #loadLock}.
+         */
+        private ConfigService listening;
+
+        private Entry(String dataId, String group) {
+            this.dataId = dataId;
+            this.group = group;
+        }
+
+        private Snapshot load(ConfigService configService) throws NacosException {
+            synchronized (loadLock) {
+                Snapshot current = snapshot;
+                if (current != null && TimeUtil.currentTimeMillis() - current.refreshedAt <= maxAgeMs) {
+                    // Loaded by a concurrent reader.
+                    return current;
+                }
+                if (listening == null) {
+                    // Listen first, so a change published during the read is not missed.
+                    configService.addListener(dataId, group, this);
+                    listening = configService;
+                }
+                long loadVersion;
+                synchronized (this) {
+                    loadVersion = version;
+                }
+                Snapshot loaded = parse(configService.getConfig(dataId, group, GET_CONFIG_TIMEOUT_MS),
+                    TimeUtil.currentTimeMillis());
+                synchronized (this) {
+                    if (version == loadVersion || snapshot == null) {
+                        snapshot = loaded;
+                    }
+                    return snapshot;
+                }
+            }
+        }
+
+        private synchronized void update(String content) {
+            version++;
+            try {
+                snapshot = parse(content, TimeUtil.currentTimeMillis());
+            } catch (IllegalArgumentException e) {
+                // Leave it to the next read to fetch the content and report the error.
+                snapshot = null;
+                logger.warn("Invalid rules of {} in group {}, dropped from cache", dataId, group, e);
+            }
+        }
+
+        private void unlisten() {
+            synchronized (loadLock) {
+                if (listening != null) {
+                    listening.removeListener(dataId, group, this);
+                    listening = null;
+                }
+            }
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return null;
+        }
+
+        @Override
+        public void receiveConfigInfo(String configInfo) {
+            notifications.increment();
+            update(configInfo);
+        }
+    }
+}
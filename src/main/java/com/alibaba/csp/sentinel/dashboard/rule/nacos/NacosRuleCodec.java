@@ -0,0 +1,148 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encodes and decodes the rule lists kept in Nacos, sharing one {@link ObjectMapper} and a reader
+ * per rule type rather than building them on every call.
+ *
+ * <p>Rules are written compact unless {@code sentinel.nacos.rule-codec.pretty} is set, as the
+ * content is stored by Nacos and shipped to every client of the app. Lists are decoded rule by
+ * rule from the parser, without first building a tree of the whole list.</p>
+ */
+@Component
+public class NacosRuleCodec {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Value("${sentinel.nacos.rule-codec.pretty:false}")
+    private boolean pretty;
+
+    private final ObjectWriter compactWriter = MAPPER.writer();
+    private final ObjectWriter prettyWriter = MAPPER.writerWithDefaultPrettyPrinter();
+
+    /**
+     * {@code rule type -> reader of a single rule}
+     */
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public NacosRuleCodec() {
+    }
+
+    NacosRuleCodec(boolean pretty) {
+        this.pretty = pretty;
+    }
+
+    public String encode(List<?> rules) {
+        return encode((Object) rules);
+    }
+
+    /**
+     * Encode any other value kept along with the rules, such as the report of an archive.
+     */
+    public String encode(Object value) {
+        try {
+            return (pretty ? prettyWriter : compactWriter).writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return the rules of the content, empty if there is none
+     */
+    public <T> List<T> decode(String content, Class<T> clazz) {
+        if (StringUtil.isBlank(content)) {
+            return new ArrayList<>();
+        }
+        try (JsonParser parser = MAPPER.getFactory().createParser(content)) {
+            return readList(parser, clazz);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Decode the rules of a stream, which is left open.
+     */
+    public <T> List<T> decode(InputStream in, Class<T> clazz) throws IOException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(in).disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)) {
+            return readList(parser, clazz);
+        }
+    }
+
+    public JsonNode readTree(String content) {
+        try {
+            return MAPPER.readTree(content);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Bind the rules of a tree read by {@link #readTree(String)}, {@code null} for none.
+     *
+     * @return new rule entities
+     */
+    public <T> List<T> decode(JsonNode tree, Class<T> clazz) {
+        if (tree == null) {
+            return new ArrayList<>();
+        }
+        try (JsonParser parser = MAPPER.treeAsTokens(tree)) {
+            return readList(parser, clazz);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Reads the rules of a JSON array one at a time, {@code null} standing for none.
+     */
+    private <T> List<T> readList(JsonParser parser, Class<T> clazz) throws IOException {
+        List<T> rules = new ArrayList<>();
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return rules;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Rules must be a JSON array, but " + token + " got");
+        }
+        ObjectReader reader = readers.computeIfAbsent(clazz, MAPPER::readerFor);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            rules.add(reader.readValue(parser));
+        }
+        return rules;
+    }
+}
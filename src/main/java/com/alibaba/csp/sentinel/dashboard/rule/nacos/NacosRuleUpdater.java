@@ -0,0 +1,106 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import com.alibaba.nacos.api.config.ConfigService;
+import com.alibaba.nacos.api.exception.NacosException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read-modify-write updates of the rule lists kept in Nacos, which do not overwrite changes made
+ * since the rules were read.
+ *
+ * <p>An update reads the rules with the MD5 of their content, applies the change and publishes
+ * the result only if the content still has that MD5, reading and applying the change again
+ * otherwise, up to {@code sentinel.nacos.publish.max-attempts} times. Updates of this dashboard
+ * to a data id run one at a time, so the retries are left to writes from elsewhere, such as
+ * another dashboard or the Nacos console.</p>
+ */
+@Component
+public class NacosRuleUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(NacosRuleUpdater.class);
+
+    @Autowired
+    private NacosRuleCache ruleCache;
+    @Autowired
+    private NacosPublishTracker publishTracker;
+    @Autowired
+    private NacosRuleCodec codec;
+
+    @Value("${sentinel.nacos.publish.max-attempts:5}")
+    private int maxAttempts = 5;
+
+    /**
+     * {@code group + '/' + dataId -> lock}
+     */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public NacosRuleUpdater() {
+    }
+
+    NacosRuleUpdater(NacosRuleCache ruleCache, NacosPublishTracker publishTracker, int maxAttempts) {
+        this.ruleCache = ruleCache;
+        this.publishTracker = publishTracker;
+        this.codec = new NacosRuleCodec();
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Apply a change to the rules of a data id and publish the result.
+     *
+     * @param change given the current rules, which it may modify, returns the rules to publish or
+     *               {@code null} to leave them as they are; may be applied more than once
+     * @return the status of the publish, {@code null} if there was nothing to publish
+     * @throws NacosException with {@link NacosException#CONFLICT} if the rules kept changing
+     *                        during every attempt, or if Nacos did not accept the content
+     */
+    public <T> PublishStatus update(ConfigService configService, String dataId, String group, Class<T> clazz,
+                                    UnaryOperator<List<T>> change) throws NacosException {
+        synchronized (locks.computeIfAbsent(group + '/' + dataId, k -> new Object())) {
+            for (int attempt = 1; ; attempt++) {
+                VersionedRules<T> current = ruleCache.getVersionedRules(configService, dataId, group, clazz);
+                List<T> rules = change.apply(current.getRules());
+                if (rules == null) {
+                    return null;
+                }
+                String content = codec.encode(rules);
+                PublishStatus status = publishTracker.publishIfUnchanged(configService, dataId, group, content,
+                    current.getMd5());
+                if (status != null) {
+                    ruleCache.put(dataId, group, content);
+                    return status;
+                }
+                // Changed since read, which the cached copy may not have caught up with yet.
+                ruleCache.invalidate(dataId, group);
+                if (attempt >= maxAttempts) {
+                    throw new NacosException(NacosException.CONFLICT,
+                        "Rules of " + dataId + " kept changing, gave up after " + attempt + " attempts");
+                }
+                logger.info("Rules of {} changed concurrently, retrying the update", dataId);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * State of a rule publish to Nacos, confirmed once the dashboard's listener of the data id
+ * receives the published content (or content published after it).
+ */
+public class PublishStatus {
+
+    public static final String PENDING = "PENDING";
+    public static final String CONFIRMED = "CONFIRMED";
+    /**
+     * Overwritten by a later publish before its own content was received.
+     */
+    public static final String SUPERSEDED = "SUPERSEDED";
+    public static final String FAILED = "FAILED";
+    public static final String TIMEOUT = "TIMEOUT";
+
+    private final String dataId;
+    private final String md5;
+    private final long publishTime;
+
+    private volatile String state = PENDING;
+    private volatile long completeTime;
+    private volatile String message;
+
+    /**
+     * Completed with this status once it is no longer pending.
+     */
+    final CompletableFuture<PublishStatus> completion = new CompletableFuture<>();
+
+    PublishStatus(String dataId, String md5, long publishTime) {
+        this.dataId = dataId;
+        this.md5 = md5;
+        this.publishTime = publishTime;
+    }
+
+    /**
+     * @return whether this call completed the publish
+     */
+    synchronized boolean complete(String state, long time, String message) {
+        if (!PENDING.equals(this.state)) {
+            return false;
+        }
+        this.completeTime = time;
+        this.message = message;
+        this.state = state;
+        completion.complete(this);
+        return true;
+    }
+
+    public String getDataId() {
+        return dataId;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return when the publish stopped being pending, {@code 0} while it is
+     */
+    public long getCompleteTime() {
+        return completeTime;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+/**
+ * Outcome of exporting or importing the rules of a data id.
+ */
+public class RuleArchiveResult {
+
+    private final String dataId;
+    private final boolean success;
+    private final String msg;
+
+    private RuleArchiveResult(String dataId, boolean success, String msg) {
+        this.dataId = dataId;
+        this.success = success;
+        this.msg = msg;
+    }
+
+    public static RuleArchiveResult ofSuccess(String dataId) {
+        return new RuleArchiveResult(dataId, true, null);
+    }
+
+    public static RuleArchiveResult ofFail(String dataId, String msg) {
+        return new RuleArchiveResult(dataId, false, msg);
+    }
+
+    public String getDataId() {
+        return dataId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.List;
+
+/**
+ * Rules read from Nacos, with the MD5 of the content they were parsed from.
+ */
+public class VersionedRules<T> {
+
+    private final List<T> rules;
+    private final String md5;
+
+    public VersionedRules(List<T> rules, String md5) {
+        this.rules = rules;
+        this.md5 = md5;
+    }
+
+    public List<T> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return MD5 of the content, {@code null} if there was none
+     */
+    public String getMd5() {
+        return md5;
+    }
+}
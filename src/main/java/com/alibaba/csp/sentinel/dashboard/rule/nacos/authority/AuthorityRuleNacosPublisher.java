@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.rule.nacos.authority;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.AuthorityRuleEntity;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
 import com.alibaba.nacos.api.config.ConfigService;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * @author itmuch.com
@@ -45,4 +47,16 @@ public class AuthorityRuleNacosPublisher implements DynamicRulePublisher<List<Au
                 rules
         );
     }
+
+    @Override
+    public void update(String app, DynamicRuleProvider<List<AuthorityRuleEntity>> provider,
+                       UnaryOperator<List<AuthorityRuleEntity>> change) throws Exception {
+        nacosConfigUtil.updateRulesInNacos(
+                this.configService,
+                app,
+                NacosConfigUtil.AUTHORITY_DATA_ID_POSTFIX,
+                AuthorityRuleEntity.class,
+                change
+        );
+    }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.rule.nacos.degrade;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.DegradeRuleEntity;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
 import com.alibaba.nacos.api.config.ConfigService;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * @author itmuch.com
@@ -45,4 +47,16 @@ public class DegradeRuleNacosPublisher implements DynamicRulePublisher<List<Degr
                 rules
         );
     }
+
+    @Override
+    public void update(String app, DynamicRuleProvider<List<DegradeRuleEntity>> provider,
+                       UnaryOperator<List<DegradeRuleEntity>> change) throws Exception {
+        nacosConfigUtil.updateRulesInNacos(
+                this.configService,
+                app,
+                NacosConfigUtil.DEGRADE_DATA_ID_POSTFIX,
+                DegradeRuleEntity.class,
+                change
+        );
+    }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.rule.nacos.flow;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.FlowRuleEntity;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
 import com.alibaba.nacos.api.config.ConfigService;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * @author Eric Zhao
@@ -47,4 +49,16 @@ public class FlowRuleNacosPublisher implements DynamicRulePublisher<List<FlowRul
                 rules
         );
     }
+
+    @Override
+    public void update(String app, DynamicRuleProvider<List<FlowRuleEntity>> provider,
+                       UnaryOperator<List<FlowRuleEntity>> change) throws Exception {
+        nacosConfigUtil.updateRulesInNacos(
+                this.configService,
+                app,
+                NacosConfigUtil.FLOW_DATA_ID_POSTFIX,
+                FlowRuleEntity.class,
+                change
+        );
+    }
 }
\ No newline at end of file
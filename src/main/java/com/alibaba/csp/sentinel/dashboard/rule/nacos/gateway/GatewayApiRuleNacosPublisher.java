@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.rule.nacos.gateway;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.gateway.ApiDefinitionEntity;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
 import com.alibaba.nacos.api.config.ConfigService;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * @author Eric Zhao
@@ -47,4 +49,16 @@ public class GatewayApiRuleNacosPublisher implements DynamicRulePublisher<List<A
                 rules
         );
     }
+
+    @Override
+    public void update(String app, DynamicRuleProvider<List<ApiDefinitionEntity>> provider,
+                       UnaryOperator<List<ApiDefinitionEntity>> change) throws Exception {
+        nacosConfigUtil.updateRulesInNacos(
+                this.configService,
+                app,
+                NacosConfigUtil.GATEWAY_API_DATA_ID_POSTFIX,
+                ApiDefinitionEntity.class,
+                change
+        );
+    }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.rule.nacos.param;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.ParamFlowRuleEntity;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
 import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
 import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosConfigUtil;
 import com.alibaba.nacos.api.config.ConfigService;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * @author itmuch.com
@@ -46,4 +48,16 @@ public class ParamFlowRuleNacosPublisher implements DynamicRulePublisher<List<Pa
                 rules
         );
     }
+
+    @Override
+    public void update(String app, DynamicRuleProvider<List<ParamFlowRuleEntity>> provider,
+                       UnaryOperator<List<ParamFlowRuleEntity>> change) throws Exception {
+        nacosConfigUtil.updateRulesInNacos(
+                this.configService,
+                app,
+                NacosConfigUtil.PARAM_FLOW_DATA_ID_POSTFIX,
+                ParamFlowRuleEntity.class,
+                change
+        );
+    }
 }
\ No newline at end of file
@@ -3,30 +3,40 @@ package com.alibaba.csp.sentinel.dashboard.util;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JSONUtils {
+    /**
+     * Thread-safe once configured, so shared rather than built on every call.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<Class<?>, ObjectReader> LIST_READERS = new ConcurrentHashMap<>();
+
     public static <T> String toJSONString(Object object) {
         try {
-            return new ObjectMapper().writeValueAsString(object);
+            return MAPPER.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
     public static JavaType getCollectionType(Class<?> collectionClass, Class<?>... elementClasses) {
-        return new ObjectMapper()
+        return MAPPER
                 .getTypeFactory()
                 .constructParametricType(collectionClass, elementClasses);
     }
 
     public static <T> List<T> parseObject(Class<T> clazz, String string) {
-        JavaType javaType = getCollectionType(ArrayList.class, clazz);
+        ObjectReader reader = LIST_READERS.computeIfAbsent(clazz,
+                c -> MAPPER.readerFor(getCollectionType(ArrayList.class, c)));
         try {
-            return (List<T>) new ObjectMapper().readValue(string, javaType);
+            return reader.readValue(string);
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link AppFetchScheduler}.
+ */
+public class AppFetchSchedulerTest {
+
+    @Test
+    public void testBackpressureDelaysButNeverDropsApps() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        CountDownLatch allFetched = new CountDownLatch(20);
+        AppFetchScheduler scheduler = new AppFetchScheduler(100, 2, app -> CompletableFuture.supplyAsync(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(20);
+            running.decrementAndGet();
+            if (fetches.computeIfAbsent(app, a -> new AtomicInteger()).incrementAndGet() == 1) {
+                allFetched.countDown();
+            }
+            // Not due again during the test.
+            return Long.MAX_VALUE;
+        }));
+        List<String> apps = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            apps.add("app-" + i);
+        }
+        scheduler.start();
+        try {
+            scheduler.syncApps(apps);
+            assertTrue(allFetched.await(10, TimeUnit.SECONDS));
+            assertEquals(20, fetches.size());
+            assertTrue(maxRunning.get() <= 2);
+            for (AtomicInteger count : fetches.values()) {
+                assertEquals(1, count.get());
+            }
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testAppsRefetchedOnIntervalUntilRemoved() throws Exception {
+        Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        AppFetchScheduler scheduler = new AppFetchScheduler(50, 4, app -> {
+            fetches.computeIfAbsent(app, a -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        scheduler.start();
+        try {
+            scheduler.syncApps(Arrays.asList("a", "b"));
+            waitFor(() -> fetches.containsKey("a") && fetches.get("a").get() >= 3
+                && fetches.containsKey("b") && fetches.get("b").get() >= 3);
+
+            scheduler.syncApps(Collections.singletonList("a"));
+            assertEquals(1, scheduler.getLags().size());
+            assertEquals("a", scheduler.getLags().get(0).getApp());
+            sleep(100);
+            int removedCount = fetches.get("b").get();
+            int keptCount = fetches.get("a").get();
+            sleep(300);
+            assertEquals(removedCount, fetches.get("b").get());
+            assertTrue(fetches.get("a").get() > keptCount);
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testFailedFetchCountedAndRescheduled() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AppFetchScheduler scheduler = new AppFetchScheduler(50, 1, app -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("boom");
+            }
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("boom"));
+            return failed;
+        });
+        scheduler.start();
+        try {
+            scheduler.syncApps(Collections.singletonList("app"));
+            waitFor(() -> calls.get() >= 3);
+            waitFor(() -> scheduler.getLags().get(0).getFailures() >= 3);
+            AppFetchLag lag = scheduler.getLags().get(0);
+            assertEquals(lag.getFetches(), lag.getFailures());
+            assertEquals(0, scheduler.getInFlight());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+            sleep(5);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link IngestedTime}.
+ */
+public class IngestedTimeTest {
+
+    @Test
+    public void testSecondIngestedOnceWriterPastItsPosition() {
+        IngestedTime ingestedTime = new IngestedTime();
+        assertEquals(-1, ingestedTime.get(0));
+
+        ingestedTime.onHandedOver(10_000, 3);
+        ingestedTime.onHandedOver(16_000, 5);
+        assertEquals(-1, ingestedTime.get(2));
+        assertEquals(10_000, ingestedTime.get(3));
+        assertEquals(10_000, ingestedTime.get(4));
+        assertEquals(16_000, ingestedTime.get(5));
+    }
+
+    @Test
+    public void testOlderSecondDoesNotMoveBack() {
+        IngestedTime ingestedTime = new IngestedTime();
+        ingestedTime.onHandedOver(16_000, 3);
+        // A backfill of older seconds handed over later.
+        ingestedTime.onHandedOver(9_000, 4);
+        ingestedTime.onHandedOver(12_000, 4);
+        assertEquals(16_000, ingestedTime.get(4));
+    }
+}
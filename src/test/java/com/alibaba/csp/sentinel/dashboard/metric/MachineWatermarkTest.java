@@ -0,0 +1,93 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MachineWatermark}.
+ */
+public class MachineWatermarkTest {
+
+    @Test
+    public void testAdvanceOnContiguousWindows() {
+        MachineWatermark watermark = new MachineWatermark(9_000);
+        watermark.onFetched(10_000, 16_000);
+        watermark.onFetched(17_000, 23_000);
+        assertEquals(23_000, watermark.getFetched());
+        assertEquals(Long.MAX_VALUE, watermark.getGapEnd());
+
+        // Refetching fetched seconds changes nothing.
+        watermark.onFetched(12_000, 14_000);
+        assertEquals(23_000, watermark.getFetched());
+    }
+
+    @Test
+    public void testGapBackfilledJoinsHeadRun() {
+        MachineWatermark watermark = new MachineWatermark(9_000);
+        // [10s, 16s] missed, the following windows form the head run.
+        watermark.onFetched(17_000, 23_000);
+        watermark.onFetched(24_000, 30_000);
+        assertEquals(9_000, watermark.getFetched());
+        assertEquals(16_000, watermark.getGapEnd());
+
+        watermark.onFetched(10_000, 13_000);
+        assertEquals(13_000, watermark.getFetched());
+        assertEquals(16_000, watermark.getGapEnd());
+
+        watermark.onFetched(14_000, 16_000);
+        assertEquals(30_000, watermark.getFetched());
+        assertEquals(Long.MAX_VALUE, watermark.getGapEnd());
+    }
+
+    @Test
+    public void testSecondMissStartsNewHeadRun() {
+        MachineWatermark watermark = new MachineWatermark(9_000);
+        watermark.onFetched(17_000, 23_000);
+        // [24s, 30s] missed as well.
+        watermark.onFetched(31_000, 37_000);
+        assertEquals(30_000, watermark.getGapEnd());
+
+        watermark.onFetched(10_000, 23_000);
+        assertEquals(23_000, watermark.getFetched());
+        watermark.onFetched(24_000, 30_000);
+        assertEquals(37_000, watermark.getFetched());
+    }
+
+    @Test
+    public void testFirstFetchedBetween() {
+        MachineWatermark watermark = new MachineWatermark(9_000);
+        // [10s, 16s] missed, [17s, 23s] is the head run.
+        watermark.onFetched(17_000, 23_000);
+        assertEquals(8_000, watermark.firstFetchedBetween(8_000, 12_000));
+        assertEquals(Long.MAX_VALUE, watermark.firstFetchedBetween(10_000, 16_000));
+        assertEquals(17_000, watermark.firstFetchedBetween(12_000, 20_000));
+        assertEquals(Long.MAX_VALUE, watermark.firstFetchedBetween(24_000, 30_000));
+    }
+
+    @Test
+    public void testGiveUpBeforeHorizon() {
+        MachineWatermark watermark = new MachineWatermark(9_000);
+        watermark.onFetched(20_000, 26_000);
+        watermark.giveUpBefore(15_000);
+        assertEquals(14_000, watermark.getFetched());
+
+        watermark.giveUpBefore(20_000);
+        assertEquals(26_000, watermark.getFetched());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricAggregation}.
+ */
+public class MetricAggregationTest {
+
+    private static final long START = 1600000000000L;
+
+    @Test
+    public void testMergePartialsByResourceAndSecond() {
+        MetricAggregation aggregation = new MetricAggregation(START, START + 6000);
+        MetricAggregation.Partial machine1 = aggregation.newPartial();
+        MetricAggregation.Partial machine2 = aggregation.newPartial();
+        machine1.onMetric(START, "a", 10, 1, 9, 0, 20);
+        machine1.onMetric(START + 1000, "a", 5, 0, 5, 1, 10);
+        machine2.onMetric(START, "a", 30, 2, 30, 0, 40);
+        machine2.onMetric(START + 6000, "b", 1, 0, 1, 0, 5);
+        aggregation.merge(machine1);
+        aggregation.merge(machine2);
+
+        List<MetricEntity> entities = aggregation.toEntities("app");
+        entities.sort(Comparator.comparing(MetricEntity::getResource).thenComparing(MetricEntity::getTimestamp));
+        assertEquals(3, entities.size());
+
+        MetricEntity first = entities.get(0);
+        assertEquals("app", first.getApp());
+        assertEquals("a", first.getResource());
+        assertEquals(START, first.getTimestamp().getTime());
+        assertEquals(40, first.getPassQps().longValue());
+        assertEquals(3, first.getBlockQps().longValue());
+        assertEquals(39, first.getSuccessQps().longValue());
+        assertEquals(0, first.getExceptionQps().longValue());
+        assertEquals(20 * 9 + 40 * 30, first.getRt(), 0.001);
+        assertEquals(2, first.getCount());
+
+        assertEquals(START + 1000, entities.get(1).getTimestamp().getTime());
+        assertEquals(1, entities.get(1).getCount());
+        assertEquals("b", entities.get(2).getResource());
+        assertEquals(START + 6000, entities.get(2).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testLinesOutsideWindowDropped() {
+        MetricAggregation aggregation = new MetricAggregation(START, START + 6000);
+        MetricAggregation.Partial partial = aggregation.newPartial();
+        partial.onMetric(START - 1000, "a", 1, 0, 1, 0, 1);
+        partial.onMetric(START + 7000, "a", 1, 0, 1, 0, 1);
+        aggregation.merge(partial);
+
+        assertEquals(2, partial.getOutOfWindow());
+        assertTrue(aggregation.toEntities("app").isEmpty());
+    }
+}
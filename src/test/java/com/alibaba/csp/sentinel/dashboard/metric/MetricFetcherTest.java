@@ -0,0 +1,497 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import com.alibaba.csp.sentinel.dashboard.discovery.SimpleMachineDiscovery;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MachineMetric;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MachineMetricsStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricFetcher}, fetching from a local server standing in for slow machines.
+ */
+public class MetricFetcherTest {
+
+    private static final long RESPONSE_DELAY_MS = 300;
+    private static final int FETCH_THREADS = 2;
+    private static final String RESOURCE = "GET:/hello";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private AppManagement appManagement;
+    private InMemoryMetricsRepository repository;
+    private MachineMetricsStore machineStore;
+    private MetricFetcher fetcher;
+    /**
+     * Client address of every accepted connection.
+     */
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        server.createContext("/metric", this::handleMetric);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        appManagement = new AppManagement();
+        ReflectionTestUtils.setField(appManagement, "machineDiscovery", new SimpleMachineDiscovery());
+        repository = new InMemoryMetricsRepository();
+        machineStore = new MachineMetricsStore();
+        ReflectionTestUtils.setField(machineStore, "enabledApps", "app");
+        ReflectionTestUtils.setField(machineStore, "retentionSeconds", 120);
+        machineStore.init();
+    }
+
+    @After
+    public void tearDown() {
+        if (fetcher != null) {
+            ReflectionTestUtils.invokeMethod(fetcher, "close");
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowMachinesDoNotHoldFetchThreads() throws Exception {
+        startFetcher(false);
+        int apps = 100;
+        long endTime = System.currentTimeMillis() / 1000 * 1000 - 2000;
+        long startTime = endTime - 5000;
+        for (int i = 0; i < apps; i++) {
+            addMachine("app-" + i, server.getAddress().getPort());
+        }
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        for (int i = 0; i < apps; i++) {
+            fetches.add(fetcher.fetchOnce("app-" + i, startTime, endTime, 5));
+        }
+        CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        awaitWritten();
+        long cost = System.currentTimeMillis() - start;
+
+        for (int i = 0; i < apps; i++) {
+            List<MetricEntity> entities = repository.queryByAppAndResourceBetween("app-" + i, RESOURCE,
+                startTime, endTime);
+            assertEquals(6, entities.size());
+            assertEquals(10, (long) entities.get(0).getPassQps());
+        }
+        // Parking a fetch thread per app would take apps * delay / threads = 15s.
+        long blockingCost = apps * RESPONSE_DELAY_MS / FETCH_THREADS;
+        assertTrue("fetching took " + cost + "ms", cost < blockingCost / 3);
+    }
+
+    @Test
+    public void testConcurrentAppsDefaultToFetchThreads() {
+        startFetcher(false, 0);
+        assertEquals(FETCH_THREADS, fetcher.getMaxFetchesInFlight());
+    }
+
+    @Test
+    public void testStopWaitingForMachinesAfterMaxWait() throws Exception {
+        startFetcher(false);
+        long endTime = System.currentTimeMillis() / 1000 * 1000 - 2000;
+        long startTime = endTime - 5000;
+        HttpServer hanging = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8);
+        hanging.createContext("/metric", exchange -> sleep(2500));
+        hanging.setExecutor(serverExecutor);
+        hanging.start();
+        try {
+            addMachine("app", server.getAddress().getPort());
+            addMachine("app", hanging.getAddress().getPort());
+
+            long start = System.currentTimeMillis();
+            fetcher.fetchOnce("app", startTime, endTime, 1).get(10, TimeUnit.SECONDS);
+            awaitWritten();
+            long cost = System.currentTimeMillis() - start;
+
+            assertTrue("fetching took " + cost + "ms", cost < 2000);
+            assertEquals(6, repository.queryByAppAndResourceBetween("app", RESOURCE, startTime, endTime).size());
+        } finally {
+            hanging.stop(0);
+        }
+    }
+
+    @Test
+    public void testWatermarkNotAdvancedByResponseAfterMaxWait() throws Exception {
+        startFetcher(false);
+        long endTime = System.currentTimeMillis() / 1000 * 1000 - 2000;
+        long startTime = endTime - 5000;
+        CompletableFuture<Void> lateResponded = new CompletableFuture<>();
+        HttpServer late = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8);
+        late.createContext("/metric", exchange -> {
+            sleep(1500);
+            handleMetric(exchange);
+            lateResponded.complete(null);
+        });
+        late.setExecutor(serverExecutor);
+        late.start();
+        try {
+            addMachine("app", server.getAddress().getPort());
+            addMachine("app", late.getAddress().getPort());
+
+            fetcher.fetchOnce("app", startTime, endTime, 1).get(10, TimeUnit.SECONDS);
+            awaitWritten();
+            lateResponded.get(10, TimeUnit.SECONDS);
+            // Let the client hand the late response over.
+            sleep(200);
+
+            Map<String, Map<String, MachineWatermark>> watermarks = (Map<String, Map<String, MachineWatermark>>)
+                ReflectionTestUtils.getField(fetcher, "machineWatermarks");
+            assertEquals(endTime, watermarks.get("app").get("127.0.0.1:" + server.getAddress().getPort())
+                .getFetched());
+            assertEquals(startTime - 1000, watermarks.get("app").get("127.0.0.1:" + late.getAddress().getPort())
+                .getFetched());
+            assertEquals(10, (long) repository.queryByAppAndResourceBetween("app", RESOURCE, startTime, endTime)
+                .get(0).getPassQps());
+        } finally {
+            late.stop(0);
+        }
+    }
+
+    @Test
+    public void testNewConnectionForEveryPullByDefault() throws Exception {
+        startFetcher(false);
+        pullRepeatedly(3);
+        assertEquals(3, connections.size());
+        assertEquals(false, fetcher.getConnectionPoolStats().get("keepAlive"));
+    }
+
+    @Test
+    public void testConnectionReusedWithKeepAlive() throws Exception {
+        startFetcher(true);
+        pullRepeatedly(3);
+        assertEquals(1, connections.size());
+        assertEquals(true, fetcher.getConnectionPoolStats().get("keepAlive"));
+    }
+
+    @Test
+    public void testConnectionsClosedOnceMachineNotPulled() throws Exception {
+        startFetcher(true);
+        RecordingConnectionManager recording = new RecordingConnectionManager();
+        ReflectionTestUtils.setField(fetcher, "connectionManager", recording);
+        int port = server.getAddress().getPort();
+        addMachine("app", port);
+        addMachine("app", port + 1);
+        String first = "127.0.0.1:" + port;
+        String second = "127.0.0.1:" + (port + 1);
+        long endTime = System.currentTimeMillis() / 1000 * 1000 - 2000;
+
+        fetcher.fetchOnce("app", endTime - 1000, endTime, 5).get(10, TimeUnit.SECONDS);
+        assertTrue(recording.closed.isEmpty());
+
+        // Unhealthy: no longer pulled, its connections are closed rather than left to go idle.
+        MachineInfo unhealthy = appManagement.getDetailApp("app").getMachine("127.0.0.1", port + 1).get();
+        unhealthy.setLastHeartbeat(System.currentTimeMillis() - 10 * 60 * 1000);
+        fetcher.fetchOnce("app", endTime - 1000, endTime, 5).get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(Collections.singleton(second)), recording.closed);
+        fetcher.fetchOnce("app", endTime - 1000, endTime, 5).get(10, TimeUnit.SECONDS);
+        assertEquals(1, recording.closed.size());
+
+        // Removed.
+        appManagement.removeMachine("app", "127.0.0.1", port);
+        fetcher.fetchOnce("app", endTime - 1000, endTime, 5).get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(Collections.singleton(second), Collections.singleton(first)), recording.closed);
+    }
+
+    @Test
+    public void testSecondsMissedByMachineBackfilled() throws Exception {
+        startFetcher(false);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer flaky = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8);
+        flaky.createContext("/metric", exchange -> {
+            if (requests.getAndIncrement() == 0) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            } else {
+                handleMetric(exchange);
+            }
+        });
+        flaky.setExecutor(serverExecutor);
+        flaky.start();
+        try {
+            addMachine("app", server.getAddress().getPort());
+            addMachine("app", flaky.getAddress().getPort());
+            long startTime = System.currentTimeMillis() / 1000 * 1000 - 15000;
+
+            // The first window misses the flaky machine.
+            fetcher.fetchOnce("app", startTime, startTime + 2000, 5).get(10, TimeUnit.SECONDS);
+            awaitWritten();
+            List<MetricEntity> missed = repository.queryByAppAndResourceBetween("app", RESOURCE, 0,
+                Long.MAX_VALUE);
+            assertEquals(3, missed.size());
+            assertEquals(10, (long) missed.get(0).getPassQps());
+            assertEquals(startTime - 1000, fetcher.getIngestedTime("app"));
+
+            // Not backfilled before the flaky machine answers a window again.
+            fetcher.fetchOnce("app", startTime + 3000, startTime + 5000, 5).get(10, TimeUnit.SECONDS);
+            awaitWritten();
+            assertEquals(2, requests.get());
+            assertEquals(startTime - 1000, fetcher.getIngestedTime("app"));
+
+            // The next round backfills it alongside the next window.
+            setLastFetchTime("app", startTime + 5000);
+            fetchNextWindow("app");
+            assertEquals(4, requests.get());
+            List<MetricEntity> entities = repository.queryByAppAndResourceBetween("app", RESOURCE, 0,
+                Long.MAX_VALUE);
+            assertEquals(13, entities.size());
+            for (MetricEntity entity : entities) {
+                assertEquals(20, (long) entity.getPassQps());
+            }
+            assertEquals(startTime + 12000, fetcher.getIngestedTime("app"));
+        } finally {
+            flaky.stop(0);
+        }
+    }
+
+    @Test
+    public void testBackfillKeepsSecondsOfMachinesNotResponding() throws Exception {
+        startFetcher(false);
+        long startTime = System.currentTimeMillis() / 1000 * 1000 - 15000;
+        HttpServer refusingBackfill = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8);
+        AtomicInteger firstWindowRequests = new AtomicInteger();
+        refusingBackfill.createContext("/metric", exchange -> {
+            if (exchange.getRequestURI().getQuery().contains("startTime=" + startTime + "&")
+                && firstWindowRequests.getAndIncrement() > 0) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            } else {
+                handleMetric(exchange);
+            }
+        });
+        refusingBackfill.setExecutor(serverExecutor);
+        refusingBackfill.start();
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer flaky = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8);
+        flaky.createContext("/metric", exchange -> {
+            if (requests.getAndIncrement() == 0) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            } else {
+                handleMetric(exchange, 3);
+            }
+        });
+        flaky.setExecutor(serverExecutor);
+        flaky.start();
+        try {
+            addMachine("app", refusingBackfill.getAddress().getPort());
+            addMachine("app", flaky.getAddress().getPort());
+            fetcher.fetchOnce("app", startTime, startTime + 2000, 5).get(10, TimeUnit.SECONDS);
+            fetcher.fetchOnce("app", startTime + 3000, startTime + 5000, 5).get(10, TimeUnit.SECONDS);
+            setLastFetchTime("app", startTime + 5000);
+
+            // The backfill only gets the flaky machine, which must not replace the seconds already counted.
+            fetchNextWindow("app");
+            assertEquals(2, firstWindowRequests.get());
+            assertEquals(4, requests.get());
+            for (MetricEntity entity : repository.queryByAppAndResourceBetween("app", RESOURCE, 0,
+                Long.MAX_VALUE)) {
+                long expected = entity.getTimestamp().getTime() <= startTime + 2000 ? 10 : 13;
+                assertEquals(expected, (long) entity.getPassQps());
+            }
+        } finally {
+            refusingBackfill.stop(0);
+            flaky.stop(0);
+        }
+    }
+
+    @Test
+    public void testPerMachineMetricsKeptForOptedInApps() throws Exception {
+        startFetcher(false);
+        HttpServer throttling = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8);
+        throttling.createContext("/metric", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            long startTime = Long.parseLong(query.replaceAll(".*startTime=(\\d+).*", "$1"));
+            long endTime = Long.parseLong(query.replaceAll(".*endTime=(\\d+).*", "$1"));
+            StringBuilder body = new StringBuilder();
+            for (long time = startTime; time <= endTime; time += 1000) {
+                body.append(time).append('|').append(RESOURCE).append("|4|30|4|0|5|0|1|0\n");
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        throttling.setExecutor(serverExecutor);
+        throttling.start();
+        try {
+            long endTime = System.currentTimeMillis() / 1000 * 1000 - 2000;
+            long startTime = endTime - 5000;
+            addMachine("app", server.getAddress().getPort());
+            addMachine("app", throttling.getAddress().getPort());
+            addMachine("other", server.getAddress().getPort());
+            fetcher.fetchOnce("app", startTime, endTime, 5).get(10, TimeUnit.SECONDS);
+            fetcher.fetchOnce("other", startTime, endTime, 5).get(10, TimeUnit.SECONDS);
+            awaitWritten();
+
+            assertEquals(31, (long) repository.queryByAppAndResourceBetween("app", RESOURCE, startTime, endTime)
+                .get(0).getBlockQps());
+            List<MachineMetric> top = machineStore.topMachinesByBlockQps("app", RESOURCE, startTime, endTime, 1);
+            assertEquals(1, top.size());
+            assertEquals("127.0.0.1:" + throttling.getAddress().getPort(), top.get(0).getMachine());
+            assertEquals(30, top.get(0).getBlockQps(), 0.001);
+            assertEquals(6, top.get(0).getSeconds());
+            assertEquals(6, machineStore.queryByMachineAndResourceBetween("app",
+                "127.0.0.1:" + server.getAddress().getPort(), RESOURCE, startTime, endTime).size());
+            assertTrue(machineStore.topMachinesByBlockQps("other", RESOURCE, startTime, endTime, 1).isEmpty());
+        } finally {
+            throttling.stop(0);
+        }
+    }
+
+    private void fetchNextWindow(String app) throws Exception {
+        CompletableFuture<Long> fetch = ReflectionTestUtils.invokeMethod(fetcher, "doFetchAppMetric", app);
+        fetch.get(10, TimeUnit.SECONDS);
+        awaitWritten();
+    }
+
+    private void setLastFetchTime(String app, long time) {
+        Map<String, AtomicLong> lastFetchTime = (Map<String, AtomicLong>) ReflectionTestUtils.getField(fetcher,
+            "appLastFetchTime");
+        lastFetchTime.computeIfAbsent(app, a -> new AtomicLong()).set(time);
+    }
+
+    private void pullRepeatedly(int times) throws Exception {
+        long endTime = System.currentTimeMillis() / 1000 * 1000 - 2000;
+        addMachine("app", server.getAddress().getPort());
+        for (int i = 0; i < times; i++) {
+            fetcher.fetchOnce("app", endTime - 5000, endTime, 5).get(10, TimeUnit.SECONDS);
+            awaitWritten();
+        }
+        assertEquals(6, repository.queryByAppAndResourceBetween("app", RESOURCE, endTime - 5000, endTime).size());
+    }
+
+    /**
+     * Wait for the metrics handed over by the fetches to be written.
+     */
+    private void awaitWritten() {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((long) fetcher.getIngestStats().get("pendingPoints") > 0) {
+            assertTrue("metrics not written in time", System.currentTimeMillis() < deadline);
+            sleep(5);
+        }
+    }
+
+    private void startFetcher(boolean keepAlive) {
+        startFetcher(keepAlive, 512);
+    }
+
+    private void startFetcher(boolean keepAlive, int maxConcurrentApps) {
+        fetcher = new MetricFetcher();
+        ReflectionTestUtils.setField(fetcher, "appManagement", appManagement);
+        ReflectionTestUtils.setField(fetcher, "metricStore", repository);
+        ReflectionTestUtils.setField(fetcher, "cardinalityLimiter", new ResourceCardinalityLimiter(10000, 600000));
+        ReflectionTestUtils.setField(fetcher, "streamHub", new MetricStreamHub());
+        ReflectionTestUtils.setField(fetcher, "machineStore", machineStore);
+        ReflectionTestUtils.setField(fetcher, "fetchIOThreadCount", FETCH_THREADS);
+        ReflectionTestUtils.setField(fetcher, "maxConcurrentApps", maxConcurrentApps);
+        ReflectionTestUtils.setField(fetcher, "keepAliveEnabled", keepAlive);
+        ReflectionTestUtils.setField(fetcher, "keepAliveIdleMs", 15000L);
+        ReflectionTestUtils.setField(fetcher, "ingestCapacity", 1024);
+        ReflectionTestUtils.setField(fetcher, "ingestOverflowPolicy", "block");
+        ReflectionTestUtils.setField(fetcher, "ingestMaxBatchPoints", 8192);
+        ReflectionTestUtils.invokeMethod(fetcher, "init");
+    }
+
+    private void addMachine(String app, int port) {
+        MachineInfo machine = MachineInfo.of(app, "127.0.0.1", port);
+        machine.setHeartbeatVersion(1);
+        machine.setLastHeartbeat(System.currentTimeMillis());
+        appManagement.addMachine(machine);
+    }
+
+    private void handleMetric(HttpExchange exchange) throws IOException {
+        handleMetric(exchange, 10);
+    }
+
+    private void handleMetric(HttpExchange exchange, long passQps) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        sleep(RESPONSE_DELAY_MS);
+        String query = exchange.getRequestURI().getQuery();
+        long startTime = Long.parseLong(query.replaceAll(".*startTime=(\\d+).*", "$1"));
+        long endTime = Long.parseLong(query.replaceAll(".*endTime=(\\d+).*", "$1"));
+        StringBuilder body = new StringBuilder();
+        for (long time = startTime; time <= endTime; time += 1000) {
+            body.append(time).append('|').append(RESOURCE).append('|').append(passQps)
+                .append("|1|10|0|5|0|1|0\n");
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static final class RecordingConnectionManager extends MachineConnectionManager {
+        private final List<Set<String>> closed = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingConnectionManager() throws IOReactorException {
+            super(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT));
+        }
+
+        @Override
+        void closeConnections(Set<String> hostPorts) {
+            closed.add(new HashSet<>(hostPorts));
+            super.closeConnections(hostPorts);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricIngestRing}.
+ */
+public class MetricIngestRingTest {
+
+    @Test
+    public void testProducersWrittenInOrderInBatches() throws Exception {
+        List<MetricEntity> written = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        MetricIngestRing ring = new MetricIngestRing(16, MetricIngestRing.OverflowPolicy.BLOCK, 64, batch -> {
+            batchSizes.add(batch.size());
+            written.addAll(batch);
+        });
+        ring.start();
+        int producers = 4;
+        int fetches = 500;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String app = "app-" + p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < fetches; i++) {
+                    assertTrue(ring.offer(entities(app, i * 2L, 2)));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ring.stop(10_000);
+
+        assertEquals(producers * fetches * 2, written.size());
+        assertEquals(producers * fetches * 2, ring.getWrittenPoints());
+        assertEquals(0, ring.getPendingPoints());
+        assertEquals(0, ring.getDroppedPoints());
+        assertTrue(ring.getWriteBatches() < producers * fetches);
+        for (int size : batchSizes) {
+            assertTrue(size <= 64);
+        }
+        for (int p = 0; p < producers; p++) {
+            long last = -1;
+            for (MetricEntity entity : written) {
+                if (entity.getApp().equals("app-" + p)) {
+                    assertEquals(last + 1, entity.getTimestamp().getTime());
+                    last = entity.getTimestamp().getTime();
+                }
+            }
+            assertEquals(fetches * 2 - 1, last);
+        }
+    }
+
+    @Test
+    public void testDropOldestWhenWriterStalls() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<MetricEntity> written = new CopyOnWriteArrayList<>();
+        MetricIngestRing ring = new MetricIngestRing(4, MetricIngestRing.OverflowPolicy.DROP_OLDEST, 1, batch -> {
+            stalled.countDown();
+            await(release);
+            written.addAll(batch);
+        });
+        ring.start();
+        // Taken by the writer, then stalled.
+        ring.offer(entities("app", 0, 1));
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(ring.offer(entities("app", i, 1)));
+        }
+        assertEquals(4, ring.getDepth());
+        assertEquals(6, ring.getDroppedPoints());
+        release.countDown();
+        ring.stop(10_000);
+
+        assertEquals(5, written.size());
+        assertEquals(0, written.get(0).getTimestamp().getTime());
+        assertEquals(7, written.get(1).getTimestamp().getTime());
+        assertEquals(10, written.get(4).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testBlockUntilWriterFreesSlot() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MetricIngestRing ring = new MetricIngestRing(2, MetricIngestRing.OverflowPolicy.BLOCK, 1, batch -> {
+            stalled.countDown();
+            await(release);
+        });
+        ring.start();
+        ring.offer(entities("app", 0, 1));
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        ring.offer(entities("app", 1, 1));
+        ring.offer(entities("app", 2, 1));
+
+        AtomicBoolean offered = new AtomicBoolean();
+        Thread producer = new Thread(() -> offered.set(ring.offer(entities("app", 3, 1))));
+        producer.start();
+        producer.join(200);
+        assertFalse(offered.get());
+        assertEquals(2, ring.getDepth());
+
+        release.countDown();
+        producer.join(5000);
+        assertTrue(offered.get());
+        ring.stop(10_000);
+        assertEquals(4, ring.getWrittenPoints());
+        assertEquals(0, ring.getDroppedPoints());
+    }
+
+    private static List<MetricEntity> entities(String app, long firstTimestamp, int count) {
+        List<MetricEntity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(app);
+            entity.setResource("res");
+            entity.setTimestamp(new Date(firstTimestamp + i));
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
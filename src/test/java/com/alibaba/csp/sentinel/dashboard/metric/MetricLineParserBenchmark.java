@@ -0,0 +1,110 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares decoding a {@code metric} response by {@code String.split} and
+ * {@link MetricNode#fromThinString(String)} with {@link MetricLineParser}, fed in the 8 KB chunks
+ * the async client hands out. Run with {@code -prof gc} to compare the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricLineParserBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Resources of the machine, the response covers 6 seconds of each.
+     */
+    @Param({"100", "2000"})
+    private int resources;
+
+    private byte[] body;
+    private ResourceNameCache names;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        long timestamp = 1600000000000L;
+        for (int second = 0; second < 6; second++) {
+            for (int i = 0; i < resources; i++) {
+                sb.append(timestamp + second * 1000).append('|')
+                    .append("com.alibaba.csp.sentinel.demo.DemoService:sayHello").append(i).append("(java.lang.String)")
+                    .append('|').append(100 + i).append("|3|97|1|12|0|5|0\n");
+            }
+        }
+        body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        names = new ResourceNameCache(8192);
+    }
+
+    @Benchmark
+    public void splitAndFromThinString(Blackhole blackhole) {
+        String str = new String(body, StandardCharsets.UTF_8);
+        for (String line : str.split("\n")) {
+            MetricNode node = MetricNode.fromThinString(line);
+            blackhole.consume(node.getResource());
+            blackhole.consume(node.getPassQps() + node.getBlockQps() + node.getSuccessQps()
+                + node.getExceptionQps() + node.getRt() + node.getTimestamp());
+        }
+    }
+
+    @Benchmark
+    public int streamingParser(Blackhole blackhole) {
+        MetricLineParser parser = new MetricLineParser(names, StandardCharsets.UTF_8,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> {
+                blackhole.consume(resource);
+                blackhole.consume(passQps + blockQps + successQps + exceptionQps + rt + timestamp);
+            });
+        for (int i = 0; i < body.length; i += CHUNK_SIZE) {
+            parser.feed(ByteBuffer.wrap(body, i, Math.min(CHUNK_SIZE, body.length - i)));
+        }
+        parser.finish();
+        return parser.getParsedLines();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(MetricLineParserBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
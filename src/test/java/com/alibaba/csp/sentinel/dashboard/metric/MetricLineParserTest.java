@@ -0,0 +1,127 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricLineParser}.
+ */
+public class MetricLineParserTest {
+
+    private static final String BODY = "1600000000000|com.foo.Bar:hello()|10|2|9|1|35|0|3|0\n"
+        + "1600000001000|GET:/资源|5|0|5|0|12\r\n"
+        + "1600000001000|com.foo.Bar:hello()|7|0|7|0|21|0|1|0";
+
+    @Test
+    public void testParseInEveryChunkSize() {
+        byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+        ResourceNameCache names = new ResourceNameCache(16);
+        for (int chunk = 1; chunk <= bytes.length; chunk++) {
+            List<String> parsed = new ArrayList<>();
+            MetricLineParser parser = newParser(names, StandardCharsets.UTF_8, parsed);
+            for (int i = 0; i < bytes.length; i += chunk) {
+                parser.feed(ByteBuffer.wrap(bytes, i, Math.min(chunk, bytes.length - i)));
+            }
+            parser.finish();
+
+            assertEquals("chunk size " + chunk, 3, parser.getParsedLines());
+            assertEquals(0, parser.getMalformedLines());
+            assertEquals("1600000000000,com.foo.Bar:hello(),10,2,9,1,35", parsed.get(0));
+            assertEquals("1600000001000,GET:/资源,5,0,5,0,12", parsed.get(1));
+            assertEquals("1600000001000,com.foo.Bar:hello(),7,0,7,0,21", parsed.get(2));
+        }
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        List<String> parsed = new ArrayList<>();
+        MetricLineParser parser = newParser(new ResourceNameCache(16), StandardCharsets.UTF_8, parsed);
+        parser.feed(buf);
+        parser.finish();
+
+        assertEquals(3, parsed.size());
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testMalformedLinesSkipped() {
+        String body = "1600000000000|a|1|0|1|0|5\n"
+            + "\n"
+            + "not-a-number|a|1|0|1|0|5\n"
+            + "1600000000000|a|1|0\n"
+            + "1600000000000||1|0|1|0|5\n"
+            + "1600000000000|b|1|0|1|0|5";
+        List<String> parsed = new ArrayList<>();
+        MetricLineParser parser = newParser(new ResourceNameCache(16), StandardCharsets.UTF_8, parsed);
+        parser.feed(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+        parser.finish();
+
+        assertEquals(2, parser.getParsedLines());
+        assertEquals(3, parser.getMalformedLines());
+        assertEquals("1600000000000,b,1,0,1,0,5", parsed.get(1));
+    }
+
+    @Test
+    public void testNoMetrics() {
+        List<String> parsed = new ArrayList<>();
+        MetricLineParser parser = newParser(new ResourceNameCache(16), StandardCharsets.UTF_8, parsed);
+        parser.feed(ByteBuffer.wrap((MetricFetcher.NO_METRICS + "\n").getBytes(StandardCharsets.UTF_8)));
+        parser.finish();
+
+        assertTrue(parsed.isEmpty());
+        assertEquals(0, parser.getMalformedLines());
+    }
+
+    @Test
+    public void testOtherCharset() {
+        Charset gbk = Charset.forName("GBK");
+        List<String> parsed = new ArrayList<>();
+        MetricLineParser parser = newParser(new ResourceNameCache(16), gbk, parsed);
+        parser.feed(ByteBuffer.wrap("1600000000000|资源|1|0|1|0|5\n".getBytes(gbk)));
+        parser.finish();
+
+        assertEquals("1600000000000,资源,1,0,1,0,5", parsed.get(0));
+    }
+
+    @Test
+    public void testResourceNamesCached() {
+        ResourceNameCache names = new ResourceNameCache(16);
+        byte[] bytes = "xxresource".getBytes(StandardCharsets.UTF_8);
+        String name = names.get(bytes, 2, 8);
+        assertEquals("resource", name);
+        assertSame(name, names.get("resource".getBytes(StandardCharsets.UTF_8), 0, 8));
+        assertEquals("resourcf", names.get("resourcf".getBytes(StandardCharsets.UTF_8), 0, 8));
+    }
+
+    private static MetricLineParser newParser(ResourceNameCache names, Charset charset, List<String> parsed) {
+        return new MetricLineParser(names, charset,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> parsed.add(
+                timestamp + "," + resource + "," + passQps + "," + blockQps + "," + successQps + ","
+                    + exceptionQps + "," + rt));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricVo;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricSeriesAssembler}.
+ */
+public class MetricSeriesAssemblerTest {
+
+    private static final String APP = "app";
+
+    private InMemoryMetricsRepository repository;
+    private MetricSeriesAssembler assembler;
+
+    @Before
+    public void setUp() {
+        repository = new InMemoryMetricsRepository();
+        assembler = new MetricSeriesAssembler();
+        ReflectionTestUtils.setField(assembler, "threads", 4);
+        ReflectionTestUtils.setField(assembler, "metricStore", repository);
+        ReflectionTestUtils.setField(assembler, "metricFetcher", new MetricFetcher());
+        assembler.init();
+    }
+
+    @After
+    public void tearDown() {
+        assembler.close();
+    }
+
+    @Test
+    public void testAssembleInRequestOrder() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        List<String> resources = new ArrayList<>();
+        for (int r = 0; r < 300; r++) {
+            resources.add("res" + r);
+            for (int s = 0; s < 10; s++) {
+                repository.save(newEntity(APP, "res" + r, now - s * 1000, r));
+            }
+        }
+        resources.add("unknown");
+
+        List<CompletableFuture<List<MetricVo>>> series = assembler.assemble(APP, resources, now - 4000, now, 3600);
+        assertEquals(resources.size(), series.size());
+        for (int r = 0; r < 300; r++) {
+            List<MetricVo> vos = series.get(r).join();
+            assertEquals(5, vos.size());
+            for (int i = 0; i < vos.size(); i++) {
+                assertEquals("res" + r, vos.get(i).getResource());
+                assertEquals(now - (4 - i) * 1000, vos.get(i).getTimestamp().longValue());
+                assertEquals(r, vos.get(i).getPassQps().longValue());
+            }
+        }
+        assertTrue(series.get(300).join().isEmpty());
+    }
+
+    @Test
+    public void testSeriesEndAtLastIngestedSecond() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int s = 0; s < 10; s++) {
+            repository.save(newEntity(APP, "a", now - s * 1000, 1));
+            repository.save(newEntity(APP, "b", now - s * 1000, 2));
+        }
+        ReflectionTestUtils.setField(assembler, "metricFetcher", new MetricFetcher() {
+            @Override
+            public long getIngestedTime(String app) {
+                return APP.equals(app) ? now - 2000 : -1;
+            }
+        });
+
+        // Both series end at the same second, whatever has been written after it.
+        for (CompletableFuture<List<MetricVo>> series : assembler.assemble(APP, Arrays.asList("a", "b"),
+            now - 4000, now, 3600)) {
+            List<MetricVo> vos = series.join();
+            assertEquals(3, vos.size());
+            assertEquals(now - 2000, vos.get(2).getTimestamp().longValue());
+        }
+    }
+
+    @Test
+    public void testDistinctByTimestampKeepsLatestCreated() {
+        MetricVo a1 = newVo(1000, 1);
+        MetricVo a2 = newVo(1000, 2);
+        MetricVo b = newVo(2000, 1);
+        MetricVo c = newVo(3000, 1);
+
+        assertEquals(Arrays.asList(a2, b, c), MetricSeriesAssembler.distinctByTimestamp(Arrays.asList(a1, a2, b, c)));
+        assertEquals(Arrays.asList(a2, b, c), MetricSeriesAssembler.distinctByTimestamp(Arrays.asList(c, a2, b, a1)));
+    }
+
+    private static MetricVo newVo(long timestamp, long gmtCreate) {
+        MetricVo vo = new MetricVo();
+        vo.setTimestamp(timestamp);
+        vo.setGmtCreate(gmtCreate);
+        return vo;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricStreamHub}.
+ */
+public class MetricStreamHubTest {
+
+    private MetricStreamHub hub;
+
+    @Before
+    public void setUp() {
+        hub = new MetricStreamHub();
+        ReflectionTestUtils.setField(hub, "maxSubscribers", 3);
+        ReflectionTestUtils.setField(hub, "queueCapacity", 16);
+        ReflectionTestUtils.setField(hub, "subscriberQueueCapacity", 2);
+        ReflectionTestUtils.setField(hub, "sendThreads", 2);
+        ReflectionTestUtils.setField(hub, "heartbeatMs", 60_000L);
+        hub.init();
+    }
+
+    @After
+    public void tearDown() {
+        hub.close();
+    }
+
+    @Test
+    public void testSubscribersOfAnAppShareOneFanOut() throws Exception {
+        CapturingEmitter all = new CapturingEmitter();
+        CapturingEmitter filtered = new CapturingEmitter();
+        CapturingEmitter other = new CapturingEmitter();
+        assertTrue(hub.subscribe("app", null, all));
+        assertTrue(hub.subscribe("app", Collections.singleton("b"), filtered));
+        assertTrue(hub.subscribe("other", null, other));
+
+        long now = System.currentTimeMillis();
+        hub.publish(Arrays.asList(newEntity("app", "a", now, 1), newEntity("app", "b", now, 2),
+            newEntity("unwatched", "a", now, 3)));
+
+        String event = all.events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertTrue(event, event.startsWith("event:metric\ndata:["));
+        assertTrue(event.contains("\"resource\":\"a\"") && event.contains("\"resource\":\"b\""));
+        event = filtered.events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertFalse(event.contains("\"resource\":\"a\""));
+        assertTrue(event.contains("\"passQps\":2"));
+        assertNull(other.events.poll(200, TimeUnit.MILLISECONDS));
+
+        awaitStat("sentEvents", 2L);
+        Map<String, Object> stats = hub.getStats();
+        // Each point serialized once whatever the number of subscribers.
+        assertEquals(2L, stats.get("publishedPoints"));
+        assertEquals(3, stats.get("subscribers"));
+    }
+
+    @Test
+    public void testSubscriberLimitAndRemoval() throws Exception {
+        CapturingEmitter first = new CapturingEmitter();
+        CapturingEmitter broken = new CapturingEmitter();
+        broken.broken = true;
+        assertTrue(hub.subscribe("app", null, first));
+        assertTrue(hub.subscribe("app", null, broken));
+        assertTrue(hub.subscribe("app", null, new CapturingEmitter()));
+        assertFalse(hub.subscribe("app", null, new CapturingEmitter()));
+
+        // Completed streams and streams failing to send are dropped.
+        first.complete();
+        hub.publish(Collections.singletonList(newEntity("app", "a", System.currentTimeMillis(), 1)));
+        awaitStat("subscribers", 1);
+        assertTrue(hub.subscribe("app", null, new CapturingEmitter()));
+    }
+
+    @Test
+    public void testStuckSubscriberDroppedWithoutDelayingOthers() throws Exception {
+        CapturingEmitter stuck = new CapturingEmitter();
+        stuck.writing = new CountDownLatch(1);
+        CapturingEmitter fast = new CapturingEmitter();
+        assertTrue(hub.subscribe("app", null, stuck));
+        assertTrue(hub.subscribe("app", null, fast));
+
+        // The first event keeps the stuck client in a write, the next two fill its queue.
+        for (int i = 1; i <= 4; i++) {
+            hub.publish(Collections.singletonList(newEntity("app", "a", System.currentTimeMillis(), i)));
+            assertNotNull("event " + i, fast.events.poll(5, TimeUnit.SECONDS));
+        }
+        awaitStat("droppedSubscribers", 1L);
+        assertEquals(1, hub.getStats().get("subscribers"));
+        assertFalse(stuck.completed);
+
+        // Completed once the write in progress is over, without the events queued meanwhile.
+        stuck.writing.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!stuck.completed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(stuck.completed);
+        assertEquals(1, stuck.events.size());
+    }
+
+    private void awaitStat(String name, Object expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!expected.equals(hub.getStats().get(name)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, hub.getStats().get(name));
+    }
+
+    private static final class CapturingEmitter extends SseEmitter {
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private volatile boolean broken;
+        private volatile CountDownLatch writing;
+        private volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (broken) {
+                throw new IOException("Broken pipe");
+            }
+            StringBuilder sb = new StringBuilder();
+            for (DataWithMediaType data : builder.build()) {
+                sb.append(data.getData());
+            }
+            events.add(sb.toString());
+            if (writing != null) {
+                try {
+                    writing.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+            super.complete();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Date;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+
+/**
+ * Metrics and heap measurements shared by the tests of the metric fetching and storage.
+ */
+public final class MetricTestUtils {
+
+    /**
+     * A point of a single sample whose requests all succeed, created at its timestamp.
+     */
+    public static MetricEntity newEntity(String app, String resource, long timestamp, long passQps, long blockQps,
+                                         double rt) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp(app);
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setGmtCreate(new Date(timestamp));
+        entity.setPassQps(passQps);
+        entity.setSuccessQps(passQps);
+        entity.setBlockQps(blockQps);
+        entity.setExceptionQps(0L);
+        entity.setRt(rt);
+        entity.setCount(1);
+        return entity;
+    }
+
+    /**
+     * A point of a single sample without blocked requests and with a rt of 1ms.
+     */
+    public static MetricEntity newEntity(String app, String resource, long timestamp, long passQps) {
+        return newEntity(app, resource, timestamp, passQps, 0, 1.0);
+    }
+
+    /**
+     * Save the last {@code seconds} of points of {@code resourceCount} resources, named after
+     * {@code resourcePrefix} and their index. The rt of a point is twice its pass QPS.
+     */
+    public static void fill(MetricsRepository<MetricEntity> repository, String app, String resourcePrefix,
+                            int resourceCount, int seconds) {
+        long start = System.currentTimeMillis() / 1000 * 1000 - (seconds - 1) * 1000L;
+        for (int s = 0; s < seconds; s++) {
+            Date gmtCreate = new Date();
+            for (int r = 0; r < resourceCount; r++) {
+                MetricEntity entity = newEntity(app, resourcePrefix + r, start + s * 1000L, 1000 + s, 500 + r,
+                    (1000 + s) * 2.0);
+                entity.setGmtCreate(gmtCreate);
+                repository.save(entity);
+            }
+        }
+    }
+
+    /**
+     * @return the heap still in use after collecting the garbage
+     */
+    public static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private MetricTestUtils() {}
+}
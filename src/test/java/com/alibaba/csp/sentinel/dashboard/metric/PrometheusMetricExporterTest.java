@@ -0,0 +1,95 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.StringWriter;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import com.alibaba.csp.sentinel.dashboard.discovery.SimpleMachineDiscovery;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link PrometheusMetricExporter}.
+ */
+public class PrometheusMetricExporterTest {
+
+    private InMemoryMetricsRepository repository;
+    private PrometheusMetricExporter exporter;
+    private long now;
+
+    @Before
+    public void setUp() {
+        AppManagement appManagement = new AppManagement();
+        ReflectionTestUtils.setField(appManagement, "machineDiscovery", new SimpleMachineDiscovery());
+        appManagement.addMachine(MachineInfo.of("app", "127.0.0.1", 8719));
+        appManagement.addMachine(MachineInfo.of("idle", "127.0.0.1", 8720));
+        repository = new InMemoryMetricsRepository();
+        exporter = new PrometheusMetricExporter();
+        ReflectionTestUtils.setField(exporter, "metricStore", repository);
+        ReflectionTestUtils.setField(exporter, "appManagement", appManagement);
+        now = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    @Test
+    public void testLatestSecondOfEveryResource() throws Exception {
+        repository.save(newEntity("app", "a", now - 2000, 100, 0, 200));
+        repository.save(newEntity("app", "a", now - 1000, 10, 2, 50));
+        repository.save(newEntity("app", "b", now - 1000, 4, 0, 8));
+
+        String text = export(1);
+        assertTrue(text.startsWith("# HELP sentinel_resource_qps "));
+        assertTrue(text.contains("# TYPE sentinel_resource_qps gauge\n"));
+        assertTrue(text.contains("sentinel_resource_qps{app=\"app\",resource=\"a\",type=\"pass\"} 10.0\n"));
+        assertTrue(text.contains("sentinel_resource_qps{app=\"app\",resource=\"a\",type=\"block\"} 2.0\n"));
+        assertTrue(text.contains("sentinel_resource_qps{app=\"app\",resource=\"b\",type=\"pass\"} 4.0\n"));
+        assertTrue(text.contains("# TYPE sentinel_resource_rt_milliseconds gauge\n"));
+        assertTrue(text.contains("sentinel_resource_rt_milliseconds{app=\"app\",resource=\"a\"} 5.0\n"));
+        assertTrue(text.contains("sentinel_resource_rt_milliseconds{app=\"app\",resource=\"b\"} 2.0\n"));
+        assertFalse(text.contains("app=\"idle\""));
+        // Families are contiguous: no qps sample after the rt header.
+        assertTrue(text.lastIndexOf("sentinel_resource_qps{") < text.indexOf("# HELP sentinel_resource_rt"));
+    }
+
+    @Test
+    public void testWindowAveragesLastSeconds() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            repository.save(newEntity("app", "a", now - i * 1000, i * 10, 0, i * 10));
+        }
+        String text = export(3);
+        // Seconds with pass 10, 20 and 30.
+        assertTrue(text.contains("sentinel_resource_qps{app=\"app\",resource=\"a\",type=\"pass\"} 20.0\n"));
+        assertTrue(text.contains("sentinel_resource_rt_milliseconds{app=\"app\",resource=\"a\"} 1.0\n"));
+    }
+
+    @Test
+    public void testLabelValuesEscaped() throws Exception {
+        repository.save(newEntity("app", "GET:/a\"b\\c", now - 1000, 1, 0, 1));
+        assertTrue(export(1).contains("resource=\"GET:/a\\\"b\\\\c\",type=\"pass\"} 1.0\n"));
+    }
+
+    private String export(int window) throws Exception {
+        StringWriter writer = new StringWriter();
+        exporter.export(writer, window);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link ResourceCardinalityLimiter}.
+ */
+public class ResourceCardinalityLimiterTest {
+
+    private static final long IDLE_MS = 60_000;
+
+    @Test
+    public void testResourcesOverBudgetFolded() {
+        ResourceCardinalityLimiter limiter = new ResourceCardinalityLimiter(3, IDLE_MS);
+        long now = 1_000_000;
+        assertEquals("a", limiter.admit("app", "a", now));
+        assertEquals("b", limiter.admit("app", "b", now));
+        assertEquals("c", limiter.admit("app", "c", now));
+        assertEquals(ResourceCardinalityLimiter.OTHER_RESOURCE, limiter.admit("app", "d", now));
+        assertEquals(ResourceCardinalityLimiter.OTHER_RESOURCE, limiter.admit("app", "e", now));
+        // Admitted resources stay admitted, other apps have their own budget.
+        assertEquals("a", limiter.admit("app", "a", now));
+        assertEquals("d", limiter.admit("other-app", "d", now));
+
+        List<AppCardinality> limited = limiter.getLimitedApps();
+        assertEquals(1, limited.size());
+        AppCardinality cardinality = limited.get(0);
+        assertEquals("app", cardinality.getApp());
+        assertEquals(3, cardinality.getAdmittedResources());
+        assertEquals(5, cardinality.getEstimatedResources());
+        assertEquals(2, cardinality.getFoldedPoints());
+        assertEquals(now, cardinality.getLastFoldedTime());
+    }
+
+    @Test
+    public void testIdleResourceReplacedByNewOne() {
+        ResourceCardinalityLimiter limiter = new ResourceCardinalityLimiter(2, IDLE_MS);
+        long now = 1_000_000;
+        limiter.admit("app", "a", now);
+        limiter.admit("app", "b", now);
+        // "a" keeps being reported, "b" goes idle.
+        now += IDLE_MS;
+        limiter.admit("app", "a", now);
+        now += 1000;
+        assertEquals("c", limiter.admit("app", "c", now));
+        assertEquals(ResourceCardinalityLimiter.OTHER_RESOURCE, limiter.admit("app", "b", now));
+        assertEquals("a", limiter.admit("app", "a", now));
+    }
+
+    @Test
+    public void testFoldedResourceAdmittedOnceEldestIdle() {
+        ResourceCardinalityLimiter limiter = new ResourceCardinalityLimiter(2, IDLE_MS);
+        long now = 1_000_000;
+        limiter.admit("app", "a", now);
+        limiter.admit("app", "b", now);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ResourceCardinalityLimiter.OTHER_RESOURCE, limiter.admit("app", "c", now + i));
+        }
+        // Folding "c" again must not make "a" or "b" look recently seen.
+        now += IDLE_MS + 1;
+        assertEquals("c", limiter.admit("app", "c", now));
+        assertEquals("c", limiter.admit("app", "c", now));
+
+        AppCardinality cardinality = limiter.getLimitedApps().get(0);
+        assertEquals(2, cardinality.getAdmittedResources());
+        assertEquals(3, cardinality.getEstimatedResources());
+        assertEquals(3, cardinality.getFoldedPoints());
+    }
+
+    @Test
+    public void testNoLimit() {
+        ResourceCardinalityLimiter limiter = new ResourceCardinalityLimiter(0, IDLE_MS);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("r" + i, limiter.admit("app", "r" + i, 0));
+        }
+        assertTrue(limiter.getLimitedApps().isEmpty());
+    }
+
+    @Test
+    public void testEstimateExplodedCardinality() {
+        ResourceCardinalityLimiter limiter = new ResourceCardinalityLimiter(1000, IDLE_MS);
+        int distinct = 200_000;
+        for (int i = 0; i < distinct; i++) {
+            limiter.admit("app", "GET:/orders/" + i, 0);
+        }
+        AppCardinality cardinality = limiter.getLimitedApps().get(0);
+        assertEquals(1000, cardinality.getAdmittedResources());
+        assertEquals(distinct - 1000, cardinality.getFoldedPoints());
+        assertEquals(distinct, cardinality.getEstimatedResources(), distinct * 0.06);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.fill;
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.usedHeapAfterGc;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link ColumnarMetricsRepository}.
+ */
+public class ColumnarMetricsRepositoryTest {
+
+    private final static String DEFAULT_APP = "defaultApp";
+    private final static String DEFAULT_RESOURCE = "defaultResource";
+    private static final long EXPIRE_TIME = 1000 * 60 * 5L;
+
+    private ColumnarMetricsRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new ColumnarMetricsRepository();
+    }
+
+    @Test
+    public void testSaveAndQuery() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 9; i >= 0; i--) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - i * 1000, 10 + i, i, (10 + i) * 2.0));
+        }
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now - 4000, now);
+        assertEquals(5, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            MetricEntity entity = list.get(i);
+            assertEquals(now - (4 - i) * 1000, entity.getTimestamp().getTime());
+            assertEquals(DEFAULT_APP, entity.getApp());
+            assertEquals(DEFAULT_RESOURCE, entity.getResource());
+            assertEquals(Long.valueOf(14 - i), entity.getPassQps());
+            assertEquals(Long.valueOf(4 - i), entity.getBlockQps());
+        }
+        assertTrue(repository.queryByAppAndResourceBetween(DEFAULT_APP, "unknown", now - 4000, now).isEmpty());
+        assertTrue(repository.queryByAppAndResourceBetween("unknown", DEFAULT_RESOURCE, now - 4000, now).isEmpty());
+    }
+
+    @Test
+    public void testSameSecondReplaced() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1, 0, 2.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 2, 0, 4.0));
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now - 1000, now);
+        assertEquals(1, list.size());
+        assertEquals(Long.valueOf(2), list.get(0).getPassQps());
+    }
+
+    @Test
+    public void testExpireMetric() {
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - EXPIRE_TIME - 1L, 1, 0, 2.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1, 0, 2.0));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now - EXPIRE_TIME - 1000, now);
+        assertEquals(1, list.size());
+        assertEquals(now, list.get(0).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testExpiredSeriesPurged() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int r = 0; r < 100; r++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE + r, now, 1, 0, 2.0));
+        }
+        assertEquals(100, repository.getLiveSeries());
+
+        repository.purgeExpiredSeries(now + 1000);
+        assertEquals(100, repository.getLiveSeries());
+        repository.purgeExpiredSeries(now + EXPIRE_TIME + 1000);
+        assertEquals(0, repository.getLiveSeries());
+
+        // A resource showing up again gets a new series.
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE + 0, now, 7, 0, 14.0));
+        assertEquals(1, repository.getLiveSeries());
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE + 0, now, now);
+        assertEquals(1, list.size());
+        assertEquals(Long.valueOf(7), list.get(0).getPassQps());
+    }
+
+    @Test
+    public void testListResourcesOrderedByBlockAndPassQps() {
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(DEFAULT_APP, "a", now, 100, 0, 200.0));
+        repository.save(newEntity(DEFAULT_APP, "b", now, 1, 5, 2.0));
+        repository.save(newEntity(DEFAULT_APP, "c", now, 200, 0, 400.0));
+        repository.save(newEntity(DEFAULT_APP, "d", now - 1000 * 90, 500, 500, 1000.0));
+
+        assertEquals(Arrays.asList("b", "c", "a"), repository.listResourcesOfApp(DEFAULT_APP));
+        assertTrue(repository.listResourcesOfApp("unknown").isEmpty());
+    }
+
+    @Test
+    public void testQueryChangedSince() throws InterruptedException {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 9; i >= 0; i--) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - i * 1000, 10 + i, 0, (10 + i) * 2.0));
+        }
+        Thread.sleep(20);
+        long cursor = TimeUtil.currentTimeMillis();
+        Thread.sleep(20);
+        assertTrue(repository.queryByAppAndResourceChangedSince(
+            DEFAULT_APP, DEFAULT_RESOURCE, cursor, now - EXPIRE_TIME, now + 10_000).isEmpty());
+
+        // One new point and an amended one.
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now + 1000, 100, 0, 200.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - 5000, 200, 0, 400.0));
+        List<MetricEntity> changed = repository.queryByAppAndResourceChangedSince(
+            DEFAULT_APP, DEFAULT_RESOURCE, cursor, now - EXPIRE_TIME, now + 10_000);
+        assertEquals(2, changed.size());
+        assertEquals(now - 5000, changed.get(0).getTimestamp().getTime());
+        assertEquals(Long.valueOf(200), changed.get(0).getPassQps());
+        assertEquals(now + 1000, changed.get(1).getTimestamp().getTime());
+
+        // Older writes than the change log keeps fall back to the whole range.
+        for (int i = 0; i < 200; i++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - (i % 60) * 1000, i, 0, i * 2.0));
+        }
+        assertEquals(61, repository.queryByAppAndResourceChangedSince(
+            DEFAULT_APP, DEFAULT_RESOURCE, cursor, now - EXPIRE_TIME, now + 10_000).size());
+    }
+
+    @Test
+    public void testMemoryFootprintComparedWithInMemoryRepository() {
+        final int resourceCount = 200;
+        final int seconds = 240;
+
+        long baseline = usedHeapAfterGc();
+        InMemoryMetricsRepository inMemoryRepository = new InMemoryMetricsRepository();
+        fill(inMemoryRepository, DEFAULT_APP, DEFAULT_RESOURCE, resourceCount, seconds);
+        long inMemoryFootprint = usedHeapAfterGc() - baseline;
+        assertEquals(seconds, inMemoryRepository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE + 0, 0, Long.MAX_VALUE).size());
+        inMemoryRepository = null;
+
+        baseline = usedHeapAfterGc();
+        ColumnarMetricsRepository columnarRepository = new ColumnarMetricsRepository();
+        fill(columnarRepository, DEFAULT_APP, DEFAULT_RESOURCE, resourceCount, seconds);
+        long columnarFootprint = usedHeapAfterGc() - baseline;
+        assertEquals(seconds, columnarRepository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE + 0, 0, Long.MAX_VALUE).size());
+
+        assertTrue("columnar store should retain less than half the heap of the map-based store, retained "
+                + columnarFootprint + " bytes against " + inMemoryFootprint,
+            columnarFootprint * 2 < inMemoryFootprint);
+    }
+
+    @Test
+    public void testQueryAcrossSealedMinutes() throws InterruptedException {
+        ReflectionTestUtils.setField(repository, "retentionMinutes", 10);
+        long start = System.currentTimeMillis() / 60_000 * 60_000 - 9 * 60_000;
+        for (int s = 0; s < 9 * 60; s++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, start + s * 1000L, s, 0, s * 2.0));
+        }
+        Thread.sleep(20);
+        long cursor = TimeUtil.currentTimeMillis();
+        Thread.sleep(20);
+        // A late point into a sealed minute, and a replacement of a sealed point.
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, start + 9 * 60_000, 1000, 0, 2000.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, start + 30_000, 3000, 0, 6000.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, start + 10 * 60_000, 2000, 0, 4000.0));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, 0, Long.MAX_VALUE);
+        assertEquals(9 * 60 + 2, list.size());
+        for (int s = 0; s < 9 * 60; s++) {
+            assertEquals(start + s * 1000L, list.get(s).getTimestamp().getTime());
+            assertEquals(s == 30 ? 3000 : s, list.get(s).getPassQps().longValue());
+            assertEquals(list.get(s).getPassQps() * 2.0, list.get(s).getRt(), 0.0);
+        }
+        assertEquals(Long.valueOf(1000), list.get(9 * 60).getPassQps());
+
+        list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, start + 59_000, start + 61_000);
+        assertEquals(3, list.size());
+        assertEquals(start + 59_000, list.get(0).getTimestamp().getTime());
+
+        list = repository.queryByAppAndResourceChangedSince(DEFAULT_APP, DEFAULT_RESOURCE, cursor, 0, Long.MAX_VALUE);
+        assertEquals(3, list.size());
+        assertEquals(Long.valueOf(3000), list.get(0).getPassQps());
+        assertEquals(Long.valueOf(1000), list.get(1).getPassQps());
+        assertEquals(Long.valueOf(2000), list.get(2).getPassQps());
+    }
+
+    @Test
+    public void testSealedMinutesRetainLessHeap() {
+        final int resourceCount = 200;
+        final int seconds = 29 * 60;
+
+        long baseline = usedHeapAfterGc();
+        ColumnarMetricsRepository columnarRepository = new ColumnarMetricsRepository();
+        ReflectionTestUtils.setField(columnarRepository, "retentionMinutes", 30);
+        fill(columnarRepository, DEFAULT_APP, DEFAULT_RESOURCE, resourceCount, seconds);
+        long footprint = usedHeapAfterGc() - baseline;
+        assertEquals(seconds, columnarRepository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE + 0, 0, Long.MAX_VALUE).size());
+
+        // Eight primitive columns take 60 bytes per uncompressed point. The hot ring of every series
+        // stays uncompressed whatever the history, so the whole store gets less than the blocks.
+        long uncompressed = 60L * resourceCount * seconds;
+        assertTrue("sealed minutes should be compressed, retained " + footprint + " bytes against "
+            + uncompressed + " uncompressed", footprint < uncompressed / 2);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link FileMetricsRepository}.
+ */
+public class FileMetricsRepositoryTest {
+
+    private static final String APP = "default.app";
+    private static final long HOUR_MS = 1000 * 60 * 60;
+
+    private File dir;
+    private FileMetricsRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("metric-segments").toFile();
+        repository = newRepository(1);
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testMetricsSurviveRestart() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 600; i++) {
+            repository.save(newEntity(APP, "res-" + (i % 3), now - 600_000 + i * 1000L, i, 2, 10));
+        }
+        repository.close();
+
+        repository = newRepository(1);
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, "res-1", now - 600_000, now);
+        assertEquals(200, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            MetricEntity entity = list.get(i);
+            long expected = now - 600_000 + (i * 3 + 1) * 1000L;
+            assertEquals(expected, entity.getTimestamp().getTime());
+            assertEquals(i * 3 + 1, entity.getPassQps().longValue());
+            assertEquals(2, entity.getBlockQps().longValue());
+            assertEquals(10.0, entity.getRt(), 0.0);
+            assertEquals(APP, entity.getApp());
+        }
+
+        // New writes append after the recovered data.
+        repository.save(newEntity(APP, "res-1", now + 1000, 7, 2, 10));
+        assertEquals(201, repository.queryByAppAndResourceBetween(APP, "res-1", 0, now + 1000).size());
+    }
+
+    @Test
+    public void testQueryAcrossHours() {
+        repository.close();
+        repository = newRepository(3);
+        long hourStart = System.currentTimeMillis() / HOUR_MS * HOUR_MS - HOUR_MS;
+        for (int i = -300; i < 300; i++) {
+            repository.save(newEntity(APP, "res", hourStart + i * 1000L, 1, 2, 10));
+        }
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, "res",
+            hourStart - 100_000, hourStart + 99_000);
+        assertEquals(200, list.size());
+        assertEquals(hourStart - 100_000, list.get(0).getTimestamp().getTime());
+        assertEquals(hourStart + 99_000, list.get(199).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testFullSegmentRollsOver() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        // Far more than a 1 MB segment can hold.
+        for (int i = 0; i < 100_000; i++) {
+            repository.save(newEntity(APP, "res", now - (i % 600) * 1000L, i, 2, 10));
+        }
+        File rawDir = new File(dir.listFiles()[0], "1s");
+        assertTrue(rawDir.list().length > 1);
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, "res", now - 599_000, now);
+        assertEquals(600, list.size());
+        // The last write of every second wins.
+        assertEquals(99_599, list.get(0).getPassQps().longValue());
+        assertEquals(99_600, list.get(599).getPassQps().longValue());
+    }
+
+    @Test
+    public void testQueryWhileSegmentsRollOver() throws Exception {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    repository.queryByAppAndResourceBetween(APP, "res", now - 599_000, now);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 100_000 && failure.get() == null; i++) {
+                repository.save(newEntity(APP, "res", now - (i % 600) * 1000L, i, 2, 10));
+            }
+        } finally {
+            reader.interrupt();
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertTrue(new File(dir.listFiles()[0], "1s").list().length > 1);
+    }
+
+    @Test
+    public void testLaterWriteOfSameSecondWins() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(newEntity(APP, "res", now, 1, 2, 10));
+        repository.save(newEntity(APP, "res", now, 5, 2, 10));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, "res", now, now);
+        assertEquals(1, list.size());
+        assertEquals(5, list.get(0).getPassQps().longValue());
+    }
+
+    @Test
+    public void testQueryCreatesNoDirectory() {
+        long now = System.currentTimeMillis();
+        assertTrue(repository.queryByAppAndResourceBetween("unknown", "res", now - HOUR_MS, now).isEmpty());
+        assertTrue(repository.queryByAppAndResourceBetween("unknown", "res", now - HOUR_MS, now, 10).isEmpty());
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testLegacySegmentsMovedToPerSecondTier() throws IOException {
+        repository.close();
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        long hourStart = now / HOUR_MS * HOUR_MS;
+        File appDir = new File(dir, "default%2Eapp");
+        assertTrue(appDir.mkdirs());
+        File legacy = new File(appDir, hourStart + "-0" + MetricSegment.FILE_SUFFIX);
+        MetricSegment segment = MetricSegment.open(legacy, APP, hourStart, 1024 * 1024);
+        segment.append(newEntity(APP, "res", now, 3, 2, 10));
+        segment.close();
+
+        repository = newRepository(1);
+        assertFalse(legacy.exists());
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(APP, "res", now, now);
+        assertEquals(1, list.size());
+        assertEquals(3, list.get(0).getPassQps().longValue());
+    }
+
+    @Test
+    public void testTornPointDroppedOnRecovery() throws IOException {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        long hourStart = now / HOUR_MS * HOUR_MS;
+        File file = new File(dir, "torn" + MetricSegment.FILE_SUFFIX);
+        MetricSegment segment = MetricSegment.open(file, APP, hourStart, 1024 * 1024);
+        segment.append(newEntity(APP, "res", now - 2000, 1, 2, 10));
+        segment.append(newEntity(APP, "res", now - 1000, 2, 2, 10));
+        segment.close();
+        byte[] before = Files.readAllBytes(file.toPath());
+        segment = MetricSegment.open(file, APP, hourStart, 1024 * 1024);
+        segment.append(newEntity(APP, "res", now, 3, 2, 10));
+        segment.close();
+        byte[] after = Files.readAllBytes(file.toPath());
+        int offset = 0;
+        while (before[offset] == after[offset]) {
+            offset++;
+        }
+
+        // A crash left the type byte of the last point but not the page of its payload.
+        for (int i = offset + 1; i < offset + 64; i++) {
+            after[i] = 0;
+        }
+        Files.write(file.toPath(), after);
+        segment = MetricSegment.open(file, APP, hourStart, 1024 * 1024);
+        assertEquals(2, segment.query("res", 0, Long.MAX_VALUE).size());
+
+        // Appended over the torn record.
+        assertTrue(segment.append(newEntity(APP, "res", now + 1000, 4, 2, 10)));
+        segment.close();
+        segment = MetricSegment.open(file, APP, hourStart, 1024 * 1024);
+        List<MetricEntity> list = segment.query("res", 0, Long.MAX_VALUE);
+        segment.close();
+        assertEquals(3, list.size());
+        assertEquals(now + 1000, list.get(2).getTimestamp().getTime());
+        assertEquals(4, list.get(2).getPassQps().longValue());
+    }
+
+    @Test
+    public void testPurgeExpiredSegments() {
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(APP, "res", now - 30 * 60 * 1000, 1, 2, 10));
+        repository.save(newEntity(APP, "res", now, 1, 2, 10));
+
+        repository.purgeExpiredSegments(now + 2 * HOUR_MS);
+        assertTrue(repository.queryByAppAndResourceBetween(APP, "res", 0, now).isEmpty());
+        File rawDir = new File(dir.listFiles()[0], "1s");
+        assertEquals(0, rawDir.list().length);
+    }
+
+    @Test
+    public void testRollupTierChosenByPointBudget() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        long start = now - 1000 * 60 * 30;
+        for (long t = start; t <= now; t += 1000) {
+            repository.save(newEntity(APP, "res", t, (t / 1000) % 2 == 0 ? 10 : 20, 2, 10));
+        }
+
+        // 30 minutes fit 1801 per-second points.
+        assertEquals(1801, repository.queryByAppAndResourceBetween(APP, "res", start, now, 2000).size());
+
+        List<MetricEntity> tenSeconds = repository.queryByAppAndResourceBetween(APP, "res", start, now, 200);
+        assertEquals(RollupTier.TEN_SECONDS.pointsBetween(start, now), tenSeconds.size());
+        MetricEntity full = tenSeconds.get(1);
+        assertEquals(15, full.getPassQps().longValue());
+        assertEquals(20, full.getMaxPassQps().longValue());
+        // Every point has a total rt of 10ms, so the weighted average is 10 * 10 / (5 * 10 + 5 * 20).
+        assertEquals(100.0 / 150, full.getRt() / full.getSuccessQps(), 0.001);
+
+        List<MetricEntity> minutes = repository.queryByAppAndResourceBetween(APP, "res", start, now, 40);
+        assertEquals(RollupTier.ONE_MINUTE.pointsBetween(start, now), minutes.size());
+        assertEquals(0, minutes.get(1).getTimestamp().getTime() % RollupTier.ONE_MINUTE.getStepMs());
+
+        // Rollups survive a restart.
+        repository.close();
+        repository = newRepository(1);
+        assertEquals(minutes.size(), repository.queryByAppAndResourceBetween(APP, "res", start, now, 40).size());
+    }
+
+    @Test
+    public void testSecondsWrittenAgainReplacedInRollups() {
+        long minute = RollupTier.ONE_MINUTE.getStepMs();
+        long start = System.currentTimeMillis() / minute * minute - 5 * minute;
+        for (long t = start; t < start + minute; t += 1000) {
+            repository.save(newEntity(APP, "res", t, 10, 0, 10));
+        }
+        // Written again into the open bucket, then again after the bucket was closed by the next one.
+        repository.save(newEntity(APP, "res", start + 1000, 70, 0, 10));
+        repository.save(newEntity(APP, "res", start + minute, 10, 0, 10));
+        repository.saveAll(Arrays.asList(newEntity(APP, "res", start + 2000, 70, 0, 10),
+            newEntity(APP, "res", start + 3000, 70, 0, 10)));
+
+        List<MetricEntity> minutes = repository.queryRollup(RollupTier.ONE_MINUTE, APP, "res", start, start);
+        assertEquals(1, minutes.size());
+        assertEquals((57 * 10 + 3 * 70) / 60, minutes.get(0).getPassQps().longValue());
+        assertEquals(70, minutes.get(0).getMaxPassQps().longValue());
+        MetricEntity tenSeconds = repository.queryRollup(RollupTier.TEN_SECONDS, APP, "res", start, start).get(0);
+        assertEquals((7 * 10 + 3 * 70) / 10, tenSeconds.getPassQps().longValue());
+    }
+
+    private FileMetricsRepository newRepository(int retentionHours) {
+        FileMetricsRepository repository = new FileMetricsRepository(dir.getAbsolutePath(), retentionHours,
+            retentionHours, 1);
+        repository.init();
+        return repository;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link GorillaBlock}.
+ */
+public class GorillaBlockTest {
+
+    @Test
+    public void testRoundTripOfIrregularValues() {
+        long[] timestamps = {1000, 2000, 3000, 3000 + 61_000, 3000 + 61_050, 3000 + 61_051, Long.MAX_VALUE / 2};
+        long[] values = {0, -1, Long.MAX_VALUE, Long.MIN_VALUE, 42, 42, 1L << 40};
+        double[] rts = {0.0, Double.NaN, -3.5, Double.MAX_VALUE, 1e-300, 1e-300, 12.25};
+        GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.append(timestamps[i], timestamps[i] - i * 7, values[i], ~values[i], i, values[i] >> 3,
+                rts[i], (int) values[i]);
+        }
+        GorillaBlock block = encoder.build();
+        assertEquals(timestamps.length, block.getCount());
+        assertEquals(1000, block.getFirstTimestamp());
+        assertEquals(Long.MAX_VALUE / 2, block.getLastTimestamp());
+
+        List<MetricEntity> decoded = new ArrayList<>();
+        block.decodeInto("app", "res", Long.MIN_VALUE, Long.MAX_VALUE, decoded);
+        assertEquals(timestamps.length, decoded.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            MetricEntity entity = decoded.get(i);
+            assertEquals("app", entity.getApp());
+            assertEquals("res", entity.getResource());
+            assertEquals(timestamps[i], entity.getTimestamp().getTime());
+            assertEquals(timestamps[i] - i * 7, entity.getGmtCreate().getTime());
+            assertEquals(values[i], entity.getPassQps().longValue());
+            assertEquals(~values[i], entity.getSuccessQps().longValue());
+            assertEquals(i, entity.getBlockQps().longValue());
+            assertEquals(values[i] >> 3, entity.getExceptionQps().longValue());
+            assertEquals(Double.doubleToRawLongBits(rts[i]), Double.doubleToRawLongBits(entity.getRt()));
+            assertEquals((int) values[i], entity.getCount());
+        }
+    }
+
+    @Test
+    public void testDecodeRange() {
+        GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+        for (int s = 0; s < 60; s++) {
+            encoder.append(s * 1000L, s * 1000L + 3, s, s, 0, 0, 1.0, 1);
+        }
+        GorillaBlock block = encoder.build();
+        List<MetricEntity> decoded = new ArrayList<>();
+        block.decodeInto("app", "res", 10_000, 14_000, decoded);
+        assertEquals(5, decoded.size());
+        assertEquals(10_000, decoded.get(0).getTimestamp().getTime());
+        assertEquals(14_000, decoded.get(4).getTimestamp().getTime());
+
+        decoded.clear();
+        block.decodeInto("app", "res", 60_000, 120_000, decoded);
+        assertTrue(decoded.isEmpty());
+    }
+
+    @Test
+    public void testTypicalMinuteCompressesWell() {
+        Random random = new Random(7);
+        GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+        long start = System.currentTimeMillis() / 60_000 * 60_000;
+        long pass = 1200;
+        for (int s = 0; s < 60; s++) {
+            pass += random.nextInt(21) - 10;
+            long block = random.nextInt(4) == 0 ? random.nextInt(50) : 0;
+            encoder.append(start + s * 1000L, start + s * 1000L + 1000 + random.nextInt(30), pass, pass - block,
+                block, 0, 3 + random.nextInt(3) * 0.5, 1);
+        }
+        GorillaBlock block = encoder.build();
+        // A hot point takes 60 bytes in the primitive columns.
+        double bytesPerPoint = block.getEncodedBytes() / 60.0;
+        assertTrue(bytesPerPoint + " bytes per point", bytesPerPoint < 16);
+    }
+}
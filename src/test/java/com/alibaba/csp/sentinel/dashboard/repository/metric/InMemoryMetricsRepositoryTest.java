@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.repository.metric;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.TimeUtil;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -132,6 +133,99 @@ public class InMemoryMetricsRepositoryTest {
     }
 
 
+    @Test
+    public void testQueryChangedSince() throws InterruptedException {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 9; i >= 0; i--) {
+            inMemoryMetricsRepository.save(newChangeEntity(now - i * 1000, 10 + i));
+        }
+        Thread.sleep(20);
+        long cursor = TimeUtil.currentTimeMillis();
+        Thread.sleep(20);
+        assertTrue(inMemoryMetricsRepository.queryByAppAndResourceChangedSince(
+            DEFAULT_APP, DEFAULT_RESOURCE, cursor, now - EXPIRE_TIME, now + 10_000).isEmpty());
+
+        // One new point and an amended one.
+        inMemoryMetricsRepository.save(newChangeEntity(now + 1000, 100));
+        inMemoryMetricsRepository.save(newChangeEntity(now - 5000, 200));
+        List<MetricEntity> changed = inMemoryMetricsRepository.queryByAppAndResourceChangedSince(
+            DEFAULT_APP, DEFAULT_RESOURCE, cursor, now - EXPIRE_TIME, now + 10_000);
+        assertEquals(2, changed.size());
+        assertEquals(now - 5000, changed.get(0).getTimestamp().getTime());
+        assertEquals(Long.valueOf(200), changed.get(0).getPassQps());
+        assertEquals(now + 1000, changed.get(1).getTimestamp().getTime());
+
+        // Older writes than the change log keeps fall back to the whole range.
+        for (int i = 0; i < 200; i++) {
+            inMemoryMetricsRepository.save(newChangeEntity(now - (i % 60) * 1000, i));
+        }
+        assertEquals(61, inMemoryMetricsRepository.queryByAppAndResourceChangedSince(
+            DEFAULT_APP, DEFAULT_RESOURCE, cursor, now - EXPIRE_TIME, now + 10_000).size());
+    }
+
+    @Test
+    public void testForEachMetricOfApp() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 10; i++) {
+            inMemoryMetricsRepository.save(newChangeEntity(now - i * 1000, i));
+        }
+        MetricEntity other = newChangeEntity(now, 1);
+        other.setResource("otherResource");
+        inMemoryMetricsRepository.save(other);
+
+        List<MetricEntity> visited = new ArrayList<>();
+        inMemoryMetricsRepository.forEachMetricOfApp(DEFAULT_APP, now - 4000, now, visited::add);
+        assertEquals(6, visited.size());
+        List<MetricEntity> resource = new ArrayList<>();
+        for (MetricEntity entity : visited) {
+            if (DEFAULT_RESOURCE.equals(entity.getResource())) {
+                resource.add(entity);
+            }
+        }
+        assertEquals(5, resource.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(now - (4 - i) * 1000, resource.get(i).getTimestamp().getTime());
+        }
+    }
+
+    @Test
+    public void testExpiredSeriesPurged() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int r = 0; r < 100; r++) {
+            MetricEntity entity = newChangeEntity(now, r);
+            entity.setResource(DEFAULT_RESOURCE + r);
+            inMemoryMetricsRepository.save(entity);
+        }
+        assertEquals(100, inMemoryMetricsRepository.getLiveSeries());
+
+        inMemoryMetricsRepository.purgeExpiredSeries(now + 1000);
+        assertEquals(100, inMemoryMetricsRepository.getLiveSeries());
+        inMemoryMetricsRepository.purgeExpiredSeries(now + EXPIRE_TIME + 1000);
+        assertEquals(0, inMemoryMetricsRepository.getLiveSeries());
+
+        // A resource showing up again gets a new series.
+        inMemoryMetricsRepository.save(newChangeEntity(now, 7));
+        assertEquals(1, inMemoryMetricsRepository.getLiveSeries());
+        List<MetricEntity> list = inMemoryMetricsRepository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now, now);
+        assertEquals(1, list.size());
+        assertEquals(Long.valueOf(7), list.get(0).getPassQps());
+    }
+
+    private static MetricEntity newChangeEntity(long timestamp, long passQps) {
+        MetricEntity entry = new MetricEntity();
+        entry.setApp(DEFAULT_APP);
+        entry.setResource(DEFAULT_RESOURCE);
+        entry.setTimestamp(new Date(timestamp));
+        entry.setGmtCreate(new Date());
+        entry.setPassQps(passQps);
+        entry.setBlockQps(0L);
+        entry.setSuccessQps(passQps);
+        entry.setExceptionQps(0L);
+        entry.setCount(1);
+        return entry;
+    }
+
     @Test
     public void testConcurrentPutAndGet() {
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MachineMetricsStore}.
+ */
+public class MachineMetricsStoreTest {
+
+    private static final String APP = "app";
+    private static final String RESOURCE = "resource";
+
+    @Test
+    public void testOnlyOptedInAppsKept() {
+        MachineMetricsStore store = new MachineMetricsStore(" app , other", 60);
+        long now = System.currentTimeMillis();
+        assertTrue(store.isEnabled(APP));
+        assertTrue(store.isEnabled("other"));
+        assertFalse(store.isEnabled("unknown"));
+
+        store.save("unknown", "m1", sink -> sink.add(RESOURCE, now, 1, 1, 1, 0, 1));
+        assertTrue(store.topMachinesByBlockQps("unknown", RESOURCE, now - 1000, now, 10).isEmpty());
+        assertTrue(new MachineMetricsStore("*", 60).isEnabled("unknown"));
+        assertFalse(new MachineMetricsStore("", 60).isEnabled(APP));
+    }
+
+    @Test
+    public void testTopMachinesByBlockThenPass() {
+        MachineMetricsStore store = new MachineMetricsStore(APP, 60);
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 4; i++) {
+            long time = now - i * 1000;
+            store.save(APP, "m1", sink -> sink.add(RESOURCE, time, 100, 0, 100, 0, 500));
+            store.save(APP, "m2", sink -> sink.add(RESOURCE, time, 10, 20, 10, 0, 50));
+            store.save(APP, "m3", sink -> sink.add(RESOURCE, time, 50, 20, 50, 0, 250));
+            store.save(APP, "m4", sink -> sink.add("other", time, 1, 99, 1, 0, 1));
+        }
+
+        List<MachineMetric> top = store.topMachinesByBlockQps(APP, RESOURCE, now - 3000, now, 2);
+        assertEquals(2, top.size());
+        assertEquals("m3", top.get(0).getMachine());
+        assertEquals("m2", top.get(1).getMachine());
+        assertEquals(4, top.get(0).getSeconds());
+        assertEquals(20, top.get(0).getBlockQps(), 0.001);
+        assertEquals(50, top.get(0).getPassQps(), 0.001);
+        assertEquals(5, top.get(0).getRt(), 0.001);
+
+        assertEquals(3, store.topMachinesByBlockQps(APP, RESOURCE, now - 3000, now, 10).size());
+        assertEquals(1, store.topMachinesByBlockQps(APP, RESOURCE, now, now, 10).get(0).getSeconds());
+    }
+
+    @Test
+    public void testQueryByMachineOrderedByTime() {
+        MachineMetricsStore store = new MachineMetricsStore(APP, 60);
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        store.save(APP, "m1", sink -> {
+            sink.add(RESOURCE, now, 3, 0, 3, 0, 30);
+            sink.add(RESOURCE, now - 2000, 1, 0, 1, 0, 10);
+            sink.add(RESOURCE, now - 1000, 2, 1, 2, 0, 20);
+        });
+
+        List<MetricEntity> entities = store.queryByMachineAndResourceBetween(APP, "m1", RESOURCE, now - 2000, now);
+        assertEquals(3, entities.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(now - (2 - i) * 1000, entities.get(i).getTimestamp().getTime());
+            assertEquals(i + 1, (long) entities.get(i).getPassQps());
+        }
+        assertEquals(APP, entities.get(0).getApp());
+        assertEquals(RESOURCE, entities.get(0).getResource());
+        assertTrue(store.queryByMachineAndResourceBetween(APP, "m2", RESOURCE, now - 2000, now).isEmpty());
+    }
+
+    @Test
+    public void testPointsOutsideRetentionIgnored() {
+        MachineMetricsStore store = new MachineMetricsStore(APP, 10);
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        store.save(APP, "m1", sink -> {
+            sink.add(RESOURCE, now - 60_000, 100, 100, 100, 0, 1);
+            sink.add(RESOURCE, now, 1, 0, 1, 0, 1);
+        });
+
+        List<MachineMetric> top = store.topMachinesByBlockQps(APP, RESOURCE, now - 120_000, now, 1);
+        assertEquals(1, top.get(0).getSeconds());
+        assertEquals(0, top.get(0).getBlockQps(), 0.001);
+    }
+
+    @Test
+    public void testRemovedMachineIdRecycled() {
+        MachineMetricsStore store = new MachineMetricsStore(APP, 60);
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        store.save(APP, "m1", sink -> sink.add(RESOURCE, now, 1, 5, 1, 0, 1));
+        store.save(APP, "m2", sink -> sink.add(RESOURCE, now, 1, 1, 1, 0, 1));
+
+        store.removeMachine(APP, "m1");
+        List<MachineMetric> top = store.topMachinesByBlockQps(APP, RESOURCE, now, now, 10);
+        assertEquals(1, top.size());
+        assertEquals("m2", top.get(0).getMachine());
+
+        // The new machine takes the id of m1 but none of its points.
+        store.save(APP, "m3", sink -> sink.add("other", now, 1, 1, 1, 0, 1));
+        top = store.topMachinesByBlockQps(APP, RESOURCE, now, now, 10);
+        assertEquals(1, top.size());
+        assertEquals("m3", store.topMachinesByBlockQps(APP, "other", now, now, 10).get(0).getMachine());
+
+        store.removeApp(APP);
+        assertTrue(store.topMachinesByBlockQps(APP, "other", now, now, 10).isEmpty());
+    }
+}
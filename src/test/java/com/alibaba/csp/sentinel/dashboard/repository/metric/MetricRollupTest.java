@@ -0,0 +1,162 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricRollup}.
+ */
+public class MetricRollupTest {
+
+    private static final String APP = "app";
+
+    private final PointLog points = new PointLog();
+
+    @Test
+    public void testBucketClosedByLaterPoint() {
+        MetricRollup rollup = new MetricRollup(RollupTier.TEN_SECONDS, points);
+        long start = 1_000_000_000L;
+        for (int i = 0; i < 10; i++) {
+            // success 10, average rt 5ms in the first half and 15ms in the second.
+            assertNull(add(rollup, newSample(start + i * 1000L, i < 5 ? 4 : 8, 10, i < 5 ? 5 : 15)));
+        }
+        MetricEntity open = rollup.peek(APP, "res");
+        assertNotNull(open);
+        assertEquals(start, open.getTimestamp().getTime());
+
+        MetricEntity closed = add(rollup, newSample(start + 10_000, 1, 1, 1));
+        assertNotNull(closed);
+        assertEquals(start, closed.getTimestamp().getTime());
+        assertEquals(6, closed.getPassQps().longValue());
+        assertEquals(8, closed.getMaxPassQps().longValue());
+        assertEquals(10, closed.getSuccessQps().longValue());
+        assertEquals(10.0, closed.getRt() / closed.getSuccessQps(), 0.001);
+        assertEquals(15.0, closed.getMaxRt(), 0.001);
+
+        // A point of a closed bucket has it rebuilt, the second written again replaces the earlier one.
+        assertNull(add(rollup, newSample(start + 9000, 100, 100, 1)));
+        assertEquals(start + 10_000, rollup.peek(APP, "res").getTimestamp().getTime());
+        List<MetricEntity> rebuilt = rollup.rebuildStale();
+        assertEquals(1, rebuilt.size());
+        assertEquals(start, rebuilt.get(0).getTimestamp().getTime());
+        assertEquals((4 * 5 + 8 * 4 + 100) / 10, rebuilt.get(0).getPassQps().longValue());
+        assertEquals(100, rebuilt.get(0).getMaxPassQps().longValue());
+        assertTrue(rollup.rebuildStale().isEmpty());
+    }
+
+    @Test
+    public void testSecondWrittenTwiceReplaced() {
+        MetricRollup rollup = new MetricRollup(RollupTier.ONE_MINUTE, points);
+        long start = 1_000_020_000L - 1_000_020_000L % 60_000;
+        for (int i = 0; i < 4; i++) {
+            add(rollup, newSample(start + i * 1000L, 10, 10, 5));
+        }
+        // A backfill writes the second again with the machine missed before.
+        add(rollup, newSample(start + 2000, 30, 30, 5));
+
+        MetricEntity open = rollup.peek(APP, "res");
+        assertEquals((10 + 10 + 30 + 10) / 4, open.getPassQps().longValue());
+        assertEquals((10 + 10 + 30 + 10) / 4, open.getSuccessQps().longValue());
+        assertEquals(30, open.getMaxPassQps().longValue());
+        assertEquals(5.0, open.getRt() / open.getSuccessQps(), 0.001);
+        assertTrue(rollup.rebuildStale().isEmpty());
+
+        // Written again with the same values, nothing changes.
+        add(rollup, newSample(start + 2000, 30, 30, 5));
+        MetricEntity closed = rollup.closeIdle(start + 120_000).get(0);
+        assertEquals(15, closed.getPassQps().longValue());
+        assertEquals(5.0, closed.getRt() / closed.getSuccessQps(), 0.001);
+    }
+
+    @Test
+    public void testCloseIdleBuckets() {
+        MetricRollup rollup = new MetricRollup(RollupTier.ONE_MINUTE, points);
+        long start = 1_000_020_000L - 1_000_020_000L % 60_000;
+        add(rollup, newSample(start, 1, 1, 1));
+
+        assertTrue(rollup.closeIdle(start + 60_000).isEmpty());
+        List<MetricEntity> closed = rollup.closeIdle(start + 120_000);
+        assertEquals(1, closed.size());
+        assertNull(rollup.peek(APP, "res"));
+        assertTrue(rollup.closeIdle(start + 180_000).isEmpty());
+    }
+
+    @Test
+    public void testLatePointOfIdleClosedBucketRebuilt() {
+        MetricRollup rollup = new MetricRollup(RollupTier.ONE_MINUTE, points);
+        long start = 1_000_020_000L - 1_000_020_000L % 60_000;
+        add(rollup, newSample(start, 10, 10, 1));
+        add(rollup, newSample(start + 1000, 20, 20, 1));
+        assertEquals(1, rollup.closeIdle(start + 120_000).size());
+
+        // A second, partial rollup of the bucket must not be opened by the late point.
+        assertNull(add(rollup, newSample(start + 2000, 90, 90, 1)));
+        assertNull(rollup.peek(APP, "res"));
+        assertTrue(rollup.closeIdle(start + 180_000).isEmpty());
+        List<MetricEntity> rebuilt = rollup.rebuildStale();
+        assertEquals(1, rebuilt.size());
+        assertEquals((10 + 20 + 90) / 3, rebuilt.get(0).getPassQps().longValue());
+
+        // Later buckets still roll up.
+        assertNull(add(rollup, newSample(start + 180_000, 5, 5, 1)));
+        assertEquals(start + 180_000, rollup.peek(APP, "res").getTimestamp().getTime());
+        assertEquals(1, rollup.closeIdle(start + 300_000).size());
+    }
+
+    private MetricEntity add(MetricRollup rollup, MetricEntity entity) {
+        points.write(entity);
+        return rollup.add(entity);
+    }
+
+    /**
+     * A point of a single sample with {@code success} requests taking {@code avgRt} on average.
+     */
+    private static MetricEntity newSample(long timestamp, long pass, long success, double avgRt) {
+        MetricEntity entity = newEntity(APP, "res", timestamp, pass);
+        entity.setRtAndSuccessQps(avgRt, success);
+        return entity;
+    }
+
+    /**
+     * Every write of the points, in order.
+     */
+    private static final class PointLog implements MetricRollup.PointSource {
+        private final TreeMap<Long, List<MetricEntity>> writes = new TreeMap<>();
+
+        private void write(MetricEntity entity) {
+            writes.computeIfAbsent(entity.getTimestamp().getTime(), t -> new ArrayList<>()).add(entity);
+        }
+
+        @Override
+        public Collection<MetricEntity> query(String app, String resource, long startTime, long endTime) {
+            return writes.subMap(startTime, true, endTime, true).values()
+                .stream()
+                .map(list -> list.get(list.size() - 1))
+                .collect(Collectors.toList());
+        }
+    }
+}
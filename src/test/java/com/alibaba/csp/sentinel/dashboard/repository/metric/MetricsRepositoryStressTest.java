@@ -0,0 +1,169 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static org.junit.Assert.*;
+
+/**
+ * Multi-threaded stress test checking that concurrent writers never lose an update
+ * and concurrent readers never observe a torn point or an unordered series.
+ */
+public class MetricsRepositoryStressTest {
+
+    private static final int APPS = 4;
+    private static final int RESOURCES = 8;
+    private static final int SECONDS = 120;
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int GENERATIONS = 20;
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(WRITERS + READERS);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testInMemoryRepository() throws Exception {
+        stress(new InMemoryMetricsRepository());
+    }
+
+    @Test
+    public void testColumnarRepository() throws Exception {
+        stress(new ColumnarMetricsRepository());
+    }
+
+    @Test
+    public void testOffHeapRepository() throws Exception {
+        OffHeapMetricsRepository repository = new OffHeapMetricsRepository(64);
+        try {
+            stress(repository);
+        } finally {
+            repository.close();
+        }
+    }
+
+    private void stress(MetricsRepository<MetricEntity> repository) throws Exception {
+        final long base = System.currentTimeMillis() / 1000 * 1000 - SECONDS * 1000L;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers.add(executorService.submit(() -> {
+                start.await();
+                for (int g = 1; g <= GENERATIONS; g++) {
+                    for (int a = 0; a < APPS; a++) {
+                        for (int r = 0; r < RESOURCES; r++) {
+                            // Writers share every resource but own disjoint seconds of it.
+                            for (int s = writer; s < SECONDS; s += WRITERS) {
+                                long value = valueOf(s, g);
+                                MetricEntity entity = newEntity("app" + a, "res" + r, base + s * 1000L, value, value, 0);
+                                entity.setExceptionQps(value);
+                                entity.setCount((int) value);
+                                repository.save(entity);
+                            }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(executorService.submit(() -> {
+                start.await();
+                while (writing.get()) {
+                    for (int a = 0; a < APPS; a++) {
+                        for (int r = 0; r < RESOURCES; r++) {
+                            verifySnapshot(repository.queryByAppAndResourceBetween(
+                                "app" + a, "res" + r, base, base + SECONDS * 1000L));
+                        }
+                        repository.listResourcesOfApp("app" + a);
+                    }
+                    reads.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(60, TimeUnit.SECONDS);
+        }
+        assertTrue(reads.get() > 0);
+
+        for (int a = 0; a < APPS; a++) {
+            assertEquals(RESOURCES, repository.listResourcesOfApp("app" + a).size());
+            for (int r = 0; r < RESOURCES; r++) {
+                List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+                    "app" + a, "res" + r, base, base + SECONDS * 1000L);
+                assertEquals("lost update in app" + a + "/res" + r, SECONDS, list.size());
+                for (int s = 0; s < SECONDS; s++) {
+                    MetricEntity entity = list.get(s);
+                    assertEquals(base + s * 1000L, entity.getTimestamp().getTime());
+                    assertEquals(valueOf(s, GENERATIONS), entity.getPassQps().longValue());
+                }
+            }
+        }
+    }
+
+    private static void verifySnapshot(List<MetricEntity> snapshot) {
+        long lastTimestamp = Long.MIN_VALUE;
+        for (MetricEntity entity : snapshot) {
+            long timestamp = entity.getTimestamp().getTime();
+            assertTrue("series snapshot is not ordered by time", timestamp > lastTimestamp);
+            lastTimestamp = timestamp;
+            long pass = entity.getPassQps();
+            if (entity.getBlockQps() != pass || entity.getSuccessQps() != pass
+                || entity.getExceptionQps() != pass || entity.getCount() != (int) pass) {
+                fail("torn read: " + entity);
+            }
+        }
+    }
+
+    private static long valueOf(int second, int generation) {
+        return second * 100L + generation;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.sun.management.ThreadMXBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.fill;
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.newEntity;
+import static com.alibaba.csp.sentinel.dashboard.metric.MetricTestUtils.usedHeapAfterGc;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link OffHeapMetricsRepository}.
+ */
+public class OffHeapMetricsRepositoryTest {
+
+    private final static String DEFAULT_APP = "defaultApp";
+    private final static String DEFAULT_RESOURCE = "defaultResource";
+    private static final long EXPIRE_TIME = 1000 * 60 * 5L;
+
+    private OffHeapMetricsRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new OffHeapMetricsRepository(4);
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    public void testSaveAndQuery() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 9; i >= 0; i--) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - i * 1000, 10 + i, i, (10 + i) * 2.0));
+        }
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now - 4000, now);
+        assertEquals(5, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            MetricEntity entity = list.get(i);
+            assertEquals(now - (4 - i) * 1000, entity.getTimestamp().getTime());
+            assertEquals(DEFAULT_APP, entity.getApp());
+            assertEquals(DEFAULT_RESOURCE, entity.getResource());
+            assertEquals(Long.valueOf(14 - i), entity.getPassQps());
+            assertEquals(Long.valueOf(4 - i), entity.getBlockQps());
+            assertEquals((14 - i) * 2.0, entity.getRt(), 0.0001);
+            assertEquals(1, entity.getCount());
+        }
+        assertTrue(repository.queryByAppAndResourceBetween(DEFAULT_APP, "unknown", now - 4000, now).isEmpty());
+        assertTrue(repository.queryByAppAndResourceBetween("unknown", DEFAULT_RESOURCE, now - 4000, now).isEmpty());
+    }
+
+    @Test
+    public void testSameSecondReplaced() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1, 0, 2.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 2, 0, 4.0));
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, 0, now);
+        assertEquals(1, list.size());
+        assertEquals(Long.valueOf(2), list.get(0).getPassQps());
+    }
+
+    @Test
+    public void testExpireMetric() {
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - EXPIRE_TIME - 1L, 1, 0, 2.0));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1, 0, 2.0));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now - EXPIRE_TIME - 1000, now);
+        assertEquals(1, list.size());
+        assertEquals(now, list.get(0).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testListResourcesOrderedByBlockAndPassQps() {
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(DEFAULT_APP, "a", now, 100, 0, 200.0));
+        repository.save(newEntity(DEFAULT_APP, "b", now, 1, 5, 2.0));
+        repository.save(newEntity(DEFAULT_APP, "c", now, 200, 0, 400.0));
+        repository.save(newEntity(DEFAULT_APP, "d", now - 1000 * 90, 500, 500, 1000.0));
+
+        assertEquals(Arrays.asList("b", "c", "a"), repository.listResourcesOfApp(DEFAULT_APP));
+    }
+
+    @Test
+    public void testExpiredSeriesRecycledAndStorageBounded() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        // 4 MB hold 218 series of 300 seconds.
+        for (int r = 0; r < 220; r++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE + r, now, 1, 0, 2.0));
+        }
+        assertEquals(218, repository.getLiveSeries());
+        assertTrue(repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE + 219, 0, now).isEmpty());
+        long reserved = repository.getReservedBytes();
+
+        repository.purgeExpiredSeries(now + 1000);
+        assertEquals(218, repository.getLiveSeries());
+        repository.purgeExpiredSeries(now + EXPIRE_TIME + 1000);
+        assertEquals(0, repository.getLiveSeries());
+        assertTrue(repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE + 0, 0, now).isEmpty());
+
+        // Recycled blocks must not leak the points of their previous series.
+        repository.save(newEntity(DEFAULT_APP, "new", now + 1000, 7, 0, 14.0));
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, "new", 0, Long.MAX_VALUE);
+        assertEquals(1, list.size());
+        assertEquals(Long.valueOf(7), list.get(0).getPassQps());
+        assertEquals(reserved, repository.getReservedBytes());
+    }
+
+    @Test
+    public void testHeapComparedWithOnHeapRepositories() {
+        final int resourceCount = 200;
+        final int seconds = 240;
+
+        long inMemory = retainedHeap(new InMemoryMetricsRepository(), resourceCount, seconds);
+        long columnar = retainedHeap(new ColumnarMetricsRepository(), resourceCount, seconds);
+        OffHeapMetricsRepository offHeapRepository = new OffHeapMetricsRepository(64);
+        long offHeap = retainedHeap(offHeapRepository, resourceCount, seconds);
+        offHeapRepository.close();
+
+        assertTrue("off-heap store should retain far less heap than the columnar store, retained "
+                + offHeap + " bytes against " + columnar,
+            offHeap < columnar / 4);
+        assertTrue("off-heap store should retain far less heap than the map-based store, retained "
+                + offHeap + " bytes against " + inMemory,
+            offHeap < inMemory / 10);
+    }
+
+    @Test
+    public void testAllocationAndGcComparedWithOnHeapRepositories() {
+        final int resourceCount = 200;
+        final int seconds = 240;
+
+        long[] inMemory = allocationAndGc(new InMemoryMetricsRepository(), resourceCount, seconds);
+        long[] columnar = allocationAndGc(new ColumnarMetricsRepository(), resourceCount, seconds);
+        OffHeapMetricsRepository offHeapRepository = new OffHeapMetricsRepository(64);
+        long[] offHeap = allocationAndGc(offHeapRepository, resourceCount, seconds);
+        offHeapRepository.close();
+
+        assertTrue("off-heap store should allocate less heap on writes than the columnar store, allocated "
+                + offHeap[0] + " bytes against " + columnar[0],
+            offHeap[0] < columnar[0] / 2);
+        assertTrue("off-heap store should allocate less heap on writes than the map-based store, allocated "
+                + offHeap[0] + " bytes against " + inMemory[0],
+            offHeap[0] < inMemory[0]);
+        // The churn allocates the same garbage for every store, collecting it gets costlier with the
+        // objects the store keeps on heap. A few ms of slack as the times are in whole ms.
+        assertTrue("off-heap store should not collect more often under churn than the map-based store, "
+                + offHeap[1] + " collections against " + inMemory[1],
+            offHeap[1] <= inMemory[1] + 2);
+        assertTrue("off-heap store should spend far less time in GC under churn than the columnar store, "
+                + offHeap[2] + " ms against " + columnar[2],
+            offHeap[2] < columnar[2] / 2 + 20);
+        assertTrue("off-heap store should spend far less time in GC under churn than the map-based store, "
+                + offHeap[2] + " ms against " + inMemory[2],
+            offHeap[2] < inMemory[2] / 2 + 20);
+    }
+
+    /**
+     * Save {@code seconds} of points of {@code resourceCount} resources, then refill them ten times.
+     *
+     * @return bytes allocated by the first saves, GC count and GC time in ms of the refills
+     */
+    private long[] allocationAndGc(MetricsRepository<MetricEntity> repository, int resourceCount, int seconds) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = System.currentTimeMillis() / 1000 * 1000 - (seconds - 1) * 1000L;
+        List<MetricEntity> points = new ArrayList<>(resourceCount * seconds);
+        for (int s = 0; s < seconds; s++) {
+            for (int r = 0; r < resourceCount; r++) {
+                points.add(newEntity(DEFAULT_APP, DEFAULT_RESOURCE + r, start + s * 1000L, 1000 + s, 500 + r,
+                    (1000 + s) * 2.0));
+            }
+        }
+        usedHeapAfterGc();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (MetricEntity point : points) {
+            repository.save(point);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        points.clear();
+
+        long[] gcBefore = gcCountAndTime();
+        for (int i = 0; i < 10; i++) {
+            fill(repository, DEFAULT_APP, DEFAULT_RESOURCE, resourceCount, seconds);
+        }
+        long[] gcAfter = gcCountAndTime();
+        return new long[] {allocated, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]};
+    }
+
+    private static long[] gcCountAndTime() {
+        long[] countAndTime = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            countAndTime[0] += Math.max(gc.getCollectionCount(), 0);
+            countAndTime[1] += Math.max(gc.getCollectionTime(), 0);
+        }
+        return countAndTime;
+    }
+
+    private long retainedHeap(MetricsRepository<MetricEntity> repository, int resourceCount, int seconds) {
+        long baseline = usedHeapAfterGc();
+        fill(repository, DEFAULT_APP, DEFAULT_RESOURCE, resourceCount, seconds);
+        long retained = usedHeapAfterGc() - baseline;
+        assertEquals(seconds, repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE + 0, 0, Long.MAX_VALUE).size());
+        return retained;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link ResourceRankIndex}.
+ */
+public class ResourceRankIndexTest {
+
+    private static final String APP = "app";
+
+    @Test
+    public void testOrderByBlockThenPass() {
+        ResourceRankIndex index = new ResourceRankIndex();
+        long now = System.currentTimeMillis();
+        index.update(APP, "a", now, 100, 0);
+        index.update(APP, "b", now, 1, 5);
+        index.update(APP, "c", now, 200, 0);
+        index.update(APP, "c", now - 1000, 50, 0);
+
+        assertEquals(Arrays.asList("b", "c", "a"), index.list(APP, 0, Integer.MAX_VALUE));
+        assertEquals(3, index.count(APP));
+        assertEquals(Collections.singletonList("c"), index.list(APP, 1, 1));
+        assertEquals(Arrays.asList("c", "a"), index.list(APP, 1, 10));
+        assertTrue(index.list(APP, 3, 10).isEmpty());
+        assertTrue(index.list("unknown", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testSameSecondReplacesPreviousPoint() {
+        ResourceRankIndex index = new ResourceRankIndex();
+        long now = System.currentTimeMillis();
+        index.update(APP, "a", now, 100, 0);
+        index.update(APP, "b", now, 60, 0);
+        assertEquals(Arrays.asList("a", "b"), index.list(APP, 0, 10));
+
+        // Re-writing the same second of "a" must not double count it.
+        index.update(APP, "a", now, 50, 0);
+        assertEquals(Arrays.asList("b", "a"), index.list(APP, 0, 10));
+        assertEquals(2, index.count(APP));
+    }
+
+    @Test
+    public void testPointsOutsideLastMinuteIgnored() {
+        ResourceRankIndex index = new ResourceRankIndex();
+        long now = System.currentTimeMillis();
+        index.update(APP, "old", now - 1000 * 90, 500, 500);
+        index.update(APP, "new", now, 1, 0);
+
+        assertEquals(Collections.singletonList("new"), index.list(APP, 0, 10));
+        assertEquals(1, index.count(APP));
+    }
+
+    @Test
+    public void testPurgeDropsResourcesWithoutDataInLastMinute() {
+        ResourceRankIndex index = new ResourceRankIndex();
+        long now = System.currentTimeMillis();
+        for (int r = 0; r < 100; r++) {
+            index.update(APP, "r" + r, now, r, 0);
+        }
+        assertEquals(100, index.countTracked(APP));
+
+        index.purgeExpired(now);
+        assertEquals(100, index.countTracked(APP));
+        index.purgeExpired(now + 1000 * 61);
+        assertEquals(0, index.countTracked(APP));
+        assertEquals(0, index.count(APP));
+        assertTrue(index.list(APP, 0, 10).isEmpty());
+
+        // A resource showing up again is ranked by a new aggregate.
+        index.update(APP, "r1", now, 1, 0);
+        assertEquals(1, index.countTracked(APP));
+        assertEquals(Collections.singletonList("r1"), index.list(APP, 0, 10));
+    }
+}
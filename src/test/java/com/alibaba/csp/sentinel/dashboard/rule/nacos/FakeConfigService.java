@@ -0,0 +1,172 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import com.alibaba.nacos.api.config.ConfigService;
+import com.alibaba.nacos.api.config.listener.Listener;
+
+/**
+ * In-process {@link ConfigService} keeping configs in a map. Like the Nacos client, listeners
+ * are notified of changes on a notifier thread, or on their own executor if they have one, and
+ * receive the content current at the time of the notification.
+ */
+public class FakeConfigService implements ConfigService {
+
+    private final Map<String, String> configs = new ConcurrentHashMap<>();
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private final ExecutorService notifier = Executors.newSingleThreadExecutor();
+
+    private volatile boolean notifying = true;
+
+    private final AtomicInteger getCount = new AtomicInteger();
+    private final AtomicInteger publishCount = new AtomicInteger();
+
+    @Override
+    public String getConfig(String dataId, String group, long timeoutMs) {
+        getCount.incrementAndGet();
+        return configs.get(key(dataId, group));
+    }
+
+    @Override
+    public String getConfigAndSignListener(String dataId, String group, long timeoutMs, Listener listener) {
+        addListener(dataId, group, listener);
+        return getConfig(dataId, group, timeoutMs);
+    }
+
+    @Override
+    public void addListener(String dataId, String group, Listener listener) {
+        listeners.computeIfAbsent(key(dataId, group), k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @Override
+    public boolean publishConfig(String dataId, String group, String content) {
+        publishCount.incrementAndGet();
+        changeConfig(dataId, group, content);
+        return true;
+    }
+
+    public boolean publishConfig(String dataId, String group, String content, String type) {
+        return publishConfig(dataId, group, content);
+    }
+
+    @Override
+    public boolean removeConfig(String dataId, String group) {
+        if (configs.remove(key(dataId, group)) != null) {
+            notifyListeners(dataId, group);
+        }
+        return true;
+    }
+
+    @Override
+    public void removeListener(String dataId, String group, Listener listener) {
+        List<Listener> list = listeners.get(key(dataId, group));
+        if (list != null) {
+            list.remove(listener);
+        }
+    }
+
+    @Override
+    public String getServerStatus() {
+        return "UP";
+    }
+
+    @Override
+    public void shutDown() {
+        notifier.shutdownNow();
+    }
+
+    /**
+     * Change a config behind the back of the dashboard, as another dashboard or an operator would.
+     */
+    public void changeConfig(String dataId, String group, String content) {
+        if (!content.equals(configs.put(key(dataId, group), content))) {
+            notifyListeners(dataId, group);
+        }
+    }
+
+    /**
+     * Change a config behind the back of the dashboard, reading and writing it in one step so
+     * concurrent changes of this kind do not overwrite each other.
+     *
+     * @param change given the current content or {@code null}, returns the new content
+     */
+    public void changeConfig(String dataId, String group, UnaryOperator<String> change) {
+        String[] previous = new String[1];
+        String content = configs.compute(key(dataId, group), (k, current) -> {
+            previous[0] = current;
+            return change.apply(current);
+        });
+        if (!content.equals(previous[0])) {
+            notifyListeners(dataId, group);
+        }
+    }
+
+    /**
+     * Stop or resume notifying listeners, as if notifications were lost.
+     */
+    public void setNotifying(boolean notifying) {
+        this.notifying = notifying;
+    }
+
+    /**
+     * Wait until the notifications of the changes so far have been delivered.
+     */
+    public void awaitNotified() throws Exception {
+        notifier.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    public int getListenerCount(String dataId, String group) {
+        List<Listener> list = listeners.get(key(dataId, group));
+        return list == null ? 0 : list.size();
+    }
+
+    public int getGetCount() {
+        return getCount.get();
+    }
+
+    public int getPublishCount() {
+        return publishCount.get();
+    }
+
+    private void notifyListeners(String dataId, String group) {
+        List<Listener> list = listeners.get(key(dataId, group));
+        if (list == null || !notifying) {
+            return;
+        }
+        for (Listener listener : list) {
+            Runnable notification = () -> listener.receiveConfigInfo(configs.get(key(dataId, group)));
+            if (listener.getExecutor() != null) {
+                notifier.execute(() -> listener.getExecutor().execute(notification));
+            } else {
+                notifier.execute(notification);
+            }
+        }
+    }
+
+    private static String key(String dataId, String group) {
+        return group + '/' + dataId;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link NacosPublishTracker}.
+ */
+public class NacosPublishTrackerTest {
+
+    private static final String DATA_ID = "app-flow-rules-dashboard";
+    private static final String GROUP = "sentinel";
+
+    private FakeConfigService configService;
+    private NacosPublishTracker tracker;
+
+    @Before
+    public void setUp() {
+        configService = new FakeConfigService();
+        tracker = new NacosPublishTracker(5000);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.close();
+        configService.shutDown();
+    }
+
+    @Test
+    public void testPublishConfirmedByListener() throws Exception {
+        PublishStatus first = tracker.publish(configService, DATA_ID, GROUP, "[1]");
+        assertEquals(PublishStatus.CONFIRMED, first.completion.get(5, TimeUnit.SECONDS).getState());
+        PublishStatus second = tracker.publish(configService, DATA_ID, GROUP, "[1,2]");
+        assertEquals(PublishStatus.CONFIRMED, second.completion.get(5, TimeUnit.SECONDS).getState());
+
+        assertSame(second, tracker.getLatest(DATA_ID, GROUP));
+        assertEquals(NacosPublishTracker.md5Hex("[1,2]"), second.getMd5());
+        assertTrue(second.getCompleteTime() >= second.getPublishTime());
+        // One listener for the data id, kept across publishes.
+        assertEquals(1, configService.getListenerCount(DATA_ID, GROUP));
+    }
+
+    @Test
+    public void testConcurrentPublishesAllSettled() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<PublishStatus>> futures = new ArrayList<>();
+            for (int i = 0; i < threads * 4; i++) {
+                String content = "[" + i + "]";
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return tracker.publish(configService, DATA_ID, GROUP, content);
+                }));
+            }
+            start.countDown();
+            long begin = System.currentTimeMillis();
+            int confirmed = 0;
+            for (Future<PublishStatus> future : futures) {
+                String state = future.get(5, TimeUnit.SECONDS).completion.get(5, TimeUnit.SECONDS).getState();
+                assertTrue(state, PublishStatus.CONFIRMED.equals(state) || PublishStatus.SUPERSEDED.equals(state));
+                if (PublishStatus.CONFIRMED.equals(state)) {
+                    confirmed++;
+                }
+            }
+            // None of them waits for the confirmation timeout.
+            assertTrue(System.currentTimeMillis() - begin < 4000);
+            assertTrue(confirmed > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnchangedContentConfirmedAtOnce() throws Exception {
+        configService.publishConfig(DATA_ID, GROUP, "[1]");
+        PublishStatus status = tracker.publish(configService, DATA_ID, GROUP, "[1]");
+        assertEquals(PublishStatus.CONFIRMED, status.getState());
+    }
+
+    @Test
+    public void testLostNotificationTimesOut() throws Exception {
+        tracker = new NacosPublishTracker(200);
+        configService.setNotifying(false);
+        PublishStatus status = tracker.publish(configService, DATA_ID, GROUP, "[1]");
+        assertEquals(PublishStatus.PENDING, status.getState());
+        assertEquals(PublishStatus.TIMEOUT, status.completion.get(5, TimeUnit.SECONDS).getState());
+    }
+
+    @Test
+    public void testAwaitWithDeadline() throws Exception {
+        configService.setNotifying(false);
+        PublishStatus status = tracker.publish(configService, DATA_ID, GROUP, "[1]");
+        assertSame(status, tracker.await(status, 0).getNow(null));
+        // Still pending at the deadline.
+        assertEquals(PublishStatus.PENDING, tracker.await(status, 100).get(5, TimeUnit.SECONDS).getState());
+
+        configService.setNotifying(true);
+        configService.publishConfig(DATA_ID, GROUP, "[2]");
+        configService.publishConfig(DATA_ID, GROUP, "[1]");
+        assertEquals(PublishStatus.CONFIRMED, tracker.await(status, 5000).get(5, TimeUnit.SECONDS).getState());
+    }
+}
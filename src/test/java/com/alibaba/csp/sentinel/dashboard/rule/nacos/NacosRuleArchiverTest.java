@@ -0,0 +1,151 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link NacosRuleArchiver}.
+ */
+public class NacosRuleArchiverTest {
+
+    private static final String GROUP = "sentinel";
+    private static final List<String> POSTFIXES = Arrays.asList(
+        "-flow-rules-dashboard", "-degrade-rules-dashboard", "-system-rules-dashboard");
+
+    private FakeConfigService source;
+    private FakeConfigService target;
+    private NacosRuleCache cache;
+    private NacosPublishTracker tracker;
+    private NacosRuleArchiver archiver;
+
+    @Before
+    public void setUp() {
+        source = new FakeConfigService();
+        target = new FakeConfigService();
+        cache = new NacosRuleCache(true, 60_000);
+        tracker = new NacosPublishTracker(5000);
+        archiver = new NacosRuleArchiver(cache, tracker, new NacosRuleCodec(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        archiver.close();
+        tracker.close();
+        cache.close();
+        source.shutDown();
+        target.shutDown();
+    }
+
+    @Test
+    public void testExportThenImport() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            source.publishConfig("app" + i + "-flow-rules-dashboard", GROUP, "[{\"id\":" + i + "}]");
+            source.publishConfig("app" + i + "-degrade-rules-dashboard", GROUP, "[]");
+        }
+        source.publishConfig("app0-system-rules-dashboard", "other-group", "[{\"id\":1}]");
+        List<String> apps = Arrays.asList("app0", "app1", "app2", "app3", "app4", "app5", "app6", "app7", "app8",
+            "app9", "app-without-rules");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<RuleArchiveResult> exported = archiver.export(source, GROUP, apps, POSTFIXES, out);
+        assertEquals(20, exported.size());
+        for (RuleArchiveResult result : exported) {
+            assertTrue(result.isSuccess());
+        }
+        Map<String, String> entries = unzip(out.toByteArray());
+        assertEquals(21, entries.size());
+        assertEquals("[{\"id\":3}]", entries.get("app3-flow-rules-dashboard.json"));
+        JsonNode report = new NacosRuleCodec().readTree(entries.get(NacosRuleArchiver.REPORT_ENTRY));
+        assertEquals(apps, StreamSupport.stream(report.get("apps").spliterator(), false)
+            .map(JsonNode::asText).collect(Collectors.toList()));
+        assertEquals(20, report.get("dataIds").size());
+        assertEquals("app0-degrade-rules-dashboard", report.get("dataIds").get(0).get("dataId").asText());
+
+        List<RuleArchiveResult> imported = archiver.importArchive(target, GROUP, POSTFIXES,
+            new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(20, imported.size());
+        for (RuleArchiveResult result : imported) {
+            assertTrue(result.getMsg(), result.isSuccess());
+            assertEquals(source.getConfig(result.getDataId(), GROUP, 1000),
+                target.getConfig(result.getDataId(), GROUP, 1000));
+        }
+    }
+
+    @Test
+    public void testImportReportsEveryEntry() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            put(zip, "backup/app-flow-rules-dashboard.json", "[{\"id\":1}]");
+            put(zip, "app-cluster-map.json", "[]");
+            put(zip, "app-degrade-rules-dashboard.json", "{\"id\":1}");
+            put(zip, "app-system-rules-dashboard.json", "[{");
+        }
+
+        List<RuleArchiveResult> results = archiver.importArchive(target, GROUP, POSTFIXES,
+            new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(4, results.size());
+        assertEquals("app-flow-rules-dashboard", results.get(0).getDataId());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("[{\"id\":1}]", target.getConfig("app-flow-rules-dashboard", GROUP, 1000));
+        for (RuleArchiveResult result : results.subList(1, 4)) {
+            assertFalse(result.getDataId(), result.isSuccess());
+            assertNull(target.getConfig(result.getDataId(), GROUP, 1000));
+        }
+        assertEquals(1, target.getPublishCount());
+    }
+
+    private static void put(ZipOutputStream zip, String name, String content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static Map<String, String> unzip(byte[] bytes) throws Exception {
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = zip.read(buffer)) > 0) {
+                    content.write(buffer, 0, n);
+                }
+                entries.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}
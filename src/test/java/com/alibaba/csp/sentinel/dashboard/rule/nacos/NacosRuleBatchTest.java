@@ -0,0 +1,354 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import com.alibaba.csp.sentinel.dashboard.controller.BaseSyncDataController;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.RuleEntity;
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.RuleBatchReqVo;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRuleProvider;
+import com.alibaba.csp.sentinel.dashboard.rule.DynamicRulePublisher;
+import com.alibaba.csp.sentinel.slots.block.Rule;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link BaseSyncDataController} batches published through {@link NacosRuleUpdater},
+ * while the rules are also changed in Nacos from elsewhere.
+ */
+public class NacosRuleBatchTest {
+
+    private static final String APP = "app";
+    private static final String DATA_ID = "app-flow-rules-dashboard";
+    private static final String GROUP = "sentinel";
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 5;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private FakeConfigService configService;
+    private NacosRuleCache cache;
+    private NacosPublishTracker tracker;
+    private NacosRuleUpdater updater;
+    private BatchController controller;
+
+    @Before
+    public void setUp() {
+        configService = new FakeConfigService();
+        cache = new NacosRuleCache(true, 60_000);
+        tracker = new NacosPublishTracker(5000);
+        // Every change from elsewhere between a read and its publish costs an attempt.
+        updater = new NacosRuleUpdater(cache, tracker, 1000);
+        controller = new BatchController();
+    }
+
+    @After
+    public void tearDown() {
+        tracker.close();
+        cache.close();
+        configService.shutDown();
+    }
+
+    @Test
+    public void testConcurrentBatchesLoseNoChange() throws Exception {
+        // Every round of every thread updates one rule and deletes another.
+        List<BatchRule> seeds = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            for (int r = 0; r < ROUNDS; r++) {
+                seeds.add(newRule(updatedId(t, r), "upd-" + t + "-" + r, 0));
+                seeds.add(newRule(updatedId(t, r) + 1, "del-" + t + "-" + r, 0));
+            }
+        }
+        long externalId = THREADS * ROUNDS * 2 + 1;
+        seeds.add(newRule(externalId, "external", 0));
+        configService.publishConfig(DATA_ID, GROUP, mapper.writeValueAsString(seeds));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger externalChanges = new AtomicInteger();
+        try {
+            // Another dashboard keeps changing a rule of its own meanwhile.
+            Future<?> external = executor.submit(() -> {
+                start.await();
+                while (!done.get()) {
+                    configService.changeConfig(DATA_ID, GROUP, this::bumpExternalRule);
+                    externalChanges.incrementAndGet();
+                    Thread.sleep(1);
+                }
+                return null;
+            });
+            List<Future<?>> batches = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                batches.add(executor.submit(() -> {
+                    start.await();
+                    for (int r = 0; r < ROUNDS; r++) {
+                        RuleBatchReqVo<BatchRule> batch = newBatch(
+                            newRule(null, "add-" + thread + "-" + r + "-0", 1),
+                            newRule(null, "add-" + thread + "-" + r + "-1", 1));
+                        BatchRule update = newRule(updatedId(thread, r), "upd-" + thread + "-" + r, 100 + r);
+                        update.setGmtCreate(null);
+                        batch.setUpdates(Collections.singletonList(update));
+                        batch.setDeletes(Collections.singletonList(updatedId(thread, r) + 1));
+                        controller.apply(batch);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> batch : batches) {
+                batch.get(30, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            external.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(externalChanges.get() > 0);
+
+        List<BatchRule> rules = readRules();
+        assertEquals(THREADS * ROUNDS * 3 + 1, rules.size());
+        Set<Long> ids = new HashSet<>();
+        int added = 0;
+        for (BatchRule rule : rules) {
+            assertTrue("duplicate id " + rule.getId(), ids.add(rule.getId()));
+            String resource = rule.getResource();
+            assertFalse(resource, resource.startsWith("del-"));
+            if (resource.startsWith("add-")) {
+                added++;
+                // Ids are given after the largest one, never reusing the ids of deleted rules.
+                assertTrue(rule.getId() > externalId);
+                assertEquals(APP, rule.getApp());
+            } else if (resource.startsWith("upd-")) {
+                int round = Integer.parseInt(resource.substring(resource.lastIndexOf('-') + 1));
+                assertEquals(100 + round, rule.getCount());
+                // Merged from the replaced rule.
+                assertEquals(rule.getId() * 1000, rule.getGmtCreate().getTime());
+            } else {
+                assertEquals("external", resource);
+                assertEquals(externalId, (long) rule.getId());
+            }
+        }
+        assertEquals(THREADS * ROUNDS * 2, added);
+    }
+
+    @Test
+    public void testBatchRejectedAsAWhole() throws Exception {
+        configService.publishConfig(DATA_ID, GROUP, mapper.writeValueAsString(Collections.singletonList(
+            newRule(1L, "a", 0))));
+
+        RuleBatchReqVo<BatchRule> missing = newBatch(newRule(null, "b", 1));
+        missing.setUpdates(Collections.singletonList(newRule(42L, "c", 1)));
+        try {
+            controller.apply(missing);
+            fail("expected the update of a missing rule to be rejected");
+        } catch (InvalidParameterException e) {
+            assertEquals("id 42 does not exist", e.getMessage());
+        }
+
+        RuleBatchReqVo<BatchRule> invalid = newBatch();
+        invalid.setUpdates(Collections.singletonList(newRule(1L, "a", -1)));
+        try {
+            controller.apply(invalid);
+            fail("expected the invalid update to be rejected");
+        } catch (InvalidParameterException e) {
+            assertEquals("count must be >= 0", e.getMessage());
+        }
+
+        List<BatchRule> rules = readRules();
+        assertEquals(1, rules.size());
+        assertEquals("a", rules.get(0).getResource());
+        assertEquals(0, rules.get(0).getCount());
+        assertEquals(1, configService.getPublishCount());
+    }
+
+    private static long updatedId(int thread, int round) {
+        return 1 + (thread * ROUNDS + round) * 2L;
+    }
+
+    private String bumpExternalRule(String content) {
+        try {
+            List<Map<String, Object>> rules = mapper.readValue(content,
+                new TypeReference<List<Map<String, Object>>>() {});
+            for (Map<String, Object> rule : rules) {
+                if ("external".equals(rule.get("resource"))) {
+                    rule.put("count", ((Number) rule.get("count")).intValue() + 1);
+                }
+            }
+            return mapper.writeValueAsString(rules);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<BatchRule> readRules() throws Exception {
+        return mapper.readValue(configService.getConfig(DATA_ID, GROUP, 1000),
+            new TypeReference<List<BatchRule>>() {});
+    }
+
+    private static RuleBatchReqVo<BatchRule> newBatch(BatchRule... adds) {
+        RuleBatchReqVo<BatchRule> batch = new RuleBatchReqVo<>();
+        batch.setApp(APP);
+        List<BatchRule> list = new ArrayList<>();
+        Collections.addAll(list, adds);
+        batch.setAdds(list);
+        return batch;
+    }
+
+    private static BatchRule newRule(Long id, String resource, int count) {
+        BatchRule rule = new BatchRule();
+        rule.setId(id);
+        rule.setApp(APP);
+        rule.setResource(resource);
+        rule.setCount(count);
+        rule.setGmtCreate(new Date(id == null ? 0 : id * 1000));
+        return rule;
+    }
+
+    private final class BatchController extends BaseSyncDataController<BatchRule> {
+
+        private final DynamicRuleProvider<List<BatchRule>> provider =
+            app -> cache.getRules(configService, DATA_ID, GROUP, BatchRule.class);
+
+        private final DynamicRulePublisher<List<BatchRule>> publisher = new DynamicRulePublisher<List<BatchRule>>() {
+            @Override
+            public void publish(String app, List<BatchRule> rules) {
+                throw new UnsupportedOperationException("only updates are published");
+            }
+
+            @Override
+            public void update(String app, DynamicRuleProvider<List<BatchRule>> provider,
+                               UnaryOperator<List<BatchRule>> change) throws Exception {
+                updater.update(configService, DATA_ID, GROUP, BatchRule.class, change);
+            }
+        };
+
+        @Override
+        protected void format(BatchRule entity, String app) {
+            entity.setApp(app);
+        }
+
+        @Override
+        protected void merge(BatchRule entity, BatchRule oldEntity) {
+            entity.setGmtCreate(oldEntity.getGmtCreate());
+        }
+
+        List<BatchRule> apply(RuleBatchReqVo<BatchRule> batch) throws Exception {
+            return batch(publisher, provider, batch,
+                (entity, oldEntity) -> entity.getCount() < 0 ? Result.ofFail(-1, "count must be >= 0") : null);
+        }
+    }
+
+    public static class BatchRule implements RuleEntity {
+        private Long id;
+        private String app;
+        private String ip;
+        private Integer port;
+        private String resource;
+        private int count;
+        private Date gmtCreate;
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getApp() {
+            return app;
+        }
+
+        public void setApp(String app) {
+            this.app = app;
+        }
+
+        @Override
+        public String getIp() {
+            return ip;
+        }
+
+        public void setIp(String ip) {
+            this.ip = ip;
+        }
+
+        @Override
+        public Integer getPort() {
+            return port;
+        }
+
+        public void setPort(Integer port) {
+            this.port = port;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public void setResource(String resource) {
+            this.resource = resource;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Date getGmtCreate() {
+            return gmtCreate;
+        }
+
+        public void setGmtCreate(Date gmtCreate) {
+            this.gmtCreate = gmtCreate;
+        }
+
+        @Override
+        public Rule toRule() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link NacosRuleCache}.
+ */
+public class NacosRuleCacheTest {
+
+    private static final String DATA_ID = "app-flow-rules-dashboard";
+    private static final String GROUP = "sentinel";
+
+    private FakeConfigService configService;
+    private NacosRuleCache cache;
+
+    @Before
+    public void setUp() {
+        configService = new FakeConfigService();
+        configService.publishConfig(DATA_ID, GROUP, "[{\"id\":1,\"resource\":\"a\"}]");
+        cache = new NacosRuleCache(true, 60_000);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+        configService.shutDown();
+    }
+
+    @Test
+    public void testReadsServedFromMemory() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            List<TestRule> rules = cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+            assertEquals(1, rules.size());
+            assertEquals("a", rules.get(0).getResource());
+        }
+        assertEquals(1, configService.getGetCount());
+        assertEquals(1, configService.getListenerCount(DATA_ID, GROUP));
+
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(9L, stats.get("hits"));
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(1, stats.get("entries"));
+    }
+
+    @Test
+    public void testEveryReadGetsItsOwnEntities() throws Exception {
+        List<TestRule> rules = cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        rules.get(0).setResource("changed");
+        rules.clear();
+
+        List<TestRule> again = cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        assertEquals(1, again.size());
+        assertEquals("a", again.get(0).getResource());
+    }
+
+    @Test
+    public void testListenerKeepsEntryCurrent() throws Exception {
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        configService.changeConfig(DATA_ID, GROUP, "[{\"id\":1,\"resource\":\"a\"},{\"id\":2,\"resource\":\"b\"}]");
+        configService.awaitNotified();
+
+        assertEquals(2, cache.getRules(configService, DATA_ID, GROUP, TestRule.class).size());
+        assertEquals(1, configService.getGetCount());
+        assertEquals(1L, cache.getStats().get("notifications"));
+
+        configService.removeConfig(DATA_ID, GROUP);
+        configService.awaitNotified();
+        assertTrue(cache.getRules(configService, DATA_ID, GROUP, TestRule.class).isEmpty());
+        assertEquals(1, configService.getGetCount());
+    }
+
+    @Test
+    public void testPublishedContentWrittenThrough() throws Exception {
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        String content = "[{\"id\":3,\"resource\":\"c\"}]";
+        cache.put(DATA_ID, GROUP, content);
+
+        List<TestRule> rules = cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        assertEquals(Long.valueOf(3), rules.get(0).getId());
+        assertEquals(1, configService.getGetCount());
+    }
+
+    @Test
+    public void testExpiredEntryReadAgain() throws Exception {
+        cache = new NacosRuleCache(true, -1);
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        assertEquals(2, configService.getGetCount());
+        assertEquals(1L, cache.getStats().get("expired"));
+        // The entry keeps its listener rather than adding another.
+        assertEquals(1, configService.getListenerCount(DATA_ID, GROUP));
+    }
+
+    @Test
+    public void testInvalidNotificationDropsEntry() throws Exception {
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        configService.changeConfig(DATA_ID, GROUP, "not json");
+        configService.awaitNotified();
+        try {
+            cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+            fail("invalid rules should be reported");
+        } catch (IllegalArgumentException e) {
+            assertEquals(2, configService.getGetCount());
+        }
+    }
+
+    @Test
+    public void testDisabledCacheReadsNacos() throws Exception {
+        cache = new NacosRuleCache(false, 60_000);
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        cache.getRules(configService, DATA_ID, GROUP, TestRule.class);
+        assertEquals(2, configService.getGetCount());
+        assertEquals(0, configService.getListenerCount(DATA_ID, GROUP));
+    }
+
+    public static class TestRule {
+        private Long id;
+        private String resource;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public void setResource(String resource) {
+            this.resource = resource;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.rule.FlowRuleEntity;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares encoding and decoding flow rule lists with an {@link ObjectMapper} built per call and
+ * pretty-printed output, as the Nacos layer used to, with {@link NacosRuleCodec}. Run with
+ * {@code -prof gc} to compare the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NacosRuleCodecBenchmark {
+
+    @Param({"100", "10000"})
+    private int rules;
+
+    private List<FlowRuleEntity> entities;
+    private String prettyContent;
+    private String compactContent;
+    private NacosRuleCodec codec;
+
+    @Setup
+    public void setUp() throws Exception {
+        entities = new ArrayList<>(rules);
+        Date date = new Date(1600000000000L);
+        for (int i = 1; i <= rules; i++) {
+            FlowRuleEntity entity = new FlowRuleEntity();
+            entity.setId((long) i);
+            entity.setApp("sentinel-demo");
+            entity.setIp("10.0.0.1");
+            entity.setPort(8719);
+            entity.setLimitApp("default");
+            entity.setResource("com.alibaba.csp.sentinel.demo.DemoService:sayHello" + i + "(java.lang.String)");
+            entity.setGrade(1);
+            entity.setCount(100.0 + i);
+            entity.setStrategy(0);
+            entity.setControlBehavior(0);
+            entity.setGmtCreate(date);
+            entity.setGmtModified(date);
+            entities.add(entity);
+        }
+        codec = new NacosRuleCodec();
+        compactContent = codec.encode(entities);
+        prettyContent = new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(entities);
+    }
+
+    @Benchmark
+    public String encodePerCallMapperPretty() throws Exception {
+        return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(entities);
+    }
+
+    @Benchmark
+    public String encodeCodecCompact() {
+        return codec.encode(entities);
+    }
+
+    @Benchmark
+    public List<FlowRuleEntity> decodePerCallMapperPretty() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        JavaType type = mapper.getTypeFactory().constructCollectionType(ArrayList.class, FlowRuleEntity.class);
+        return mapper.readValue(prettyContent, type);
+    }
+
+    @Benchmark
+    public List<FlowRuleEntity> decodeCodecCompact() {
+        return codec.decode(compactContent, FlowRuleEntity.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(NacosRuleCodecBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
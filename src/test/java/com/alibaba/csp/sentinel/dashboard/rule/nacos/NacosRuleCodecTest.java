@@ -0,0 +1,86 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosRuleCacheTest.TestRule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link NacosRuleCodec}.
+ */
+public class NacosRuleCodecTest {
+
+    @Test
+    public void testCompactUnlessPretty() {
+        List<TestRule> rules = rules(2);
+        assertEquals("[{\"id\":1,\"resource\":\"r1\"},{\"id\":2,\"resource\":\"r2\"}]",
+            new NacosRuleCodec().encode(rules));
+        String pretty = new NacosRuleCodec(true).encode(rules);
+        assertTrue(pretty.contains("\n"));
+        assertEquals(2, new NacosRuleCodec().decode(pretty, TestRule.class).size());
+    }
+
+    @Test
+    public void testDecodeRoundTrip() throws Exception {
+        NacosRuleCodec codec = new NacosRuleCodec();
+        String content = codec.encode(rules(1000));
+
+        List<TestRule> fromString = codec.decode(content, TestRule.class);
+        List<TestRule> fromStream = codec.decode(
+            new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), TestRule.class);
+        List<TestRule> fromTree = codec.decode(codec.readTree(content), TestRule.class);
+        for (List<TestRule> decoded : Arrays.asList(fromString, fromStream, fromTree)) {
+            assertEquals(1000, decoded.size());
+            assertEquals(Long.valueOf(1000), decoded.get(999).getId());
+            assertEquals("r1000", decoded.get(999).getResource());
+        }
+        // Every tree decode binds new entities.
+        assertNotSame(fromTree.get(0), codec.decode(codec.readTree(content), TestRule.class).get(0));
+    }
+
+    @Test
+    public void testDecodeEmptyContent() {
+        NacosRuleCodec codec = new NacosRuleCodec();
+        assertTrue(codec.decode((String) null, TestRule.class).isEmpty());
+        assertTrue(codec.decode(" ", TestRule.class).isEmpty());
+        assertTrue(codec.decode("null", TestRule.class).isEmpty());
+        assertTrue(codec.decode("[]", TestRule.class).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeRejectsNonArray() {
+        new NacosRuleCodec().decode("{\"id\":1}", TestRule.class);
+    }
+
+    private static List<TestRule> rules(int count) {
+        List<TestRule> rules = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            TestRule rule = new TestRule();
+            rule.setId((long) i);
+            rule.setResource("r" + i);
+            rules.add(rule);
+        }
+        return rules;
+    }
+}
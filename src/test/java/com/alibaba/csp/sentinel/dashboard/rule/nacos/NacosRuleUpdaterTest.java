@@ -0,0 +1,168 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.rule.nacos;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alibaba.csp.sentinel.dashboard.rule.nacos.NacosRuleCacheTest.TestRule;
+import com.alibaba.nacos.api.exception.NacosException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link NacosRuleUpdater}.
+ */
+public class NacosRuleUpdaterTest {
+
+    private static final String DATA_ID = "app-flow-rules-dashboard";
+    private static final String GROUP = "sentinel";
+
+    private FakeConfigService configService;
+    private NacosRuleCache cache;
+    private NacosPublishTracker tracker;
+    private NacosRuleUpdater updater;
+
+    @Before
+    public void setUp() {
+        configService = new FakeConfigService();
+        cache = new NacosRuleCache(true, 60_000);
+        tracker = new NacosPublishTracker(5000);
+        updater = new NacosRuleUpdater(cache, tracker, 3);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.close();
+        cache.close();
+        configService.shutDown();
+    }
+
+    @Test
+    public void testConcurrentBatchesKeepEveryChange() throws Exception {
+        int threads = 8;
+        int batches = 5;
+        int rulesPerBatch = 3;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<PublishStatus>> futures = new ArrayList<>();
+            for (int i = 0; i < threads * batches; i++) {
+                String resource = "r" + i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return updater.update(configService, DATA_ID, GROUP, TestRule.class,
+                        rules -> addRules(rules, resource, rulesPerBatch));
+                }));
+            }
+            start.countDown();
+            for (Future<PublishStatus> future : futures) {
+                assertNotNull(future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<TestRule> rules = readRules();
+        assertEquals(threads * batches * rulesPerBatch, rules.size());
+        Set<Long> ids = new HashSet<>();
+        Set<String> resources = new HashSet<>();
+        for (TestRule rule : rules) {
+            ids.add(rule.getId());
+            resources.add(rule.getResource());
+        }
+        assertEquals(rules.size(), ids.size());
+        assertEquals(rules.size(), resources.size());
+        // Rules read afterwards come from the cache and match Nacos.
+        assertEquals(rules.size(), cache.getRules(configService, DATA_ID, GROUP, TestRule.class).size());
+    }
+
+    @Test
+    public void testRetriedWhenChangedElsewhere() throws Exception {
+        configService.publishConfig(DATA_ID, GROUP, "[{\"id\":1,\"resource\":\"a\"}]");
+        AtomicInteger calls = new AtomicInteger();
+        PublishStatus status = updater.update(configService, DATA_ID, GROUP, TestRule.class, rules -> {
+            if (calls.incrementAndGet() == 1) {
+                // Another dashboard adds a rule between the read and the publish.
+                configService.changeConfig(DATA_ID, GROUP,
+                    "[{\"id\":1,\"resource\":\"a\"},{\"id\":2,\"resource\":\"b\"}]");
+            }
+            return addRules(rules, "c", 1);
+        });
+
+        assertNotNull(status);
+        assertEquals(2, calls.get());
+        List<TestRule> rules = readRules();
+        assertEquals(3, rules.size());
+        assertEquals("b", rules.get(1).getResource());
+        assertEquals(Long.valueOf(3), rules.get(2).getId());
+        assertEquals("c", rules.get(2).getResource());
+    }
+
+    @Test
+    public void testConflictAfterMaxAttempts() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            updater.update(configService, DATA_ID, GROUP, TestRule.class, rules -> {
+                configService.changeConfig(DATA_ID, GROUP, "[{\"id\":" + calls.incrementAndGet() + "}]");
+                return addRules(rules, "a", 1);
+            });
+            fail("expected a conflict");
+        } catch (NacosException e) {
+            assertEquals(NacosException.CONFLICT, e.getErrCode());
+        }
+        assertEquals(3, calls.get());
+        assertEquals("[{\"id\":3}]", configService.getConfig(DATA_ID, GROUP, 1000));
+    }
+
+    @Test
+    public void testNothingPublishedWithoutChange() throws Exception {
+        assertNull(updater.update(configService, DATA_ID, GROUP, TestRule.class, rules -> null));
+        assertEquals(0, configService.getPublishCount());
+    }
+
+    private static List<TestRule> addRules(List<TestRule> rules, String resource, int count) {
+        long nextId = 1;
+        for (TestRule rule : rules) {
+            nextId = Math.max(nextId, rule.getId() + 1);
+        }
+        for (int i = 0; i < count; i++) {
+            TestRule rule = new TestRule();
+            rule.setId(nextId++);
+            rule.setResource(count == 1 ? resource : resource + "-" + i);
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    private List<TestRule> readRules() throws Exception {
+        String content = configService.getConfig(DATA_ID, GROUP, 1000);
+        return new ObjectMapper().readValue(content,
+            new ObjectMapper().getTypeFactory().constructCollectionType(List.class, TestRule.class));
+    }
+}